@@ -1,8 +1,31 @@
 package at.ac.tuwien.ifs.sge.agent;
 
+import at.ac.tuwien.ifs.sge.agent.util.BFS;
 import at.ac.tuwien.ifs.sge.agent.util.CommandQueue;
-import at.ac.tuwien.ifs.sge.agent.util.Heuristics;
+import at.ac.tuwien.ifs.sge.agent.util.CpuBudget;
+import at.ac.tuwien.ifs.sge.agent.util.DecisionWatchdog;
+import at.ac.tuwien.ifs.sge.agent.util.GameMirror;
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicWeights;
+import at.ac.tuwien.ifs.sge.agent.util.HierarchicalPathfinder;
+import at.ac.tuwien.ifs.sge.agent.util.InfluenceMap;
+import at.ac.tuwien.ifs.sge.agent.util.InformationSets;
+import at.ac.tuwien.ifs.sge.agent.util.Jfr.DecisionEvent;
+import at.ac.tuwien.ifs.sge.agent.util.Jfr.GameCopyEvent;
+import at.ac.tuwien.ifs.sge.agent.util.LatencyHistogram;
 import at.ac.tuwien.ifs.sge.agent.util.MCTS;
+import at.ac.tuwien.ifs.sge.agent.util.Opening.OpeningBook;
+import at.ac.tuwien.ifs.sge.agent.util.Pathfinder;
+import at.ac.tuwien.ifs.sge.agent.util.SearchContext;
+import at.ac.tuwien.ifs.sge.agent.util.SearchPool;
+import at.ac.tuwien.ifs.sge.agent.util.TerrainIndex;
+import at.ac.tuwien.ifs.sge.agent.util.UnitIndex;
+import at.ac.tuwien.ifs.sge.agent.util.ValueFunction;
+import at.ac.tuwien.ifs.sge.agent.util.Rollout.RolloutCoordinator;
+import at.ac.tuwien.ifs.sge.agent.util.Snapshot.SnapshotLog;
+import at.ac.tuwien.ifs.sge.agent.util.TreeExport.TreeExport;
+import at.ac.tuwien.ifs.sge.agent.util.UnitRole.UnitOrder;
+import at.ac.tuwien.ifs.sge.agent.util.UnitRole.UnitOrderBook;
+import at.ac.tuwien.ifs.sge.agent.util.WarmUp;
 import at.ac.tuwien.ifs.sge.core.agent.AbstractRealTimeGameAgent;
 import at.ac.tuwien.ifs.sge.core.engine.communication.ActionResult;
 import at.ac.tuwien.ifs.sge.core.engine.communication.events.GameActionEvent;
@@ -11,44 +34,304 @@ import at.ac.tuwien.ifs.sge.core.game.Game;
 import at.ac.tuwien.ifs.sge.core.util.tree.DoubleLinkedTree;
 import at.ac.tuwien.ifs.sge.core.util.tree.Tree;
 import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.MovementStartOrder;
 import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
 import at.ac.tuwien.ifs.sge.game.empire.map.Position;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 public class Imperion extends AbstractRealTimeGameAgent<Empire, EmpireEvent> {
     private Future<?> thread;
 
     private int playerId;
-    private static MCTS treeSearch;
+    private MCTS treeSearch;
     private static final int DECISION_PACE = 300;
-    public static Logger logger;
+
+    // MCTS iterations run on this pool, which is shared by all agents hosted by the same ImperionRuntime
+    private final SearchPool searchPool;
+    private final boolean ownsSearchPool;
+
+    // CPU time the search of one decision may use, also the budget of each agent hosted by an ImperionRuntime
+    public static final long CPU_BUDGET_MS = Long.getLong("imperion.cpuBudgetMs", DECISION_PACE);
+    private final CpuBudget cpuBudget;
+
+    // If set, every search draws its random choices from a stream derived from this seed and the decision
+    private static final Long SEARCH_SEED = Long.getLong("imperion.seed");
+    // If set, every decision runs this many iterations instead of searching until the deadline or the CPU budget is reached
+    // Together with imperion.seed a replayed state gives the same tree, so iterations and CPU time can be compared exactly
+    private static final Integer SEARCH_ITERATIONS = Integer.getInteger("imperion.iterations");
+
+    // Number of determinizations of the hidden terrain, which are searched in parallel and combined per information set
+    // With 1 the search uses the known terrain only and treats undiscovered tiles as passable
+    private static final int DETERMINIZATIONS = Math.max(1, Integer.getInteger("imperion.determinizations", 1));
+
+    // If set (comma-separated addresses of RolloutWorkers), rollouts are run by worker processes on this machine
+    private static final String ROLLOUT_WORKERS = System.getProperty("imperion.rolloutWorkers");
+    private static final int MAX_ROLLOUTS_IN_FLIGHT_PER_WORKER = 4;
+    private RolloutCoordinator<Tree<ImperionGameNode>> rolloutCoordinator;
+
+    // Use the incrementally updated mirror instead of copying the server game every decision
+    private static final boolean USE_GAME_MIRROR = Boolean.parseBoolean(System.getProperty("imperion.mirror", "true"));
+    private static final int MIRROR_DRIFT_CHECK_INTERVAL = 20;
+    private final GameMirror gameMirror;
+
+    // Dense indices of all units of the match, used by the encoded actions of the command queues
+    private final UnitIndex unitIndex = new UnitIndex();
+
+    // Orders of our units, which are kept across decisions
+    private final UnitOrderBook orderBook;
+
+    // Static terrain and connected components, built at the first decision and updated as the fog lifts
+    private TerrainIndex terrainIndex;
+
+    // Maps with at least this many tiles use hierarchical path-finding, smaller ones plain BFS
+    private static final int HIERARCHICAL_PATHFINDER_MIN_TILES = 64 * 64;
+    private Pathfinder pathfinder;
+
+    // Threat, control and heuristic totals of all players, built at the first decision and updated incrementally
+    private InfluenceMap influenceMap;
+
+    // Actions are sent by the watchdog if a decision takes longer than DECISION_PACE + DECISION_DEADLINE_GRACE
+    private static final int DECISION_DEADLINE_GRACE = 50;
+    private final DecisionWatchdog watchdog;
+    private final List<Runnable> shutdownListeners = new CopyOnWriteArrayList<>();
+
+    private final LatencyHistogram decisionLatency = new LatencyHistogram("decisionLatency");
+    private final LatencyHistogram iterationLatency = new LatencyHistogram("iterationLatency");
+    private final LatencyHistogram sendToConfirmLatency = new LatencyHistogram("sendToConfirmLatency");
+
+    // Time in ms when an action was sent, keyed by its string representation since the server returns other instances
+    private final Map<String, Long> unconfirmedActions = new ConcurrentHashMap<>();
+    private static final int MAX_UNCONFIRMED_ACTIONS = 1000;
+
+    // If set, the root state of every decision is appended to this file
+    private static final String SNAPSHOT_LOG_PATH = System.getProperty("imperion.snapshotLog");
+    private SnapshotLog snapshotLog;
+    private int decision = 0;
+
+    // If set, the search tree of every decision is streamed to this file
+    private static final String TREE_EXPORT_PATH = System.getProperty("imperion.treeExport");
+    private TreeExport treeExport;
+
+    // If set, the first decisions of a match are read from this opening book until the match goes out of book
+    private static final String OPENING_BOOK_PATH = System.getProperty("imperion.openingBook");
+    private OpeningBook openingBook;
+    private long openingBookMapKey;
+    private int bookDecisions = 0;
+
+    // If set, MCTS iterations are run on this recorded game until startPlaying() is called
+    private static final String WARMUP_FIXTURE_PATH = System.getProperty("imperion.warmupFixture");
+    // If set, the root state of the first decision is recorded as fixture for later warm-ups
+    private static final String RECORD_FIXTURE_PATH = System.getProperty("imperion.recordFixture");
+    private WarmUp warmUp;
+
+    // Weights of the heuristic, loaded from the file written by the WeightTuner (system property imperion.weights)
+    private final HeuristicWeights heuristicWeights;
+
+    // Predicts the end of cut off rollouts, loaded from the file written by the ValueFunctionTrainer (system property imperion.valueFunction)
+    private final ValueFunction valueFunction;
+
+    // Iterations of the first searched decisions are reported to measure the effect of the warm-up
+    private static final int EARLY_GAME_DECISIONS = 10;
+    private int earlyGameIterations = 0;
+    private int earlyGameDecisions = 0;
+
+    // Totals over all decisions, to compare iterations and depth of the opponent models (system property imperion.opponentModel)
+    private int searchedDecisions = 0;
+    private long totalIterations = 0;
+    private long totalTreeDepth = 0;
+    private long totalDecisionDepth = 0;
 
     public static void main(String[] args) {
         var playerId = getPlayerIdFromArgs(args);
         var playerName = getPlayerNameFromArgs(args);
         var agent = new Imperion(playerId, playerName);
+        agent.startWarmUp();
         agent.start();
     }
 
 
     public Imperion(int playerId, String playerName) {
+        this(playerId, playerName, new SearchPool(DETERMINIZATIONS), true, new CpuBudget(CPU_BUDGET_MS * DETERMINIZATIONS), null);
+    }
+
+    /**
+     * Creates an agent which searches on a pool shared with other agents
+     */
+    public Imperion(int playerId, String playerName, SearchPool searchPool, CpuBudget cpuBudget) {
+        this(playerId, playerName, searchPool, false, cpuBudget, null);
+    }
+
+    private Imperion(int playerId, String playerName, SearchPool searchPool, boolean ownsSearchPool, CpuBudget cpuBudget, HeuristicWeights heuristicWeights) {
         super(Empire.class,playerId, playerName, 0);
         this.playerId = playerId;
-        logger = log;
+        this.searchPool = searchPool;
+        this.ownsSearchPool = ownsSearchPool;
+        this.cpuBudget = cpuBudget;
+        this.gameMirror = new GameMirror(MIRROR_DRIFT_CHECK_INTERVAL, log);
+        this.orderBook = new UnitOrderBook(playerId, log);
+        this.watchdog = new DecisionWatchdog(node -> sendActions(node.getActionsTaken()), log);
+        this.heuristicWeights = heuristicWeights != null ? heuristicWeights : loadHeuristicWeights();
+        this.valueFunction = loadValueFunction();
+    }
+
+    private HeuristicWeights loadHeuristicWeights() {
+        try {
+            var weights = HeuristicWeights.loadConfigured();
+            log.info("Heuristic weights " + weights);
+            return weights;
+        } catch (Exception e) {
+            log.info("Could not load heuristic weights " + System.getProperty(HeuristicWeights.PATH_PROPERTY) + ", using defaults");
+            log.printStackTrace(e);
+            return HeuristicWeights.DEFAULT;
+        }
+    }
+
+    /**
+     * Returns the configured value function, or null if none is configured or it was fitted to other heuristic weights
+     */
+    private ValueFunction loadValueFunction() {
+        try {
+            var valueFunction = ValueFunction.loadConfigured();
+            if (valueFunction == null) return null;
+            if (!valueFunction.getHeuristicWeights().equals(heuristicWeights)) {
+                log.info("Value function was fitted to heuristic weights " + valueFunction.getHeuristicWeights() + ", rollouts are not cut off");
+                return null;
+            }
+            log.info("Value function " + valueFunction);
+            return valueFunction;
+        } catch (Exception e) {
+            log.info("Could not load value function " + System.getProperty(ValueFunction.PATH_PROPERTY) + ", rollouts are not cut off");
+            log.printStackTrace(e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates an agent from the arguments the engine passes to main()
+     */
+    public static Imperion fromArgs(String[] args, SearchPool searchPool, CpuBudget cpuBudget) {
+        return new Imperion(getPlayerIdFromArgs(args), getPlayerNameFromArgs(args), searchPool, cpuBudget);
+    }
+
+    /**
+     * Starts warming up the JIT on the recorded fixture, if one is configured
+     */
+    public void startWarmUp() {
+        if(WARMUP_FIXTURE_PATH == null) return;
+
+        try {
+            warmUp = new WarmUp(this, WarmUp.loadFixture(Path.of(WARMUP_FIXTURE_PATH)), DECISION_PACE);
+            warmUp.start();
+            log.info("start warm-up");
+        } catch (Exception e) {
+            log.info("Could not load warm-up fixture " + WARMUP_FIXTURE_PATH);
+            log.printStackTrace(e);
+        }
     }
 
     @Override
     public void shutdown() {
         log.info("shutdown");
         thread.cancel(true);
+        watchdog.shutdown();
+
+        log.info(watchdog);
+        log.info(decisionLatency);
+        log.info(iterationLatency);
+        log.info(sendToConfirmLatency);
+        log.info(cpuBudget);
+        if(ownsSearchPool) searchPool.shutdown();
+
+        if(rolloutCoordinator != null) {
+            log.info(rolloutCoordinator);
+            rolloutCoordinator.close();
+        }
+
+        if(treeExport != null) {
+            log.info(treeExport);
+            try {
+                treeExport.close();
+            } catch (IOException e) {
+                log.printStackTrace(e);
+            }
+        }
+
+        closeOpeningBook();
+
+        if(snapshotLog != null) {
+            log.info(snapshotLog);
+            try {
+                snapshotLog.close();
+            } catch (IOException e) {
+                log.printStackTrace(e);
+            }
+        }
+
+        for (var listener : shutdownListeners) listener.run();
+    }
+
+    /**
+     * Runs listener after the agent was shut down, e.g. to remove it from its ImperionRuntime
+     */
+    public void onShutdown(Runnable listener) {
+        shutdownListeners.add(listener);
     }
 
     @Override
     public void startPlaying() {
         log.info("start playing");
+
+        if(warmUp != null) {
+            warmUp.stop();
+            log.info(warmUp);
+        }
+
+        if(SNAPSHOT_LOG_PATH != null) {
+            try {
+                snapshotLog = new SnapshotLog(Path.of(SNAPSHOT_LOG_PATH), log);
+            } catch (IOException e) {
+                log.info("Could not open snapshot log " + SNAPSHOT_LOG_PATH);
+                log.printStackTrace(e);
+            }
+        }
+
+        if(TREE_EXPORT_PATH != null) {
+            try {
+                treeExport = new TreeExport(Path.of(TREE_EXPORT_PATH), log);
+            } catch (IOException e) {
+                log.info("Could not open tree export " + TREE_EXPORT_PATH);
+                log.printStackTrace(e);
+            }
+        }
+
+        if(OPENING_BOOK_PATH != null) {
+            try {
+                openingBook = OpeningBook.open(Path.of(OPENING_BOOK_PATH));
+                log.info(openingBook);
+            } catch (IOException e) {
+                log.info("Could not open opening book " + OPENING_BOOK_PATH);
+                log.printStackTrace(e);
+            }
+        }
+
+        if(ROLLOUT_WORKERS != null) {
+            try {
+                rolloutCoordinator = new RolloutCoordinator<>(Arrays.asList(ROLLOUT_WORKERS.split(",")), MAX_ROLLOUTS_IN_FLIGHT_PER_WORKER);
+            } catch (IOException e) {
+                log.info("Could not connect to rollout workers " + ROLLOUT_WORKERS);
+                log.printStackTrace(e);
+            }
+        }
+
         thread = pool.submit(this::play);
     }
 
@@ -59,6 +342,16 @@ public class Imperion extends AbstractRealTimeGameAgent<Empire, EmpireEvent> {
 
     @Override
     protected void onGameUpdate(HashMap<EmpireEvent, ActionResult> actionsWithResult) {
+        if(USE_GAME_MIRROR) gameMirror.onGameUpdate(actionsWithResult, getGame().getGameClock().getGameTimeMs());
+
+        if(!unconfirmedActions.isEmpty()) {
+            var now = System.currentTimeMillis();
+            for (var action : actionsWithResult.keySet()) {
+                var sentAt = unconfirmedActions.remove(action.toString());
+                if(sentAt != null) sendToConfirmLatency.recordMillis(now - sentAt);
+            }
+        }
+
         //log.info("Game Updates");
         //for (var entry : actionsWithResult.entrySet()) {
         //    log.info(entry.getKey() + " " + entry.getValue());
@@ -69,6 +362,7 @@ public class Imperion extends AbstractRealTimeGameAgent<Empire, EmpireEvent> {
     protected void onActionRejected(EmpireEvent empireEvent) {
         log.error("Action rejected");
         log.error(empireEvent);
+        unconfirmedActions.remove(empireEvent.toString());
     }
 
 
@@ -86,21 +380,27 @@ public class Imperion extends AbstractRealTimeGameAgent<Empire, EmpireEvent> {
 
         // Initializing them
         for (int i = 0; i < commandQueues.length; i++) {
-            commandQueues[i] = new CommandQueue();
+            commandQueues[i] = new CommandQueue(unitIndex);
         }
 
 
-        while (true){
+        // The loop ends when the agent is shut down (the decision thread is interrupted) or its search pool is shut down
+        while (!Thread.currentThread().isInterrupted()){
             log.trace("Start of main loop in play()");
             log._info_();
 
+            long decisionStart = System.nanoTime();
+            decision++;
+            watchdog.arm(DECISION_PACE + DECISION_DEADLINE_GRACE);
+
+            var decisionEvent = new DecisionEvent();
+            decisionEvent.begin();
+
             try{
                 log.trace("Start of the try-catch block");
 
-                Empire nextGameState = copyGame();
-
-                // Reset Heuristic Dynamic Range
-                Heuristics.resetHeuristics(nextGameState);
+                Empire nextGameState = USE_GAME_MIRROR ? gameMirror.snapshot(this::copyServerGame, getGame().getGameClock().getGameTimeMs()) : copyServerGame();
+                decisionEvent.gameTimeMs = nextGameState.getGameClock().getGameTimeMs();
 
                 // Apply the next actions to the copied game
                 // Only schedule events, when it has not already been done on the server side
@@ -113,89 +413,377 @@ public class Imperion extends AbstractRealTimeGameAgent<Empire, EmpireEvent> {
                 // At this time the next actions should be sent to the server
                 nextGameState.advance(DECISION_PACE);
 
-                // Init MCTS Tree
-                var rootNode = new ImperionGameNode(nextGameState, playerId,null, commandQueues, null);
+                // The influence map describes the root state of the search, the roots read their features from it
+                // Only units which moved, fought or died are stamped again
+                if(influenceMap == null) influenceMap = InfluenceMap.of(nextGameState); else influenceMap.update(nextGameState);
 
-                var gameStateTree = new DoubleLinkedTree<>(rootNode);
+                // Reset Heuristic Dynamic Range
+                treeSearch.getHeuristics().resetHeuristics(influenceMap.toFeatures());
 
-                long timeForCalculations = System.currentTimeMillis() + DECISION_PACE;
+                if(decision == 1 && RECORD_FIXTURE_PATH != null) recordFixture(nextGameState);
 
-                // Build MCTS Tree
-                while (System.currentTimeMillis() < timeForCalculations){
-                    log.trace("Start of MCTS calculations in play()");
+                if(terrainIndex == null) terrainIndex = TerrainIndex.of(nextGameState); else terrainIndex.update(nextGameState);
+                if(pathfinder == null) pathfinder = createPathfinder(terrainIndex); else pathfinder.update();
 
-                    // Select the best from the children according to the upper confidence bound
-                    log.trace("Start selection MCTS");
-                    var bestLeaf = treeSearch.selection(gameStateTree);
-                    log.trace("Selected Leaf: " + bestLeaf.getNode());
-                    log.trace("End selection MCTS");
+                // Continue the orders of units, which were assigned in previous decisions
+                orderBook.update(nextGameState, commandQueues[playerId], pathfinder);
 
-                    log.trace("Start expansion MCTS");
-                    var expandedLeaf = treeSearch.expansion(bestLeaf);
-                    log.trace("(Random Chosen) Expanded Leaf: " + expandedLeaf.getNode());
-                    log.trace("End expansion MCTS");
-                    //log.debug("Tree after expansion");
-                    //log.debug(printTree(gameStateTree,"" ,0));
+                var unitsWithOrders = unitIndex.indicesOfIds(orderBook.getUnitsWithOrders());
 
-                    log.trace("Start simulation MCTS");
-                    // Simulate until the simulation depth is reached and determine winners
-                    var evaluation = treeSearch.simulation(expandedLeaf, timeForCalculations);
-                    log.trace("End simulation MCTS");
+                // In book the decision is read from the opening book on the known terrain instead of searched
+                var bookChild = openingBook != null ? lookUpOpeningBook(nextGameState, commandQueues, unitsWithOrders) : null;
 
-                    log.trace("Start backPropagation MCTS");
-                    treeSearch.backPropagation(expandedLeaf, evaluation);
-                    log.trace("End backPropagation MCTS");
+                // Init MCTS Trees, one per determinization of the hidden terrain (a single tree on the known terrain without determinizations)
+                var trees = new ArrayList<Tree<ImperionGameNode>>(DETERMINIZATIONS);
+                if(bookChild != null) trees.add(bookChild.getParent());
+                for (int d = 0; d < DETERMINIZATIONS && bookChild == null; d++) {
+                    var random = SEARCH_SEED != null ? SearchContext.seededRandom(SEARCH_SEED, decision * DETERMINIZATIONS + d) : null;
+                    var searchTerrain = DETERMINIZATIONS > 1 ? terrainIndex.determinize(random != null ? random : ThreadLocalRandom.current()) : terrainIndex;
+                    var searchPathfinder = DETERMINIZATIONS > 1 ? createPathfinder(searchTerrain) : pathfinder;
 
-                    log.trace("End of MCTS calculations in play()");
+                    // Each determinization is searched on its own thread, so each one gets its own copy of the root state
+                    var game = d == 0 ? nextGameState : GameCopyEvent.copy(nextGameState, GameCopyEvent.DETERMINIZATION);
+                    var context = new SearchContext(unitsWithOrders, searchTerrain, searchPathfinder, influenceMap, random);
+                    trees.add(new DoubleLinkedTree<>(new ImperionGameNode(game, playerId, null, commandQueues, null, context)));
+                }
 
+                // Root state and command queues are never modified by the search, so they can be written in the background
+                if(snapshotLog != null) snapshotLog.append(nextGameState, commandQueues, decision, playerId);
+
+                // With an iteration budget, rollouts are only limited by their depth
+                long timeForCalculations = SEARCH_ITERATIONS != null ? Long.MAX_VALUE : System.currentTimeMillis() + DECISION_PACE;
+
+                // Build MCTS Trees, in slices on the search pool until the deadline or the CPU budget (or the iteration budget) is reached
+                int[] iterationsPerTree;
+                if(bookChild != null) {
+                    iterationsPerTree = new int[trees.size()];
+                } else {
+                    var searches = trees.stream().map(tree -> iteration(tree, timeForCalculations)).toList();
+                    iterationsPerTree = SEARCH_ITERATIONS != null
+                            ? searchPool.search(searches, SEARCH_ITERATIONS)
+                            : searchPool.search(searches, timeForCalculations, cpuBudget);
                 }
-                log.debug(printTree(gameStateTree,"" ,0));
+                int iterations = Arrays.stream(iterationsPerTree).sum();
+
+                // Rollouts still running in the workers belong to this decision only, their virtual visits are undone
+                if(rolloutCoordinator != null)
+                    for (var leaf : rolloutCoordinator.discardPending()) treeSearch.revertVirtualVisit(leaf);
 
+                // Statistics of all determinizations are combined per information set of the decision
+                var informationSetDecision = bookChild != null
+                        ? new InformationSets.Decision(bookChild.getParent(), bookChild, bookChild.getNode().getVisits(), 0, bookChild.getParent().getChildren().size())
+                        : InformationSets.decide(trees, playerId, treeSearch.getTreeMoveComparator());
+                var gameStateTree = informationSetDecision.root();
+                var rootNode = gameStateTree.getNode();
+                var mostVisitedNode = informationSetDecision.child().getNode();
 
-                var mostVisitedNode = Collections.max(gameStateTree.getChildren(), treeSearch.getTreeMoveComparator()).getNode();
+                // If the watchdog already sent the best action found so far, stick to that decision
+                boolean sendDecision = watchdog.claim(mostVisitedNode);
+                if(!sendDecision) mostVisitedNode = watchdog.getDecidedNode();
+
+                // The tree is not modified anymore, so it can be written in the background
+                if(treeExport != null) treeExport.append(gameStateTree, decision);
 
                 for (var child : gameStateTree.getChildren()) {
                     log.info("Action " + child.getNode().getMacroAction().getType() + ", visits: " + child.getNode().getVisits() + " , wins: " + Math.round(child.getNode().getEvaluationForPlayer(playerId) * 100) / 100.0) ;
                 }
+                if(DETERMINIZATIONS > 1)
+                    log.info("Determinizations " + DETERMINIZATIONS + ": iterations " + Arrays.toString(iterationsPerTree) + ", information sets " + informationSetDecision.informationSets() + ", visits of decided information set " + informationSetDecision.visits());
+
+                var depth = trees.stream().map(tree -> MCTS.depthOf(tree, playerId)).max(Comparator.comparingInt(d -> d[0])).orElseThrow();
+                if(decision <= EARLY_GAME_DECISIONS) reportEarlyGameIterations(bookChild == null, iterations);
+                if(bookChild == null) reportSearchDepth(iterations, depth);
+
+                decisionEvent.iterations = iterations;
+                decisionEvent.rootVisits = trees.stream().mapToInt(tree -> tree.getNode().getVisits()).sum();
+                decisionEvent.rootChildren = gameStateTree.getChildren().size();
+                decisionEvent.treeDepth = depth[0];
+                decisionEvent.decisionDepth = depth[1];
+                decisionEvent.opponentModel = treeSearch.getOpponentModel().toString();
+                if(mostVisitedNode.getMacroAction() != null) decisionEvent.macroAction = String.valueOf(mostVisitedNode.getMacroAction().getType());
+
+                log.debug(treeSearch.getEvaluationCache());
+                treeSearch.getEvaluationCache().resetStatistics();
+                if(USE_GAME_MIRROR) log.debug(gameMirror);
+                log.debug(terrainIndex);
+                log.debug(pathfinder);
+                log.debug(influenceMap);
+                if(rolloutCoordinator != null) log.debug(rolloutCoordinator);
 
                 lastDeterminedActions = mostVisitedNode.getActionsTaken();
-                log.info("Determined next action (" + mostVisitedNode.getMacroAction() + ") : " + lastDeterminedActions);
-
                 commandQueues = mostVisitedNode.copyCommandQueues();
 
-                // If best action is to do nothing, just continue without sending action to server
-                if(lastDeterminedActions == null) continue;
+                // Keep the order of the chosen macro action, so its path is continued in the next decisions
+                var plannedOrder = rootNode.getPlannedOrder(mostVisitedNode.getMacroAction());
+                // Actions the watchdog already sent can not be changed anymore
+                if(plannedOrder != null && DETERMINIZATIONS > 1 && sendDecision)
+                    lastDeterminedActions = moveOnRealTerrain(plannedOrder, nextGameState, lastDeterminedActions, commandQueues[playerId]);
+                if(plannedOrder != null) orderBook.assign(plannedOrder);
+                log.info("Determined next action (" + mostVisitedNode.getMacroAction() + ") : " + lastDeterminedActions);
+                log.debug(orderBook);
 
-                // Send actions to server
-                for (int i = 0; i < lastDeterminedActions.size(); i++) {
-                    sendAction(lastDeterminedActions.get(i), System.currentTimeMillis() + 50 + i);
-                }
+                // Send actions to server, unless the watchdog sent the decided node in the meantime
+                var actionsToSend = lastDeterminedActions;
+                if(sendDecision && !watchdog.send(() -> sendActions(actionsToSend))) lastDeterminedActions = mostVisitedNode.getActionsTaken();
 
                 log.trace("End of the try-catch block");
             }catch (Exception e){
+                if(isSearchStopped(e)) {
+                    log.info("Search stopped, leaving the decision loop");
+                    break;
+                }
+
                 log.info(e);
                 log.printStackTrace(e);
+
+                // Still send the best action found so far in this decision
+                decisionEvent.fallback = true;
+                var fallbackNode = watchdog.sendFallback();
+                if(fallbackNode != null){
+                    lastDeterminedActions = fallbackNode.getActionsTaken();
+                    commandQueues = fallbackNode.copyCommandQueues();
+                }
+            }
+
+            decisionLatency.recordNanos(System.nanoTime() - decisionStart);
+
+            decisionEvent.end();
+            if(decisionEvent.shouldCommit()) {
+                decisionEvent.decision = decision;
+                decisionEvent.playerId = playerId;
+                decisionEvent.cpuTime = cpuBudget.getUsedNanos();
+                decisionEvent.commit();
             }
         }
+    }
 
+    /**
+     * Returns true if e means that the agent can not search anymore: the decision thread was interrupted (the agent was
+     * shut down) or the search pool does not accept slices anymore
+     */
+    private static boolean isSearchStopped(Throwable e) {
+        if(Thread.currentThread().isInterrupted()) return true;
+        for (; e != null; e = e.getCause())
+            if(e instanceof InterruptedException || e instanceof RejectedExecutionException) return true;
+        return false;
+    }
 
+    /**
+     * One MCTS iteration on tree, the iterations of one tree never run concurrently
+     */
+    private Runnable iteration(Tree<ImperionGameNode> gameStateTree, long timeForCalculations) {
+        return () -> {
+            log.trace("Start of MCTS calculations in play()");
+            long iterationStart = System.nanoTime();
+
+            // Select the best from the children according to the upper confidence bound
+            log.trace("Start selection MCTS");
+            var bestLeaf = treeSearch.selection(gameStateTree);
+            log.trace("Selected Leaf: " + bestLeaf.getNode());
+            log.trace("End selection MCTS");
+
+            log.trace("Start expansion MCTS");
+            var expandedLeaf = treeSearch.expansion(bestLeaf);
+            log.trace("(Random Chosen) Expanded Leaf: " + expandedLeaf.getNode());
+            log.trace("End expansion MCTS");
+
+            // Results of remote rollouts arrive in any order, so seeded searches run their rollouts locally
+            // The coordinator serves one search at a time, so determinized searches run their rollouts locally as well
+            if(rolloutCoordinator != null && SEARCH_SEED == null && DETERMINIZATIONS == 1 && rolloutCoordinator.isAvailable()) {
+                rolloutRemotely(expandedLeaf, timeForCalculations);
+            } else {
+                log.trace("Start simulation MCTS");
+                // Simulate until the simulation depth is reached and determine winners
+                var evaluation = treeSearch.simulation(expandedLeaf, timeForCalculations);
+                log.trace("End simulation MCTS");
+
+                log.trace("Start backPropagation MCTS");
+                treeSearch.backPropagation(expandedLeaf, evaluation);
+                log.trace("End backPropagation MCTS");
+
+                watchdog.offerIfMoreVisited(expandedLeaf);
+            }
 
+            iterationLatency.recordNanos(System.nanoTime() - iterationStart);
+            log.trace("End of MCTS calculations in play()");
+        };
     }
 
-    private String printTree(Tree<ImperionGameNode> tree, String s, int level) {
-        s = s + "  ".repeat(Math.max(0, level));
-        s += tree.getNode() + "\n";
-        if (tree.getChildren() != null) {
-            for (int i = 0; i < tree.getChildren().size(); i++) {
-                if(level == 5){
-                    return s;
+    /**
+     * Sends the rollout of leaf to the rollout workers and back-propagates all rollouts which finished so far
+     * The path of leaf gets a virtual visit until its result arrives, so the next iterations select other leaves
+     */
+    private void rolloutRemotely(Tree<ImperionGameNode> leaf, long nextDecisionTime) {
+        var node = leaf.getNode();
+
+        // Quiet leaves are evaluated by the value function without a rollout
+        if(treeSearch.isQuiet(leaf)) {
+            treeSearch.backPropagation(leaf, treeSearch.simulation(leaf, nextDecisionTime));
+            watchdog.offerIfMoreVisited(leaf);
+            return;
+        }
+
+        treeSearch.addVirtualVisit(leaf);
+        if(!rolloutCoordinator.submit(leaf, node.getGameState(), node.copyCommandQueues(), node.getNextPlayerId(), treeSearch.getMaxRolloutSteps(), nextDecisionTime)) {
+            treeSearch.revertVirtualVisit(leaf);
+            treeSearch.backPropagation(leaf, treeSearch.simulation(leaf, nextDecisionTime));
+            watchdog.offerIfMoreVisited(leaf);
+            return;
+        }
+
+        try {
+            for (var result : rolloutCoordinator.collect(nextDecisionTime)) {
+                if(result.failed()) {
+                    treeSearch.revertVirtualVisit(result.key());
+                    continue;
                 }
-                s = printTree(tree.getChildren().get(i), s, level + 1);
+                treeSearch.completeVirtualVisit(result.key(), treeSearch.evaluateRolloutResult(result.key(), result.gameOver(), result.heuristicValues()));
+                watchdog.offerIfMoreVisited(result.key());
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return s;
     }
-    
+
+    /**
+     * Returns the child with the move of the opening book of a root on the known terrain, or null if the match went out of book
+     * The first miss closes the book, so the search takes over for the rest of the match
+     */
+    private Tree<ImperionGameNode> lookUpOpeningBook(Empire game, CommandQueue[] commandQueues, BitSet unitsWithOrders) {
+        if(decision == 1) openingBookMapKey = OpeningBook.mapKey(game, playerId);
+
+        int entry = openingBook.find(openingBookMapKey, OpeningBook.stateKey(game, playerId));
+        if(entry >= 0) {
+            // The root is expanded by all its actions on this thread, so the child of the book move can be chosen
+            var random = SEARCH_SEED != null ? SearchContext.seededRandom(SEARCH_SEED, decision * DETERMINIZATIONS) : null;
+            var context = new SearchContext(unitsWithOrders, terrainIndex, pathfinder, influenceMap, random);
+            var root = new DoubleLinkedTree<>(new ImperionGameNode(game, playerId, null, commandQueues, null, context));
+            treeSearch.expansion(root, false);
+            for (var child : root.getChildren()) {
+                if(!openingBook.matches(entry, child.getNode().getMacroAction(), game)) continue;
+                bookDecisions++;
+                log.info("Book move " + child.getNode().getMacroAction() + " (" + openingBook.getVisits(entry) + " visits)");
+                return child;
+            }
+        }
+
+        log.info("Out of opening book after " + bookDecisions + " book decisions");
+        closeOpeningBook();
+        return null;
+    }
+
+    private void closeOpeningBook() {
+        if(openingBook == null) return;
+        try {
+            openingBook.close();
+        } catch (IOException e) {
+            log.printStackTrace(e);
+        }
+        openingBook = null;
+    }
+
+    /**
+     * Sums the iterations of the first decisions, decisions taken from the opening book are not searched and not counted
+     */
+    private void reportEarlyGameIterations(boolean searched, int iterations) {
+        if(searched) {
+            earlyGameIterations += iterations;
+            earlyGameDecisions++;
+        }
+        if(decision < EARLY_GAME_DECISIONS || earlyGameDecisions == 0) return;
+
+        double average = (double) earlyGameIterations / earlyGameDecisions;
+        log.info("Iterations per decision in the first " + EARLY_GAME_DECISIONS + " decisions (" + earlyGameDecisions + " searched): " + average);
+        // Decisions of the match are not comparable to rounds on the fixture, the gain is measured on the fixture only
+        if(warmUp != null && warmUp.getRounds() > 0)
+            log.info("Warm-up gained ~" + Math.round(warmUp.getGain()) + " iterations per round on the fixture (cold: " + warmUp.getColdIterations() + ", warm: " + Math.round(warmUp.getWarmIterations()) + ", rounds: " + warmUp.getRounds() + ")");
+    }
+
+    /**
+     * Reports iterations, depth of the tree and decisions of the agent on its deepest path
+     * With the alternating opponent model only every numberOfPlayers-th level of the tree is a decision of the agent
+     */
+    private void reportSearchDepth(int iterations, int[] depth) {
+        searchedDecisions++;
+        totalIterations += iterations;
+        totalTreeDepth += depth[0];
+        totalDecisionDepth += depth[1];
+        log.info("Opponent model " + treeSearch.getOpponentModel() + ": iterations " + iterations + ", depth " + depth[0] + ", decision depth " + depth[1]
+                + " (mean: iterations " + Math.round((double) totalIterations / searchedDecisions) + ", depth " + Math.round(10.0 * totalTreeDepth / searchedDecisions) / 10.0
+                + ", decision depth " + Math.round(10.0 * totalDecisionDepth / searchedDecisions) / 10.0 + ")");
+    }
+
+    private Empire copyServerGame() {
+        return GameCopyEvent.copy(this::copyGame, GameCopyEvent.SERVER);
+    }
+
+    /**
+     * Hierarchical pathfinder on large maps, BFS on small ones
+     */
+    public static Pathfinder createPathfinder(TerrainIndex terrain) {
+        if(terrain.getWidth() * terrain.getHeight() >= HIERARCHICAL_PATHFINDER_MIN_TILES) return new HierarchicalPathfinder(terrain);
+        return BFS.pathfinder(terrain);
+    }
+
+    /**
+     * Searches the path of the decided order again on the known terrain, a determinized search found it on sampled tiles
+     * The movements of the unit in actions and in its command queue are replaced by the steps of the new path.
+     * Returns the actions to send.
+     */
+    private List<EmpireEvent> moveOnRealTerrain(UnitOrder order, Empire game, List<EmpireEvent> actions, CommandQueue commandQueue) {
+        var unit = game.getUnit(order.getUnitId());
+        if(unit == null) return actions;
+
+        var path = pathfinder.findPath(unit.getPosition(), order.getDestination(), game, playerId);
+        if(path == null) return actions;
+        order.setPath(unit.getPosition(), path);
+
+        var steps = BFS.toMovementOrders(unit, path, game);
+        var realActions = new ArrayList<EmpireEvent>();
+        boolean moved = false;
+        if(actions != null) {
+            for (var action : actions) {
+                if(action instanceof MovementStartOrder movement && movement.getUnitId().equals(unit.getId())) moved = true;
+                else realActions.add(action);
+            }
+        }
+
+        // The unit takes the first step now, if it moved in the decided node, the others stay queued
+        if(moved && !steps.isEmpty()) realActions.add(steps.remove(0));
+        commandQueue.clearUnitCommands(unit.getId());
+        for (var step : steps) commandQueue.addCommand(step, false);
+
+        return actions == null && realActions.isEmpty() ? null : realActions;
+    }
+
+    private void recordFixture(Empire game) {
+        // Root state is never modified by the search, so it can be written in the background
+        new Thread(() -> {
+            try {
+                WarmUp.saveFixture(game, playerId, Path.of(RECORD_FIXTURE_PATH));
+                log.info("Recorded warm-up fixture " + RECORD_FIXTURE_PATH);
+            } catch (IOException e) {
+                log.info("Could not record warm-up fixture " + RECORD_FIXTURE_PATH);
+                log.printStackTrace(e);
+            }
+        }, "imperion-record-fixture").start();
+    }
+
+    /**
+     * Sends actions to server, if actions is null (best action is to do nothing) nothing is sent
+     */
+    private void sendActions(List<EmpireEvent> actions) {
+        if(actions == null) return;
+
+        // Drop confirmations which never arrived
+        if(unconfirmedActions.size() > MAX_UNCONFIRMED_ACTIONS) unconfirmedActions.clear();
+
+        for (int i = 0; i < actions.size(); i++) {
+            unconfirmedActions.put(actions.get(i).toString(), System.currentTimeMillis());
+            sendAction(actions.get(i), System.currentTimeMillis() + 50 + i);
+        }
+    }
+
     public Comparator<Game<EmpireEvent, ?>> getGameComperator(){
         return gameComparator;
     }
@@ -204,15 +792,35 @@ public class Imperion extends AbstractRealTimeGameAgent<Empire, EmpireEvent> {
         return playerId;
     }
 
-    public static void assertWithMessage(boolean condition, String message) {
+    public SearchPool getSearchPool() {
+        return searchPool;
+    }
+
+    public CpuBudget getCpuBudget() {
+        return cpuBudget;
+    }
+
+    public HeuristicWeights getHeuristicWeights() {
+        return heuristicWeights;
+    }
+
+    public ValueFunction getValueFunction() {
+        return valueFunction;
+    }
+
+    public Logger getLogger() {
+        return log;
+    }
+
+    public void assertWithMessage(boolean condition, String message) {
         if (!condition) {
-            logger.debug("Assertion failed: " + message);
+            log.debug("Assertion failed: " + message);
         }
     }
 
-    public static void logAssertWithMessage(boolean condition, String message) {
+    public void logAssertWithMessage(boolean condition, String message) {
         if (!condition) {
-            logger.info("Assertion failed: " + message);
+            log.info("Assertion failed: " + message);
         }
     }
 
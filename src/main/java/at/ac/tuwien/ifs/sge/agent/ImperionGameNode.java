@@ -2,14 +2,13 @@ package at.ac.tuwien.ifs.sge.agent;
 
 import at.ac.tuwien.ifs.sge.agent.util.*;
 import at.ac.tuwien.ifs.sge.agent.util.MacroAction.*;
+import at.ac.tuwien.ifs.sge.agent.util.UnitRole.ConquerUnitOrder;
+import at.ac.tuwien.ifs.sge.agent.util.UnitRole.ExpansionUnitOrder;
+import at.ac.tuwien.ifs.sge.agent.util.UnitRole.MoveUnitOrder;
+import at.ac.tuwien.ifs.sge.agent.util.UnitRole.UnitOrder;
 import at.ac.tuwien.ifs.sge.core.util.Util;
 import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.CombatStartOrder;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.MovementStartOrder;
 import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.ProductionStartOrder;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.CombatStopOrder;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.MovementStopOrder;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.ProductionStopOrder;
 import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
 import at.ac.tuwien.ifs.sge.game.empire.map.Position;
 import at.ac.tuwien.ifs.sge.game.empire.model.map.EmpireCity;
@@ -41,14 +40,17 @@ public class ImperionGameNode {
     private final double[] evaluation;
     private int visits = 0;
 
+    // Units of nextPlayerId by their index in the UnitIndex of the command queues, the sets below are indices into it
+    private final EmpireUnit[] units;
+
     // Units which are idle
-    public final Set<EmpireUnit> idleUnits;
+    public final BitSet idleUnits;
 
     // Idle Units with no command
-    public final Set<EmpireUnit> readyUnits;
+    public final BitSet readyUnits;
 
     // Ready units not on city
-    public final Set<EmpireUnit> readyUnitsNotLastOnCity;
+    public final BitSet readyUnitsNotLastOnCity;
 
     // Occupied Idle Cities with no command
     public final Set<EmpireCity> readyCities;
@@ -59,44 +61,77 @@ public class ImperionGameNode {
     // Executed MacroAction
     private final MacroAction macroAction;
 
-    private final static Random random = new Random();
+    // State shared by all nodes of the tree (orders of units, terrain)
+    private final SearchContext context;
+
+    // Order (with full path) each generated unit macro action would assign to its unit
+    private final Map<MacroAction, UnitOrder> plannedOrders = new IdentityHashMap<>();
+
+    // Possible actions of nextPlayerId in gameState, computed once per node
+    private final PossibleActions possibleActions;
+
+    // Features of gameState, carried from the parent by a FeatureTracker instead of scanning the game
+    private final HeuristicFeatures features;
 
     public ImperionGameNode(Empire gameState, int nextPlayerId ,List<EmpireEvent> actionsTaken, CommandQueue[] commandQueues, MacroAction macroAction) {
+        this(gameState, nextPlayerId, actionsTaken, commandQueues, macroAction, SearchContext.empty());
+    }
+
+    /**
+     * Root of a search, its features are read from the influence map of context, which has to be updated to gameState
+     * (without an influence map the game is scanned)
+     */
+    public ImperionGameNode(Empire gameState, int nextPlayerId ,List<EmpireEvent> actionsTaken, CommandQueue[] commandQueues, MacroAction macroAction, SearchContext context) {
+        this(gameState, nextPlayerId, actionsTaken, commandQueues, macroAction, context,
+                context.getInfluenceMap() != null ? context.getInfluenceMap().toFeatures() : HeuristicFeatures.of(gameState));
+    }
+
+    public ImperionGameNode(Empire gameState, int nextPlayerId ,List<EmpireEvent> actionsTaken, CommandQueue[] commandQueues, MacroAction macroAction, SearchContext context, HeuristicFeatures features) {
         this.gameState = gameState;
+        this.features = features;
         this.nextPlayerId = nextPlayerId;
         this.actionsTaken = actionsTaken;
         this.commandQueues = commandQueues;
         this.macroAction = macroAction;
+        this.context = context;
         evaluation = new double[gameState.getNumberOfPlayers()];
+        possibleActions = PossibleActions.of(gameState, nextPlayerId);
 
         // Remove dead units from command queue (if necessary)
         commandQueues[nextPlayerId].removeDeadUnits(gameState.getUnitsByPlayer(nextPlayerId));
 
-        idleUnits = gameState.getUnitsByPlayer(nextPlayerId).stream().filter(unit -> unit.getState() == EmpireUnitState.Idle).collect(Collectors.toSet());
+        var unitsByPlayer = gameState.getUnitsByPlayer(nextPlayerId);
+        units = commandQueues[nextPlayerId].getUnits().byIndex(unitsByPlayer);
 
-        var unitsWithCommand = commandQueues[nextPlayerId].getUnitCommandQueue().entrySet().stream()
-                .filter(entry -> !entry.getValue().isEmpty())
-                .map(entry -> gameState.getUnit(entry.getKey())).collect(Collectors.toSet());
+        idleUnits = new BitSet(units.length);
+        var lastOnCity = new BitSet(units.length);
+        var citiesByPosition = gameState.getCitiesByPosition();
+        for (int unit = 0; unit < units.length; unit++) {
+            if (units[unit] == null) continue;
+            if (units[unit].getState() == EmpireUnitState.Idle) idleUnits.set(unit);
+
+            // Unit is on a city position and the last unit on the city tile
+            var city = citiesByPosition.get(units[unit].getPosition());
+            if (city != null && city.getOccupants().size() <= 1) lastOnCity.set(unit);
+        }
 
-        readyUnits = idleUnits.stream()
-                .filter(unit -> !unitsWithCommand.contains(unit))
-                .collect(Collectors.toSet());
+        readyUnits = (BitSet) idleUnits.clone();
+        readyUnits.andNot(commandQueues[nextPlayerId].getUnitsWithCommands());
+        readyUnits.andNot(context.getUnitsWithOrders());
 
-        var cityPositions = gameState.getCitiesByPosition().keySet();
-        readyUnitsNotLastOnCity = readyUnits.stream()
-                // Either unit is not on city position or is not last on city tile
-                .filter(unit -> !cityPositions.contains(unit.getPosition()) || gameState.getCitiesByPosition().get(unit.getPosition()).getOccupants().size() > 1)
-                .collect(Collectors.toSet());
+        readyUnitsNotLastOnCity = (BitSet) readyUnits.clone();
+        readyUnitsNotLastOnCity.andNot(lastOnCity);
 
         var citiesWithCommand = commandQueues[nextPlayerId].getCityCommandQueue().entrySet().stream()
                 .filter(entry -> !entry.getValue().isEmpty())
                 .map(entry -> gameState.getCitiesByPosition().get(entry.getKey()))
-                .collect(Collectors.toSet());
+                .collect(Collectors.toCollection(LinkedHashSet::new));
 
         readyCities = gameState.getCitiesByPosition().values().stream()
                 .filter(city -> city.getPlayerId() == nextPlayerId && city.getState() == EmpireProductionState.Idle && !citiesWithCommand.contains(city))
-                .collect(Collectors.toSet());
+                .collect(Collectors.toCollection(LinkedHashSet::new));
 
+        // Sets keep the order of the game (units the order of their index), so a seeded search expands the same actions in the same order
         // add all possible actions to unexplored actions
         unexploredActions.addAll(getPossiblePrunedActions(nextPlayerId));
     }
@@ -105,20 +140,16 @@ public class ImperionGameNode {
      * Post-Cond: possibleActions != null && possibleActions.size() > 0
      */
     public Set<MacroAction> getPossiblePrunedActions(int playerId){
-        Set<MacroAction> actions = gameState.getPossibleActions(playerId).stream()
-                .filter(event -> !(event instanceof MovementStartOrder))
-                .filter(event -> !(event instanceof MovementStopOrder))
-                .filter(event -> !(event instanceof ProductionStopOrder))
-                .filter(event -> !(event instanceof ProductionStartOrder))
-                .filter(event -> !(event instanceof CombatStartOrder))
-                .filter(event -> !(event instanceof CombatStopOrder))
-                .map(SingletonMacroAction::new).collect(Collectors.toSet());
+        // Movement, production, combat and stop orders are generated by the macro actions
+        var otherActions = playerId == nextPlayerId ? possibleActions.getOtherActions() : PossibleActions.of(gameState, playerId).getOtherActions();
+        Set<MacroAction> actions = otherActions.stream()
+                .map(SingletonMacroAction::new).collect(Collectors.toCollection(LinkedHashSet::new));
 
         actions.add(new ScheduleNothingMacroAction());
 
         // If no units are idle, just return
         // If all units have commands, just return
-        if(idleUnits.isEmpty() || readyUnits.isEmpty()) return actions;
+        if(idleUnits.isEmpty() || readyUnits.isEmpty()) return distinct(actions);
 
         addProductionMacroActionIfPossible(actions, playerId);
 
@@ -128,7 +159,20 @@ public class ImperionGameNode {
 
         addConquerMacroActionIfPossible(actions, playerId);
 
-        return actions;
+        return distinct(actions);
+    }
+
+    /**
+     * Keeps the first of equivalent macro actions (equal MacroActionKey), the planned orders of the others are dropped
+     */
+    private Set<MacroAction> distinct(Set<MacroAction> actions) {
+        var keys = new HashSet<MacroActionKey>();
+        var distinct = new LinkedHashSet<MacroAction>();
+        for (var action : actions) {
+            if (keys.add(getKey(action))) distinct.add(action);
+            else plannedOrders.remove(action);
+        }
+        return distinct;
     }
 
     private void addConquerMacroActionIfPossible(Set<MacroAction> actions, int playerId) {
@@ -136,8 +180,10 @@ public class ImperionGameNode {
 
         if(enemyCities.isEmpty()) return;
 
-        // Select random city
-        var city = Util.selectRandom(enemyCities);
+        // Select the city which is defended the least, or a random city if there is no influence map
+        var influenceMap = context.getInfluenceMap();
+        var city = influenceMap == null ? Util.selectRandom(enemyCities, context.getRandom()) : Collections.min(enemyCities,
+                Comparator.comparingDouble(c -> influenceMap.getEnemyThreat(playerId, c.getPosition()) - influenceMap.getThreat(playerId, c.getPosition())));
 
         // Try to use cavalry
         EmpireUnit nearestUnit = findClosestUnit(city.getPosition(), readyUnits, 3);
@@ -147,19 +193,24 @@ public class ImperionGameNode {
 
         var nearestAdjacentPositionFromEnemyCity = getNearestMovablePositionAdjacentTo(nearestUnit, city.getPosition(), playerId);
 
-        List<EmpireEvent> moveEvents = BFS.findShortestPath(nearestUnit, nearestAdjacentPositionFromEnemyCity, gameState, playerId);
+        if(nearestAdjacentPositionFromEnemyCity == null) return;
+
+        var path = context.getPathfinder().findPath(nearestUnit.getPosition(), nearestAdjacentPositionFromEnemyCity, gameState, playerId);
 
-        if(moveEvents == null) return;
+        if(path == null) return;
 
-        actions.add(new ConquerMacroAction(moveEvents));
+        var macroAction = new ConquerMacroAction(BFS.toMovementOrders(nearestUnit, path, gameState));
+        plannedOrders.put(macroAction, new ConquerUnitOrder(nearestUnit.getId(), city.getPosition(), nearestAdjacentPositionFromEnemyCity, nearestUnit.getPosition(), path));
+        actions.add(macroAction);
     }
 
     /**
      * Returns adjacent position to position where movement is possible which is nearest from unit
+     * Returns null if position is surrounded by impassable tiles
      */
     private Position getNearestMovablePositionAdjacentTo(EmpireUnit unit, Position position, int playerId) {
         // All neighbours where movement is possible from position
-        var neighbours = new BFS.Node(position).getNeighbours(gameState, playerId);
+        var neighbours = new BFS.Node(position).getNeighbours(gameState, playerId, context.getTerrain());
 
         var smallestDist = Double.MAX_VALUE;
         Position bestPos = null;
@@ -172,8 +223,6 @@ public class ImperionGameNode {
             }
         }
 
-        Imperion.logAssertWithMessage(bestPos != null, "getNearestMovablePositionAdjacentTo(...) should never return null, but does");
-
         return bestPos;
     }
 
@@ -181,13 +230,17 @@ public class ImperionGameNode {
 
         if(readyCities.isEmpty()) return;
 
-        var idleCity = Util.selectRandom(readyCities);
+        var idleCity = Util.selectRandom(readyCities, context.getRandom());
 
         // Add production action for scout
         actions.add(new ProductionMacroAction(new ProductionStartOrder(idleCity.getPosition(), 2), 5));
 
-        // Add production action for cavalry if enemies are in sight
-        if(!getEnemiesInSight(playerId).isEmpty()) actions.add(new ProductionMacroAction(new ProductionStartOrder(idleCity.getPosition(), 3), 10));
+        // Add production action for cavalry if the city is threatened or on the frontier (if there is no influence map, if enemies are in sight)
+        var influenceMap = context.getInfluenceMap();
+        var enemiesNearby = influenceMap == null
+                ? !getEnemiesInSight(playerId).isEmpty()
+                : influenceMap.isThreatened(playerId, idleCity.getPosition()) || influenceMap.isFrontier(playerId, idleCity.getPosition());
+        if(enemiesNearby) actions.add(new ProductionMacroAction(new ProductionStartOrder(idleCity.getPosition(), 3), 10));
     }
 
     private void addExpansionMacroActionIfPossible(Set<MacroAction> actions, int playerId) {
@@ -199,8 +252,10 @@ public class ImperionGameNode {
 
         if(unoccupiedCities.isEmpty()) return;
 
-        // Select random city for expansion
-        var city = Util.selectRandom(unoccupiedCities);
+        // Select the city we control the most and enemies threaten the least, or a random city if there is no influence map
+        var influenceMap = context.getInfluenceMap();
+        var city = influenceMap == null ? Util.selectRandom(unoccupiedCities, context.getRandom()) : Collections.max(unoccupiedCities,
+                Comparator.comparingDouble(c -> influenceMap.getControl(playerId, c.getPosition()) - influenceMap.getEnemyThreat(playerId, c.getPosition())));
 
         // TODO: Check if another unit is already expanding to this city
 
@@ -208,18 +263,20 @@ public class ImperionGameNode {
         if(readyUnitsNotLastOnCity.isEmpty()) return;
         var nearestUnitFromCity = findClosestUnit(city.getPosition(), readyUnitsNotLastOnCity);
 
-        List<EmpireEvent> moveEvents = BFS.findShortestPath(nearestUnitFromCity, city.getPosition(), gameState, playerId);
+        var path = context.getPathfinder().findPath(nearestUnitFromCity.getPosition(), city.getPosition(), gameState, playerId);
 
-        if(moveEvents == null) return;
+        if(path == null) return;
 
-        actions.add(new ExpansionMacroAction(moveEvents));
+        var macroAction = new ExpansionMacroAction(BFS.toMovementOrders(nearestUnitFromCity, path, gameState));
+        plannedOrders.put(macroAction, new ExpansionUnitOrder(nearestUnitFromCity.getId(), city.getPosition(), nearestUnitFromCity.getPosition(), path));
+        actions.add(macroAction);
     }
 
 
     private void addExplorationMacroActionIfPossible(Set<MacroAction> actions, int playerId) {
 
         Position destination = null;
-        if(random.nextDouble() > 0.6) destination = getFarthestAwayPosition(playerId); else destination = Util.selectRandom(getUnknownPositions(playerId));
+        if(context.getRandom().nextDouble() > 0.6) destination = getFarthestAwayPosition(playerId); else destination = Util.selectRandom(getUnknownPositions(playerId), context.getRandom());
 
         // If all positions are known return
         if(destination == null) return;
@@ -232,36 +289,42 @@ public class ImperionGameNode {
 
         if(nearestUnitFromFarthestTile == null) return;
 
-        var moveEvents = BFS.findShortestPath(nearestUnitFromFarthestTile, destination, gameState, playerId);
+        var path = context.getPathfinder().findPath(nearestUnitFromFarthestTile.getPosition(), destination, gameState, playerId);
 
-        if(moveEvents == null) return;
+        if(path == null) return;
 
-        // Only add first three moves
-        actions.add(new ExplorationMacroAction(moveEvents));
+        var macroAction = new ExplorationMacroAction(BFS.toMovementOrders(nearestUnitFromFarthestTile, path, gameState));
+        plannedOrders.put(macroAction, new MoveUnitOrder(nearestUnitFromFarthestTile.getId(), destination, nearestUnitFromFarthestTile.getPosition(), path));
+        actions.add(macroAction);
     }
 
     /**
      * Returns closest unit from position
      */
-    private static EmpireUnit findClosestUnit(Position position, Set<EmpireUnit> units) {
+    private EmpireUnit findClosestUnit(Position position, BitSet candidates) {
+        return findClosestUnit(position, candidates, -1);
+    }
+
+    /**
+     * Returns closest unit with certain type from position, any type if type is -1
+     * Of units at the same distance the one with the lowest index is returned. Before the dense unit index, closest was
+     * never updated in the loop, so the last unit of the candidate set was returned instead of the closest one.
+     */
+    private EmpireUnit findClosestUnit(Position position, BitSet candidates, int type) {
         EmpireUnit result = null;
         double closest = Double.MAX_VALUE;
-        for (var unit : units) {
+        for (int index = candidates.nextSetBit(0); index >= 0; index = candidates.nextSetBit(index + 1)) {
+            var unit = units[index];
+            if (type != -1 && unit.getUnitTypeId() != type) continue;
             double temp = Imperion.getEuclideanDistance(position, unit.getPosition());
             if (temp < closest) {
+                closest = temp;
                 result = unit;
             }
         }
         return result;
     }
 
-    /**
-     * Returns closest unit with certain type from position
-     */
-    private static EmpireUnit findClosestUnit(Position position, Set<EmpireUnit> units, int type) {
-        return findClosestUnit(position, units.stream().filter(unit -> unit.getUnitTypeId() == type).collect(Collectors.toSet()));
-    }
-
     /**
      * Returns position which is the farthest away from all discovered positions
      */
@@ -334,6 +397,10 @@ public class ImperionGameNode {
         return ++visits;
     }
 
+    public int decrementVisits() {
+        return --visits;
+    }
+
     public double getEvaluationForPlayer(int playerId) {
         return evaluation[playerId];
     }
@@ -358,6 +425,32 @@ public class ImperionGameNode {
         return macroAction;
     }
 
+    public PossibleActions getPossibleActions() {
+        return possibleActions;
+    }
+
+    public SearchContext getContext() {
+        return context;
+    }
+
+    public HeuristicFeatures getFeatures() {
+        return features;
+    }
+
+    /**
+     * Returns the order the macroAction of a child node assigns to its unit, null if it assigns no unit order
+     */
+    public UnitOrder getPlannedOrder(MacroAction macroAction) {
+        return plannedOrders.get(macroAction);
+    }
+
+    /**
+     * Returns the canonical key of the macroAction of a child node, equivalent macro actions have equal keys
+     */
+    public MacroActionKey getKey(MacroAction macroAction) {
+        return MacroActionKey.of(macroAction, gameState, plannedOrders.get(macroAction), commandQueues[nextPlayerId].getUnits());
+    }
+
     public boolean hasUnexploredActions(){
         return !unexploredActions.isEmpty();
     }
@@ -375,6 +468,14 @@ public class ImperionGameNode {
 
         return commandQueues;
     }
+
+    /**
+     * Command queues of this node, which must not be modified (e.g. to read them into an abstract rollout)
+     */
+    public CommandQueue[] getCommandQueues() {
+        return commandQueues;
+    }
+
     @Override
     public String toString() {
         return "ImperionGameNode{" +
@@ -0,0 +1,90 @@
+package at.ac.tuwien.ifs.sge.agent;
+
+import at.ac.tuwien.ifs.sge.agent.util.CpuBudget;
+import at.ac.tuwien.ifs.sge.agent.util.SearchPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts many Imperion agents (e.g. of different matches of a tournament) in one JVM
+ *
+ * Agents do not share any mutable state, except for the SearchPool their searches run on.
+ * Each agent gets its own CpuBudget, so one match can not starve the others. Agents leave the runtime when they are
+ * shut down at the end of their match.
+ *
+ * Usage: ImperionRuntime [agent arguments] [-- agent arguments]...
+ * where the agent arguments of each agent are the ones the engine passes to Imperion.main()
+ */
+public class ImperionRuntime {
+
+    private static final String AGENT_SEPARATOR = "--";
+
+    private final SearchPool searchPool;
+    private final long cpuBudgetMs;
+
+    private final List<Imperion> agents = new CopyOnWriteArrayList<>();
+    private final AtomicInteger launchedAgents = new AtomicInteger();
+
+    public ImperionRuntime(int parallelism, long cpuBudgetMs) {
+        this.searchPool = new SearchPool(parallelism);
+        this.cpuBudgetMs = cpuBudgetMs;
+    }
+
+    public static void main(String[] args) {
+        var parallelism = Integer.getInteger("imperion.searchThreads", Runtime.getRuntime().availableProcessors());
+        var cpuBudgetMs = Imperion.CPU_BUDGET_MS;
+        var runtime = new ImperionRuntime(parallelism, cpuBudgetMs);
+
+        for (var agentArgs : splitArgs(args)) runtime.launch(agentArgs);
+    }
+
+    /**
+     * Creates an agent from the arguments the engine passes to a single agent and starts it on its own thread
+     */
+    public Imperion launch(String[] agentArgs) {
+        var agent = Imperion.fromArgs(agentArgs, searchPool, new CpuBudget(cpuBudgetMs));
+        agents.add(agent);
+        agent.onShutdown(() -> agents.remove(agent));
+
+        var thread = new Thread(() -> {
+            try {
+                agent.startWarmUp();
+                agent.start();
+            } catch (RuntimeException e) {
+                agents.remove(agent);
+                throw e;
+            }
+        }, "imperion-agent-" + launchedAgents.incrementAndGet());
+        thread.start();
+
+        return agent;
+    }
+
+    public void shutdown() {
+        for (var agent : agents) agent.shutdown();
+        searchPool.shutdown();
+    }
+
+    public List<Imperion> getAgents() {
+        return agents;
+    }
+
+    public SearchPool getSearchPool() {
+        return searchPool;
+    }
+
+    private static List<String[]> splitArgs(String[] args) {
+        var result = new ArrayList<String[]>();
+        int start = 0;
+        for (int i = 0; i <= args.length; i++) {
+            if (i < args.length && !args[i].equals(AGENT_SEPARATOR)) continue;
+            if (i > start) result.add(Arrays.copyOfRange(args, start, i));
+            start = i + 1;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,183 @@
+package at.ac.tuwien.ifs.sge.agent.util.Abstract;
+
+import at.ac.tuwien.ifs.sge.agent.util.CommandQueue;
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicFeatures;
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicWeights;
+import at.ac.tuwien.ifs.sge.agent.util.Heuristics;
+import at.ac.tuwien.ifs.sge.agent.util.PossibleActions;
+import at.ac.tuwien.ifs.sge.agent.util.RolloutSimulator;
+import at.ac.tuwien.ifs.sge.agent.util.TerrainIndex;
+import at.ac.tuwien.ifs.sge.agent.util.UnitIndex;
+import at.ac.tuwien.ifs.sge.agent.util.WarmUp;
+import at.ac.tuwien.ifs.sge.core.util.Util;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Validates the abstract rollouts against the engine on recorded games (fixtures written with imperion.recordFixture)
+ * and measures the rollouts per second of both
+ *
+ * For every rollout the same random command queues (walks of every unit and productions of every city) are executed
+ * by the RolloutSimulator on a copy of the game and by the AbstractSimulator on an AbstractState of it. Reported are
+ * the mean absolute errors of the features and heuristic values at the end of the rollouts and how often both agree
+ * on the leading player. Times include the copy of the game or the construction of the abstract state, like in
+ * MCTS.simulation().
+ *
+ * Usage: AbstractRolloutBenchmark rollouts fixture...
+ */
+public class AbstractRolloutBenchmark {
+
+    private static final int WALK_LENGTH = 8;
+    private static final long SEED = Long.getLong("imperion.seed", 42);
+
+    private final HeuristicWeights weights;
+
+    private final RolloutSimulator engine = new RolloutSimulator();
+    private final AbstractSimulator abstractSimulator = new AbstractSimulator();
+
+    private long rollouts = 0;
+    private long engineNanos = 0;
+    private long abstractNanos = 0;
+
+    private double unitError = 0;
+    private double cityError = 0;
+    private double discoveryError = 0;
+    private double healthError = 0;
+    private double heuristicError = 0;
+    private double heuristicScale = 0;
+    private long samples = 0;
+    private long agreedLeaders = 0;
+
+    public AbstractRolloutBenchmark(HeuristicWeights weights) {
+        this.weights = weights;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: AbstractRolloutBenchmark rollouts fixture...");
+            System.exit(1);
+        }
+
+        var rollouts = Integer.parseInt(args[0]);
+        var benchmark = new AbstractRolloutBenchmark(HeuristicWeights.loadConfigured());
+        for (int i = 1; i < args.length; i++) {
+            var fixture = WarmUp.loadFixture(Path.of(args[i]));
+            benchmark.run(fixture, rollouts);
+            System.out.println(args[i] + ": " + benchmark);
+        }
+    }
+
+    public void run(Empire fixture, int count) {
+        for (int rollout = 0; rollout < count; rollout++) {
+            var random = new Random(SEED + rollouts);
+            var commandQueues = randomCommandQueues(fixture, random);
+            long seed = random.nextLong();
+
+            long start = System.nanoTime();
+            var game = (Empire) fixture.copy();
+            var engineQueues = copy(commandQueues);
+            engine.simulate(game, engineQueues, 0, Long.MAX_VALUE, new Random(seed));
+            var engineFeatures = HeuristicFeatures.of(game);
+            engineNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            var state = AbstractState.of(fixture, commandQueues);
+            abstractSimulator.simulate(state, 0, Long.MAX_VALUE, new Random(seed));
+            var abstractFeatures = state.toFeatures();
+            abstractNanos += System.nanoTime() - start;
+
+            compare(engineFeatures, abstractFeatures);
+            rollouts++;
+        }
+    }
+
+    /**
+     * Every unit walks WALK_LENGTH random steps over tiles which are not blocked, every city produces a random unit
+     */
+    private static CommandQueue[] randomCommandQueues(Empire game, Random random) {
+        var units = new UnitIndex();
+        var terrain = TerrainIndex.of(game);
+        var size = game.getBoard().getMapSize();
+        var commandQueues = new CommandQueue[game.getNumberOfPlayers()];
+
+        for (int pid = 0; pid < commandQueues.length; pid++) {
+            commandQueues[pid] = new CommandQueue(units);
+
+            for (var unit : game.getUnitsByPlayer(pid)) {
+                int x = unit.getPosition().getX(), y = unit.getPosition().getY();
+                for (int step = 0; step < WALK_LENGTH; step++) {
+                    int nextX = x + random.nextInt(3) - 1, nextY = y + random.nextInt(3) - 1;
+                    if ((nextX == x && nextY == y) || nextX < 0 || nextY < 0 || nextX >= size.getWidth() || nextY >= size.getHeight()) continue;
+                    if (terrain.isBlocked(nextX, nextY)) continue;
+
+                    x = nextX;
+                    y = nextY;
+                    commandQueues[pid].addMovementCommand(unit.getId(), new Position(x, y));
+                }
+            }
+
+            var productionOrders = PossibleActions.of(game, pid).getProductionOrders();
+            if (!productionOrders.isEmpty()) commandQueues[pid].addCommand(Util.selectRandom(productionOrders, random), false);
+        }
+        return commandQueues;
+    }
+
+    private static CommandQueue[] copy(CommandQueue[] commandQueues) {
+        var copy = new CommandQueue[commandQueues.length];
+        for (int i = 0; i < copy.length; i++) copy[i] = new CommandQueue(commandQueues[i]);
+        return copy;
+    }
+
+    private void compare(HeuristicFeatures engine, HeuristicFeatures approximation) {
+        int engineLeader = 0, approximationLeader = 0;
+        double engineBest = Double.NEGATIVE_INFINITY, approximationBest = Double.NEGATIVE_INFINITY;
+
+        for (int pid = 0; pid < engine.getNumberOfPlayers(); pid++) {
+            unitError += Math.abs(engine.getUnitCount(pid) - approximation.getUnitCount(pid));
+            cityError += Math.abs(engine.getCityCount(pid) - approximation.getCityCount(pid));
+            discoveryError += Math.abs(engine.getDiscoveredCount(pid) - approximation.getDiscoveredCount(pid));
+            healthError += Math.abs((engine.getTotalHealth(pid) - engine.getDamageTaken(pid)) - (approximation.getTotalHealth(pid) - approximation.getDamageTaken(pid)));
+
+            double engineValue = Heuristics.determineHeuristicValue(engine, pid, weights);
+            double approximationValue = Heuristics.determineHeuristicValue(approximation, pid, weights);
+            heuristicError += Math.abs(engineValue - approximationValue);
+            heuristicScale += Math.abs(engineValue);
+            samples++;
+
+            if (engineValue > engineBest) {
+                engineBest = engineValue;
+                engineLeader = pid;
+            }
+            if (approximationValue > approximationBest) {
+                approximationBest = approximationValue;
+                approximationLeader = pid;
+            }
+        }
+
+        if (engineLeader == approximationLeader) agreedLeaders++;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    @Override
+    public String toString() {
+        long n = Math.max(1, samples);
+        return "AbstractRolloutBenchmark{" +
+                "rollouts=" + rollouts +
+                ", engineRolloutsPerSecond=" + round(rollouts / Math.max(1e-9, engineNanos / 1e9)) +
+                ", abstractRolloutsPerSecond=" + round(rollouts / Math.max(1e-9, abstractNanos / 1e9)) +
+                ", unitError=" + round(unitError / n) +
+                ", cityError=" + round(cityError / n) +
+                ", discoveryError=" + round(discoveryError / n) +
+                ", healthError=" + round(healthError / n) +
+                ", heuristicError=" + round(heuristicError / n) +
+                " (" + round(100 * heuristicError / Math.max(1e-9, heuristicScale)) + "%)" +
+                ", agreedLeaders=" + round(100.0 * agreedLeaders / Math.max(1, rollouts)) + "%" +
+                '}';
+    }
+}
@@ -0,0 +1,89 @@
+package at.ac.tuwien.ifs.sge.agent.util.Abstract;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnitType;
+
+import java.util.List;
+
+/**
+ * Simplified rules of the abstract rollouts, indexed by unit type id
+ *
+ * The values are derived from the unit types of the game, the way the engine applies them on average: combat deals
+ * its expected damage (hits per second * hit probability * mean damage) instead of a random one, a move to an adjacent
+ * tile takes 1 / tiles per second. AbstractRolloutBenchmark measures how far abstract rollouts drift from engine
+ * rollouts with these rules.
+ */
+public final class AbstractRules {
+
+    // Time a unit needs to move to an adjacent tile
+    final int[] moveMs;
+
+    // Expected damage a unit deals per second to a unit on an adjacent tile
+    final float[] damagePerSecond;
+
+    // Max HP of units produced during a rollout
+    final float[] maxHp;
+
+    // Radius (Chebyshev distance) of the tiles a unit discovers
+    final int[] fieldOfView;
+
+    // Time a city needs to produce a unit
+    final int[] productionMs;
+
+    // Unit types which are not part of the game are treated as this one, the one with the lowest id
+    final int defaultType;
+
+    private AbstractRules(int types, int defaultType) {
+        this.moveMs = new int[types];
+        this.damagePerSecond = new float[types];
+        this.maxHp = new float[types];
+        this.fieldOfView = new int[types];
+        this.productionMs = new int[types];
+        this.defaultType = defaultType;
+    }
+
+    /**
+     * Derives the rules from the unit types of game
+     */
+    public static AbstractRules of(Empire game) {
+        return of(game.getGameConfiguration().getUnitTypes());
+    }
+
+    public static AbstractRules of(List<EmpireUnitType> unitTypes) {
+        if (unitTypes.isEmpty()) throw new IllegalArgumentException("Game has no unit types");
+
+        int maxId = 0, minId = Integer.MAX_VALUE;
+        for (var unitType : unitTypes) {
+            maxId = Math.max(maxId, unitType.getUnitTypeId());
+            minId = Math.min(minId, unitType.getUnitTypeId());
+        }
+
+        var rules = new AbstractRules(maxId + 1, minId);
+        var known = new boolean[maxId + 1];
+        for (var unitType : unitTypes) {
+            int id = unitType.getUnitTypeId();
+            known[id] = true;
+            rules.moveMs[id] = unitType.getTilesPerSecond() > 0 ? (int) Math.round(1000 / unitType.getTilesPerSecond()) : Integer.MAX_VALUE;
+            rules.damagePerSecond[id] = (float) (unitType.getHitsPerSecond() * unitType.getHitProbability() * (unitType.getMinDamage() + unitType.getMaxDamage()) / 2);
+            rules.maxHp[id] = unitType.getMaxHp();
+            rules.fieldOfView[id] = unitType.getFov();
+            // Production times of the game are in seconds
+            rules.productionMs[id] = (int) Math.round(unitType.getProductionTime() * 1000);
+        }
+
+        // Ids without a unit type get the rules of the default type
+        for (int id = 0; id <= maxId; id++) {
+            if (known[id]) continue;
+            rules.moveMs[id] = rules.moveMs[minId];
+            rules.damagePerSecond[id] = rules.damagePerSecond[minId];
+            rules.maxHp[id] = rules.maxHp[minId];
+            rules.fieldOfView[id] = rules.fieldOfView[minId];
+            rules.productionMs[id] = rules.productionMs[minId];
+        }
+        return rules;
+    }
+
+    int type(int unitType) {
+        return unitType >= 0 && unitType < moveMs.length ? unitType : defaultType;
+    }
+}
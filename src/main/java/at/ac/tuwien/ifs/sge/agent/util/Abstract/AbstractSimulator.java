@@ -0,0 +1,271 @@
+package at.ac.tuwien.ifs.sge.agent.util.Abstract;
+
+import at.ac.tuwien.ifs.sge.agent.util.EncodedAction;
+import at.ac.tuwien.ifs.sge.agent.util.LongQueue;
+import at.ac.tuwien.ifs.sge.agent.util.OpponentModel;
+import at.ac.tuwien.ifs.sge.agent.util.RolloutSimulator;
+
+import java.util.Random;
+
+/**
+ * Executes the command queues of all players on an AbstractState, like the RolloutSimulator does on an Empire
+ *
+ * Each step schedules the next command of every idle unit and city of the player to turn (idle units attack an
+ * adjacent enemy first) and advances the state by RolloutSimulator.DEFAULT_SIMULATION_PACE_MS with the AbstractRules:
+ * - movement to an adjacent tile which is not blocked and has no enemy unit takes moveMs, a unit which enters a
+ *   city without enemy units captures it
+ * - combat deals damagePerSecond to a unit on the adjacent target tile as long as there is one
+ * - production spawns a unit on the city after productionMs
+ * Orders which are not valid are dropped like invalid actions in the engine.
+ */
+public class AbstractSimulator {
+
+    private final OpponentModel opponentModel;
+
+    public AbstractSimulator() {
+        this(OpponentModel.ALTERNATING);
+    }
+
+    public AbstractSimulator(OpponentModel opponentModel) {
+        this.opponentModel = opponentModel;
+    }
+
+    /**
+     * Simulates what would happen if the scheduled commands in the command queues would all be executed, state is modified
+     * Ends under the same conditions as RolloutSimulator.simulate()
+     */
+    public void simulate(AbstractState state, int playerToTurn, long nextDecisionTime, Random random) {
+        simulate(state, playerToTurn, nextDecisionTime, random, RolloutSimulator.DEFAULT_SIMULATION_DEPTH + 1);
+    }
+
+    /**
+     * Like simulate(), but runs at most maxSteps steps, returns the number of steps which were run
+     */
+    public int simulate(AbstractState state, int playerToTurn, long nextDecisionTime, Random random, int maxSteps) {
+        var steps = 0;
+        while (!state.isGameOver() && steps < maxSteps && System.currentTimeMillis() < nextDecisionTime && state.hasCommands()) {
+            step(state, playerToTurn, random);
+            steps++;
+            playerToTurn = opponentModel.nextPlayer(playerToTurn, state.numberOfPlayers);
+        }
+        return steps;
+    }
+
+    /**
+     * Schedules the next commands of playerToTurn (and of the opponents with OpponentModel.FIXED_POLICY) and advances state
+     */
+    public void step(AbstractState state, int playerToTurn, Random random) {
+        if (state.doNothing[playerToTurn]) state.doNothing[playerToTurn] = false;
+        else scheduleCommands(state, playerToTurn, false, random);
+
+        if (opponentModel == OpponentModel.FIXED_POLICY) {
+            for (int opponent = 0; opponent < state.numberOfPlayers; opponent++) {
+                if (opponent == playerToTurn) continue;
+                state.doNothing[opponent] = false;
+                scheduleCommands(state, opponent, true, random);
+            }
+        }
+
+        advance(state, RolloutSimulator.DEFAULT_SIMULATION_PACE_MS);
+    }
+
+    /**
+     * Schedules the next command of each idle unit and city of player
+     * If allIdleUnits is false, only units with a queue attack adjacent enemies, like in RolloutSimulator. If it is true,
+     * units without commands step toward their nearest target, like the opponent policy of RolloutSimulator
+     */
+    private void scheduleCommands(AbstractState state, int player, boolean allIdleUnits, Random random) {
+        // Units produced in this step are not scheduled before the next one
+        int unitCount = state.unitCount;
+        for (int unit = 0; unit < unitCount; unit++) {
+            if (state.unitPlayer[unit] != player || state.unitActivity[unit] != EncodedAction.NONE) continue;
+            if (state.unitQueues[unit] == null && !allIdleUnits) continue;
+
+            // If possible, attack an adjacent enemy first
+            int target = randomAdjacentEnemy(state, unit, random);
+            if (target >= 0) {
+                if (state.unitQueues[unit] == null) state.unitQueues[unit] = new LongQueue();
+                state.unitQueues[unit].addFirst(EncodedAction.encode(EncodedAction.COMBAT_START, unit, state.unitX[target], state.unitY[target]));
+            }
+
+            var queue = state.unitQueues[unit];
+            if (queue != null && !queue.isEmpty()) startUnitAction(state, unit, queue.poll(), queue);
+            else if (allIdleUnits) {
+                long step = stepTowardNearestTarget(state, unit);
+                if (step != EncodedAction.NONE) startUnitAction(state, unit, step, null);
+            }
+        }
+
+        for (int city = 0; city < state.cityCount; city++) {
+            var queue = state.cityQueues[city];
+            if (queue == null || queue.isEmpty()) continue;
+
+            long action = queue.poll();
+            if (EncodedAction.kind(action) != EncodedAction.PRODUCTION_START) continue;
+            if (state.cityOwner[city] != player || state.cityProducing[city] != 0) continue;
+
+            int type = state.rules.type(EncodedAction.unit(action));
+            state.cityProducing[city] = type;
+            state.cityRemainingMs[city] = state.rules.productionMs[type];
+        }
+    }
+
+    /**
+     * Starts action of unit, a movement onto a tile held by an ally is put back into queue (if not null)
+     */
+    private void startUnitAction(AbstractState state, int unit, long action, LongQueue queue) {
+        int x = EncodedAction.x(action), y = EncodedAction.y(action);
+
+        switch (EncodedAction.kind(action)) {
+            case EncodedAction.MOVEMENT_START -> {
+                if (!isAdjacent(state, unit, x, y) || !state.isInside(x, y) || state.isBlocked(x, y)) return;
+
+                // If an enemy is on the destination the movement is not possible, if an ally is, try again in the next step
+                if (state.hasEnemyUnitAt(state.unitPlayer[unit], x, y)) return;
+                if (isHeldByAlly(state, unit, x, y)) {
+                    if (queue != null) queue.addFirst(action);
+                    return;
+                }
+
+                state.unitActivity[unit] = action;
+                state.unitBusyMs[unit] = state.rules.moveMs[state.rules.type(state.unitType[unit])];
+            }
+            case EncodedAction.COMBAT_START -> {
+                if (isAdjacent(state, unit, x, y) && state.hasEnemyUnitAt(state.unitPlayer[unit], x, y)) state.unitActivity[unit] = action;
+            }
+            default -> { }
+        }
+    }
+
+    /**
+     * Advances movements, combats and productions by ms
+     */
+    void advance(AbstractState state, int ms) {
+        // Damage is dealt simultaneously, so the order of the units does not matter
+        var damage = new float[state.unitCount];
+
+        for (int unit = 0; unit < state.unitCount; unit++) {
+            if (!state.isAlive(unit)) continue;
+            long activity = state.unitActivity[unit];
+
+            switch (EncodedAction.kind(activity)) {
+                case EncodedAction.MOVEMENT_START -> {
+                    state.unitBusyMs[unit] -= ms;
+                    if (state.unitBusyMs[unit] > 0) continue;
+                    move(state, unit, EncodedAction.x(activity), EncodedAction.y(activity));
+                    state.unitActivity[unit] = EncodedAction.NONE;
+                }
+                case EncodedAction.COMBAT_START -> {
+                    int target = enemyAt(state, state.unitPlayer[unit], EncodedAction.x(activity), EncodedAction.y(activity));
+                    if (target < 0) {
+                        state.unitActivity[unit] = EncodedAction.NONE;
+                        continue;
+                    }
+                    damage[target] += state.rules.damagePerSecond[state.rules.type(state.unitType[unit])] * ms / 1000f;
+                }
+                default -> { }
+            }
+        }
+
+        for (int unit = 0; unit < damage.length; unit++) {
+            if (damage[unit] == 0 || !state.isAlive(unit)) continue;
+            state.unitHp[unit] -= damage[unit];
+            if (state.unitHp[unit] <= 0) state.kill(unit);
+        }
+
+        for (int city = 0; city < state.cityCount; city++) {
+            if (state.cityProducing[city] == 0) continue;
+            state.cityRemainingMs[city] -= ms;
+            if (state.cityRemainingMs[city] > 0) continue;
+
+            int type = state.cityProducing[city];
+            state.cityProducing[city] = 0;
+            if (state.cityOwner[city] != AbstractState.NO_PLAYER)
+                state.addUnit(state.cityOwner[city], type, state.cityX[city], state.cityY[city], state.rules.maxHp[type], state.rules.maxHp[type]);
+        }
+    }
+
+    private static void move(AbstractState state, int unit, int x, int y) {
+        int player = state.unitPlayer[unit];
+        if (state.hasEnemyUnitAt(player, x, y)) return;
+
+        state.unitX[unit] = x;
+        state.unitY[unit] = y;
+        state.discover(unit);
+
+        int city = state.cityAt(x, y);
+        if (city >= 0 && state.cityOwner[city] != player) {
+            state.cityOwner[city] = player;
+            state.cityProducing[city] = 0;
+        }
+    }
+
+    private static boolean isAdjacent(AbstractState state, int unit, int x, int y) {
+        return Math.max(Math.abs(state.unitX[unit] - x), Math.abs(state.unitY[unit] - y)) == 1;
+    }
+
+    /**
+     * Returns true if an ally of unit stands on x, y outside of a city, cities hold several units
+     */
+    private static boolean isHeldByAlly(AbstractState state, int unit, int x, int y) {
+        if (state.cityAt(x, y) >= 0) return false;
+        for (int other = 0; other < state.unitCount; other++)
+            if (other != unit && state.unitPlayer[other] == state.unitPlayer[unit] && state.unitX[other] == x && state.unitY[other] == y) return true;
+        return false;
+    }
+
+    private static int enemyAt(AbstractState state, int player, int x, int y) {
+        for (int unit = 0; unit < state.unitCount; unit++)
+            if (state.isAlive(unit) && state.unitPlayer[unit] != player && state.unitX[unit] == x && state.unitY[unit] == y) return unit;
+        return -1;
+    }
+
+    /**
+     * Returns a random enemy unit on a tile adjacent to unit, -1 if there is none
+     */
+    private static int randomAdjacentEnemy(AbstractState state, int unit, Random random) {
+        int chosen = -1;
+        int candidates = 0;
+        for (int other = 0; other < state.unitCount; other++) {
+            if (!state.isAlive(other) || state.unitPlayer[other] == state.unitPlayer[unit]) continue;
+            if (!isAdjacent(state, unit, state.unitX[other], state.unitY[other])) continue;
+
+            // Reservoir sampling, so every adjacent enemy is chosen with the same probability
+            if (random.nextInt(++candidates) == 0) chosen = other;
+        }
+        return chosen;
+    }
+
+    /**
+     * Returns the movement of unit onto the next tile toward the nearest city its player does not hold or the nearest
+     * enemy unit, EncodedAction.NONE if there is no target
+     */
+    private static long stepTowardNearestTarget(AbstractState state, int unit) {
+        int player = state.unitPlayer[unit], x = state.unitX[unit], y = state.unitY[unit];
+        int targetX = x, targetY = y, nearestDistance = Integer.MAX_VALUE;
+        for (int city = 0; city < state.cityCount; city++) {
+            if (state.cityOwner[city] == player) continue;
+            int distance = Math.max(Math.abs(state.cityX[city] - x), Math.abs(state.cityY[city] - y));
+            if (distance > 0 && distance < nearestDistance) {
+                targetX = state.cityX[city];
+                targetY = state.cityY[city];
+                nearestDistance = distance;
+            }
+        }
+        for (int other = 0; other < state.unitCount; other++) {
+            if (!state.isAlive(other) || state.unitPlayer[other] == player) continue;
+            int distance = Math.max(Math.abs(state.unitX[other] - x), Math.abs(state.unitY[other] - y));
+            if (distance > 0 && distance < nearestDistance) {
+                targetX = state.unitX[other];
+                targetY = state.unitY[other];
+                nearestDistance = distance;
+            }
+        }
+        if (nearestDistance == Integer.MAX_VALUE) return EncodedAction.NONE;
+        return EncodedAction.encode(EncodedAction.MOVEMENT_START, unit, x + Integer.signum(targetX - x), y + Integer.signum(targetY - y));
+    }
+
+    public OpponentModel getOpponentModel() {
+        return opponentModel;
+    }
+}
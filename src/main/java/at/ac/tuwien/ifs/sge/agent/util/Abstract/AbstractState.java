@@ -0,0 +1,341 @@
+package at.ac.tuwien.ifs.sge.agent.util.Abstract;
+
+import at.ac.tuwien.ifs.sge.agent.util.CommandQueue;
+import at.ac.tuwien.ifs.sge.agent.util.EncodedAction;
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicFeatures;
+import at.ac.tuwien.ifs.sge.agent.util.LongQueue;
+import at.ac.tuwien.ifs.sge.agent.util.TerrainIndex;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.model.map.EmpireProductionState;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Compact game state of the abstract rollouts, which only keeps what the heuristics read:
+ * units (position, HP, type), cities (owner, production) and the discovered tiles of each player
+ *
+ * Units and cities are slots in parallel arrays, dead units keep their slot with player -1. The command queues of
+ * the players are copied into the slots, encoded actions refer to unit slots instead of the UnitIndex of the match.
+ * Terrain and the city of each tile never change during a rollout and are shared by all copies.
+ */
+public class AbstractState {
+
+    static final int NO_PLAYER = -1;
+
+    final int width;
+    final int height;
+    final int numberOfPlayers;
+
+    // TerrainIndex.UNKNOWN, PASSABLE or BLOCKED of each tile in row-major order, shared
+    final byte[] terrain;
+
+    // City slot of each tile in row-major order, -1 if there is no city, shared
+    final int[] cityAt;
+
+    // Rules of the unit types of the game, shared
+    final AbstractRules rules;
+
+    int unitCount;
+    int[] unitPlayer;
+    int[] unitType;
+    int[] unitX;
+    int[] unitY;
+    float[] unitHp;
+    float[] unitMaxHp;
+
+    // Encoded action the unit executes (movement or combat), EncodedAction.NONE if the unit is idle
+    long[] unitActivity;
+    // Time until the movement of the unit is completed
+    int[] unitBusyMs;
+    LongQueue[] unitQueues;
+
+    final int cityCount;
+    final int[] cityX;
+    final int[] cityY;
+    final int[] cityOwner;
+    // Unit type the city produces, 0 if it is idle
+    final int[] cityProducing;
+    final int[] cityRemainingMs;
+    final LongQueue[] cityQueues;
+
+    final BitSet[] discovered;
+    final boolean[] doNothing;
+
+    private AbstractState(int width, int height, int numberOfPlayers, byte[] terrain, int[] cityAt, AbstractRules rules, int unitCapacity, int cityCount) {
+        this.width = width;
+        this.height = height;
+        this.numberOfPlayers = numberOfPlayers;
+        this.terrain = terrain;
+        this.cityAt = cityAt;
+        this.rules = rules;
+
+        this.unitPlayer = new int[unitCapacity];
+        this.unitType = new int[unitCapacity];
+        this.unitX = new int[unitCapacity];
+        this.unitY = new int[unitCapacity];
+        this.unitHp = new float[unitCapacity];
+        this.unitMaxHp = new float[unitCapacity];
+        this.unitActivity = new long[unitCapacity];
+        this.unitBusyMs = new int[unitCapacity];
+        this.unitQueues = new LongQueue[unitCapacity];
+
+        this.cityCount = cityCount;
+        this.cityX = new int[cityCount];
+        this.cityY = new int[cityCount];
+        this.cityOwner = new int[cityCount];
+        this.cityProducing = new int[cityCount];
+        this.cityRemainingMs = new int[cityCount];
+        this.cityQueues = new LongQueue[cityCount];
+
+        this.discovered = new BitSet[numberOfPlayers];
+        this.doNothing = new boolean[numberOfPlayers];
+    }
+
+    /**
+     * Reads game and the command queues of all players, neither of them is modified
+     * Units which are not idle in game are treated as idle, their current order is not visible to the agent
+     */
+    public static AbstractState of(Empire game, CommandQueue[] commandQueues) {
+        var board = game.getBoard();
+        int width = board.getMapSize().getWidth();
+        int height = board.getMapSize().getHeight();
+        int numberOfPlayers = game.getNumberOfPlayers();
+
+        var tiles = board.getEmpireTiles();
+        var terrain = new byte[width * height];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                terrain[y * width + x] = tiles[y][x] == null ? TerrainIndex.UNKNOWN : TerrainIndex.classify(tiles[y][x]);
+
+        var cities = game.getCitiesByPosition().values();
+        var cityAt = new int[width * height];
+        Arrays.fill(cityAt, -1);
+
+        int unitCount = 0;
+        for (int pid = 0; pid < numberOfPlayers; pid++) unitCount += game.getUnitsByPlayer(pid).size();
+
+        var state = new AbstractState(width, height, numberOfPlayers, terrain, cityAt, AbstractRules.of(game), Math.max(8, 2 * unitCount), cities.size());
+
+        // Slot of each unit by its index in the UnitIndex of the command queues
+        var units = commandQueues[0].getUnits();
+        var slotByIndex = new int[units.size()];
+        Arrays.fill(slotByIndex, -1);
+
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            for (var unit : game.getUnitsByPlayer(pid)) {
+                int slot = state.addUnit(pid, unit.getUnitTypeId(), unit.getPosition().getX(), unit.getPosition().getY(), (float) unit.getHp(), unit.getMaxHp());
+                var index = units.indexOf(unit.getId());
+                if (index >= 0 && index < slotByIndex.length) slotByIndex[index] = slot;
+            }
+        }
+
+        int city = 0;
+        for (var empireCity : cities) {
+            var position = empireCity.getPosition();
+            state.cityX[city] = position.getX();
+            state.cityY[city] = position.getY();
+            state.cityOwner[city] = HeuristicFeatures.ownerOf(empireCity, numberOfPlayers);
+            // The produced unit type is not visible, producing cities are assumed to be halfway through the default type
+            if (empireCity.getState() == EmpireProductionState.Producing) {
+                var rules = state.rules;
+                state.cityProducing[city] = rules.defaultType;
+                state.cityRemainingMs[city] = rules.productionMs[rules.defaultType] / 2;
+            }
+            cityAt[position.getY() * width + position.getX()] = city++;
+        }
+
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            state.discovered[pid] = new BitSet(width * height);
+            for (var entry : board.getDiscoveredByPosition().entrySet())
+                if (entry.getValue()[pid]) state.discovered[pid].set(entry.getKey().getY() * width + entry.getKey().getX());
+
+            state.doNothing[pid] = commandQueues[pid].doNothing;
+            state.readQueues(commandQueues[pid], slotByIndex);
+        }
+
+        return state;
+    }
+
+    private void readQueues(CommandQueue commandQueue, int[] slotByIndex) {
+        var queuedUnits = commandQueue.getQueuedUnits();
+        for (int index = queuedUnits.nextSetBit(0); index >= 0; index = queuedUnits.nextSetBit(index + 1)) {
+            int slot = index < slotByIndex.length ? slotByIndex[index] : -1;
+            if (slot < 0) continue;
+
+            var queue = commandQueue.getUnitCommandQueue(index);
+            var remapped = new LongQueue();
+            for (int i = 0; i < queue.size(); i++) {
+                long action = queue.get(i);
+                remapped.addLast(EncodedAction.encode(EncodedAction.kind(action), slot, EncodedAction.x(action), EncodedAction.y(action)));
+            }
+            unitQueues[slot] = remapped;
+        }
+
+        for (var entry : commandQueue.getCityCommandQueue().entrySet()) {
+            int city = cityAt(entry.getKey().getX(), entry.getKey().getY());
+            if (city >= 0) cityQueues[city] = new LongQueue(entry.getValue());
+        }
+    }
+
+    /**
+     * Deep copy, terrain and cities by tile are shared
+     */
+    public AbstractState copy() {
+        var copy = new AbstractState(width, height, numberOfPlayers, terrain, cityAt, rules, unitPlayer.length, cityCount);
+        copy.unitCount = unitCount;
+        System.arraycopy(unitPlayer, 0, copy.unitPlayer, 0, unitCount);
+        System.arraycopy(unitType, 0, copy.unitType, 0, unitCount);
+        System.arraycopy(unitX, 0, copy.unitX, 0, unitCount);
+        System.arraycopy(unitY, 0, copy.unitY, 0, unitCount);
+        System.arraycopy(unitHp, 0, copy.unitHp, 0, unitCount);
+        System.arraycopy(unitMaxHp, 0, copy.unitMaxHp, 0, unitCount);
+        System.arraycopy(unitActivity, 0, copy.unitActivity, 0, unitCount);
+        System.arraycopy(unitBusyMs, 0, copy.unitBusyMs, 0, unitCount);
+        for (int unit = 0; unit < unitCount; unit++) if (unitQueues[unit] != null) copy.unitQueues[unit] = new LongQueue(unitQueues[unit]);
+
+        System.arraycopy(cityX, 0, copy.cityX, 0, cityCount);
+        System.arraycopy(cityY, 0, copy.cityY, 0, cityCount);
+        System.arraycopy(cityOwner, 0, copy.cityOwner, 0, cityCount);
+        System.arraycopy(cityProducing, 0, copy.cityProducing, 0, cityCount);
+        System.arraycopy(cityRemainingMs, 0, copy.cityRemainingMs, 0, cityCount);
+        for (int city = 0; city < cityCount; city++) if (cityQueues[city] != null) copy.cityQueues[city] = new LongQueue(cityQueues[city]);
+
+        for (int pid = 0; pid < numberOfPlayers; pid++) copy.discovered[pid] = (BitSet) discovered[pid].clone();
+        System.arraycopy(doNothing, 0, copy.doNothing, 0, numberOfPlayers);
+        return copy;
+    }
+
+    /**
+     * Adds a unit and discovers the tiles in its field of view, returns its slot
+     */
+    int addUnit(int player, int type, int x, int y, float hp, float maxHp) {
+        if (unitCount == unitPlayer.length) grow();
+
+        int slot = unitCount++;
+        unitPlayer[slot] = player;
+        unitType[slot] = type;
+        unitX[slot] = x;
+        unitY[slot] = y;
+        unitHp[slot] = hp;
+        unitMaxHp[slot] = maxHp;
+        unitActivity[slot] = EncodedAction.NONE;
+        unitBusyMs[slot] = 0;
+        unitQueues[slot] = null;
+        if (discovered[player] != null) discover(slot);
+        return slot;
+    }
+
+    private void grow() {
+        int capacity = 2 * unitPlayer.length;
+        unitPlayer = Arrays.copyOf(unitPlayer, capacity);
+        unitType = Arrays.copyOf(unitType, capacity);
+        unitX = Arrays.copyOf(unitX, capacity);
+        unitY = Arrays.copyOf(unitY, capacity);
+        unitHp = Arrays.copyOf(unitHp, capacity);
+        unitMaxHp = Arrays.copyOf(unitMaxHp, capacity);
+        unitActivity = Arrays.copyOf(unitActivity, capacity);
+        unitBusyMs = Arrays.copyOf(unitBusyMs, capacity);
+        unitQueues = Arrays.copyOf(unitQueues, capacity);
+    }
+
+    /**
+     * Discovers the tiles in the field of view of unit for its player
+     */
+    void discover(int unit) {
+        int radius = rules.fieldOfView[rules.type(unitType[unit])];
+        var bits = discovered[unitPlayer[unit]];
+        int fromX = Math.max(0, unitX[unit] - radius), toX = Math.min(width - 1, unitX[unit] + radius);
+        for (int y = Math.max(0, unitY[unit] - radius); y <= Math.min(height - 1, unitY[unit] + radius); y++)
+            bits.set(y * width + fromX, y * width + toX + 1);
+    }
+
+    boolean isAlive(int unit) {
+        return unitPlayer[unit] != NO_PLAYER;
+    }
+
+    void kill(int unit) {
+        unitPlayer[unit] = NO_PLAYER;
+        unitActivity[unit] = EncodedAction.NONE;
+        unitQueues[unit] = null;
+    }
+
+    boolean isInside(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    boolean isBlocked(int x, int y) {
+        return terrain[y * width + x] == TerrainIndex.BLOCKED;
+    }
+
+    int cityAt(int x, int y) {
+        return isInside(x, y) ? cityAt[y * width + x] : -1;
+    }
+
+    /**
+     * Returns true if players other than player have a unit on tile x, y
+     */
+    boolean hasEnemyUnitAt(int player, int x, int y) {
+        for (int unit = 0; unit < unitCount; unit++)
+            if (isAlive(unit) && unitPlayer[unit] != player && unitX[unit] == x && unitY[unit] == y) return true;
+        return false;
+    }
+
+    public boolean isGameOver() {
+        int playersLeft = 0;
+        for (int pid = 0; pid < numberOfPlayers; pid++) if (hasUnitsOrCities(pid)) playersLeft++;
+        return playersLeft <= 1;
+    }
+
+    private boolean hasUnitsOrCities(int player) {
+        for (int unit = 0; unit < unitCount; unit++) if (unitPlayer[unit] == player) return true;
+        for (int city = 0; city < cityCount; city++) if (cityOwner[city] == player) return true;
+        return false;
+    }
+
+    /**
+     * Returns true if any player has commands left
+     */
+    public boolean hasCommands() {
+        for (int unit = 0; unit < unitCount; unit++) if (unitQueues[unit] != null && !unitQueues[unit].isEmpty()) return true;
+        for (int city = 0; city < cityCount; city++) if (cityQueues[city] != null && !cityQueues[city].isEmpty()) return true;
+        return false;
+    }
+
+    /**
+     * Features of this state for the heuristics, like HeuristicFeatures.of() of an Empire
+     */
+    public HeuristicFeatures toFeatures() {
+        var units = new int[numberOfPlayers];
+        var cities = new int[numberOfPlayers];
+        var discoveredCount = new int[numberOfPlayers];
+        var damageTaken = new double[numberOfPlayers];
+        var totalHealth = new double[numberOfPlayers];
+
+        for (int unit = 0; unit < unitCount; unit++) {
+            if (!isAlive(unit)) continue;
+            int pid = unitPlayer[unit];
+            units[pid]++;
+            damageTaken[pid] += unitMaxHp[unit] - unitHp[unit];
+            totalHealth[pid] += unitMaxHp[unit];
+        }
+        for (int city = 0; city < cityCount; city++) if (cityOwner[city] != NO_PLAYER) cities[cityOwner[city]]++;
+        for (int pid = 0; pid < numberOfPlayers; pid++) discoveredCount[pid] = discovered[pid].cardinality();
+
+        return new HeuristicFeatures(units, cities, discoveredCount, damageTaken, totalHealth, cityCount, width * height);
+    }
+
+    public int getNumberOfPlayers() {
+        return numberOfPlayers;
+    }
+
+    @Override
+    public String toString() {
+        return "AbstractState{" +
+                "size=" + width + "x" + height +
+                ", units=" + unitCount +
+                ", cities=" + cityCount +
+                ", features=" + toFeatures() +
+                '}';
+    }
+}
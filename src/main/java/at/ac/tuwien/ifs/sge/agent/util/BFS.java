@@ -1,12 +1,13 @@
 package at.ac.tuwien.ifs.sge.agent.util;
 
 
-import at.ac.tuwien.ifs.sge.agent.Imperion;
+import at.ac.tuwien.ifs.sge.agent.util.Jfr.PathfindingEvent;
 import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
 import at.ac.tuwien.ifs.sge.game.empire.communication.event.action.MovementAction;
 import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.MovementStartOrder;
 import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
 import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.map.EmpireTile;
 import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
 
 import java.util.ArrayDeque;
@@ -24,52 +25,114 @@ public class BFS {
      * Returns shortest path in the direction of the destination, but doesn't return movement action for undiscovered tiles
      */
     public static List<EmpireEvent> findShortestPath(EmpireUnit unit, Position destination, Empire game, int playerId){
-        Imperion.logger.trace("Start findShortestPath " + unit + " to " + destination);
+        var path = findPath(unit.getPosition(), destination, game, playerId);
 
-        var actions = new ArrayDeque<MovementStartOrder>();
+        if(path == null) return null;
 
-        var node = bfs(unit.getPosition(), destination, game, playerId);
-        Imperion.logger.trace("End bfs");
-        Imperion.logAssertWithMessage(node != null, "No path was found for " + unit + " to " + destination);
+        return toMovementOrders(unit, path, game);
+    }
+
+    /**
+     * Returns null if path was not found
+     * Returns all positions of the shortest path from source (excluded) to destination (included), including undiscovered tiles
+     */
+    public static List<Position> findPath(Position source, Position destination, Empire game, int playerId){
+        return findPath(source, destination, game, playerId, null);
+    }
+
+    /**
+     * Same as findPath(), but rejects unreachable destinations in O(1) and reads static terrain from the terrain index
+     */
+    public static List<Position> findPath(Position source, Position destination, Empire game, int playerId, TerrainIndex terrain){
+        if(terrain != null && !terrain.isReachable(source, destination)) return null;
+
+        var event = new PathfindingEvent();
+        event.begin();
+
+        var node = bfs(source, destination, game, playerId, terrain, event);
+
+        List<Position> result = null;
+        if(node != null) {
+            var path = new ArrayDeque<Position>();
+            while (node.parent != null){
+                path.addFirst(node.position);
+                node = node.parent;
+            }
+            result = new ArrayList<>(path);
+        }
+
+        event.end();
+        if(event.shouldCommit()) {
+            event.source = source.toString();
+            event.destination = destination.toString();
+            if(result != null) event.pathLength = result.size();
+            event.commit();
+        }
+
+        return result;
+    }
 
-        if(node == null) return null;
+    /**
+     * Returns BFS as Pathfinder, which uses the terrain index if it is not null
+     */
+    public static Pathfinder pathfinder(TerrainIndex terrain){
+        return (source, destination, game, playerId) -> findPath(source, destination, game, playerId, terrain);
+    }
 
-        // Build movement actions from path
-        while (node.parent != null){
-            actions.addFirst(new MovementStartOrder(unit, node.position));
-            node = node.parent;
+    /**
+     * Builds movement actions from path, but only for the visible tiles
+     */
+    public static List<EmpireEvent> toMovementOrders(EmpireUnit unit, List<Position> path, Empire game){
+        var actions = new ArrayList<EmpireEvent>();
+        for (var position : path) {
+            if(game.getBoard().getEmpireTiles()[position.getY()][position.getX()] != null) actions.add(new MovementStartOrder(unit, position));
         }
+        return actions;
+    }
+
+    /**
+     * Returns true if a unit of player could move onto tile
+     * Undiscovered tiles (null) are considered passable
+     */
+    public static boolean isPassable(EmpireTile tile, int playerId) {
+        // tile is not visible yet, just imagine it is possible to move there
+        if(tile == null) return true;
 
-        Imperion.logger.trace("Path is :" + actions);
-        Imperion.logger.trace("End findShortestPath " + unit + " to " + destination);
+        // tile is mountain
+        if(tile.getMapIdentifier() == 'm') return false;
 
-        // Only return movement actions for visible tiles
-        return new ArrayList<>(actions.stream().filter(order -> game.getBoard().getEmpireTiles()[order.getDestination().getY()][order.getDestination().getX()] != null).toList());
+        boolean enemyTerritory = tile.getPlayerId() != playerId && tile.getPlayerId() != -1;
+        boolean remainingSpace = tile.getMaxOccupants() > tile.getOccupants().size() || tile.getMaxOccupants() == -1;
+
+        return !enemyTerritory && tile.getMaxOccupants() != 0 && remainingSpace;
     }
 
-    private static Node bfs(Position source, Position destination, Empire game, int playerId) {
+    private static Node bfs(Position source, Position destination, Empire game, int playerId, TerrainIndex terrain, PathfindingEvent event) {
         //Imperion.logger.trace("Start bfs");
 
         var queue = new ArrayDeque<Node>();
 
         // Keeps track of already discovered positions
-        var discovered = new ArrayDeque<Position>();
+        var width = game.getBoard().getMapSize().getWidth();
+        var discovered = new boolean[width * game.getBoard().getMapSize().getHeight()];
 
         var root = new Node(source);
 
         queue.add(root);
-        discovered.add(root.position);
+        discovered[source.getY() * width + source.getX()] = true;
 
         while (!queue.isEmpty()){
             var node = queue.poll();
+            event.nodesExpanded++;
 
             if(node.position.equals(destination)) return node;
 
-            var neighbours = node.getNeighbours(game, playerId);
+            var neighbours = node.getNeighbours(game, playerId, terrain);
 
             for(var neighbour : neighbours){
-                if(discovered.contains(neighbour.position)) continue;
-                discovered.add(neighbour.position);
+                var index = neighbour.position.getY() * width + neighbour.position.getX();
+                if(discovered[index]) continue;
+                discovered[index] = true;
                 neighbour.parent = node;
                 queue.add(neighbour);
             }
@@ -93,6 +156,13 @@ public class BFS {
          * neighbours are positions where its corresponding tile is null (not discovered yet)
          */
         public List<Node> getNeighbours(Empire game, int playerId) {
+            return getNeighbours(game, playerId, null);
+        }
+
+        /**
+         * Same as getNeighbours(), but skips tiles which are blocked according to the terrain index without reading them
+         */
+        public List<Node> getNeighbours(Empire game, int playerId, TerrainIndex terrain) {
             //Imperion.logger.trace("Start getNeighbours");
             var neighbours = new ArrayList<Node>();
 
@@ -105,21 +175,13 @@ public class BFS {
 
                 if (!game.getBoard().isInside(nextX, nextY)) continue;
 
+                if (terrain != null && terrain.isBlocked(nextX, nextY)) continue;
+
                 var tile = game.getBoard().getEmpireTiles()[nextY][nextX];
 
                 //Imperion.assertWithMessage(tile != null, "Tile is null Pos: (" + nextX + " " + nextY+")");
 
-                // tile is not visible yet, just imagine it is possible to move there
-                if(tile == null) {neighbours.add(new Node(new Position(nextX, nextY))); continue;}
-
-                // tile is mountain, do not add
-                if(tile.getMapIdentifier() == 'm') continue;
-
-                //Imperion.logger.info(tile);
-                boolean enemyTerritory = tile.getPlayerId() != playerId && tile.getPlayerId() != -1;
-                boolean remainingSpace = tile.getMaxOccupants() > tile.getOccupants().size() || tile.getMaxOccupants() == -1;
-
-                if(!enemyTerritory && tile.getMaxOccupants() != 0 && remainingSpace) neighbours.add(new Node(tile.getPosition()));
+                if(isPassable(tile, playerId)) neighbours.add(new Node(tile == null ? new Position(nextX, nextY) : tile.getPosition()));
             }
 
             //Imperion.logger.trace("Neighbours" + neighbours);
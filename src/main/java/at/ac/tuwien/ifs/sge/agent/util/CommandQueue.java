@@ -0,0 +1,206 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.agent.util.MacroAction.*;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Queued actions of the units and cities of a player
+ *
+ * Actions are stored as EncodedActions in primitive queues, so copying the queues into every node of the tree
+ * only copies long arrays. EmpireEvents are created by decode() when an action is scheduled.
+ * Unit queues are indexed by the dense index of their unit in the UnitIndex of the match.
+ */
+public class CommandQueue implements Serializable {
+    // Queue of each unit by its index, null if nothing was ever queued for the unit
+    private LongQueue[] unitCommandQueue;
+    private Map<Position, LongQueue> cityCommandQueue;
+
+    // Units of the encoded actions, shared by all copies of the queue
+    private final UnitIndex units;
+
+    // This lets the MCTS do nothing
+    public boolean doNothing = false;
+
+    public CommandQueue(CommandQueue commandQueue){
+        this.units = commandQueue.units;
+
+        this.unitCommandQueue = new LongQueue[commandQueue.unitCommandQueue.length];
+        for (int unit = 0; unit < unitCommandQueue.length; unit++){
+            if(commandQueue.unitCommandQueue[unit] != null) this.unitCommandQueue[unit] = new LongQueue(commandQueue.unitCommandQueue[unit]);
+        }
+
+        this.cityCommandQueue = new HashMap<>();
+        for (var command: commandQueue.cityCommandQueue.entrySet()){
+            this.cityCommandQueue.put(command.getKey(), new LongQueue(command.getValue()));
+        }
+    }
+
+    /**
+     * Creates an empty queue, units should be the table of the match, so the queues of all players share it
+     */
+    public CommandQueue(UnitIndex units) {
+        this.units = units;
+        unitCommandQueue = new LongQueue[0];
+        cityCommandQueue = new HashMap<>();
+    }
+
+    public CommandQueue() {
+        this(new UnitIndex());
+    }
+
+    public boolean isEmpty(){
+        for (var queue : unitCommandQueue) if (queue != null && !queue.isEmpty()) return false;
+        for (var queue : cityCommandQueue.values()) if (!queue.isEmpty()) return false;
+        return true;
+    }
+
+    private void addCityCommand(Position pos, long action){
+        cityCommandQueue.computeIfAbsent(pos, position -> new LongQueue()).addLast(action);
+    }
+
+    /**
+     * Adds command to queue, if inFront is true, then command will be added in front of other commands in queue
+     */
+    private void addUnitCommand(int unit, long action, boolean inFront){
+        if(unit >= unitCommandQueue.length) unitCommandQueue = Arrays.copyOf(unitCommandQueue, Math.max(unit + 1, units.size()));
+        if(unitCommandQueue[unit] == null) unitCommandQueue[unit] = new LongQueue();
+
+        var val = unitCommandQueue[unit];
+        if(inFront) val.addFirst(action); else val.addLast(action);
+    }
+
+    public void addCommand(EmpireEvent event, boolean inFront){
+        // Other events have no unit or city to be queued for and are ignored
+        addCommand(EncodedAction.encode(event, units), inFront);
+    }
+
+    /**
+     * Adds an EncodedAction, which was encoded with the UnitIndex of this queue
+     */
+    public void addCommand(long action, boolean inFront){
+        if(action == EncodedAction.NONE) return;
+        if(EncodedAction.isUnitAction(action)) addUnitCommand(EncodedAction.unit(action), action, inFront);
+        else addCityCommand(EncodedAction.position(action), action);
+    }
+
+    /**
+     * Adds a movement of unit to position without creating a MovementStartOrder
+     */
+    public void addMovementCommand(UUID unitId, Position position){
+        var unit = units.intern(unitId);
+        addUnitCommand(unit, EncodedAction.encode(EncodedAction.MOVEMENT_START, unit, position.getX(), position.getY()), false);
+    }
+
+    /**
+     * Adds macroAction to command queue
+     */
+    public void addCommand(MacroAction macroAction, boolean inFront){
+        if(macroAction instanceof DoNothingMacroAction){ doNothing = true; return;};
+        if(!(macroAction instanceof ScheduleNothingMacroAction)) for (var event : macroAction.getAtomicActions()) addCommand(event, inFront);
+    }
+
+    /**
+     * Creates the EmpireEvent of an action of this queue
+     */
+    public EmpireEvent decode(long action){
+        return EncodedAction.decode(action, units);
+    }
+
+    /**
+     * Creates the EmpireEvents of all actions of queue
+     */
+    public List<EmpireEvent> decodeAll(LongQueue queue){
+        var events = new ArrayList<EmpireEvent>(queue.size());
+        for (int i = 0; i < queue.size(); i++) events.add(decode(queue.get(i)));
+        return events;
+    }
+
+    /**
+     * Remove dead units from command queue
+     * Dead units could still have commands in queue, that's why we have to remove them
+     * Units which were never interned have no queue, so they are not interned here
+     */
+    public void removeDeadUnits(List<EmpireUnit> unitsByPlayer) {
+        var alive = units.knownIndicesOf(unitsByPlayer);
+        for (int unit = 0; unit < unitCommandQueue.length; unit++) if(!alive.get(unit)) unitCommandQueue[unit] = null;
+    }
+
+    /**
+     * Removes all queued commands of the unit with unitId
+     */
+    public void clearUnitCommands(UUID unitId) {
+        var unit = units.indexOf(unitId);
+        if(unit >= 0 && unit < unitCommandQueue.length) unitCommandQueue[unit] = null;
+    }
+
+    /**
+     * Returns the queue of the unit with index unit, null if nothing was queued for it
+     */
+    public LongQueue getUnitCommandQueue(int unit) {
+        return unit >= 0 && unit < unitCommandQueue.length ? unitCommandQueue[unit] : null;
+    }
+
+    public LongQueue getUnitCommandQueue(UUID unitId) {
+        return getUnitCommandQueue(units.indexOf(unitId));
+    }
+
+    /**
+     * Returns the indices of all units which have a queue (which might be empty already)
+     */
+    public BitSet getQueuedUnits() {
+        var queued = new BitSet(unitCommandQueue.length);
+        for (int unit = 0; unit < unitCommandQueue.length; unit++) if(unitCommandQueue[unit] != null) queued.set(unit);
+        return queued;
+    }
+
+    /**
+     * Returns the indices of all units which have commands in their queue
+     */
+    public BitSet getUnitsWithCommands() {
+        var withCommands = new BitSet(unitCommandQueue.length);
+        for (int unit = 0; unit < unitCommandQueue.length; unit++) if(unitCommandQueue[unit] != null && !unitCommandQueue[unit].isEmpty()) withCommands.set(unit);
+        return withCommands;
+    }
+
+    public Map<Position, LongQueue> getCityCommandQueue() {
+        return cityCommandQueue;
+    }
+
+    public UnitIndex getUnits() {
+        return units;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandQueue{" +
+                "   unitCommandQueue=" + prettyPrint(unitQueuesById()) +
+                "   cityCommandQueue=" + prettyPrint(cityCommandQueue) +
+                '}';
+    }
+
+    private Map<UUID, LongQueue> unitQueuesById(){
+        var queues = new LinkedHashMap<UUID, LongQueue>();
+        for (int unit = 0; unit < unitCommandQueue.length; unit++) if(unitCommandQueue[unit] != null) queues.put(units.getUnitId(unit), unitCommandQueue[unit]);
+        return queues;
+    }
+
+    private String prettyPrint(Map<?, LongQueue> map){
+        StringBuilder s = new StringBuilder("{");
+        for (var entry : map.entrySet()) {
+            s.append(entry.getKey()).append("=[");
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                if (i > 0) s.append(", ");
+                s.append(EncodedAction.toString(entry.getValue().get(i)));
+            }
+            s.append("] ");
+        }
+
+        return s.append("}").toString();
+    }
+
+}
@@ -0,0 +1,70 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CPU time one match may spend on the search of a single decision
+ *
+ * If many matches share a SearchPool, a decision can end before its deadline once its budget is spent, so a single
+ * match with expensive iterations can not take the pool away from the others. The time is measured as CPU time of
+ * the threads running the search, or as wall time if the JVM can not measure CPU time.
+ */
+public class CpuBudget {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final long budgetNanos;
+    private final boolean cpuTimeSupported;
+
+    // Charged by the pool threads running the slices, the determinized searches of one decision run concurrently
+    private final AtomicLong usedNanos = new AtomicLong();
+
+    private long totalUsedNanos = 0;
+    private int decisions = 0;
+    private int exhaustedDecisions = 0;
+
+    public CpuBudget(long budgetMs) {
+        this.budgetNanos = budgetMs * 1_000_000;
+        this.cpuTimeSupported = THREADS.isCurrentThreadCpuTimeSupported();
+    }
+
+    /**
+     * Starts the budget of a new decision
+     */
+    public void reset() {
+        if (isExhausted()) exhaustedDecisions++;
+        totalUsedNanos += usedNanos.getAndSet(0);
+        decisions++;
+    }
+
+    /**
+     * Returns a timestamp in ns of the current thread to measure the time spent between two calls
+     */
+    public long now() {
+        return cpuTimeSupported ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    public void charge(long nanos) {
+        usedNanos.addAndGet(nanos);
+    }
+
+    public boolean isExhausted() {
+        return usedNanos.get() >= budgetNanos;
+    }
+
+    public long getUsedNanos() {
+        return usedNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CpuBudget{" +
+                "budgetMs=" + budgetNanos / 1_000_000 +
+                ", cpuTime=" + cpuTimeSupported +
+                ", averageUsedMs=" + (decisions == 0 ? 0 : totalUsedNanos / decisions / 1_000_000) +
+                ", exhaustedDecisions=" + exhaustedDecisions +
+                '}';
+    }
+}
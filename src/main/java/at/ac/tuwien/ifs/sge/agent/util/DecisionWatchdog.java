@@ -0,0 +1,160 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.agent.ImperionGameNode;
+import at.ac.tuwien.ifs.sge.core.engine.logging.Logger;
+import at.ac.tuwien.ifs.sge.core.util.tree.Tree;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Makes sure that the actions of a decision are sent by a hard deadline
+ *
+ * During the search the decision thread offers the best child of the root found so far. When the search ends it claims
+ * its decision and sends it through send(). If nothing was sent when the deadline passes (e.g. it stalls in a long BFS,
+ * a GC pause or an exception was thrown), the watchdog sends the actions of the claimed node, or of the best child found
+ * so far if the decision was not claimed yet.
+ */
+public class DecisionWatchdog {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "imperion-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Sends the actions of the given node to the server
+    private final Consumer<ImperionGameNode> fallback;
+
+    private final Logger log;
+
+    // Best child of the root found so far, written by the decision thread after every iteration
+    private volatile Tree<ImperionGameNode> bestSoFar;
+
+    // Node the decision thread decided on in the current decision, null if the search is still running
+    private ImperionGameNode claimedNode;
+
+    // Node whose actions were sent in the current decision, null if nothing was sent yet
+    private ImperionGameNode decidedNode;
+
+    private long decision = 0;
+    private ScheduledFuture<?> deadline;
+
+    private int missedDeadlines = 0;
+    private int fallbacksSent = 0;
+
+    public DecisionWatchdog(Consumer<ImperionGameNode> fallback, Logger log) {
+        this.fallback = fallback;
+        this.log = log;
+    }
+
+    /**
+     * Starts a new decision which has to be sent within deadlineMs
+     */
+    public synchronized void arm(long deadlineMs) {
+        if (deadline != null) deadline.cancel(false);
+
+        var currentDecision = ++decision;
+        bestSoFar = null;
+        claimedNode = null;
+        decidedNode = null;
+        deadline = scheduler.schedule(() -> onDeadline(currentDecision), deadlineMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Offers the best child of the root found so far
+     */
+    public void offer(Tree<ImperionGameNode> rootChild) {
+        bestSoFar = rootChild;
+    }
+
+    /**
+     * Offers the child of the root on the path to the given node, if it has been visited more often than the current best
+     */
+    public void offerIfMoreVisited(Tree<ImperionGameNode> tree) {
+        if (tree.isRoot()) return;
+
+        while (!tree.getParent().isRoot()) tree = tree.getParent();
+
+        var best = bestSoFar;
+        if (best == null || tree.getNode().getVisits() > best.getNode().getVisits()) offer(tree);
+    }
+
+    /**
+     * Returns true if the decision thread has to send the actions of node itself by send(),
+     * false if the watchdog has already sent the actions of another node in this decision
+     * Until send() succeeds the deadline stays armed, if it passes the actions of node are sent
+     */
+    public synchronized boolean claim(ImperionGameNode node) {
+        if (decidedNode != null) return false;
+
+        claimedNode = node;
+        return true;
+    }
+
+    /**
+     * Runs sender, which sends the actions of the claimed node, unless the watchdog has sent actions in this decision
+     * The decision only counts as sent if sender returns, if it throws sendFallback() sends the claimed node
+     * Returns false if the watchdog had already sent actions
+     */
+    public synchronized boolean send(Runnable sender) {
+        if (decidedNode != null) return false;
+
+        sender.run();
+        decidedNode = claimedNode;
+        if (deadline != null) deadline.cancel(false);
+        return true;
+    }
+
+    /**
+     * Sends the actions of the claimed node, or of the best child found so far, right away (e.g. after an exception in
+     * the decision thread)
+     * Returns the node whose actions were sent in this decision, null if there was nothing to send
+     */
+    public synchronized ImperionGameNode sendFallback() {
+        if (deadline != null) deadline.cancel(false);
+        if (decidedNode == null) sendFallbackNode();
+        return decidedNode;
+    }
+
+    private synchronized void onDeadline(long expiredDecision) {
+        if (expiredDecision != decision || decidedNode != null) return;
+
+        missedDeadlines++;
+        log.info("Decision missed its deadline, sending " + (claimedNode != null ? "decided action" : "best action found so far"));
+        sendFallbackNode();
+    }
+
+    private void sendFallbackNode() {
+        var best = bestSoFar;
+        var node = claimedNode != null ? claimedNode : best != null ? best.getNode() : null;
+        if (node == null) {
+            log.info("No action found so far, nothing sent");
+            return;
+        }
+
+        fallbacksSent++;
+        fallback.accept(node);
+        decidedNode = node;
+    }
+
+    public synchronized ImperionGameNode getDecidedNode() {
+        return decidedNode;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DecisionWatchdog{" +
+                "decisions=" + decision +
+                ", missedDeadlines=" + missedDeadlines +
+                ", fallbacksSent=" + fallbacksSent +
+                '}';
+    }
+}
@@ -0,0 +1,121 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.agent.util.MacroAction.WaitEvent;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.CombatStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.MovementStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.ProductionStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.CombatStopOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.MovementStopOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.ProductionStopOrder;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+
+/**
+ * Encodes the actions the agent queues into a single long, EmpireEvents are only created when an action is
+ * scheduled into the game or sent to the server
+ *
+ * Layout: 4 bits kind, 28 bits unit index (UnitIndex) or unit type (production), 16 bits x, 16 bits y
+ * 0 is no valid action.
+ */
+public final class EncodedAction {
+
+    public static final int NONE = 0;
+    public static final int MOVEMENT_START = 1;
+    public static final int PRODUCTION_START = 2;
+    public static final int COMBAT_START = 3;
+    public static final int WAIT = 4;
+    public static final int MOVEMENT_STOP = 5;
+    public static final int PRODUCTION_STOP = 6;
+    public static final int COMBAT_STOP = 7;
+
+    private static final int KIND_SHIFT = 60;
+    private static final int UNIT_SHIFT = 32;
+    private static final int X_SHIFT = 16;
+    private static final long UNIT_MASK = (1L << 28) - 1;
+    private static final long COORDINATE_MASK = 0xFFFF;
+
+    private EncodedAction() {}
+
+    public static long encode(int kind, int unit, int x, int y) {
+        return ((long) kind << KIND_SHIFT) | ((unit & UNIT_MASK) << UNIT_SHIFT) | ((x & COORDINATE_MASK) << X_SHIFT) | (y & COORDINATE_MASK);
+    }
+
+    /**
+     * Encodes event, units are interned in units
+     * Returns NONE for events which have no encoding
+     */
+    public static long encode(EmpireEvent event, UnitIndex units) {
+        if (event instanceof MovementStartOrder order) return encode(MOVEMENT_START, units.intern(order.getUnitId()), order.getDestination());
+        if (event instanceof CombatStartOrder order) return encode(COMBAT_START, units.intern(order.getAttackerId()), order.getTargetPosition());
+        if (event instanceof ProductionStartOrder order) return encode(PRODUCTION_START, order.getUnitTypeId(), order.getCityPosition());
+        if (event instanceof WaitEvent waitEvent) return encode(WAIT, 0, waitEvent.getEmpireCityPosition());
+        if (event instanceof MovementStopOrder order) return encode(MOVEMENT_STOP, units.intern(order.getUnitId()), 0, 0);
+        if (event instanceof ProductionStopOrder order) return encode(PRODUCTION_STOP, 0, order.getCityPosition());
+        if (event instanceof CombatStopOrder order) return encode(COMBAT_STOP, units.intern(order.getUnitId()), 0, 0);
+        return NONE;
+    }
+
+    private static long encode(int kind, int unit, Position position) {
+        return encode(kind, unit, position.getX(), position.getY());
+    }
+
+    /**
+     * Creates the EmpireEvent of action, units have to be the table the action was encoded with
+     */
+    public static EmpireEvent decode(long action, UnitIndex units) {
+        return switch (kind(action)) {
+            case MOVEMENT_START -> new MovementStartOrder(units.getUnitId(unit(action)), position(action));
+            case COMBAT_START -> new CombatStartOrder(units.getUnitId(unit(action)), position(action));
+            case PRODUCTION_START -> new ProductionStartOrder(position(action), unit(action));
+            case WAIT -> new WaitEvent(position(action));
+            case MOVEMENT_STOP -> new MovementStopOrder(units.getUnitId(unit(action)));
+            case PRODUCTION_STOP -> new ProductionStopOrder(position(action));
+            case COMBAT_STOP -> new CombatStopOrder(units.getUnitId(unit(action)));
+            default -> null;
+        };
+    }
+
+    public static int kind(long action) {
+        return (int) (action >>> KIND_SHIFT);
+    }
+
+    /**
+     * Unit index, or unit type of production actions
+     */
+    public static int unit(long action) {
+        return (int) ((action >>> UNIT_SHIFT) & UNIT_MASK);
+    }
+
+    public static int x(long action) {
+        return (int) ((action >>> X_SHIFT) & COORDINATE_MASK);
+    }
+
+    public static int y(long action) {
+        return (int) (action & COORDINATE_MASK);
+    }
+
+    public static Position position(long action) {
+        return new Position(x(action), y(action));
+    }
+
+    /**
+     * Returns true if action is queued for a unit, otherwise it is queued for a city
+     */
+    public static boolean isUnitAction(long action) {
+        var kind = kind(action);
+        return kind == MOVEMENT_START || kind == COMBAT_START || kind == MOVEMENT_STOP || kind == COMBAT_STOP;
+    }
+
+    public static String toString(long action) {
+        return switch (kind(action)) {
+            case MOVEMENT_START -> "move(" + unit(action) + " -> " + x(action) + "," + y(action) + ")";
+            case COMBAT_START -> "attack(" + unit(action) + " -> " + x(action) + "," + y(action) + ")";
+            case PRODUCTION_START -> "produce(" + unit(action) + " at " + x(action) + "," + y(action) + ")";
+            case WAIT -> "wait(" + x(action) + "," + y(action) + ")";
+            case MOVEMENT_STOP -> "stop(" + unit(action) + ")";
+            case PRODUCTION_STOP -> "stopProduction(" + x(action) + "," + y(action) + ")";
+            case COMBAT_STOP -> "stopCombat(" + unit(action) + ")";
+            default -> "none";
+        };
+    }
+}
@@ -0,0 +1,133 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache of raw (not normalized) heuristic values keyed by HeuristicFeatures
+ * If a segment of the cache is full, its least recently used entry is evicted
+ *
+ * Nodes and rollouts carry their features along (FeatureTracker), so the key costs no scan of the game and its hash
+ * is computed once. The cache is split into segments by the hash of the key, so the trees of one agent searching on
+ * the SearchPool rarely wait for the same lock.
+ *
+ * Raw heuristic values only depend on the features of a game state, that's why entries stay valid across decisions.
+ * Normalization against the baseline of the current decision has to be applied on top
+ */
+public class EvaluationCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final int capacity;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final HeuristicWeights weights;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public EvaluationCache(int capacity) {
+        this(capacity, HeuristicWeights.DEFAULT);
+    }
+
+    public EvaluationCache(int capacity, HeuristicWeights weights) {
+        this.capacity = capacity;
+        this.weights = weights;
+        int segmentCapacity = Math.max(1, capacity / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(segmentCapacity);
+    }
+
+    /**
+     * Returns raw heuristic value of each player for a game state with features, computes and caches them on a miss
+     * The returned array is shared, it must not be modified
+     */
+    public double[] getHeuristicValues(HeuristicFeatures features) {
+        var segment = segments[Math.floorMod(spread(features.hashCode()), SEGMENTS)];
+        synchronized (segment) {
+            var values = segment.get(features);
+            if (values != null) {
+                hits.increment();
+                return values;
+            }
+        }
+        misses.increment();
+
+        // Compute outside the lock, in the worst case two threads compute the same values
+        var values = Heuristics.determineHeuristicValues(features, weights);
+        synchronized (segment) {
+            segment.put(features, values);
+        }
+        return values;
+    }
+
+    // The low bits select the segment, mix in the high bits of the hash
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    public int size() {
+        int size = 0;
+        for (var segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+    }
+
+    public void clear() {
+        for (var segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+        resetStatistics();
+    }
+
+    @Override
+    public String toString() {
+        return "EvaluationCache{" +
+                "size=" + size() + "/" + capacity +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", hitRate=" + Math.round(getHitRate() * 100) + "%" +
+                '}';
+    }
+
+    // Access ordered map, so the eldest entry is always the least recently used one
+    private static final class Segment extends LinkedHashMap<HeuristicFeatures, double[]> {
+
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<HeuristicFeatures, double[]> eldest) {
+            return size() > capacity;
+        }
+    }
+}
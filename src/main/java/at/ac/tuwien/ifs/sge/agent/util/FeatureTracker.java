@@ -0,0 +1,179 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Follows a copy of a game along an expansion or rollout and returns its HeuristicFeatures without a full scan
+ *
+ * Like the InfluenceMap, the unit and city totals are kept up to date by deltas: visit() compares every unit and city
+ * with its state at the previous visit and only applies the ones which changed, so toFeatures() does not walk the
+ * units again. Discovered tiles are the bulk of HeuristicFeatures.of(), but a player only discovers tiles in the field
+ * of view of its units: visit() marks them when a unit appears or moves (one tile further, the unit may have moved
+ * within the step) and toFeatures() only checks the marked tiles which were not discovered in the start game. The
+ * start game must not change while the tracker is used, the games of tree nodes never do.
+ */
+public final class FeatureTracker {
+
+    private final Empire start;
+    private final HeuristicFeatures startFeatures;
+
+    private final int width;
+    private final int height;
+    private final int numberOfPlayers;
+
+    // Tiles in row-major order each player may have discovered since the start
+    private final BitSet[] marked;
+
+    // State of each unit at the last visit, updated in place
+    private static final class UnitStamp {
+        int playerId;
+        int cell;
+        double hp;
+        int maxHp;
+        int visit;
+    }
+    private final Map<UUID, UnitStamp> unitStamps = new HashMap<>();
+
+    // Owner of each visible city at the last visit, -1 if it has none
+    private final Map<Position, Integer> cityOwners = new HashMap<>();
+
+    // Totals of each player at the last visit, see HeuristicFeatures
+    private final int[] unitCount;
+    private final int[] cityCount;
+    private final double[] damageTaken;
+    private final double[] totalHealth;
+
+    private int visits = 0;
+
+    /**
+     * startFeatures are the features of start, e.g. of the node the copy was made from
+     */
+    public FeatureTracker(Empire start, HeuristicFeatures startFeatures) {
+        this.start = start;
+        this.startFeatures = startFeatures;
+        var mapSize = start.getBoard().getMapSize();
+        this.width = mapSize.getWidth();
+        this.height = mapSize.getHeight();
+        this.numberOfPlayers = start.getNumberOfPlayers();
+        this.marked = new BitSet[numberOfPlayers];
+        for (int pid = 0; pid < numberOfPlayers; pid++) marked[pid] = new BitSet(width * height);
+        this.unitCount = new int[numberOfPlayers];
+        this.cityCount = new int[numberOfPlayers];
+        this.damageTaken = new double[numberOfPlayers];
+        this.totalHealth = new double[numberOfPlayers];
+
+        // Registers the units and cities of the start, units which die within the first step may have discovered tiles before
+        visit(start);
+    }
+
+    /**
+     * Applies the units and cities of game which changed since the last visit, called after each step of the copy
+     */
+    public void visit(Empire game) {
+        visits++;
+
+        int seenUnits = 0;
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            for (var unit : game.getUnitsByPlayer(pid)) {
+                seenUnits++;
+                var position = unit.getPosition();
+                int cell = position.getY() * width + position.getX();
+
+                var stamp = unitStamps.get(unit.getId());
+                if (stamp == null) {
+                    stamp = new UnitStamp();
+                    unitStamps.put(unit.getId(), stamp);
+                } else if (stamp.playerId == pid && stamp.cell == cell && stamp.hp == unit.getHp() && stamp.maxHp == unit.getMaxHp()) {
+                    stamp.visit = visits;
+                    continue;
+                } else {
+                    addUnit(stamp, -1);
+                }
+
+                // Tiles around a unit which did not move were marked before
+                if (stamp.visit == 0 || stamp.cell != cell) mark(marked[pid], position, unit.getFov() + 1);
+
+                stamp.playerId = pid;
+                stamp.cell = cell;
+                stamp.hp = unit.getHp();
+                stamp.maxHp = unit.getMaxHp();
+                stamp.visit = visits;
+                addUnit(stamp, 1);
+            }
+        }
+
+        // Units which died, only searched for if fewer units were seen than are stamped
+        if (seenUnits < unitStamps.size()) {
+            unitStamps.values().removeIf(stamp -> {
+                if (stamp.visit == visits) return false;
+                addUnit(stamp, -1);
+                return true;
+            });
+        }
+
+        var cities = game.getCitiesByPosition();
+        for (var city : cities.values()) {
+            int owner = HeuristicFeatures.ownerOf(city, numberOfPlayers);
+            var previous = cityOwners.put(city.getPosition(), owner);
+            if (previous != null && previous == owner) continue;
+
+            if (previous != null && previous >= 0) cityCount[previous]--;
+            if (owner >= 0) cityCount[owner]++;
+        }
+        if (cities.size() < cityOwners.size()) {
+            cityOwners.entrySet().removeIf(entry -> {
+                if (cities.containsKey(entry.getKey())) return false;
+                if (entry.getValue() >= 0) cityCount[entry.getValue()]--;
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Adds (sign = 1) or removes (sign = -1) a unit from the totals
+     */
+    private void addUnit(UnitStamp stamp, int sign) {
+        int pid = stamp.playerId;
+        unitCount[pid] += sign;
+        damageTaken[pid] += sign * (stamp.maxHp - stamp.hp);
+        totalHealth[pid] += sign * stamp.maxHp;
+    }
+
+    private void mark(BitSet cells, Position center, int radius) {
+        int fromX = Math.max(0, center.getX() - radius), toX = Math.min(width - 1, center.getX() + radius);
+        for (int y = Math.max(0, center.getY() - radius); y <= Math.min(height - 1, center.getY() + radius); y++) {
+            cells.set(y * width + fromX, y * width + toX + 1);
+        }
+    }
+
+    /**
+     * Returns the features of game, the copy of the start game after the visited steps
+     * Only the tiles marked since the start are read from game, units and cities are taken from the last visit
+     */
+    public HeuristicFeatures toFeatures(Empire game) {
+        var discoveredCount = new int[numberOfPlayers];
+
+        // Discovered tiles never become undiscovered again
+        var startDiscovered = start.getBoard().getDiscoveredByPosition();
+        var discoveredByPosition = game.getBoard().getDiscoveredByPosition();
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            discoveredCount[pid] = startFeatures.getDiscoveredCount(pid);
+            var cells = marked[pid];
+            for (int cell = cells.nextSetBit(0); cell >= 0; cell = cells.nextSetBit(cell + 1)) {
+                var position = new Position(cell % width, cell / width);
+                var discovered = discoveredByPosition.get(position);
+                if (discovered == null || !discovered[pid]) continue;
+                var discoveredBefore = startDiscovered.get(position);
+                if (discoveredBefore == null || !discoveredBefore[pid]) discoveredCount[pid]++;
+            }
+        }
+
+        return new HeuristicFeatures(unitCount.clone(), cityCount.clone(), discoveredCount, damageTaken.clone(), totalHealth.clone(), cityOwners.size(), width * height);
+    }
+}
@@ -0,0 +1,204 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.agent.util.Jfr.GameCopyEvent;
+import at.ac.tuwien.ifs.sge.core.engine.communication.ActionResult;
+import at.ac.tuwien.ifs.sge.core.engine.communication.events.GameActionEvent;
+import at.ac.tuwien.ifs.sge.core.engine.logging.Logger;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.CombatStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.MovementStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.ProductionStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.CombatStopOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.MovementStopOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.ProductionStopOrder;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Search-owned mirror of the server game, which is updated incrementally from the events delivered to onGameUpdate()
+ *
+ * The engine thread only enqueues the events it receives, the search thread applies them to the mirror at the start
+ * of each decision. This way the search thread does not have to lock and copy the game of the engine every cycle.
+ * Every few decisions the mirror is compared to a full copy of the server game and replaced by it if it drifted.
+ *
+ * Events are replayed like the engine did: the mirror is advanced to the game time each event was received at and the
+ * event is applied under the player owning its unit or city. Events the server rejected are dropped, an event which
+ * can not be attributed to a player (e.g. its unit is hidden in the mirror) forces a full copy.
+ */
+public class GameMirror {
+
+    // A full copy of the server game is taken every driftCheckInterval decisions to check the mirror for drift
+    private final int driftCheckInterval;
+
+    private final Logger log;
+
+    // Events received by the engine thread, which are not yet applied to the mirror
+    private final ConcurrentLinkedQueue<PendingEvent> pendingEvents = new ConcurrentLinkedQueue<>();
+
+    // Only accessed by the search thread
+    private Empire mirror;
+    private int decisionsSinceDriftCheck = 0;
+
+    private int fullCopies = 0;
+    private int drifts = 0;
+
+    // Only written by the engine thread
+    private volatile int rejectedEvents = 0;
+
+    private record PendingEvent(EmpireEvent event, long gameTimeMs) {}
+
+    public GameMirror(int driftCheckInterval, Logger log) {
+        this.driftCheckInterval = driftCheckInterval;
+        this.log = log;
+    }
+
+    /**
+     * Called by the engine thread, only enqueues the events the server accepted
+     */
+    public void onGameUpdate(Map<EmpireEvent, ActionResult> actionsWithResult, long gameTimeMs) {
+        for (var entry : actionsWithResult.entrySet()) {
+            if (entry.getValue() != null && !entry.getValue().wasSuccessful()) {
+                rejectedEvents++;
+                continue;
+            }
+            pendingEvents.add(new PendingEvent(entry.getKey(), gameTimeMs));
+        }
+    }
+
+    /**
+     * Called by the search thread
+     * Applies all pending events to the mirror, checks it for drift if necessary and returns a copy of it,
+     * which can be modified freely by the search
+     */
+    public Empire snapshot(Supplier<Empire> fullCopy, long serverTimeMs) {
+        if (mirror == null) {
+            resync(fullCopy.get());
+        } else if (!applyPendingEvents(serverTimeMs)) {
+            log.info("Game mirror could not apply server events, taking full copy");
+            resync(fullCopy.get());
+        } else if (++decisionsSinceDriftCheck >= driftCheckInterval) {
+            var serverGame = fullCopy.get();
+            if (hasDrifted(mirror, serverGame)) {
+                drifts++;
+                log.info("Game mirror drifted from server game, taking full copy");
+                resync(serverGame);
+            }
+            decisionsSinceDriftCheck = 0;
+        }
+
+        return GameCopyEvent.copy(mirror, GameCopyEvent.MIRROR);
+    }
+
+    /**
+     * Replaces the mirror and drops all pending events, which are already contained in the copy
+     */
+    private void resync(Empire serverGame) {
+        fullCopies++;
+        mirror = serverGame;
+        decisionsSinceDriftCheck = 0;
+
+        var copyTimeMs = mirror.getGameClock().getGameTimeMs();
+        pendingEvents.removeIf(pendingEvent -> pendingEvent.gameTimeMs() <= copyTimeMs);
+    }
+
+    /**
+     * Returns false if an event could not be applied, the mirror is invalid in that case
+     */
+    private boolean applyPendingEvents(long serverTimeMs) {
+        PendingEvent pendingEvent;
+        try {
+            while ((pendingEvent = pendingEvents.poll()) != null) {
+                // Events are queued in the order they were received, so their game times do not decrease
+                var mirrorTimeMs = mirror.getGameClock().getGameTimeMs();
+                if (pendingEvent.gameTimeMs() > mirrorTimeMs) mirror.advance(pendingEvent.gameTimeMs() - mirrorTimeMs);
+
+                var event = pendingEvent.event();
+                int player = playerOf(mirror, event);
+                if (player < 0) {
+                    log.debug("Game mirror can not attribute " + event + " to a player");
+                    mirror = null;
+                    return false;
+                }
+
+                var result = mirror.applyActionEvent(new GameActionEvent<>(player, event, pendingEvent.gameTimeMs()));
+                if (result != null && !result.wasSuccessful()) {
+                    log.debug("Game mirror rejected " + event + " of player " + player);
+                    mirror = null;
+                    return false;
+                }
+            }
+
+            // Catch up with the clock of the server
+            var mirrorTimeMs = mirror.getGameClock().getGameTimeMs();
+            if (serverTimeMs > mirrorTimeMs) mirror.advance(serverTimeMs - mirrorTimeMs);
+        } catch (Exception e) {
+            log.debug(e);
+            mirror = null;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the player owning the unit or city of the order event in game, or -1 if it is unknown
+     */
+    private static int playerOf(Empire game, EmpireEvent event) {
+        if (event instanceof MovementStartOrder order) return unitOwner(game, order.getUnitId());
+        if (event instanceof CombatStartOrder order) return unitOwner(game, order.getAttackerId());
+        if (event instanceof MovementStopOrder order) return unitOwner(game, order.getUnitId());
+        if (event instanceof CombatStopOrder order) return unitOwner(game, order.getUnitId());
+        if (event instanceof ProductionStartOrder order) return cityOwner(game, order.getCityPosition());
+        if (event instanceof ProductionStopOrder order) return cityOwner(game, order.getCityPosition());
+        return -1;
+    }
+
+    private static int unitOwner(Empire game, UUID unitId) {
+        var unit = game.getUnit(unitId);
+        return unit == null ? -1 : unit.getPlayerId();
+    }
+
+    private static int cityOwner(Empire game, Position position) {
+        var city = game.getCitiesByPosition().get(position);
+        return city == null ? -1 : city.getPlayerId();
+    }
+
+    /**
+     * Returns true if units (position, hp) or city owners differ between mirror and server game
+     */
+    private static boolean hasDrifted(Empire mirror, Empire serverGame) {
+        if (!HeuristicFeatures.of(mirror).equals(HeuristicFeatures.of(serverGame))) return true;
+
+        for (int pid = 0; pid < serverGame.getNumberOfPlayers(); pid++) {
+            var mirroredUnits = new HashMap<UUID, String>();
+            for (var unit : mirror.getUnitsByPlayer(pid)) mirroredUnits.put(unit.getId(), unit.getPosition() + " " + unit.getHp());
+
+            for (var unit : serverGame.getUnitsByPlayer(pid)) {
+                if (!Objects.equals(mirroredUnits.get(unit.getId()), unit.getPosition() + " " + unit.getHp())) return true;
+            }
+        }
+
+        for (var city : serverGame.getCitiesByPosition().values()) {
+            var mirroredCity = mirror.getCitiesByPosition().get(city.getPosition());
+            if (mirroredCity == null || mirroredCity.getPlayerId() != city.getPlayerId()) return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "GameMirror{" +
+                "fullCopies=" + fullCopies +
+                ", drifts=" + drifts +
+                ", rejectedEvents=" + rejectedEvents +
+                ", pendingEvents=" + pendingEvents.size() +
+                '}';
+    }
+}
@@ -0,0 +1,167 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.model.map.EmpireCity;
+
+import java.util.Arrays;
+
+/**
+ * Fingerprint of a game state which consists of exactly the features read by the heuristics
+ * (unit counts, HP totals, city ownership and discovered tile count of each player)
+ *
+ * Two game states with equal features can not be told apart by Heuristics.determineHeuristicValue(),
+ * which is why this class can be used as key for the EvaluationCache
+ */
+public final class HeuristicFeatures {
+
+    // Number of units for each player
+    private final int[] unitCount;
+
+    // Number of cities held by each player
+    private final int[] cityCount;
+
+    // Number of discovered positions for each player
+    private final int[] discoveredCount;
+
+    // Sum of the health each player's units have lost
+    private final double[] damageTaken;
+
+    // Sum of the max health of each player's units
+    private final double[] totalHealth;
+
+    private final int visibleCityCount;
+
+    private final int mapArea;
+
+    private final int hash;
+
+    public HeuristicFeatures(int[] unitCount, int[] cityCount, int[] discoveredCount, double[] damageTaken, double[] totalHealth, int visibleCityCount, int mapArea) {
+        this.unitCount = unitCount;
+        this.cityCount = cityCount;
+        this.discoveredCount = discoveredCount;
+        this.damageTaken = damageTaken;
+        this.totalHealth = totalHealth;
+        this.visibleCityCount = visibleCityCount;
+        this.mapArea = mapArea;
+
+        int h = Arrays.hashCode(unitCount);
+        h = 31 * h + Arrays.hashCode(cityCount);
+        h = 31 * h + Arrays.hashCode(discoveredCount);
+        h = 31 * h + Arrays.hashCode(damageTaken);
+        h = 31 * h + Arrays.hashCode(totalHealth);
+        h = 31 * h + visibleCityCount;
+        h = 31 * h + mapArea;
+        this.hash = h;
+    }
+
+    /**
+     * Extracts the features of the game in a single pass over units, cities and discovered positions
+     */
+    public static HeuristicFeatures of(Empire game) {
+        int numberOfPlayers = game.getNumberOfPlayers();
+
+        var unitCount = new int[numberOfPlayers];
+        var cityCount = new int[numberOfPlayers];
+        var discoveredCount = new int[numberOfPlayers];
+        var damageTaken = new double[numberOfPlayers];
+        var totalHealth = new double[numberOfPlayers];
+
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            var units = game.getUnitsByPlayer(pid);
+            unitCount[pid] = units.size();
+            for (var unit : units) {
+                damageTaken[pid] += unit.getMaxHp() - unit.getHp();
+                totalHealth[pid] += unit.getMaxHp();
+            }
+        }
+
+        var visibleCities = game.getCitiesByPosition().values();
+        for (var city : visibleCities) {
+            var pid = ownerOf(city, numberOfPlayers);
+            if (pid >= 0) cityCount[pid]++;
+        }
+
+        for (var discovered : game.getBoard().getDiscoveredByPosition().values()) {
+            for (int pid = 0; pid < numberOfPlayers; pid++) {
+                if (discovered[pid]) discoveredCount[pid]++;
+            }
+        }
+
+        var mapSize = game.getBoard().getMapSize();
+
+        return new HeuristicFeatures(unitCount, cityCount, discoveredCount, damageTaken, totalHealth, visibleCities.size(), mapSize.getWidth() * mapSize.getHeight());
+    }
+
+    /**
+     * Returns the player which holds city, -1 if it is held by none of the numberOfPlayers players
+     * Every city count of the heuristics (HeuristicFeatures, FeatureTracker, InfluenceMap, AbstractState) uses this
+     */
+    public static int ownerOf(EmpireCity city, int numberOfPlayers) {
+        int pid = city.getPlayerId();
+        return pid >= 0 && pid < numberOfPlayers ? pid : -1;
+    }
+
+    public int getNumberOfPlayers() {
+        return unitCount.length;
+    }
+
+    public int getUnitCount(int playerId) {
+        return unitCount[playerId];
+    }
+
+    public int getCityCount(int playerId) {
+        return cityCount[playerId];
+    }
+
+    public int getDiscoveredCount(int playerId) {
+        return discoveredCount[playerId];
+    }
+
+    public double getDamageTaken(int playerId) {
+        return damageTaken[playerId];
+    }
+
+    public double getTotalHealth(int playerId) {
+        return totalHealth[playerId];
+    }
+
+    public int getVisibleCityCount() {
+        return visibleCityCount;
+    }
+
+    public int getMapArea() {
+        return mapArea;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof HeuristicFeatures that)) return false;
+        return hash == that.hash
+                && visibleCityCount == that.visibleCityCount
+                && mapArea == that.mapArea
+                && Arrays.equals(unitCount, that.unitCount)
+                && Arrays.equals(cityCount, that.cityCount)
+                && Arrays.equals(discoveredCount, that.discoveredCount)
+                && Arrays.equals(damageTaken, that.damageTaken)
+                && Arrays.equals(totalHealth, that.totalHealth);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "HeuristicFeatures{" +
+                "unitCount=" + Arrays.toString(unitCount) +
+                ", cityCount=" + Arrays.toString(cityCount) +
+                ", discoveredCount=" + Arrays.toString(discoveredCount) +
+                ", damageTaken=" + Arrays.toString(damageTaken) +
+                ", totalHealth=" + Arrays.toString(totalHealth) +
+                ", visibleCityCount=" + visibleCityCount +
+                ", mapArea=" + mapArea +
+                '}';
+    }
+}
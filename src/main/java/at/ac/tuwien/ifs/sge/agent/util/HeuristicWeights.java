@@ -0,0 +1,76 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Weights of the terms of Heuristics.determineHeuristicValue()
+ *
+ * Small changes of the weights change the behaviour of the agent noticeably (e.g. aggressive versus defensive),
+ * which is why they are loaded from a file written by the WeightTuner instead of being constants.
+ * The file is a properties file with the keys occupation, units, discovery and fight, its path is set by the
+ * system property imperion.weights. Agents and RolloutWorkers of one match have to load the same file, since
+ * workers return raw heuristic values.
+ */
+public record HeuristicWeights(double occupation, double units, double discovery, double fight) {
+
+    public static final HeuristicWeights DEFAULT = new HeuristicWeights(100, 10, 300, 100);
+
+    public static final String PATH_PROPERTY = "imperion.weights";
+
+    private static final String[] KEYS = {"occupation", "units", "discovery", "fight"};
+
+    public static HeuristicWeights fromArray(double[] weights) {
+        return new HeuristicWeights(weights[0], weights[1], weights[2], weights[3]);
+    }
+
+    public double[] toArray() {
+        return new double[]{occupation, units, discovery, fight};
+    }
+
+    /**
+     * Loads the weights file set by the system property imperion.weights, or returns the default weights if it is not set
+     */
+    public static HeuristicWeights loadConfigured() throws IOException {
+        var path = System.getProperty(PATH_PROPERTY);
+        return path == null ? DEFAULT : load(Path.of(path));
+    }
+
+    /**
+     * Loads weights written by save(), missing keys keep their default weight
+     */
+    public static HeuristicWeights load(Path path) throws IOException {
+        var properties = new Properties();
+        try (var in = Files.newBufferedReader(path)) {
+            properties.load(in);
+        }
+        return fromProperties(properties, "");
+    }
+
+    public void save(Path path, String comment) throws IOException {
+        var properties = new Properties();
+        toProperties(properties, "");
+        try (var out = Files.newBufferedWriter(path)) {
+            properties.store(out, comment);
+        }
+    }
+
+    /**
+     * Reads the weights from properties, keys are prefixed by prefix
+     */
+    public static HeuristicWeights fromProperties(Properties properties, String prefix) {
+        var weights = DEFAULT.toArray();
+        for (int i = 0; i < KEYS.length; i++) {
+            var value = properties.getProperty(prefix + KEYS[i]);
+            if (value != null) weights[i] = Double.parseDouble(value.trim());
+        }
+        return fromArray(weights);
+    }
+
+    public void toProperties(Properties properties, String prefix) {
+        var weights = toArray();
+        for (int i = 0; i < KEYS.length; i++) properties.setProperty(prefix + KEYS[i], Double.toString(weights[i]));
+    }
+}
@@ -1,11 +1,9 @@
 package at.ac.tuwien.ifs.sge.agent.util;
 
-import at.ac.tuwien.ifs.sge.agent.Imperion;
+import at.ac.tuwien.ifs.sge.core.engine.logging.Logger;
 import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
-import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnitType;
 
 import java.util.*;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
@@ -15,23 +13,43 @@ import java.util.stream.IntStream;
  *
  * This class is used for calculating a normalized heuristic value for a given game to determine
  * whether or not this game is good or bad
+ *
+ * The dynamic range belongs to one search, so every MCTS has its own instance. The heuristic value itself
+ * only depends on the game and the HeuristicWeights.
  */
 public class Heuristics {
 
     // Heuristic value of game state at the start of MCTS for each player
-    private static Map<Integer, Double> baseline = new HashMap<>();
+    private final Map<Integer, Double> baseline = new HashMap<>();
 
     // Only increases
     // Keeps track of dynamic range of max heuristic value for each player
-    private static Map<Integer, Double> maxHeuristicValue = new HashMap<>();
+    private final Map<Integer, Double> maxHeuristicValue = new HashMap<>();
+
+    private final Logger log;
+
+    private final HeuristicWeights weights;
+
+    public Heuristics(Logger log) {
+        this(log, HeuristicWeights.DEFAULT);
+    }
+
+    public Heuristics(Logger log, HeuristicWeights weights) {
+        this.log = log;
+        this.weights = weights;
+    }
 
     /**
      * Determines the normalized heuristic value
      */
-    public static double determineNormalizedHeuristicValue(Empire game, int playerId) {
-        // Determine heuristic value
-        double value = determineHeuristicValue(game, playerId);
+    public double determineNormalizedHeuristicValue(Empire game, int playerId) {
+        return normalizeHeuristicValue(determineHeuristicValue(game, playerId), playerId);
+    }
 
+    /**
+     * Normalizes an already determined heuristic value against the baseline of the current MCTS round
+     */
+    public double normalizeHeuristicValue(double value, int playerId) {
         // If heuristic value is worse than baseline consider as loser
         if(value < baseline.get(playerId)) return 0.0;
 
@@ -45,36 +63,57 @@ public class Heuristics {
     }
 
 
-    private static double determineHeuristicValue(Empire game, int playerId) {
+    private double determineHeuristicValue(Empire game, int playerId) {
+        return determineHeuristicValue(HeuristicFeatures.of(game), playerId, weights);
+    }
+
+    /**
+     * Determines the raw heuristic value of each player of a game state with features
+     */
+    public static double[] determineHeuristicValues(HeuristicFeatures features, HeuristicWeights weights) {
+        var values = new double[features.getNumberOfPlayers()];
+        for (int pid = 0; pid < values.length; pid++) values[pid] = determineHeuristicValue(features, pid, weights);
+        return values;
+    }
+
+    /**
+     * Determines the heuristic value only from the features of a game state with the default weights
+     */
+    public static double determineHeuristicValue(HeuristicFeatures features, int playerId) {
+        return determineHeuristicValue(features, playerId, HeuristicWeights.DEFAULT);
+    }
+
+    /**
+     * Determines the heuristic value only from the features of a game state
+     */
+    public static double determineHeuristicValue(HeuristicFeatures features, int playerId, HeuristicWeights weights) {
         // ranging from 0 to 1
-        double occupation_ratio = Heuristics.cityOccupationRatio(game, playerId);
+        double occupation_ratio = cityOccupationRatio(features, playerId);
 
         // ranging from 0 to 100
-        double unitCount = game.getUnitsByPlayer(playerId).size();
+        double unitCount = features.getUnitCount(playerId);
 
         // ranging from 0 to 1
-        double fightHeuristic = Heuristics.fightHeuristic(game, playerId);
+        double discoveryRatio = mapDiscoveryRatio(features, playerId);
 
-        return occupation_ratio * 100 + unitCount * 10 + mapDiscoveryRatio(game, playerId) * 300 + fightHeuristic * 100;
+        // ranging from 0 to 1
+        double fightHeuristic = fightHeuristic(features, playerId);
+
+        return occupation_ratio * weights.occupation() + unitCount * weights.units() + discoveryRatio * weights.discovery() + fightHeuristic * weights.fight();
     }
 
     /**
      * Returns percentage of visible enemies units health taken divided by their total health
      */
-    private static double fightHeuristic(Empire game, int playerId) {
+    static double fightHeuristic(HeuristicFeatures features, int playerId) {
         double dmgDone = 0;
         double totalHealth = 0;
 
-        for (int pid = 0; pid < game.getNumberOfPlayers(); pid++) {
+        for (int pid = 0; pid < features.getNumberOfPlayers(); pid++) {
             if(pid == playerId) continue;
 
-            dmgDone += game.getUnitsByPlayer(pid).stream()
-                    .mapToDouble(unit -> unit.getMaxHp() - unit.getHp())
-                    .sum();
-
-            totalHealth += game.getUnitsByPlayer(pid).stream()
-                    .mapToDouble(EmpireUnitType::getMaxHp)
-                    .sum();
+            dmgDone += features.getDamageTaken(pid);
+            totalHealth += features.getTotalHealth(pid);
         }
 
         if(totalHealth == 0) return 0;
@@ -83,64 +122,61 @@ public class Heuristics {
     }
 
 
-    private static Double cityOccupationRatio(Empire game, int playerId) {
-        // Visible Cities
-        var visibleCities = game.getCitiesByPosition().values();
-        double playerCityCount = visibleCities.stream()
-                .filter(city -> city.getPlayerId() == playerId)
-                .count();
-
+    static double cityOccupationRatio(HeuristicFeatures features, int playerId) {
         // Avoid dividing by 0
-        if (playerCityCount == 0) return 0.0;
+        if (features.getCityCount(playerId) == 0) return 0.0;
 
-        return playerCityCount / visibleCities.size();
+        return (double) features.getCityCount(playerId) / features.getVisibleCityCount();
     }
 
-    public static double mapDiscoveryRatio(Empire game, int playerId){
-        double discoveredPositionCount = game.getBoard().getDiscoveredByPosition()
-                .entrySet()
-                .stream()
-                .filter(entry -> entry.getValue()[playerId])
-                .map(Map.Entry::getKey)
-                .count();
-
-        double allPositionsCount = game.getBoard().getMapSize().getWidth() * game.getBoard().getMapSize().getHeight();
-
-        return discoveredPositionCount / allPositionsCount;
+    public static double mapDiscoveryRatio(HeuristicFeatures features, int playerId){
+        return (double) features.getDiscoveredCount(playerId) / features.getMapArea();
     }
 
     /**
      * Set min and max heuristic to heuristic value of current game state
      */
-    public static void resetHeuristics(Empire game){
-        IntStream.range(0, game.getNumberOfPlayers()).forEach(pid -> {
-            var val = determineHeuristicValue(game, pid);
+    public void resetHeuristics(Empire game){
+        resetHeuristics(HeuristicFeatures.of(game));
+    }
+
+    /**
+     * Set min and max heuristic to heuristic value of the game state with features (e.g. from the InfluenceMap)
+     */
+    public void resetHeuristics(HeuristicFeatures features){
+        IntStream.range(0, features.getNumberOfPlayers()).forEach(pid -> {
+            var val = determineHeuristicValue(features, pid, weights);
             baseline.put(pid, val);
             maxHeuristicValue.put(pid, val);
         });
     }
 
+    public HeuristicWeights getWeights() {
+        return weights;
+    }
+
+
+    public void debHeuristics(Empire game, int playerId) {
+        var features = HeuristicFeatures.of(game);
 
-    public static void debHeuristics(Empire game, int playerId) {
-        Imperion.logger.debug("Debugging Heuristics for playerId: " + playerId);
-        Imperion.logger.debug(game.getUnitsByPlayer(playerId).stream()
-                .map(unit -> new AbstractMap.SimpleEntry<>(unit, unit.getPosition()))
-                .collect(Collectors.toSet()));
+        log.debug("Debugging Heuristics for playerId: " + playerId);
+        log.debug(features);
 
         // ranging from 0 to 1
-        double occupation_ratio = Heuristics.cityOccupationRatio(game, playerId);
+        double occupation_ratio = Heuristics.cityOccupationRatio(features, playerId);
 
         // ranging from 0 to 100
-        double unitCount = game.getUnitsByPlayer(playerId).size();
+        double unitCount = features.getUnitCount(playerId);
 
         // ranging from 0 to 1
-        double fightHeuristic = Heuristics.fightHeuristic(game, playerId);
+        double fightHeuristic = Heuristics.fightHeuristic(features, playerId);
 
-        Imperion.logger.debug(occupation_ratio * 100 + " " + unitCount * 10 + " " + mapDiscoveryRatio(game, playerId) * 500 + " " + fightHeuristic * 100);
+        log.debug(occupation_ratio * weights.occupation() + " " + unitCount * weights.units() + " " + mapDiscoveryRatio(features, playerId) * weights.discovery() + " " + fightHeuristic * weights.fight());
 
-        Imperion.logger.debug(determineHeuristicValue(game, playerId));
-        Imperion.logger.debug(determineNormalizedHeuristicValue(game, playerId));
-        Imperion.logger.debug("Baseline " + baseline.get(playerId) + " Max " + maxHeuristicValue.get(playerId));
-        Imperion.logger._debug_();
+        var value = determineHeuristicValue(features, playerId, weights);
+        log.debug(value);
+        log.debug(normalizeHeuristicValue(value, playerId));
+        log.debug("Baseline " + baseline.get(playerId) + " Max " + maxHeuristicValue.get(playerId));
+        log._debug_();
     }
 }
@@ -0,0 +1,392 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hierarchical path-finding (HPA*) for large maps
+ *
+ * The map is split into square clusters. Entrances are placed on the borders between neighbouring clusters and
+ * connected to each other inside their cluster, which results in a small abstract graph over the static terrain.
+ * A query connects source and destination to the entrances of their clusters, searches the abstract graph with A*
+ * and only refines the first abstract steps to a real path with BFS. Occupancy and territory are only checked during
+ * the refinement, since they change every decision.
+ *
+ * Clusters are rebuilt locally if tiles inside them are discovered to be blocked. The abstract graph is only changed
+ * by update() between decisions, so queries of one decision may run concurrently (e.g. in parallel root expansion).
+ */
+public class HierarchicalPathfinder implements Pathfinder {
+
+    private static final int CLUSTER_SIZE = 10;
+
+    // Entrances shorter than this get one transition in the middle, longer ones a transition at both ends
+    private static final int MAX_SINGLE_TRANSITION_LENGTH = 6;
+
+    // Only this many steps of the abstract path are refined to a real path
+    private static final int REFINEMENT_STEPS = CLUSTER_SIZE;
+
+    private static final int[][] DIRECTIONS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}, {1, 1}, {-1, 1}, {-1, -1}, {1, -1}};
+
+    private final TerrainIndex terrain;
+    private final int width;
+    private final int height;
+    private final int clustersX;
+    private final int clustersY;
+
+    // Abstract nodes by their tile index (y * width + x)
+    private final Map<Integer, AbstractNode> nodes = new HashMap<>();
+
+    // Abstract nodes of each cluster
+    private final Map<Integer, Set<AbstractNode>> clusterNodes = new HashMap<>();
+
+    // Transitions (pairs of abstract nodes) of each border, see borderKey()
+    private final Map<Integer, List<AbstractNode[]>> borderTransitions = new HashMap<>();
+
+    private final AtomicInteger queries = new AtomicInteger();
+    private final AtomicInteger refinedQueries = new AtomicInteger();
+    private final AtomicInteger fallbackQueries = new AtomicInteger();
+    private int rebuiltClusters = 0;
+
+    private static class AbstractNode {
+        final int cell;
+        final int cluster;
+
+        // Neighbour nodes with the length of the path to them
+        final Map<AbstractNode, Integer> edges = new HashMap<>();
+
+        // Number of transitions this node is part of
+        int transitions = 0;
+
+        AbstractNode(int cell, int cluster) {
+            this.cell = cell;
+            this.cluster = cluster;
+        }
+    }
+
+    public HierarchicalPathfinder(TerrainIndex terrain) {
+        this.terrain = terrain;
+        this.width = terrain.getWidth();
+        this.height = terrain.getHeight();
+        this.clustersX = (width + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        this.clustersY = (height + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+
+        for (int cy = 0; cy < clustersY; cy++) {
+            for (int cx = 0; cx < clustersX; cx++) {
+                buildBorder(cx, cy, true);
+                buildBorder(cx, cy, false);
+            }
+        }
+        for (int cluster = 0; cluster < clustersX * clustersY; cluster++) buildIntraEdges(cluster);
+    }
+
+    /**
+     * Rebuilds the clusters which contain newly blocked tiles and the entrances to their neighbours
+     */
+    @Override
+    public void update() {
+        var dirtyClusters = new HashSet<Integer>();
+        for (var cell : terrain.getNewlyBlockedCells()) dirtyClusters.add(clusterOf(cell % width, cell / width));
+
+        if (dirtyClusters.isEmpty()) return;
+
+        var affectedClusters = new HashSet<Integer>();
+        for (var cluster : dirtyClusters) {
+            int cx = cluster % clustersX, cy = cluster / clustersX;
+
+            // East, south, west and north border
+            rebuildBorder(cx, cy, true);
+            rebuildBorder(cx, cy, false);
+            if (cx > 0) rebuildBorder(cx - 1, cy, true);
+            if (cy > 0) rebuildBorder(cx, cy - 1, false);
+
+            affectedClusters.add(cluster);
+            if (cx > 0) affectedClusters.add(cluster - 1);
+            if (cx < clustersX - 1) affectedClusters.add(cluster + 1);
+            if (cy > 0) affectedClusters.add(cluster - clustersX);
+            if (cy < clustersY - 1) affectedClusters.add(cluster + clustersX);
+        }
+
+        for (var cluster : affectedClusters) buildIntraEdges(cluster);
+        rebuiltClusters += dirtyClusters.size();
+    }
+
+    @Override
+    public List<Position> findPath(Position source, Position destination, Empire game, int playerId) {
+        queries.incrementAndGet();
+        if (!terrain.isReachable(source, destination)) return null;
+
+        // Short paths are searched directly
+        int sourceCell = source.getY() * width + source.getX();
+        int destinationCell = destination.getY() * width + destination.getX();
+        if (distance(sourceCell, destinationCell) <= CLUSTER_SIZE) return BFS.findPath(source, destination, game, playerId, terrain);
+
+        // Clusters are only connected across their edges, a region which is only reachable diagonally through the
+        // corner of a cluster is not part of the abstract graph. The destination is reachable, so BFS finds the path.
+        var abstractPath = findAbstractPath(sourceCell, destinationCell);
+        if (abstractPath == null) {
+            fallbackQueries.incrementAndGet();
+            return BFS.findPath(source, destination, game, playerId, terrain);
+        }
+
+        // Refine the beginning of the abstract path
+        refinedQueries.incrementAndGet();
+        var path = new ArrayList<Position>();
+        var current = source;
+        for (int i = 1; i < abstractPath.size() && path.size() < REFINEMENT_STEPS; i++) {
+            var cell = abstractPath.get(i);
+            var waypoint = new Position(cell % width, cell / width);
+            if (waypoint.equals(current)) continue;
+
+            var segment = BFS.findPath(current, waypoint, game, playerId, terrain);
+
+            // Blocked by units or territory, which is not part of the abstract graph
+            if (segment == null) {
+                fallbackQueries.incrementAndGet();
+                return BFS.findPath(source, destination, game, playerId, terrain);
+            }
+
+            path.addAll(segment);
+            current = waypoint;
+        }
+
+        return path;
+    }
+
+    /**
+     * A* on the abstract graph, returns tile indices of the abstract path from source to destination
+     */
+    private List<Integer> findAbstractPath(int sourceCell, int destinationCell) {
+        var start = new AbstractNode(sourceCell, clusterOf(sourceCell % width, sourceCell / width));
+        var goal = new AbstractNode(destinationCell, clusterOf(destinationCell % width, destinationCell / width));
+
+        // Temporary edges of source and destination to the entrances of their clusters
+        start.edges.putAll(distancesInCluster(sourceCell, start.cluster));
+        var goalEdges = distancesInCluster(destinationCell, goal.cluster);
+
+        var costs = new HashMap<AbstractNode, Integer>();
+        var parents = new HashMap<AbstractNode, AbstractNode>();
+        var open = new PriorityQueue<Map.Entry<AbstractNode, Integer>>(Map.Entry.comparingByValue());
+
+        costs.put(start, 0);
+        open.add(Map.entry(start, distance(sourceCell, destinationCell)));
+
+        while (!open.isEmpty()) {
+            var entry = open.poll();
+            var node = entry.getKey();
+            int cost = costs.get(node);
+
+            // Outdated entry
+            if (entry.getValue() > cost + distance(node.cell, destinationCell)) continue;
+
+            if (node == goal) {
+                var path = new ArrayDeque<Integer>();
+                for (var n = goal; n != null; n = parents.get(n)) path.addFirst(n.cell);
+                return new ArrayList<>(path);
+            }
+
+            var edges = new HashMap<>(node.edges);
+            var goalDistance = goalEdges.get(node);
+            if (goalDistance != null) edges.put(goal, goalDistance);
+
+            for (var edge : edges.entrySet()) {
+                var neighbour = edge.getKey();
+                int newCost = cost + edge.getValue();
+                if (newCost >= costs.getOrDefault(neighbour, Integer.MAX_VALUE)) continue;
+
+                costs.put(neighbour, newCost);
+                parents.put(neighbour, node);
+                open.add(Map.entry(neighbour, newCost + distance(neighbour.cell, destinationCell)));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates the transitions of the east (horizontal) or south border of cluster (cx, cy)
+     */
+    private void buildBorder(int cx, int cy, boolean horizontal) {
+        int cluster = cy * clustersX + cx;
+        var transitions = new ArrayList<AbstractNode[]>();
+        borderTransitions.put(borderKey(cluster, horizontal), transitions);
+
+        if (horizontal && cx >= clustersX - 1) return;
+        if (!horizontal && cy >= clustersY - 1) return;
+
+        int neighbourCluster = horizontal ? cluster + 1 : cluster + clustersX;
+        int length = horizontal ? Math.min(CLUSTER_SIZE, height - cy * CLUSTER_SIZE) : Math.min(CLUSTER_SIZE, width - cx * CLUSTER_SIZE);
+
+        int runStart = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean open = i < length && isBorderOpen(cx, cy, horizontal, i);
+
+            if (open && runStart == -1) runStart = i;
+            if (!open && runStart != -1) {
+                int runEnd = i - 1;
+                if (runEnd - runStart + 1 < MAX_SINGLE_TRANSITION_LENGTH) {
+                    transitions.add(addTransition(cx, cy, horizontal, (runStart + runEnd) / 2, cluster, neighbourCluster));
+                } else {
+                    transitions.add(addTransition(cx, cy, horizontal, runStart, cluster, neighbourCluster));
+                    transitions.add(addTransition(cx, cy, horizontal, runEnd, cluster, neighbourCluster));
+                }
+                runStart = -1;
+            }
+        }
+    }
+
+    private void rebuildBorder(int cx, int cy, boolean horizontal) {
+        int cluster = cy * clustersX + cx;
+        var transitions = borderTransitions.remove(borderKey(cluster, horizontal));
+        if (transitions != null) {
+            for (var transition : transitions) {
+                transition[0].edges.remove(transition[1]);
+                transition[1].edges.remove(transition[0]);
+                releaseNode(transition[0]);
+                releaseNode(transition[1]);
+            }
+        }
+        buildBorder(cx, cy, horizontal);
+    }
+
+    /**
+     * Removes node from the graph if it is not part of any transition anymore
+     */
+    private void releaseNode(AbstractNode node) {
+        if (--node.transitions > 0) return;
+
+        for (var neighbour : node.edges.keySet()) neighbour.edges.remove(node);
+        node.edges.clear();
+        nodes.remove(node.cell);
+        clusterNodes.get(node.cluster).remove(node);
+    }
+
+    private boolean isBorderOpen(int cx, int cy, boolean horizontal, int i) {
+        int[] cells = borderCells(cx, cy, horizontal, i);
+        return !terrain.isBlocked(cells[0] % width, cells[0] / width) && !terrain.isBlocked(cells[1] % width, cells[1] / width);
+    }
+
+    /**
+     * Returns the tile indices on both sides of the i-th position of the border
+     */
+    private int[] borderCells(int cx, int cy, boolean horizontal, int i) {
+        if (horizontal) {
+            int x = (cx + 1) * CLUSTER_SIZE - 1;
+            int y = cy * CLUSTER_SIZE + i;
+            return new int[]{y * width + x, y * width + x + 1};
+        }
+        int x = cx * CLUSTER_SIZE + i;
+        int y = (cy + 1) * CLUSTER_SIZE - 1;
+        return new int[]{y * width + x, (y + 1) * width + x};
+    }
+
+    private AbstractNode[] addTransition(int cx, int cy, boolean horizontal, int i, int cluster, int neighbourCluster) {
+        int[] cells = borderCells(cx, cy, horizontal, i);
+        var node = getOrCreateNode(cells[0], cluster);
+        var neighbour = getOrCreateNode(cells[1], neighbourCluster);
+
+        node.edges.put(neighbour, 1);
+        neighbour.edges.put(node, 1);
+        node.transitions++;
+        neighbour.transitions++;
+
+        return new AbstractNode[]{node, neighbour};
+    }
+
+    private AbstractNode getOrCreateNode(int cell, int cluster) {
+        return nodes.computeIfAbsent(cell, c -> {
+            var node = new AbstractNode(c, cluster);
+            clusterNodes.computeIfAbsent(cluster, k -> new HashSet<>()).add(node);
+            return node;
+        });
+    }
+
+    /**
+     * Connects all abstract nodes of the cluster with the length of the shortest path between them inside the cluster
+     */
+    private void buildIntraEdges(int cluster) {
+        var nodesOfCluster = clusterNodes.getOrDefault(cluster, Collections.emptySet());
+
+        for (var node : nodesOfCluster) {
+            node.edges.keySet().removeIf(neighbour -> neighbour.cluster == cluster);
+        }
+
+        for (var node : nodesOfCluster) {
+            for (var entry : distancesInCluster(node.cell, cluster).entrySet()) {
+                if (entry.getKey() != node) node.edges.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * BFS on the static terrain inside the cluster, returns the distance from cell to each reachable abstract node
+     */
+    private Map<AbstractNode, Integer> distancesInCluster(int cell, int cluster) {
+        var result = new HashMap<AbstractNode, Integer>();
+        var nodesOfCluster = clusterNodes.getOrDefault(cluster, Collections.emptySet());
+        if (nodesOfCluster.isEmpty()) return result;
+
+        int minX = (cluster % clustersX) * CLUSTER_SIZE, minY = (cluster / clustersX) * CLUSTER_SIZE;
+        int maxX = Math.min(minX + CLUSTER_SIZE, width), maxY = Math.min(minY + CLUSTER_SIZE, height);
+        int clusterWidth = maxX - minX;
+
+        var distances = new int[clusterWidth * (maxY - minY)];
+        Arrays.fill(distances, -1);
+        var queue = new ArrayDeque<Integer>();
+
+        distances[(cell / width - minY) * clusterWidth + (cell % width - minX)] = 0;
+        queue.add(cell);
+
+        while (!queue.isEmpty()) {
+            int current = queue.poll();
+            int x = current % width, y = current / width;
+            int currentDistance = distances[(y - minY) * clusterWidth + (x - minX)];
+
+            var node = nodes.get(current);
+            if (node != null && node.cluster == cluster) result.put(node, currentDistance);
+
+            for (var direction : DIRECTIONS) {
+                int nextX = x + direction[0], nextY = y + direction[1];
+                if (nextX < minX || nextY < minY || nextX >= maxX || nextY >= maxY) continue;
+                if (terrain.isBlocked(nextX, nextY)) continue;
+
+                int local = (nextY - minY) * clusterWidth + (nextX - minX);
+                if (distances[local] != -1) continue;
+
+                distances[local] = currentDistance + 1;
+                queue.add(nextY * width + nextX);
+            }
+        }
+
+        return result;
+    }
+
+    private int clusterOf(int x, int y) {
+        return (y / CLUSTER_SIZE) * clustersX + (x / CLUSTER_SIZE);
+    }
+
+    private static int borderKey(int cluster, boolean horizontal) {
+        return cluster * 2 + (horizontal ? 0 : 1);
+    }
+
+    /**
+     * Number of steps between two tiles without obstacles (8-directional movement)
+     */
+    private int distance(int a, int b) {
+        return Math.max(Math.abs(a % width - b % width), Math.abs(a / width - b / width));
+    }
+
+    @Override
+    public String toString() {
+        return "HierarchicalPathfinder{" +
+                "clusters=" + clustersX + "x" + clustersY +
+                ", abstractNodes=" + nodes.size() +
+                ", queries=" + queries.get() +
+                ", refinedQueries=" + refinedQueries.get() +
+                ", fallbackQueries=" + fallbackQueries.get() +
+                ", rebuiltClusters=" + rebuiltClusters +
+                '}';
+    }
+}
@@ -0,0 +1,241 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+
+import java.util.*;
+
+/**
+ * Threat and control of each player on every tile, together with the unit and city totals read by the heuristics
+ *
+ * Threat is the health of the units of a player spread over the tiles around them, control additionally includes
+ * the cities of the player. Tiles controlled by a player and one of its enemies form the frontier of the player.
+ *
+ * The map is updated incrementally: on each update only units which moved, fought or died and cities which changed
+ * their owner are removed from the grids and stamped again, so the work does not grow with the number of units
+ * standing still. The totals are kept up to date by the same deltas.
+ */
+public class InfluenceMap {
+
+    private static final int THREAT_RADIUS = 4;
+    private static final int CONTROL_RADIUS = 3;
+
+    // Control a city has on the tiles around it, a unit adds its health
+    private static final float CITY_CONTROL = 10f;
+
+    // Grids are updated by adding and subtracting, so values below this are rounding errors
+    private static final float EPSILON = 1e-3f;
+
+    private final int width;
+    private final int height;
+    private final int numberOfPlayers;
+
+    // Grids of each player in row-major order
+    private final float[][] threat;
+    private final float[][] control;
+
+    // State of each unit the last time it was stamped
+    private record UnitStamp(int playerId, int cell, double hp, int maxHp) {}
+    private final Map<UUID, UnitStamp> unitStamps = new HashMap<>();
+
+    // Owner of each visible city the last time it was stamped, -1 if it has none
+    private final Map<Position, Integer> cityOwners = new HashMap<>();
+
+    // Totals of each player, see HeuristicFeatures
+    private final int[] unitCount;
+    private final int[] cityCount;
+    private final int[] discoveredCount;
+    private final double[] damageTaken;
+    private final double[] totalHealth;
+
+    // Indices of tiles not discovered yet by each player, only those have to be checked on update
+    private final int[][] undiscoveredCells;
+    private final int[] undiscoveredCount;
+
+    private int updates = 0;
+    private int stampedUnits = 0;
+
+    public InfluenceMap(int width, int height, int numberOfPlayers) {
+        this.width = width;
+        this.height = height;
+        this.numberOfPlayers = numberOfPlayers;
+        this.threat = new float[numberOfPlayers][width * height];
+        this.control = new float[numberOfPlayers][width * height];
+        this.unitCount = new int[numberOfPlayers];
+        this.cityCount = new int[numberOfPlayers];
+        this.discoveredCount = new int[numberOfPlayers];
+        this.damageTaken = new double[numberOfPlayers];
+        this.totalHealth = new double[numberOfPlayers];
+        this.undiscoveredCells = new int[numberOfPlayers][width * height];
+        this.undiscoveredCount = new int[numberOfPlayers];
+
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            for (int i = 0; i < width * height; i++) undiscoveredCells[pid][i] = i;
+            undiscoveredCount[pid] = width * height;
+        }
+    }
+
+    public static InfluenceMap of(Empire game) {
+        var mapSize = game.getBoard().getMapSize();
+        var influenceMap = new InfluenceMap(mapSize.getWidth(), mapSize.getHeight(), game.getNumberOfPlayers());
+        influenceMap.update(game);
+        return influenceMap;
+    }
+
+    /**
+     * Applies the changes of units, cities and discovered tiles since the last update
+     */
+    public void update(Empire game) {
+        updates++;
+
+        // Units
+        var seen = new HashSet<UUID>();
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            for (var unit : game.getUnitsByPlayer(pid)) {
+                seen.add(unit.getId());
+
+                var position = unit.getPosition();
+                var current = new UnitStamp(pid, position.getY() * width + position.getX(), unit.getHp(), unit.getMaxHp());
+                var previous = unitStamps.get(unit.getId());
+                if (current.equals(previous)) continue;
+
+                if (previous != null) stampUnit(previous, -1);
+                stampUnit(current, 1);
+                unitStamps.put(unit.getId(), current);
+            }
+        }
+
+        // Units which died or are not visible anymore
+        var iterator = unitStamps.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (seen.contains(entry.getKey())) continue;
+            stampUnit(entry.getValue(), -1);
+            iterator.remove();
+        }
+
+        // Cities
+        var cities = game.getCitiesByPosition();
+        for (var city : cities.values()) {
+            int owner = HeuristicFeatures.ownerOf(city, numberOfPlayers);
+            var previous = cityOwners.put(city.getPosition(), owner);
+            if (previous != null && previous == owner) continue;
+
+            if (previous != null) stampCity(city.getPosition(), previous, -1);
+            stampCity(city.getPosition(), owner, 1);
+        }
+        cityOwners.keySet().removeIf(position -> {
+            if (cities.containsKey(position)) return false;
+            stampCity(position, cityOwners.get(position), -1);
+            return true;
+        });
+
+        // Discovered tiles never become undiscovered again
+        var discoveredByPosition = game.getBoard().getDiscoveredByPosition();
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            var cells = undiscoveredCells[pid];
+            for (int i = 0; i < undiscoveredCount[pid]; i++) {
+                var discovered = discoveredByPosition.get(new Position(cells[i] % width, cells[i] / width));
+                if (discovered == null || !discovered[pid]) continue;
+
+                discoveredCount[pid]++;
+                cells[i--] = cells[--undiscoveredCount[pid]];
+            }
+        }
+    }
+
+    /**
+     * Adds (sign = 1) or removes (sign = -1) the influence of a unit
+     */
+    private void stampUnit(UnitStamp stamp, int sign) {
+        stampedUnits++;
+        int pid = stamp.playerId();
+        if (pid < 0 || pid >= numberOfPlayers) return;
+
+        unitCount[pid] += sign;
+        damageTaken[pid] += sign * (stamp.maxHp() - stamp.hp());
+        totalHealth[pid] += sign * stamp.maxHp();
+
+        stamp(threat[pid], stamp.cell(), THREAT_RADIUS, sign * (float) stamp.hp());
+        stamp(control[pid], stamp.cell(), CONTROL_RADIUS, sign * (float) stamp.hp());
+    }
+
+    private void stampCity(Position position, int owner, int sign) {
+        if (owner < 0 || owner >= numberOfPlayers) return;
+
+        cityCount[owner] += sign;
+        stamp(control[owner], position.getY() * width + position.getX(), CONTROL_RADIUS, sign * CITY_CONTROL);
+    }
+
+    /**
+     * Adds value to the tiles around cell, decaying linearly with the distance (8-directional)
+     */
+    private void stamp(float[] grid, int cell, int radius, float value) {
+        int centerX = cell % width, centerY = cell / width;
+        for (int y = Math.max(0, centerY - radius); y <= Math.min(height - 1, centerY + radius); y++) {
+            for (int x = Math.max(0, centerX - radius); x <= Math.min(width - 1, centerX + radius); x++) {
+                int distance = Math.max(Math.abs(x - centerX), Math.abs(y - centerY));
+                grid[y * width + x] += value * (radius + 1 - distance) / (radius + 1);
+            }
+        }
+    }
+
+    public float getThreat(int playerId, Position position) {
+        return threat[playerId][position.getY() * width + position.getX()];
+    }
+
+    /**
+     * Returns the summed threat of all enemies of player on position
+     */
+    public float getEnemyThreat(int playerId, Position position) {
+        return sumOfEnemies(threat, playerId, position.getY() * width + position.getX());
+    }
+
+    public float getControl(int playerId, Position position) {
+        return control[playerId][position.getY() * width + position.getX()];
+    }
+
+    /**
+     * Returns true if any enemy unit of player can reach position within a few steps
+     */
+    public boolean isThreatened(int playerId, Position position) {
+        return getEnemyThreat(playerId, position) > EPSILON;
+    }
+
+    public float getEnemyControl(int playerId, Position position) {
+        return sumOfEnemies(control, playerId, position.getY() * width + position.getX());
+    }
+
+    /**
+     * Returns true if position is controlled by player and by at least one of its enemies
+     */
+    public boolean isFrontier(int playerId, Position position) {
+        return getControl(playerId, position) > EPSILON && getEnemyControl(playerId, position) > EPSILON;
+    }
+
+    private float sumOfEnemies(float[][] grids, int playerId, int cell) {
+        float sum = 0;
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            if (pid != playerId) sum += grids[pid][cell];
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the features of the last updated game without scanning its units and cities again
+     */
+    public HeuristicFeatures toFeatures() {
+        int visibleCityCount = cityOwners.size();
+        return new HeuristicFeatures(unitCount.clone(), cityCount.clone(), discoveredCount.clone(), damageTaken.clone(), totalHealth.clone(), visibleCityCount, width * height);
+    }
+
+    @Override
+    public String toString() {
+        return "InfluenceMap{" +
+                "units=" + unitStamps.size() +
+                ", cities=" + cityOwners.size() +
+                ", updates=" + updates +
+                ", stampedUnits=" + stampedUnits +
+                '}';
+    }
+}
@@ -0,0 +1,68 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.agent.ImperionGameNode;
+import at.ac.tuwien.ifs.sge.core.util.tree.Tree;
+
+import java.util.*;
+
+/**
+ * Combines the root statistics of the determinized searches of one decision
+ *
+ * All determinizations start from the same observation of the agent, they only differ in the sampled hidden content.
+ * Children of their roots with equivalent macro actions (equal MacroActionKey) are therefore the same information set
+ * of the agent's decision, their visits and evaluations are summed. The decided information set is the one with the most visits, it is
+ * represented by its best child in any of the trees, whose root planned the order of the macro action.
+ */
+public class InformationSets {
+
+    /**
+     * Decided child, the root of its tree and the statistics of its information set over all trees
+     */
+    public record Decision(Tree<ImperionGameNode> root, Tree<ImperionGameNode> child, int visits, double evaluation, int informationSets) {}
+
+    private static class Statistics {
+        int visits = 0;
+        double evaluation = 0;
+        Tree<ImperionGameNode> best;
+    }
+
+    /**
+     * Returns the key of the macro action of child, which is read in the game of the root of child
+     */
+    public static MacroActionKey keyOf(Tree<ImperionGameNode> child) {
+        return child.getParent().getNode().getKey(child.getNode().getMacroAction());
+    }
+
+    /**
+     * Returns the decision of the trees of roots, children of one tree are compared by moveComparator
+     * A single tree is decided like a search without determinizations
+     */
+    public static Decision decide(List<Tree<ImperionGameNode>> roots, int playerId, Comparator<Tree<ImperionGameNode>> moveComparator) {
+        if (roots.size() == 1) {
+            var root = roots.get(0);
+            var child = Collections.max(root.getChildren(), moveComparator);
+            return new Decision(root, child, child.getNode().getVisits(), child.getNode().getEvaluationForPlayer(playerId), root.getChildren().size());
+        }
+
+        // Ordered by first occurrence, so ties are decided the same way in a seeded search
+        var informationSets = new LinkedHashMap<MacroActionKey, Statistics>();
+        for (var root : roots) {
+            if (root.getChildren() == null) continue;
+            for (var child : root.getChildren()) {
+                var statistics = informationSets.computeIfAbsent(keyOf(child), key -> new Statistics());
+                statistics.visits += child.getNode().getVisits();
+                statistics.evaluation += child.getNode().getEvaluationForPlayer(playerId);
+                if (statistics.best == null || moveComparator.compare(child, statistics.best) > 0) statistics.best = child;
+            }
+        }
+
+        Statistics decided = null;
+        for (var statistics : informationSets.values()) {
+            if (decided == null || statistics.visits > decided.visits
+                    || (statistics.visits == decided.visits && statistics.evaluation > decided.evaluation)) decided = statistics;
+        }
+
+        if (decided == null) throw new NoSuchElementException("No determinization expanded its root");
+        return new Decision(decided.best.getParent(), decided.best, decided.visits, decided.evaluation, informationSets.size());
+    }
+}
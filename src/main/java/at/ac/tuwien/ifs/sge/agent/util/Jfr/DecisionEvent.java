@@ -0,0 +1,55 @@
+package at.ac.tuwien.ifs.sge.agent.util.Jfr;
+
+import jdk.jfr.*;
+
+/**
+ * One decision cycle of Imperion.play(), from copying the game state to sending the actions
+ */
+@Name("imperion.Decision")
+@Label("Decision")
+@Category({"Imperion", "Search"})
+@Description("Decision cycle of the agent")
+@StackTrace(false)
+public class DecisionEvent extends Event {
+
+    @Label("Decision")
+    public int decision;
+
+    @Label("Player Id")
+    public int playerId;
+
+    @Label("Game Time")
+    @Timespan(Timespan.MILLISECONDS)
+    public long gameTimeMs;
+
+    @Label("Iterations")
+    public int iterations;
+
+    @Label("Root Visits")
+    public int rootVisits;
+
+    @Label("Root Children")
+    public int rootChildren;
+
+    @Label("Tree Depth")
+    public int treeDepth;
+
+    @Label("Decision Depth")
+    @Description("Decisions of the agent on the deepest path of the tree")
+    public int decisionDepth;
+
+    @Label("Opponent Model")
+    public String opponentModel;
+
+    @Label("CPU Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long cpuTime;
+
+    @Label("Macro Action")
+    @Description("Type of the decided macro action")
+    public String macroAction;
+
+    @Label("Fallback")
+    @Description("The decision failed, the best action found so far was sent")
+    public boolean fallback;
+}
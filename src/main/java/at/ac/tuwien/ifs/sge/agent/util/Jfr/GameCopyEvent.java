@@ -0,0 +1,64 @@
+package at.ac.tuwien.ifs.sge.agent.util.Jfr;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import jdk.jfr.*;
+
+import java.util.function.Supplier;
+
+/**
+ * One Empire.copy() made by the agent, by default only copies which take longer than the threshold are recorded
+ */
+@Name("imperion.GameCopy")
+@Label("Game Copy")
+@Category({"Imperion", "Search"})
+@Description("Copy of the game state")
+@StackTrace(false)
+@Threshold("1 ms")
+public class GameCopyEvent extends Event {
+
+    public static final String SERVER = "server";
+    public static final String MIRROR = "mirror";
+    public static final String EXPANSION = "expansion";
+    public static final String SIMULATION = "simulation";
+    public static final String DETERMINIZATION = "determinization";
+
+    @Label("Site")
+    @Description("Where the copy was made")
+    public String site;
+
+    @Label("Game Time")
+    @Timespan(Timespan.MILLISECONDS)
+    public long gameTimeMs;
+
+    /**
+     * Copies game and records the copy
+     */
+    public static Empire copy(Empire game, String site) {
+        var event = new GameCopyEvent();
+        event.begin();
+        var copy = (Empire) game.copy();
+        event.end();
+        if (event.shouldCommit()) {
+            event.site = site;
+            event.gameTimeMs = copy.getGameClock().getGameTimeMs();
+            event.commit();
+        }
+        return copy;
+    }
+
+    /**
+     * Records the copy made by copy (e.g. AbstractRealTimeGameAgent.copyGame())
+     */
+    public static Empire copy(Supplier<Empire> copy, String site) {
+        var event = new GameCopyEvent();
+        event.begin();
+        var game = copy.get();
+        event.end();
+        if (event.shouldCommit()) {
+            event.site = site;
+            event.gameTimeMs = game.getGameClock().getGameTimeMs();
+            event.commit();
+        }
+        return game;
+    }
+}
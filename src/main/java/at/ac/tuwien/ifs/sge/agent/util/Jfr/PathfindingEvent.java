@@ -0,0 +1,28 @@
+package at.ac.tuwien.ifs.sge.agent.util.Jfr;
+
+import jdk.jfr.*;
+
+/**
+ * One BFS path search, by default only searches which take longer than the threshold are recorded
+ */
+@Name("imperion.Pathfinding")
+@Label("Pathfinding")
+@Category({"Imperion", "Pathfinding"})
+@Description("Breadth first search for a path")
+@StackTrace(false)
+@Threshold("1 ms")
+public class PathfindingEvent extends Event {
+
+    @Label("Source")
+    public String source;
+
+    @Label("Destination")
+    public String destination;
+
+    @Label("Path Length")
+    @Description("Number of positions of the path, -1 if no path was found")
+    public int pathLength = -1;
+
+    @Label("Nodes Expanded")
+    public int nodesExpanded;
+}
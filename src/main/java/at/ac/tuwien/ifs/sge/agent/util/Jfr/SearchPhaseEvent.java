@@ -0,0 +1,34 @@
+package at.ac.tuwien.ifs.sge.agent.util.Jfr;
+
+import jdk.jfr.*;
+
+/**
+ * One phase (selection, expansion, simulation or back-propagation) of an MCTS iteration
+ *
+ * There are thousands of iterations per decision, so by default only phases which take longer than the threshold
+ * are recorded. The threshold can be lowered in the recording settings to see every phase.
+ */
+@Name("imperion.SearchPhase")
+@Label("Search Phase")
+@Category({"Imperion", "Search"})
+@Description("Phase of an MCTS iteration")
+@StackTrace(false)
+@Threshold("1 ms")
+public class SearchPhaseEvent extends Event {
+
+    public static final String SELECTION = "selection";
+    public static final String EXPANSION = "expansion";
+    public static final String SIMULATION = "simulation";
+    public static final String BACK_PROPAGATION = "backPropagation";
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Player Id")
+    @Description("Player the search is run for")
+    public int playerId;
+
+    @Label("Depth")
+    @Description("Depth of the node the phase worked on")
+    public int depth;
+}
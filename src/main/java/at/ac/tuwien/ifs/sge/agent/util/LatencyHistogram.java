@@ -0,0 +1,113 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Thread-safe latency histogram with log-linear buckets (similar to HdrHistogram)
+ *
+ * Values are recorded in microseconds. Values below 128us are counted exactly, above that every power of two is split
+ * into 64 linear sub-buckets, so the relative error of a reported percentile is below 1.6%
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+    // Values above ~19 hours are clamped
+    private static final long MAX_VALUE_US = (1L << 36) - 1;
+
+    private final String name;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE_US) + 1);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final LongAccumulator maxValue = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1_000);
+    }
+
+    public void recordMillis(long millis) {
+        recordMicros(millis * 1_000);
+    }
+
+    public void recordMicros(long micros) {
+        var value = Math.max(0, Math.min(micros, MAX_VALUE_US));
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(value);
+        maxValue.accumulate(value);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> shift);
+        return shift * SUB_BUCKET_HALF_COUNT + subBucket;
+    }
+
+    /**
+     * Returns the highest value which is counted in the bucket
+     */
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+
+        int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        long subBucket = index - (long) shift * SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns the value in microseconds below which the given percentage of recorded values falls
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(highestValueAt(i), maxValue.get());
+        }
+        return maxValue.get();
+    }
+
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalValue.get() / count;
+    }
+
+    private static String ms(double micros) {
+        return Math.round(micros / 100.0) / 10.0 + "ms";
+    }
+
+    @Override
+    public String toString() {
+        return name + "{" +
+                "count=" + getTotalCount() +
+                ", mean=" + ms(getMean()) +
+                ", p50=" + ms(getValueAtPercentile(50)) +
+                ", p90=" + ms(getValueAtPercentile(90)) +
+                ", p99=" + ms(getValueAtPercentile(99)) +
+                ", p99.9=" + ms(getValueAtPercentile(99.9)) +
+                ", max=" + ms(getMaxValue()) +
+                '}';
+    }
+}
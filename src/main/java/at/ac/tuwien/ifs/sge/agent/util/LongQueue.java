@@ -0,0 +1,88 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Double-ended queue of primitive longs backed by a ring buffer, used to queue EncodedActions without boxing
+ * Copies are trimmed to their size, so the queues copied into every node of the tree stay small
+ */
+public class LongQueue implements Serializable {
+
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private long[] elements;
+    private int head = 0;
+    private int size = 0;
+
+    public LongQueue() {
+        this.elements = new long[DEFAULT_CAPACITY];
+    }
+
+    public LongQueue(LongQueue queue) {
+        this.elements = queue.toArray();
+        this.size = queue.size;
+        if (elements.length == 0) elements = new long[1];
+    }
+
+    public void addLast(long element) {
+        ensureCapacity();
+        elements[(head + size) % elements.length] = element;
+        size++;
+    }
+
+    public void addFirst(long element) {
+        ensureCapacity();
+        head = (head - 1 + elements.length) % elements.length;
+        elements[head] = element;
+        size++;
+    }
+
+    /**
+     * Removes and returns the first element
+     */
+    public long poll() {
+        if (size == 0) throw new NoSuchElementException();
+        var element = elements[head];
+        head = (head + 1) % elements.length;
+        size--;
+        return element;
+    }
+
+    public long peek() {
+        if (size == 0) throw new NoSuchElementException();
+        return elements[head];
+    }
+
+    public long get(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException(i);
+        return elements[(head + i) % elements.length];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long[] toArray() {
+        var array = new long[size];
+        for (int i = 0; i < size; i++) array[i] = elements[(head + i) % elements.length];
+        return array;
+    }
+
+    private void ensureCapacity() {
+        if (size < elements.length) return;
+        var grown = Arrays.copyOf(toArray(), Math.max(DEFAULT_CAPACITY, elements.length * 2));
+        elements = grown;
+        head = 0;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -2,42 +2,86 @@ package at.ac.tuwien.ifs.sge.agent.util;
 
 import at.ac.tuwien.ifs.sge.agent.Imperion;
 import at.ac.tuwien.ifs.sge.agent.ImperionGameNode;
+import at.ac.tuwien.ifs.sge.agent.util.Abstract.AbstractSimulator;
+import at.ac.tuwien.ifs.sge.agent.util.Abstract.AbstractState;
+import at.ac.tuwien.ifs.sge.agent.util.Jfr.GameCopyEvent;
+import at.ac.tuwien.ifs.sge.agent.util.Jfr.SearchPhaseEvent;
 import at.ac.tuwien.ifs.sge.agent.util.MacroAction.DoNothingMacroAction;
 import at.ac.tuwien.ifs.sge.agent.util.MacroAction.MacroAction;
-import at.ac.tuwien.ifs.sge.agent.util.MacroAction.WaitEvent;
-import at.ac.tuwien.ifs.sge.core.engine.communication.events.GameActionEvent;
-import at.ac.tuwien.ifs.sge.core.game.exception.ActionException;
+import at.ac.tuwien.ifs.sge.core.engine.logging.Logger;
+import at.ac.tuwien.ifs.sge.core.game.Game;
 import at.ac.tuwien.ifs.sge.core.util.Util;
 import at.ac.tuwien.ifs.sge.core.util.tree.DoubleLinkedTree;
 import at.ac.tuwien.ifs.sge.core.util.tree.Tree;
 import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.CombatStartOrder;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.MovementStartOrder;
 import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.Callable;
 
 public class MCTS {
 
-    private Imperion agent;
+    private final int playerId;
+    private final Logger log;
+
+    // Parallel root expansions run on this pool and are charged to this budget
+    private final SearchPool searchPool;
+    private final CpuBudget cpuBudget;
+
     private Comparator<Tree<ImperionGameNode>> selectionComparator;
     private Comparator<Tree<ImperionGameNode>> treeMoveComparator;
 
-    private static final int DEFAULT_SIMULATION_PACE_MS = 2000;
-    private static final int DEFAULT_SIMULATION_DEPTH = 20;
+    public static final int DEFAULT_EVALUATION_CACHE_SIZE = 4096;
+
+    // The root is expanded by all its actions at once, each one copies and advances the game, so they can be advanced in
+    // parallel on the SearchPool of the agent. Seeded searches always expand sequentially.
+    public static final boolean PARALLEL_ROOT_EXPANSION = Boolean.getBoolean("imperion.parallelExpansion");
+
+    // With OpponentModel.FIXED_POLICY opponents act inside each step and the tree only branches on the agent's decisions
+    private final RolloutSimulator simulator = new RolloutSimulator(OpponentModel.configured());
+
+    // Rollouts of simulation() run on the engine or on an abstract state, expansion always uses the engine
+    private final RolloutModel rolloutModel = RolloutModel.configured();
+    private final AbstractSimulator abstractSimulator = new AbstractSimulator(simulator.getOpponentModel());
+
+    // Rollouts are cut off after ROLLOUT_CUTOFF steps and their end is predicted by the value function of the agent, if it has one
+    public static final int ROLLOUT_CUTOFF = Math.max(1, Integer.getInteger("imperion.rolloutCutoff", 4));
+    private final ValueFunction valueFunction;
+
+    // Caches raw heuristic values of evaluated game states across rollouts, trees and decisions
+    private final EvaluationCache evaluationCache;
+
+    // Dynamic range of the heuristic values of this search
+    private final Heuristics heuristics;
 
     public MCTS(Imperion agent) {
+        this(agent.getPlayerId(), agent.getLogger(), agent.getHeuristicWeights(), agent.getValueFunction(),
+                (g1, g2) -> agent.getGameComperator().compare(g1, g2), agent.getSearchPool(), agent.getCpuBudget());
+    }
 
-        this.agent = agent;
+    /**
+     * Creates the search of playerId without an agent, e.g. for self-play matches
+     * gameComparator breaks ties between nodes of the same value, valueFunction may be null
+     */
+    public MCTS(int playerId, Logger log, HeuristicWeights heuristicWeights, ValueFunction valueFunction,
+                Comparator<Game<EmpireEvent, ?>> gameComparator, SearchPool searchPool, CpuBudget cpuBudget) {
+
+        this.playerId = playerId;
+        this.log = log;
+        this.searchPool = searchPool;
+        this.cpuBudget = cpuBudget;
+        this.heuristics = new Heuristics(log, heuristicWeights);
+        this.evaluationCache = new EvaluationCache(DEFAULT_EVALUATION_CACHE_SIZE, heuristicWeights);
+        if (rolloutModel == RolloutModel.ABSTRACT)
+            log.warn("Abstract rollouts are experimental, they only approximate the engine (see AbstractRolloutBenchmark)");
+        this.valueFunction = valueFunction;
 
         // Compares two nodes based on their UCB values
         Comparator<Tree<ImperionGameNode>> gameMcTreeUCTComparator = Comparator
                 .comparingDouble(t -> upperConfidenceBound(t, Math.sqrt(2)));
 
         // Compares two game nodes based on a game-specific metric
-        Comparator<ImperionGameNode> gameSpecificComparator = (n1, n2) -> agent.getGameComperator().compare(n1.getGameState(), n2.getGameState());
+        Comparator<ImperionGameNode> gameSpecificComparator = (n1, n2) -> gameComparator.compare(n1.getGameState(), n2.getGameState());
 
         // Selection comparator: first compares UCB, then (if UCB is the same) the game-specific metric
         selectionComparator = gameMcTreeUCTComparator.thenComparing((t1, t2) -> gameSpecificComparator.compare(t1.getNode(), t2.getNode()));
@@ -46,7 +90,7 @@ public class MCTS {
         Comparator<ImperionGameNode> visitComparator = Comparator.comparingInt(ImperionGameNode::getVisits);
 
         // Simple comparison of wins
-        Comparator<ImperionGameNode> winComparator = Comparator.comparingDouble(t -> t.getEvaluationForPlayer(agent.getPlayerId()));
+        Comparator<ImperionGameNode> winComparator = Comparator.comparingDouble(t -> t.getEvaluationForPlayer(playerId));
 
         // Move comparator: first compares visits, then (if visits are the same) wins, and finally (if wins are also the same) the game-specific metric
         Comparator<ImperionGameNode> moveComparator = visitComparator.thenComparing(winComparator).thenComparing(gameSpecificComparator);
@@ -57,7 +101,7 @@ public class MCTS {
 
     // Calculates the upper confidence bound (UCB) from mcts node
     private double upperConfidenceBound(Tree<ImperionGameNode> tree, double c) {
-        double w = tree.getNode().getEvaluationForPlayer(agent.getPlayerId());
+        double w = tree.getNode().getEvaluationForPlayer(playerId);
         double n = Math.max(tree.getNode().getVisits(), 1);
         double N = n;
         if (!tree.isRoot()) {
@@ -68,6 +112,7 @@ public class MCTS {
     }
 
     public Tree<ImperionGameNode> selection(Tree<ImperionGameNode> tree) {
+        var event = beginPhase();
         while (!tree.isLeaf()) {
             var bestChild = Collections.max(tree.getChildren(), selectionComparator);
 
@@ -80,231 +125,408 @@ public class MCTS {
             tree = bestChild;
         }
 
+        commitPhase(event, SearchPhaseEvent.SELECTION, tree);
         return tree;
     }
 
     public Tree<ImperionGameNode> expansion(Tree<ImperionGameNode> bestNode) {
+        return expansion(bestNode, PARALLEL_ROOT_EXPANSION);
+    }
+
+    /**
+     * Expands bestNode, the root is only expanded in parallel if parallel is true (see PARALLEL_ROOT_EXPANSION)
+     */
+    public Tree<ImperionGameNode> expansion(Tree<ImperionGameNode> bestNode, boolean parallel) {
+        var event = beginPhase();
         var gameState = bestNode.getNode();
 
-        var actionsToExpand = new HashSet<MacroAction>();
+        // Ordered, so a seeded search expands the same children in the same order
+        var actionsToExpand = new LinkedHashSet<MacroAction>();
+
+        // Actions equivalent to the action of a child would only split the visits of its branch
+        var expandedKeys = new HashSet<MacroActionKey>();
+        if (!bestNode.isLeaf()) for (var child : bestNode.getChildren()) expandedKeys.add(gameState.getKey(child.getNode().getMacroAction()));
+
         if (bestNode.isRoot()) {
             // If root node, then expand all actions
 
             while (gameState.hasUnexploredActions()) {
-                actionsToExpand.add(gameState.popUnexploredAction());
+                var macroAction = gameState.popUnexploredAction();
+                if (expandedKeys.add(gameState.getKey(macroAction))) actionsToExpand.add(macroAction);
             }
-            actionsToExpand.add(new DoNothingMacroAction());
+            var doNothing = new DoNothingMacroAction();
+            if (expandedKeys.add(gameState.getKey(doNothing))) actionsToExpand.add(doNothing);
         } else {
             // If leaf explore action of doing nothing first
             if (bestNode.isLeaf())
                 actionsToExpand.add(new DoNothingMacroAction());
             else
-                // otherwise, choose random unexplored action
-                actionsToExpand.add(gameState.popUnexploredAction());
+                // otherwise, choose random unexplored action, which has no equivalent child yet
+                while (gameState.hasUnexploredActions()) {
+                    var macroAction = gameState.popUnexploredAction();
+                    if (!expandedKeys.add(gameState.getKey(macroAction))) continue;
+                    actionsToExpand.add(macroAction);
+                    break;
+                }
         }
 
-        expandActions(bestNode, actionsToExpand);
+        if (!actionsToExpand.isEmpty()) expandActions(bestNode, actionsToExpand, parallel);
 
         // bestLeaf should always have the action of doing nothing
-        Imperion.logAssertWithMessage(!bestNode.getChildren().isEmpty(), "bestLeaf has no child action, but should always have one");
+        logAssertWithMessage(!bestNode.getChildren().isEmpty(), "bestLeaf has no child action, but should always have one");
 
-        return Util.selectRandom(bestNode.getChildren());
+        var expandedLeaf = Util.selectRandom(bestNode.getChildren(), gameState.getContext().getRandom());
+        commitPhase(event, SearchPhaseEvent.EXPANSION, bestNode);
+        return expandedLeaf;
     }
 
     /**
      * Expands bestChild by all actions if actions are valid or null
      */
-    private void expandActions(Tree<ImperionGameNode> bestChild, Set<MacroAction> actionsToExpand) {
-        Imperion.logAssertWithMessage(!actionsToExpand.isEmpty(), "actionsToExpand is empty, but should always have atleast one action (null action) has no child action");
-        Imperion.logger.trace("Start ExpandActions");
-        Imperion.logger.trace("Actions to expand: " + actionsToExpand);
-        Imperion.logger.trace("For player: " + bestChild.getNode().getNextPlayerId());
+    private void expandActions(Tree<ImperionGameNode> bestChild, Set<MacroAction> actionsToExpand, boolean parallel) {
+        logAssertWithMessage(!actionsToExpand.isEmpty(), "actionsToExpand is empty, but should always have atleast one action (null action) has no child action");
+        log.trace("Start ExpandActions");
+        log.trace("Actions to expand: " + actionsToExpand);
+        log.trace("For player: " + bestChild.getNode().getNextPlayerId());
 
         var gameState = bestChild.getNode();
-        var playerOnTurn = gameState.getNextPlayerId();
-
-        for (MacroAction macroAction : actionsToExpand) {
-            // Expand the tree by copying the game state and advancing it by the simulation pace
-            var game = (Empire) gameState.getGameState().copy();
-            var commandQueues = gameState.copyCommandQueues();
 
-            // Add macroAction to commandQueue
-            commandQueues[playerOnTurn].addCommand(macroAction, false);
+        if (parallel && bestChild.isRoot() && actionsToExpand.size() > 1 && !gameState.getContext().isSeeded()) {
+            expandActionsInParallel(bestChild, actionsToExpand);
+        } else {
+            for (MacroAction macroAction : actionsToExpand) {
+                var child = toChild(gameState, macroAction, advance(gameState, macroAction));
+                if (child != null) bestChild.add(child);
+            }
+        }
 
-            List<EmpireEvent> executedActions = null;
+        log.trace("End ExpandActions");
+    }
 
-            try {
-                executedActions = scheduleAndAdvance(commandQueues, game, playerOnTurn);
-            } catch (Exception e) {
-                // If we have partial information (Fog of War) the result of some actions might be ambiguous leading in an ActionException
-                // Stop the simulation there
-                Imperion.logger.trace("simulation reached invalid game state (partial information)");
-                continue;
-            }
+    /**
+     * Advances the copies of the game of all actions on the SearchPool of the search, their CPU time is charged to its
+     * CpuBudget. The copies are taken on the calling thread before the tasks are submitted, so no two threads copy or
+     * read the game of the node at the same time (Empire.copy() is not documented to be safe for that). A task only
+     * advances its own copy; the discovered tiles of the node are read by FeatureTracker.toFeatures(), but nothing
+     * writes them while the node is expanded. The children are created on the calling thread in the order of the
+     * actions, so units produced in the children are interned in the same order as in a sequential expansion.
+     */
+    private void expandActionsInParallel(Tree<ImperionGameNode> bestChild, Set<MacroAction> actionsToExpand) {
+        var gameState = bestChild.getNode();
 
-            // If actions were successfully executed, add to leaf
-            var expandState = new ImperionGameNode(game, (playerOnTurn + 1) % game.getNumberOfPlayers(), executedActions, commandQueues, macroAction);
-            Imperion.logger.trace("Expand state: " + expandState);
-            bestChild.add(new DoubleLinkedTree<>(expandState));
+        // All units of the node are interned before the copies are advanced, so they only look units up
+        var units = gameState.getCommandQueues()[0].getUnits();
+        var game = gameState.getGameState();
+        for (var pid = 0; pid < game.getNumberOfPlayers(); pid++)
+            for (var unit : game.getUnitsByPlayer(pid)) units.intern(unit.getId());
+
+        var actions = new ArrayList<>(actionsToExpand);
+        var tasks = new ArrayList<Callable<Expansion>>(actions.size());
+        for (var macroAction : actions) {
+            var copy = copy(gameState, macroAction);
+            tasks.add(() -> advance(gameState, copy));
         }
+        var expansions = searchPool.invokeAll(tasks, cpuBudget);
 
-        Imperion.logger.trace("End ExpandActions");
+        for (int i = 0; i < actions.size(); i++) {
+            var child = toChild(gameState, actions.get(i), expansions.get(i));
+            if (child != null) bestChild.add(child);
+        }
     }
 
     /**
-     * Simulates a game given a certain game state and determines winner
-     * Each simulation just simulates what would happen if the scheduled commands in the command queue would all be executed
-     * In that sense a simulation shows us if a certain macro action will lead to winning or losing node
+     * Copy of the game of a node after a macro action was scheduled and the game was advanced
      */
-    public double[] simulation(Tree<ImperionGameNode> tree, long nextDecisionTime) {
-        var gameState = tree.getNode();
-        var game = (Empire) gameState.getGameState().copy();
-        var commandQueues = gameState.copyCommandQueues();
-        var playerToTurn = gameState.getNextPlayerId();
-        var depth = 0;
+    private record Expansion(Empire game, CommandQueue[] commandQueues, List<EmpireEvent> executedActions, HeuristicFeatures features) {}
 
-        Imperion.logger.trace("Simulation of: " + gameState);
-        try {
-            while (!game.isGameOver() && depth++ <= DEFAULT_SIMULATION_DEPTH && System.currentTimeMillis() < nextDecisionTime
-                    // Check if command queues are both empty
-                    && IntStream.range(0, commandQueues.length).filter(i -> !commandQueues[i].isEmpty()).count() > 0
-            ) {
-                Imperion.logger.trace("Start inner loop simulation");
-                Imperion.logger.trace("Command queue for player " + playerToTurn + Arrays.toString(commandQueues));
+    /**
+     * Copy of the game and command queues of a node with a macro action added, not advanced yet
+     */
+    private record ExpansionCopy(Empire game, CommandQueue[] commandQueues, FeatureTracker tracker) {}
 
-                scheduleAndAdvance(commandQueues, game, playerToTurn);
+    /**
+     * Copies the game and command queues of gameState and adds macroAction to the queue of the player on turn
+     */
+    private ExpansionCopy copy(ImperionGameNode gameState, MacroAction macroAction) {
+        var game = GameCopyEvent.copy(gameState.getGameState(), GameCopyEvent.EXPANSION);
+        var commandQueues = gameState.copyCommandQueues();
+        commandQueues[gameState.getNextPlayerId()].addCommand(macroAction, false);
+        return new ExpansionCopy(game, commandQueues, new FeatureTracker(gameState.getGameState(), gameState.getFeatures()));
+    }
 
-                playerToTurn = (playerToTurn + 1) % game.getNumberOfPlayers();
+    /**
+     * Copies the game of gameState and advances it by the simulation pace after macroAction was scheduled, returns null
+     * if the action led to an invalid game state
+     */
+    private Expansion advance(ImperionGameNode gameState, MacroAction macroAction) {
+        return advance(gameState, copy(gameState, macroAction));
+    }
 
-                Imperion.logger.trace("End inner loop simulation");
-            }
+    /**
+     * Advances copy, a copy of the game of gameState, by the simulation pace, returns null if the action led to an
+     * invalid game state. Only modifies copy, so the copies of the actions of one node can be advanced concurrently.
+     */
+    private Expansion advance(ImperionGameNode gameState, ExpansionCopy copy) {
+        var playerOnTurn = gameState.getNextPlayerId();
+        var game = copy.game();
+        var commandQueues = copy.commandQueues();
+
+        try {
+            var executedActions = simulator.scheduleAndAdvance(commandQueues, game, playerOnTurn, gameState.getContext().getRandom(), gameState.getPossibleActions());
+            copy.tracker().visit(game);
+            return new Expansion(game, commandQueues, executedActions, copy.tracker().toFeatures(game));
         } catch (Exception e) {
             // If we have partial information (Fog of War) the result of some actions might be ambiguous leading in an ActionException
             // Stop the simulation there
-            Imperion.logger.trace("simulation reached invalid game state (partial information)");
+            log.trace("simulation reached invalid game state (partial information)");
+            return null;
         }
-
-        Imperion.logger.trace("End of simulation");
-        Heuristics.debHeuristics(game, 0);
-        return evaluateGameState(game);
     }
 
     /**
-     * Tries to schedule the next action in queue for each unit and city and advances game
+     * Returns the child of gameState after macroAction, or null if the action led to an invalid game state
      */
-    private static List<EmpireEvent> scheduleAndAdvance(CommandQueue[] commandQueues, Empire game, int playerToTurn) throws ActionException {
-        Imperion.logger.trace("Start scheduleAndAdvance");
-
-        var scheduledEvents = new ArrayList<EmpireEvent>();
-
-        if(commandQueues[playerToTurn].doNothing) {commandQueues[playerToTurn].doNothing = false;}
-        else{
-            // Try to schedule the next action in queue for each unit and city
-            for (var command : commandQueues[playerToTurn].getUnitCommandQueue().entrySet()) {
-                Imperion.logger.trace("Next command for Unit with ID: " + command.getKey());
-                var unit = game.getUnit(command.getKey());
-
-                // Only schedule next command if unit is not busy
-                if(!unit.isIdle()) continue;
-
-                // Check if unit can attack enemy unit
-                var possibleCombatActionsByUnit = game.getPossibleActions().stream()
-                        .filter(event -> event instanceof CombatStartOrder combatStartOrder && combatStartOrder.getAttackerId() == unit.getId())
-                        .collect(Collectors.toSet());
+    private Tree<ImperionGameNode> toChild(ImperionGameNode gameState, MacroAction macroAction, Expansion expansion) {
+        if (expansion == null) return null;
+
+        // If actions were successfully executed, add to leaf
+        var game = expansion.game();
+        var expandState = new ImperionGameNode(game, simulator.getOpponentModel().nextPlayer(gameState.getNextPlayerId(), game.getNumberOfPlayers()),
+                expansion.executedActions(), expansion.commandQueues(), macroAction, gameState.getContext(), expansion.features());
+        log.trace("Expand state: " + expandState);
+        return new DoubleLinkedTree<>(expandState);
+    }
 
-                // If possible, add this action to queue, but at the front of its queue
-                if(!possibleCombatActionsByUnit.isEmpty()) commandQueues[playerToTurn].addCommand(Util.selectRandom(possibleCombatActionsByUnit), true);
+    /**
+     * Simulates a game given a certain game state and determines winner
+     * Each simulation just simulates what would happen if the scheduled commands in the command queue would all be executed
+     * In that sense a simulation shows us if a certain macro action will lead to winning or losing node
+     * The returned evaluation is the buffer of the context of tree, it is only valid until the next evaluation of the tree
+     */
+    public double[] simulation(Tree<ImperionGameNode> tree, long nextDecisionTime) {
+        var event = beginPhase();
+        var gameState = tree.getNode();
+        var buffer = gameState.getContext().getEvaluationBuffer(gameState.getGameState().getNumberOfPlayers());
+        var maxSteps = getMaxRolloutSteps();
+
+        // Without combat the value function predicts the rollout well enough, quiet states are not simulated
+        if (isQuiet(tree)) {
+            var evaluation = predictEvaluation(gameState.getFeatures(), 0, buffer);
+            commitPhase(event, SearchPhaseEvent.SIMULATION, tree);
+            return evaluation;
+        }
 
-                schedule(game, playerToTurn, command, scheduledEvents);
-            }
-            for (var command : commandQueues[playerToTurn].getCityCommandQueue().entrySet()) {
-                Imperion.logger.trace("Next command for City with Position: " + command.getKey());
-                schedule(game, playerToTurn, command, scheduledEvents);
-            }
+        if (rolloutModel == RolloutModel.ABSTRACT) {
+            // The abstract state is read from the node, the game of the node is not copied
+            var state = AbstractState.of(gameState.getGameState(), gameState.getCommandQueues());
+            var steps = abstractSimulator.simulate(state, gameState.getNextPlayerId(), nextDecisionTime, gameState.getContext().getRandom(), maxSteps);
+
+            double[] evaluation;
+            if (state.isGameOver()) evaluation = gameOverEvaluation(buffer);
+            else if (steps == maxSteps && valueFunction != null) evaluation = predictEvaluation(state.toFeatures(), steps, buffer);
+            else evaluation = evaluate(state.toFeatures(), buffer);
+            commitPhase(event, SearchPhaseEvent.SIMULATION, tree);
+            return evaluation;
         }
 
-        // Advance the game
-        game.advance(DEFAULT_SIMULATION_PACE_MS);
+        var game = GameCopyEvent.copy(gameState.getGameState(), GameCopyEvent.SIMULATION);
+        var commandQueues = gameState.copyCommandQueues();
+        var playerToTurn = gameState.getNextPlayerId();
 
-        //Imperion.logger.debug("Command queue after: " + Arrays.toString(commandQueues));
-        Imperion.logger.trace("End scheduleAndAdvance");
+        log.trace("Simulation of: " + gameState);
+        var tracker = new FeatureTracker(gameState.getGameState(), gameState.getFeatures());
+        var steps = simulator.simulate(game, commandQueues, playerToTurn, nextDecisionTime, gameState.getContext().getRandom(), gameState.getPossibleActions(), maxSteps, tracker);
 
-        return !scheduledEvents.isEmpty() ? scheduledEvents : null;
+        log.trace("End of simulation");
+        // A rollout which ended before the cutoff (e.g. all queues are empty) reached its end, it is evaluated like a full one
+        var evaluation = valueFunction != null && steps == maxSteps && !game.isGameOver()
+                ? predictEvaluation(tracker.toFeatures(game), steps, buffer)
+                : evaluateGameState(game, tracker, buffer);
+        commitPhase(event, SearchPhaseEvent.SIMULATION, tree);
+        return evaluation;
     }
 
     /**
-     * Returns true if command could be scheduled, otherwise false
+     * Returns true if the state of tree is evaluated by the value function without a rollout, which is decided on the
+     * features the node keeps
      */
-    private static boolean schedule(Empire game, int playerToTurn, Map.Entry<?, ArrayDeque<EmpireEvent>> command, ArrayList<EmpireEvent> scheduledEvents) {
-        Imperion.logger.trace("Start schedule");
-
-        // Just continue if command queue is empty for unit
-        if(command.getValue().isEmpty()){ Imperion.logger.trace("Queue empty"); return true; }
-
-        var action = command.getValue().poll();
-        Imperion.logger.trace("Schedule/Poll action: " + action);
-
-        // In case of a wait event just return
-        if(action instanceof WaitEvent) return true;
+    public boolean isQuiet(Tree<ImperionGameNode> tree) {
+        var gameState = tree.getNode();
+        return valueFunction != null && ValueFunction.isQuiet(gameState.getFeatures()) && !gameState.getGameState().isGameOver();
+    }
 
-        if (action != null)
-            if (!game.isValidAction(action, playerToTurn)){
-                Imperion.logger.trace("Not valid action");
+    /**
+     * Steps after which rollouts are cut off, also sent to the rollout workers
+     */
+    public int getMaxRolloutSteps() {
+        return valueFunction != null ? ROLLOUT_CUTOFF : RolloutSimulator.DEFAULT_SIMULATION_DEPTH + 1;
+    }
 
-                if(action instanceof MovementStartOrder mso){
-                    var dest = mso.getDestination();
-                    var isHeldByPlayerId = game.getBoard().getEmpireTiles()[dest.getY()][dest.getX()].getPlayerId();
+    /**
+     * Evaluates a rollout which was cut off after steps steps by the value function into buffer
+     */
+    private double[] predictEvaluation(HeuristicFeatures features, int steps, double[] buffer) {
+        return normalizeEvaluation(valueFunction.evaluate(features, steps, buffer), buffer);
+    }
 
-                    // If movement was not possible, because of ally unit on destination, add order back to queue and try in next iteration
-                    if(isHeldByPlayerId == playerToTurn) command.getValue().addFirst(action);
-                }
+    public void backPropagation(Tree<ImperionGameNode> tree, double[] evaluations) {
+        backPropagation(tree, evaluations, true);
+    }
 
-                // If action is not null and not valid, do nothing
-                return false;
-            } else {
-                // If action is not null and valid, do schedule event
-                Imperion.logger.trace("Valid action");
-                game.scheduleActionEvent(new GameActionEvent<>(playerToTurn, action, game.getGameClock().getGameTimeMs() + 1));
+    /**
+     * Counts a visit without evaluation (a virtual loss) on the path of tree while its rollout runs in a worker,
+     * so selection spreads the rollouts in flight over the tree instead of choosing the same leaf again
+     * The result is added by completeVirtualVisit(), a rollout without result is undone by revertVirtualVisit()
+     */
+    public void addVirtualVisit(Tree<ImperionGameNode> tree) {
+        for (; tree != null; tree = tree.getParent()) tree.getNode().incrementVisits();
+    }
 
-                scheduledEvents.add(action);
-            }
+    public void completeVirtualVisit(Tree<ImperionGameNode> tree, double[] evaluations) {
+        backPropagation(tree, evaluations, false);
+    }
 
-        Imperion.logger.trace("End schedule");
-        return true;
+    public void revertVirtualVisit(Tree<ImperionGameNode> tree) {
+        for (; tree != null; tree = tree.getParent()) tree.getNode().decrementVisits();
     }
 
-    public void backPropagation(Tree<ImperionGameNode> tree, double[] evaluations) {
+    private void backPropagation(Tree<ImperionGameNode> tree, double[] evaluations, boolean countVisit) {
+        var event = beginPhase();
+        var leaf = tree;
+
         // Go back up in the tree and increment the visits of evey node as well as the evaluation of the players nodes
         do {
             var node = tree.getNode();
-            node.incrementVisits();
+            if (countVisit) node.incrementVisits();
 
             for (var playerId = 0; playerId < tree.getNode().getGameState().getNumberOfPlayers(); playerId++) {
                 node.incrementEvaluation(evaluations[playerId], playerId);
             }
             tree = tree.getParent();
         } while (tree != null);
+
+        commitPhase(event, SearchPhaseEvent.BACK_PROPAGATION, leaf);
+    }
+
+    private static SearchPhaseEvent beginPhase() {
+        var event = new SearchPhaseEvent();
+        event.begin();
+        return event;
+    }
+
+    private void commitPhase(SearchPhaseEvent event, String phase, Tree<ImperionGameNode> tree) {
+        event.end();
+        if (!event.shouldCommit()) return;
+
+        int depth = 0;
+        for (var parent = tree.getParent(); parent != null; parent = parent.getParent()) depth++;
+
+        event.phase = phase;
+        event.playerId = playerId;
+        event.depth = depth;
+        event.commit();
     }
 
     /**
      * Evaluates the advantage of each player in the current game ranging from 0 (losing) to 1 (winning)
      * Due to fog of war we can only evaluate our current game state to our worst/best possible game state.
+     * tracker followed the rollout which ended in game
      */
-    private double[] evaluateGameState(Empire game) {
-        var evaluation = new double[game.getNumberOfPlayers()];
+    private double[] evaluateGameState(Empire game, FeatureTracker tracker, double[] buffer) {
         if (game.isGameOver()) {
             double[] gameUtilityValue = game.getGameUtilityValue();
             for (var pid = 0; pid < game.getNumberOfPlayers(); pid++)
                 if (gameUtilityValue[pid] == 1D)
                     gameUtilityValue[pid] = 1.0;
-        } else {
-            for (var pid = 0; pid < game.getNumberOfPlayers(); pid++) {
-                evaluation[pid] = Heuristics.determineNormalizedHeuristicValue(game, agent.getPlayerId());
-            }
+            return gameOverEvaluation(buffer);
         }
+        return evaluate(tracker.toFeatures(game), buffer);
+    }
+
+    /**
+     * Writes the normalized heuristic value of playerId into every entry of buffer
+     * features are carried along the rollout, they are the key of the raw values in the evaluation cache
+     */
+    private double[] evaluate(HeuristicFeatures features, double[] buffer) {
+        return normalizeEvaluation(evaluationCache.getHeuristicValues(features), buffer);
+    }
+
+    private static double[] gameOverEvaluation(double[] buffer) {
+        Arrays.fill(buffer, 0);
+        return buffer;
+    }
+
+    /**
+     * Evaluates the result of a rollout of leaf, which was run by a RolloutWorker
+     * heuristicValues are the raw heuristic values of each player at the end of the rollout
+     * Like simulation(), the evaluation is the buffer of the context of leaf
+     */
+    public double[] evaluateRolloutResult(Tree<ImperionGameNode> leaf, boolean gameOver, double[] heuristicValues) {
+        var buffer = leaf.getNode().getContext().getEvaluationBuffer(heuristicValues.length);
+        if (gameOver) return gameOverEvaluation(buffer);
+        return normalizeEvaluation(heuristicValues, buffer);
+    }
+
+    /**
+     * Writes the normalized value of playerId into every entry of evaluation, heuristicValues may be evaluation itself
+     */
+    private double[] normalizeEvaluation(double[] heuristicValues, double[] evaluation) {
+        Arrays.fill(evaluation, heuristics.normalizeHeuristicValue(heuristicValues[playerId], playerId));
         return evaluation;
     }
 
+    /**
+     * Returns the depth of the tree and the number of decisions of playerId on its deepest path
+     * With OpponentModel.ALTERNATING only every numberOfPlayers-th level of the tree is a decision of playerId
+     */
+    public static int[] depthOf(Tree<ImperionGameNode> tree, int playerId) {
+        int maxDepth = 0;
+        int maxDecisions = 0;
+
+        var stack = new ArrayDeque<Tree<ImperionGameNode>>();
+        var depths = new ArrayDeque<int[]>();
+        stack.push(tree);
+        depths.push(new int[]{0, 0});
+        while (!stack.isEmpty()) {
+            var current = stack.pop();
+            var depth = depths.pop();
+            if (depth[0] > maxDepth || (depth[0] == maxDepth && depth[1] > maxDecisions)) {
+                maxDepth = depth[0];
+                maxDecisions = depth[1];
+            }
+
+            // Children of a node of playerId are the results of a decision of playerId
+            int decisions = depth[1] + (current.getNode().getNextPlayerId() == playerId ? 1 : 0);
+            if (current.getChildren() == null) continue;
+            for (var child : current.getChildren()) {
+                stack.push(child);
+                depths.push(new int[]{depth[0] + 1, decisions});
+            }
+        }
+
+        return new int[]{maxDepth, maxDecisions};
+    }
+
+    private void logAssertWithMessage(boolean condition, String message) {
+        if (!condition) log.info("Assertion failed: " + message);
+    }
+
+    public OpponentModel getOpponentModel() {
+        return simulator.getOpponentModel();
+    }
+
+    public ValueFunction getValueFunction() {
+        return valueFunction;
+    }
+
+    public Heuristics getHeuristics() {
+        return heuristics;
+    }
+
+    public EvaluationCache getEvaluationCache() {
+        return evaluationCache;
+    }
+
     public Comparator<Tree<ImperionGameNode>> getTreeMoveComparator() {
         return treeMoveComparator;
     }
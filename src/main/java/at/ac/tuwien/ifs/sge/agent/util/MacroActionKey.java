@@ -0,0 +1,74 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.agent.util.MacroAction.MacroAction;
+import at.ac.tuwien.ifs.sge.agent.util.UnitRole.OrderType;
+import at.ac.tuwien.ifs.sge.agent.util.UnitRole.UnitOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+
+/**
+ * Canonical form of a macro action: order type, target position and class of the acting unit
+ *
+ * Macro actions are compared by identity, but their generators pick units and cities at random, so separate but
+ * equivalent macro actions (e.g. an expansion to the same city by another unit of the same type) become separate
+ * branches. Macro actions with equal keys are one branch of the search.
+ *
+ * The kind and target are those of the last atomic action, the target is replaced by the destination of the order
+ * the macro action assigns, if it assigns one. The unit class is the type of the acting unit, or the produced type
+ * of productions. Atomic actions without an encoding are kept as they are (other), so they are never merged.
+ */
+public record MacroActionKey(OrderType type, int kind, int x, int y, int unitClass, EmpireEvent other) {
+
+    public static final int NONE = -1;
+
+    /**
+     * Returns the key of macroAction in game, plannedOrder is the order it assigns to its unit and may be null
+     * units is the UnitIndex of the command queues of the node, the acting unit is looked up through it
+     */
+    public static MacroActionKey of(MacroAction macroAction, Empire game, UnitOrder plannedOrder, UnitIndex units) {
+        var type = macroAction == null ? null : macroAction.getType();
+        var atomicActions = macroAction == null ? null : macroAction.getAtomicActions();
+
+        int kind = EncodedAction.NONE, x = NONE, y = NONE, unitClass = NONE;
+        EmpireEvent other = null;
+
+        if (atomicActions != null && !atomicActions.isEmpty()) {
+            var event = atomicActions.get(atomicActions.size() - 1);
+            long action = EncodedAction.encode(event, units);
+            kind = EncodedAction.kind(action);
+
+            if (kind == EncodedAction.NONE) {
+                other = event;
+            } else {
+                x = EncodedAction.x(action);
+                y = EncodedAction.y(action);
+
+                if (EncodedAction.isUnitAction(action)) {
+                    var unit = game.getUnit(units.getUnitId(EncodedAction.unit(action)));
+                    if (unit != null) {
+                        unitClass = unit.getUnitTypeId();
+
+                        // A stop order has no target, the unit stops where it is
+                        if (kind == EncodedAction.MOVEMENT_STOP || kind == EncodedAction.COMBAT_STOP) {
+                            x = unit.getPosition().getX();
+                            y = unit.getPosition().getY();
+                        }
+                    }
+                } else if (kind == EncodedAction.PRODUCTION_START) {
+                    unitClass = EncodedAction.unit(action);
+                }
+            }
+        }
+
+        if (plannedOrder != null) {
+            x = plannedOrder.getDestination().getX();
+            y = plannedOrder.getDestination().getY();
+            if (unitClass == NONE) {
+                var unit = game.getUnit(plannedOrder.getUnitId());
+                if (unit != null) unitClass = unit.getUnitTypeId();
+            }
+        }
+
+        return new MacroActionKey(type, kind, x, y, unitClass, other);
+    }
+}
@@ -0,0 +1,212 @@
+package at.ac.tuwien.ifs.sge.agent.util.Opening;
+
+import at.ac.tuwien.ifs.sge.agent.util.EncodedAction;
+import at.ac.tuwien.ifs.sge.agent.util.MacroAction.MacroAction;
+import at.ac.tuwien.ifs.sge.agent.util.UnitIndex;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Memory-mapped table of the macro actions decided in the first decisions of matches on known maps, written by the
+ * OpeningBookBuilder
+ *
+ * An entry is keyed by the map (the size and the terrain the player discovered at its first decision) and by the root
+ * state of a decision (the player and the owner, type and position of every visible unit and city). Its move is the
+ * order type and a hash of the atomic actions of the decided macro action. Units are identified by their position,
+ * their ids differ in every match. All keys are order independent sums of mixed hashes, so computing them allocates
+ * nothing and a lookup is a binary search in the mapped file.
+ *
+ * Layout: int magic, int version, int entry count, entries sorted by map key and state key,
+ * each one long map key, long state key, long actions key, int order type (-1 for none), int visits.
+ */
+public class OpeningBook implements Closeable {
+
+    private static final int MAGIC = 0x494D4F42;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int ENTRY_BYTES = 3 * Long.BYTES + 2 * Integer.BYTES;
+
+    private static final int NO_TYPE = -1;
+
+    /**
+     * Decided move of a root state
+     */
+    public record Entry(long mapKey, long stateKey, long actionsKey, int type, int visits) {}
+
+    private static final Comparator<Entry> ORDER = Comparator.comparingLong(Entry::mapKey).thenComparingLong(Entry::stateKey);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int count;
+
+    private OpeningBook(FileChannel channel, MappedByteBuffer buffer, int count) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.count = count;
+    }
+
+    public static OpeningBook open(Path path) throws IOException {
+        var channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION)
+                throw new IOException(path + " is no opening book of version " + VERSION);
+
+            int count = buffer.getInt(2 * Integer.BYTES);
+            if (buffer.limit() < HEADER_BYTES + (long) count * ENTRY_BYTES) throw new IOException(path + " is truncated");
+            return new OpeningBook(channel, buffer, count);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the index of the entry of the root state, -1 if the book has none
+     */
+    public int find(long mapKey, long stateKey) {
+        int low = 0, high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = offset(middle);
+            int compare = Long.compare(buffer.getLong(offset), mapKey);
+            if (compare == 0) compare = Long.compare(buffer.getLong(offset + Long.BYTES), stateKey);
+
+            if (compare < 0) low = middle + 1;
+            else if (compare > 0) high = middle - 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if macroAction is the move of entry, game is the root state its atomic actions are issued in
+     */
+    public boolean matches(int entry, MacroAction macroAction, Empire game) {
+        int offset = offset(entry);
+        return buffer.getInt(offset + 3 * Long.BYTES) == typeOf(macroAction) && buffer.getLong(offset + 2 * Long.BYTES) == actionsKey(macroAction, game);
+    }
+
+    public int getVisits(int entry) {
+        return buffer.getInt(offset(entry) + 3 * Long.BYTES + Integer.BYTES);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private static int offset(int entry) {
+        return HEADER_BYTES + entry * ENTRY_BYTES;
+    }
+
+    /**
+     * Key of the map of playerId, taken at the first decision of a match
+     */
+    public static long mapKey(Empire game, int playerId) {
+        var size = game.getBoard().getMapSize();
+        long key = mix(size.getWidth(), size.getHeight(), 0, 0);
+
+        var tiles = game.getBoard().getEmpireTiles();
+        for (var discovered : game.getBoard().getDiscoveredByPosition().entrySet()) {
+            if (!discovered.getValue()[playerId]) continue;
+            var position = discovered.getKey();
+            var tile = tiles[position.getY()][position.getX()];
+            if (tile != null) key += mix(position.getX(), position.getY(), tile.getMapIdentifier(), 1);
+        }
+        return key;
+    }
+
+    /**
+     * Key of the root state of a decision of playerId
+     */
+    public static long stateKey(Empire game, int playerId) {
+        long key = mix(playerId, 0, 0, 2);
+        for (int pid = 0; pid < game.getNumberOfPlayers(); pid++) {
+            for (var unit : game.getUnitsByPlayer(pid))
+                key += mix(unit.getPosition().getX(), unit.getPosition().getY(), pid * 16 + unit.getUnitTypeId(), 3);
+        }
+        for (var city : game.getCitiesByPosition().entrySet())
+            key += mix(city.getKey().getX(), city.getKey().getY(), city.getValue().getPlayerId(), 4);
+        return key;
+    }
+
+    /**
+     * Key of the atomic actions of macroAction, units are identified by their position in game
+     */
+    public static long actionsKey(MacroAction macroAction, Empire game) {
+        if (macroAction == null || macroAction.getAtomicActions() == null) return 0;
+
+        var units = new UnitIndex();
+        long key = 0;
+        for (var event : macroAction.getAtomicActions()) {
+            long action = EncodedAction.encode(event, units);
+            if (EncodedAction.isUnitAction(action)) {
+                var unit = game.getUnit(units.getUnitId(EncodedAction.unit(action)));
+                if (unit == null) continue;
+                action = EncodedAction.encode(EncodedAction.kind(action), unit.getPosition().getX() << 14 | unit.getPosition().getY(), EncodedAction.x(action), EncodedAction.y(action));
+            }
+            key += mix(action);
+        }
+        return key;
+    }
+
+    public static int typeOf(MacroAction macroAction) {
+        return macroAction == null || macroAction.getType() == null ? NO_TYPE : macroAction.getType().ordinal();
+    }
+
+    /**
+     * Writes entries as an opening book, of entries with the same keys the most visited one is kept
+     */
+    public static void write(Path path, List<Entry> entries) throws IOException {
+        var unique = new LinkedHashMap<List<Long>, Entry>();
+        for (var entry : entries)
+            unique.merge(List.of(entry.mapKey(), entry.stateKey()), entry, (a, b) -> b.visits() > a.visits() ? b : a);
+
+        var sorted = new ArrayList<>(unique.values());
+        sorted.sort(ORDER);
+
+        var buffer = ByteBuffer.allocate(HEADER_BYTES + sorted.size() * ENTRY_BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(sorted.size());
+        for (var entry : sorted)
+            buffer.putLong(entry.mapKey()).putLong(entry.stateKey()).putLong(entry.actionsKey()).putInt(entry.type()).putInt(entry.visits());
+        buffer.flip();
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    private static long mix(int a, int b, int c, int salt) {
+        return mix(((long) a << 40) ^ ((long) b << 20) ^ ((long) c << 4) ^ salt);
+    }
+
+    // SplitMix64 finalizer, so sums of the hashes of different elements rarely collide
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "OpeningBook{" +
+                "entries=" + count +
+                '}';
+    }
+}
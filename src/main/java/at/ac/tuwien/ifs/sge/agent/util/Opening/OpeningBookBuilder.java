@@ -0,0 +1,75 @@
+package at.ac.tuwien.ifs.sge.agent.util.Opening;
+
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicWeights;
+import at.ac.tuwien.ifs.sge.agent.util.SearchPool;
+import at.ac.tuwien.ifs.sge.agent.util.Tuning.SelfPlayMatch;
+import at.ac.tuwien.ifs.sge.agent.util.WarmUp;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the OpeningBook from deep searches in self-play matches on recorded games (fixtures written with
+ * imperion.recordFixture at the first decision of a match)
+ *
+ * Every match plays the first BOOK_DECISIONS decisions of the fixture with ITERATIONS_PER_DECISION iterations, many
+ * more than the agent reaches in a decision, and every decision of every player becomes an entry. A fixture is recorded
+ * from the view of one player, entries of the other players are never looked up but do no harm. The agent loads the
+ * book at startup (system property imperion.openingBook) and has to use the same heuristic weights (imperion.weights).
+ *
+ * Usage: OpeningBookBuilder book fixture...
+ */
+public class OpeningBookBuilder {
+
+    private static final int ITERATIONS_PER_DECISION = Integer.getInteger("imperion.book.iterationsPerDecision", 5000);
+    private static final int BOOK_DECISIONS = Integer.getInteger("imperion.book.decisions", 10);
+    private static final int MATCHES_PER_FIXTURE = Integer.getInteger("imperion.book.matches", 1);
+
+    private final HeuristicWeights weights;
+    private final SearchPool searchPool = new SearchPool(1);
+    private final List<OpeningBook.Entry> entries = new ArrayList<>();
+
+    public OpeningBookBuilder(HeuristicWeights weights) {
+        this.weights = weights;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: OpeningBookBuilder book fixture...");
+            System.exit(1);
+        }
+
+        var builder = new OpeningBookBuilder(HeuristicWeights.loadConfigured());
+        for (int i = 1; i < args.length; i++) {
+            builder.add(WarmUp.loadFixture(Path.of(args[i])));
+            System.out.println(args[i] + ": " + builder.entries.size() + " entries");
+        }
+
+        OpeningBook.write(Path.of(args[0]), builder.entries);
+        builder.searchPool.shutdown();
+    }
+
+    /**
+     * Plays MATCHES_PER_FIXTURE matches on fixture and adds their decisions
+     */
+    public void add(Empire fixture) {
+        var match = new SelfPlayMatch(fixture, ITERATIONS_PER_DECISION, BOOK_DECISIONS, searchPool);
+        var weightsByPlayer = new HeuristicWeights[match.getNumberOfPlayers()];
+        Arrays.fill(weightsByPlayer, weights);
+
+        for (int m = 0; m < MATCHES_PER_FIXTURE; m++) {
+            // The map key is taken at the first decision of each player, like the agent does
+            var mapKeys = new Long[match.getNumberOfPlayers()];
+            match.play(weightsByPlayer, (game, playerId, decision) -> {
+                if (mapKeys[playerId] == null) mapKeys[playerId] = OpeningBook.mapKey(game, playerId);
+
+                var macroAction = decision.getMacroAction();
+                entries.add(new OpeningBook.Entry(mapKeys[playerId], OpeningBook.stateKey(game, playerId),
+                        OpeningBook.actionsKey(macroAction, game), OpeningBook.typeOf(macroAction), decision.getVisits()));
+            });
+        }
+    }
+}
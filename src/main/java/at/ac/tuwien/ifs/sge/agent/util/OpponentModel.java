@@ -0,0 +1,48 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+/**
+ * How the search models the opponents of the agent
+ *
+ * With ALTERNATING the players take turns in the tree, so every other level of the tree (and every other node built
+ * with full action generation) models an opponent, often from very partial information. With FIXED_POLICY the
+ * opponents follow a cheap built-in policy inside each step: idle units attack an adjacent enemy, otherwise they
+ * continue their queued commands or step toward the nearest city or enemy unit. The tree then only branches on the
+ * decisions of the agent.
+ *
+ * The model is set by the system property imperion.opponentModel (alternating or fixed). Agents and RolloutWorkers of
+ * one match have to use the same model, since rollouts of both have to simulate the same opponents.
+ */
+public enum OpponentModel {
+    ALTERNATING("alternating"),
+    FIXED_POLICY("fixed");
+
+    public static final String PROPERTY = "imperion.opponentModel";
+
+    private final String name;
+
+    OpponentModel(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the model set by the system property imperion.opponentModel, ALTERNATING if it is not set
+     */
+    public static OpponentModel configured() {
+        var name = System.getProperty(PROPERTY);
+        if (name == null) return ALTERNATING;
+        for (var model : values()) if (model.name.equalsIgnoreCase(name.trim())) return model;
+        throw new IllegalArgumentException("Unknown opponent model " + name + ", expected alternating or fixed");
+    }
+
+    /**
+     * Returns the player who decides after playerId, with FIXED_POLICY only the player of the root decides
+     */
+    public int nextPlayer(int playerId, int numberOfPlayers) {
+        return this == FIXED_POLICY ? playerId : (playerId + 1) % numberOfPlayers;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,36 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
+
+import java.util.List;
+
+/**
+ * Common contract of the path-finding algorithms (BFS and HierarchicalPathfinder)
+ */
+public interface Pathfinder {
+
+    /**
+     * Returns null if path was not found
+     * Returns positions from source (excluded) in the direction of destination, including undiscovered tiles.
+     * The path may end before destination, if only its beginning is refined
+     */
+    List<Position> findPath(Position source, Position destination, Empire game, int playerId);
+
+    /**
+     * Returns null if path was not found
+     * Returns movement actions in the direction of the destination, but not for undiscovered tiles
+     */
+    default List<EmpireEvent> findShortestPath(EmpireUnit unit, Position destination, Empire game, int playerId) {
+        var path = findPath(unit.getPosition(), destination, game, playerId);
+        return path == null ? null : BFS.toMovementOrders(unit, path, game);
+    }
+
+    /**
+     * Called once per decision after the terrain index was updated
+     */
+    default void update() {
+    }
+}
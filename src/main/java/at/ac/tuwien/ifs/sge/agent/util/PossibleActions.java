@@ -0,0 +1,107 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.CombatStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.MovementStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.ProductionStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.CombatStopOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.MovementStopOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.ProductionStopOrder;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+
+import java.util.*;
+
+/**
+ * Possible actions of a player in one game state, partitioned by order type and bucketed by unit and city
+ *
+ * Empire.getPossibleActions() is computed once per state (e.g. per ImperionGameNode) and classified in a single pass,
+ * so callers get the partition they need without filtering the full set again. The lists keep the order of the game.
+ * A memo is only valid for the state it was built from, it has to be rebuilt after the game advanced.
+ */
+public class PossibleActions {
+
+    private final List<MovementStartOrder> movementOrders = new ArrayList<>();
+    private final List<ProductionStartOrder> productionOrders = new ArrayList<>();
+    private final List<CombatStartOrder> combatOrders = new ArrayList<>();
+    private final List<EmpireEvent> stopOrders = new ArrayList<>();
+
+    // Actions which are none of the above orders
+    private final List<EmpireEvent> otherActions = new ArrayList<>();
+
+    private final Map<UUID, List<MovementStartOrder>> movementOrdersByUnit = new HashMap<>();
+    private final Map<UUID, List<CombatStartOrder>> combatOrdersByUnit = new HashMap<>();
+    private final Map<Position, List<ProductionStartOrder>> productionOrdersByCity = new HashMap<>();
+
+    private PossibleActions() {}
+
+    public static PossibleActions of(Empire game, int playerId) {
+        var possibleActions = new PossibleActions();
+        for (var action : game.getPossibleActions(playerId)) possibleActions.add(action);
+        return possibleActions;
+    }
+
+    private void add(EmpireEvent action) {
+        if (action instanceof MovementStartOrder movementStartOrder) {
+            movementOrders.add(movementStartOrder);
+            movementOrdersByUnit.computeIfAbsent(movementStartOrder.getUnitId(), id -> new ArrayList<>()).add(movementStartOrder);
+        } else if (action instanceof CombatStartOrder combatStartOrder) {
+            combatOrders.add(combatStartOrder);
+            combatOrdersByUnit.computeIfAbsent(combatStartOrder.getAttackerId(), id -> new ArrayList<>()).add(combatStartOrder);
+        } else if (action instanceof ProductionStartOrder productionStartOrder) {
+            productionOrders.add(productionStartOrder);
+            productionOrdersByCity.computeIfAbsent(productionStartOrder.getCityPosition(), position -> new ArrayList<>()).add(productionStartOrder);
+        } else if (action instanceof MovementStopOrder || action instanceof CombatStopOrder || action instanceof ProductionStopOrder) {
+            stopOrders.add(action);
+        } else {
+            otherActions.add(action);
+        }
+    }
+
+    public List<MovementStartOrder> getMovementOrders() {
+        return movementOrders;
+    }
+
+    public List<ProductionStartOrder> getProductionOrders() {
+        return productionOrders;
+    }
+
+    public List<CombatStartOrder> getCombatOrders() {
+        return combatOrders;
+    }
+
+    public List<EmpireEvent> getStopOrders() {
+        return stopOrders;
+    }
+
+    public List<EmpireEvent> getOtherActions() {
+        return otherActions;
+    }
+
+    public List<MovementStartOrder> getMovementOrders(UUID unitId) {
+        return movementOrdersByUnit.getOrDefault(unitId, Collections.emptyList());
+    }
+
+    public List<CombatStartOrder> getCombatOrders(UUID unitId) {
+        return combatOrdersByUnit.getOrDefault(unitId, Collections.emptyList());
+    }
+
+    public List<ProductionStartOrder> getProductionOrders(Position cityPosition) {
+        return productionOrdersByCity.getOrDefault(cityPosition, Collections.emptyList());
+    }
+
+    public int size() {
+        return movementOrders.size() + productionOrders.size() + combatOrders.size() + stopOrders.size() + otherActions.size();
+    }
+
+    @Override
+    public String toString() {
+        return "PossibleActions{" +
+                "movement=" + movementOrders.size() +
+                ", production=" + productionOrders.size() +
+                ", combat=" + combatOrders.size() +
+                ", stop=" + stopOrders.size() +
+                ", other=" + otherActions.size() +
+                '}';
+    }
+}
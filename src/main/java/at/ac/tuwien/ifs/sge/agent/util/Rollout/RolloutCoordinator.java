@@ -0,0 +1,197 @@
+package at.ac.tuwien.ifs.sge.agent.util.Rollout;
+
+import at.ac.tuwien.ifs.sge.agent.util.CommandQueue;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+
+import java.io.*;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends rollouts to RolloutWorkers on this machine and collects their results
+ *
+ * Rollouts are submitted with a key (e.g. the expanded leaf of the tree), the result of a rollout is returned
+ * together with its key, so it can be back-propagated by the search thread once it arrives. Rollouts which failed
+ * in the worker or were lost with their connection are returned as failed results, so the search can undo what it
+ * did on submit. Results of rollouts which were discarded (e.g. because the decision is over) are dropped.
+ */
+public class RolloutCoordinator<K> implements Closeable {
+
+    public record Result<K>(K key, boolean failed, boolean gameOver, double[] heuristicValues) {}
+
+    private final List<Connection> connections = new ArrayList<>();
+
+    // Rollouts in flight by their id
+    private final Map<Long, K> pending = new ConcurrentHashMap<>();
+    private final BlockingQueue<Result<K>> results = new LinkedBlockingQueue<>();
+
+    // Number of rollouts per worker which may be in flight before collect() waits for a result
+    private final int maxInFlightPerWorker;
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    private class Connection {
+        private final SocketChannel channel;
+        private final DataOutputStream out;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile boolean alive = true;
+
+        // Ids of the rollouts sent over this connection, which are dropped if the connection is lost
+        private final Set<Long> ids = ConcurrentHashMap.newKeySet();
+
+        Connection(SocketAddress address) throws IOException {
+            this.channel = SocketChannel.open(address);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+            var reader = new Thread(this::readResponses, "imperion-rollout-coordinator");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void readResponses() {
+            try {
+                var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                while (alive) {
+                    var response = RolloutProtocol.readResponse(in);
+                    inFlight.decrementAndGet();
+                    ids.remove(response.id());
+
+                    var key = pending.remove(response.id());
+                    if (key == null) continue;
+
+                    if (response.status() == RolloutProtocol.STATUS_FAILED) {
+                        failed.incrementAndGet();
+                        results.add(new Result<>(key, true, false, null));
+                        continue;
+                    }
+
+                    completed.incrementAndGet();
+                    results.add(new Result<>(key, false, response.status() == RolloutProtocol.STATUS_GAME_OVER, response.heuristicValues()));
+                }
+            } catch (IOException e) {
+                alive = false;
+                for (var id : ids) {
+                    var key = pending.remove(id);
+                    if (key == null) continue;
+                    failed.incrementAndGet();
+                    results.add(new Result<>(key, true, false, null));
+                }
+            }
+        }
+
+        private void send(RolloutProtocol.Request request) throws IOException {
+            inFlight.incrementAndGet();
+            ids.add(request.id());
+            RolloutProtocol.writeRequest(out, request);
+        }
+
+        private void close() {
+            alive = false;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    public RolloutCoordinator(List<String> addresses, int maxInFlightPerWorker) throws IOException {
+        this.maxInFlightPerWorker = maxInFlightPerWorker;
+        for (var address : addresses) connections.add(new Connection(RolloutProtocol.parseAddress(address.trim())));
+    }
+
+    /**
+     * Returns true if at least one worker is still connected
+     */
+    public boolean isAvailable() {
+        return connections.stream().anyMatch(connection -> connection.alive);
+    }
+
+    /**
+     * Sends the rollout of game with commandQueues to the worker with the fewest rollouts in flight
+     * game and commandQueues are serialized before this method returns, the rollout is cut off after maxSteps steps
+     * Returns false if the rollout could not be sent
+     */
+    public boolean submit(K key, Empire game, CommandQueue[] commandQueues, int playerToTurn, int maxSteps, long deadlineMs) {
+        var connection = connections.stream()
+                .filter(c -> c.alive)
+                .min(Comparator.comparingInt(c -> c.inFlight.get()))
+                .orElse(null);
+        if (connection == null) return false;
+
+        var id = nextId.incrementAndGet();
+        try {
+            var state = RolloutProtocol.writeState(game, commandQueues, playerToTurn);
+            pending.put(id, key);
+            connection.send(new RolloutProtocol.Request(id, playerToTurn, Math.max(0, deadlineMs - System.currentTimeMillis()), maxSteps, state));
+            submitted.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            pending.remove(id);
+            connection.close();
+            return false;
+        }
+    }
+
+    /**
+     * Returns all results which arrived so far
+     * If all workers are busy, waits for at least one result until deadlineMs
+     */
+    public List<Result<K>> collect(long deadlineMs) throws InterruptedException {
+        var collected = new ArrayList<Result<K>>();
+
+        long aliveConnections = connections.stream().filter(connection -> connection.alive).count();
+        if (pending.size() >= aliveConnections * maxInFlightPerWorker) {
+            var result = results.poll(Math.max(0, deadlineMs - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (result != null) collected.add(result);
+        }
+
+        results.drainTo(collected);
+        return collected;
+    }
+
+    /**
+     * Drops all rollouts in flight and results not collected yet
+     * Returns the keys of the dropped rollouts
+     */
+    public List<K> discardPending() {
+        var keys = new ArrayList<>(pending.values());
+        pending.clear();
+
+        var uncollected = new ArrayList<Result<K>>();
+        results.drainTo(uncollected);
+        for (var result : uncollected) keys.add(result.key());
+
+        discarded.addAndGet(keys.size());
+        return keys;
+    }
+
+    @Override
+    public void close() {
+        for (var connection : connections) connection.close();
+    }
+
+    @Override
+    public String toString() {
+        return "RolloutCoordinator{" +
+                "workers=" + connections.stream().filter(connection -> connection.alive).count() + "/" + connections.size() +
+                ", submitted=" + submitted.get() +
+                ", completed=" + completed.get() +
+                ", failed=" + failed.get() +
+                ", discarded=" + discarded.get() +
+                '}';
+    }
+}
@@ -0,0 +1,119 @@
+package at.ac.tuwien.ifs.sge.agent.util.Rollout;
+
+import at.ac.tuwien.ifs.sge.agent.util.CommandQueue;
+import at.ac.tuwien.ifs.sge.agent.util.Snapshot.EmpireSnapshot;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Path;
+
+/**
+ * Wire format between RolloutCoordinator and RolloutWorker
+ *
+ * Request:  long id, int playerToTurn, long timeBudgetMs, int maxSteps, int length, EmpireSnapshot of the leaf with its
+ *           command queues
+ * Response: long id, byte status, int numberOfPlayers, double[numberOfPlayers] raw heuristic values
+ *
+ * The worker cuts the rollout off after maxSteps steps like MCTS.simulation(), the raw heuristic values of a rollout
+ * which was cut off are predicted by the value function of the worker.
+ *
+ * The leaf is sent in the binary snapshot format, the worker reads it back with EmpireSnapshot.toEmpire(), so no
+ * Java serialization is involved on either side. Snapshots do not record orders in progress, the units of the
+ * leaf continue with their command queues only.
+ *
+ * Addresses are either "unix:/path/to/socket" or "[host:]port", only loopback addresses are accepted since
+ * workers are meant to run on the same machine as the agent.
+ */
+public final class RolloutProtocol {
+
+    public static final byte STATUS_EVALUATED = 0;
+    public static final byte STATUS_GAME_OVER = 1;
+    public static final byte STATUS_FAILED = 2;
+
+    private static final String UNIX_PREFIX = "unix:";
+
+    // Upper bound of the snapshot of a request, larger requests are rejected before they are read
+    private static final int MAX_STATE_BYTES = 16 * 1024 * 1024;
+
+    public record Request(long id, int playerToTurn, long timeBudgetMs, int maxSteps, byte[] state) {}
+
+    public record Response(long id, byte status, double[] heuristicValues) {}
+
+    public record State(Empire game, CommandQueue[] commandQueues) {}
+
+    private RolloutProtocol() {}
+
+    public static SocketAddress parseAddress(String address) throws IOException {
+        if (address.startsWith(UNIX_PREFIX)) return UnixDomainSocketAddress.of(Path.of(address.substring(UNIX_PREFIX.length())));
+
+        var separator = address.lastIndexOf(':');
+        var port = Integer.parseInt(address.substring(separator + 1));
+        var host = separator == -1 ? InetAddress.getLoopbackAddress() : InetAddress.getByName(address.substring(0, separator));
+        if (!host.isLoopbackAddress()) throw new IllegalArgumentException("Rollout workers have to run on this machine: " + address);
+
+        return new InetSocketAddress(host, port);
+    }
+
+    public static String formatAddress(SocketAddress address) {
+        if (address instanceof UnixDomainSocketAddress unixAddress) return UNIX_PREFIX + unixAddress.getPath();
+        var inetAddress = (InetSocketAddress) address;
+        return inetAddress.getAddress().getHostAddress() + ":" + inetAddress.getPort();
+    }
+
+    public static byte[] writeState(Empire game, CommandQueue[] commandQueues, int playerToTurn) throws IOException {
+        var bytes = new ByteArrayOutputStream(16 * 1024);
+        try (var out = new DataOutputStream(bytes)) {
+            EmpireSnapshot.write(out, game, commandQueues, 0, playerToTurn);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static State readState(byte[] state) throws IOException {
+        var snapshot = EmpireSnapshot.read(new DataInputStream(new ByteArrayInputStream(state)));
+        var game = snapshot.toEmpire();
+        return new State(game, snapshot.restoreCommandQueues(game));
+    }
+
+    public static void writeRequest(DataOutputStream out, Request request) throws IOException {
+        out.writeLong(request.id());
+        out.writeInt(request.playerToTurn());
+        out.writeLong(request.timeBudgetMs());
+        out.writeInt(request.maxSteps());
+        out.writeInt(request.state().length);
+        out.write(request.state());
+        out.flush();
+    }
+
+    public static Request readRequest(DataInputStream in) throws IOException {
+        var id = in.readLong();
+        var playerToTurn = in.readInt();
+        var timeBudgetMs = in.readLong();
+        var maxSteps = in.readInt();
+        if (maxSteps < 0) throw new IOException("Invalid rollout request of " + maxSteps + " steps");
+        var length = in.readInt();
+        if (length < 0 || length > MAX_STATE_BYTES) throw new IOException("Invalid rollout request of " + length + " bytes");
+        var state = new byte[length];
+        in.readFully(state);
+        return new Request(id, playerToTurn, timeBudgetMs, maxSteps, state);
+    }
+
+    public static void writeResponse(DataOutputStream out, Response response) throws IOException {
+        out.writeLong(response.id());
+        out.writeByte(response.status());
+        out.writeInt(response.heuristicValues().length);
+        for (var value : response.heuristicValues()) out.writeDouble(value);
+        out.flush();
+    }
+
+    public static Response readResponse(DataInputStream in) throws IOException {
+        var id = in.readLong();
+        var status = in.readByte();
+        var heuristicValues = new double[in.readInt()];
+        for (int i = 0; i < heuristicValues.length; i++) heuristicValues[i] = in.readDouble();
+        return new Response(id, status, heuristicValues);
+    }
+}
@@ -0,0 +1,202 @@
+package at.ac.tuwien.ifs.sge.agent.util.Rollout;
+
+import at.ac.tuwien.ifs.sge.agent.util.EvaluationCache;
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicFeatures;
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicWeights;
+import at.ac.tuwien.ifs.sge.agent.util.MCTS;
+import at.ac.tuwien.ifs.sge.agent.util.OpponentModel;
+import at.ac.tuwien.ifs.sge.agent.util.RolloutSimulator;
+import at.ac.tuwien.ifs.sge.agent.util.ValueFunction;
+
+import java.io.*;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process which runs rollouts for a RolloutCoordinator, so the garbage of the rollouts is not collected
+ * by the JVM of the agent
+ *
+ * Each request contains the snapshot of a leaf state with the command queues of all players. The worker executes the
+ * command queues like MCTS.simulation() and answers with the raw heuristic values of all players, the agent
+ * normalizes them with the baseline of its current decision. The heuristic weights are loaded from the same
+ * file as the ones of the agent (system property imperion.weights), the opponents are simulated with the same
+ * OpponentModel (system property imperion.opponentModel). Rollouts are cut off after the steps of the request and
+ * their end is predicted by the value function of the agent (system property imperion.valueFunction).
+ *
+ * Usage: RolloutWorker address [threads]
+ */
+public class RolloutWorker implements Closeable {
+
+    // The worker runs in its own process, without the logger of an agent
+    private static final Logger log = Logger.getLogger(RolloutWorker.class.getName());
+
+    private final ServerSocketChannel server;
+    private final SocketAddress address;
+    private final ExecutorService simulations;
+    private final Thread acceptor;
+
+    private final RolloutSimulator simulator = new RolloutSimulator(OpponentModel.configured());
+    private final EvaluationCache evaluationCache;
+
+    // Predicts the end of rollouts which were cut off, null if the agent has no value function
+    private final ValueFunction valueFunction;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong rollouts = new AtomicLong();
+    private final AtomicLong failedRollouts = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    public RolloutWorker(SocketAddress address, int threads) throws IOException {
+        this(address, threads, HeuristicWeights.loadConfigured(), ValueFunction.loadConfigured());
+    }
+
+    public RolloutWorker(SocketAddress address, int threads, HeuristicWeights weights, ValueFunction valueFunction) throws IOException {
+        this.evaluationCache = new EvaluationCache(MCTS.DEFAULT_EVALUATION_CACHE_SIZE, weights);
+        this.valueFunction = valueFunction;
+
+        if (address instanceof UnixDomainSocketAddress unixAddress) {
+            Files.deleteIfExists(unixAddress.getPath());
+            this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            this.server = ServerSocketChannel.open();
+        }
+        this.server.bind(address);
+        this.address = server.getLocalAddress();
+
+        var threadNumber = new AtomicInteger();
+        this.simulations = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "imperion-rollout-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.acceptor = new Thread(this::acceptConnections, "imperion-rollout-acceptor");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: RolloutWorker address [threads]");
+            System.exit(1);
+        }
+
+        var threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        var worker = new RolloutWorker(RolloutProtocol.parseAddress(args[0]), threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(worker::close));
+
+        worker.start();
+        log.info("Rollout worker listening on " + RolloutProtocol.formatAddress(worker.getAddress()));
+    }
+
+    public void start() {
+        acceptor.start();
+    }
+
+    private void acceptConnections() {
+        while (!closed) {
+            try {
+                var channel = server.accept();
+                var thread = new Thread(() -> serve(channel), "imperion-rollout-connection-" + connections.incrementAndGet());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!closed) log.log(Level.WARNING, "Rollout worker could not accept connection", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the requests of one coordinator, the rollouts run on the simulation threads and answer out of order
+     */
+    private void serve(SocketChannel channel) {
+        try (channel) {
+            var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+            while (!closed) {
+                var request = RolloutProtocol.readRequest(in);
+                simulations.execute(() -> {
+                    var response = rollout(request);
+                    try {
+                        synchronized (out) {
+                            RolloutProtocol.writeResponse(out, response);
+                        }
+                    } catch (IOException e) {
+                        // Coordinator is gone, the reader notices it as well
+                    }
+                });
+            }
+        } catch (EOFException e) {
+            // Coordinator closed the connection
+        } catch (IOException e) {
+            if (!closed) log.log(Level.WARNING, "Rollout worker lost connection", e);
+        }
+    }
+
+    private RolloutProtocol.Response rollout(RolloutProtocol.Request request) {
+        try {
+            var state = RolloutProtocol.readState(request.state());
+            var game = state.game();
+
+            var steps = simulator.simulate(game, state.commandQueues(), request.playerToTurn(), System.currentTimeMillis() + request.timeBudgetMs(),
+                    ThreadLocalRandom.current(), null, request.maxSteps());
+            rollouts.incrementAndGet();
+
+            if (game.isGameOver()) return new RolloutProtocol.Response(request.id(), RolloutProtocol.STATUS_GAME_OVER, new double[game.getNumberOfPlayers()]);
+
+            // A rollout which ended before the cutoff reached its end, it is evaluated like a full one
+            var features = HeuristicFeatures.of(game);
+            var values = valueFunction != null && steps == request.maxSteps()
+                    ? valueFunction.evaluate(features, steps, new double[game.getNumberOfPlayers()])
+                    : evaluationCache.getHeuristicValues(features);
+            return new RolloutProtocol.Response(request.id(), RolloutProtocol.STATUS_EVALUATED, values);
+        } catch (Exception e) {
+            failedRollouts.incrementAndGet();
+            log.log(Level.FINE, "Rollout " + request.id() + " failed", e);
+            return new RolloutProtocol.Response(request.id(), RolloutProtocol.STATUS_FAILED, new double[0]);
+        }
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    public long getRollouts() {
+        return rollouts.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+            if (address instanceof UnixDomainSocketAddress unixAddress) Files.deleteIfExists(unixAddress.getPath());
+        } catch (IOException e) {
+            // Nothing left to clean up
+        }
+        simulations.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "RolloutWorker{" +
+                "address=" + RolloutProtocol.formatAddress(address) +
+                ", connections=" + connections.get() +
+                ", rollouts=" + rollouts.get() +
+                ", failedRollouts=" + failedRollouts.get() +
+                ", " + evaluationCache +
+                '}';
+    }
+}
@@ -0,0 +1,44 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+/**
+ * Backend of the rollouts of MCTS.simulation()
+ *
+ * ENGINE copies the Empire and runs the command queues through the full engine. ABSTRACT runs them on an
+ * AbstractState, which only keeps what the heuristics read (units, cities and discovery) and advances it with
+ * simplified movement, production and combat rules. It does not copy the Empire at all, but its results are only an
+ * approximation of the engine, which is measured by AbstractRolloutBenchmark.
+ *
+ * ABSTRACT is opt-in: it stays off by default until AbstractRolloutBenchmark has shown on recorded games that its
+ * leaders agree with the engine and that it runs more rollouts per second.
+ *
+ * The model is set by the system property imperion.rolloutModel (engine or abstract). Rollouts sent to RolloutWorkers
+ * always run on the engine.
+ */
+public enum RolloutModel {
+    ENGINE("engine"),
+    ABSTRACT("abstract");
+
+    public static final String PROPERTY = "imperion.rolloutModel";
+
+    private final String name;
+
+    RolloutModel(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the model set by the system property imperion.rolloutModel, ENGINE if it is not set
+     * ABSTRACT is only returned if it is set explicitly
+     */
+    public static RolloutModel configured() {
+        var name = System.getProperty(PROPERTY);
+        if (name == null) return ENGINE;
+        for (var model : values()) if (model.name.equalsIgnoreCase(name.trim())) return model;
+        throw new IllegalArgumentException("Unknown rollout model " + name + ", expected engine or abstract");
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
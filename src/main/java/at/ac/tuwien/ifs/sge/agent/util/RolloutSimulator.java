@@ -0,0 +1,311 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.core.engine.communication.events.GameActionEvent;
+import at.ac.tuwien.ifs.sge.core.game.exception.ActionException;
+import at.ac.tuwien.ifs.sge.core.util.Util;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.CombatStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.MovementStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Executes the command queues of all players on a game, used for expansion and rollouts of the MCTS
+ *
+ * The simulator does not depend on an agent, so rollouts can also be run by a RolloutWorker in another process.
+ */
+public class RolloutSimulator {
+
+    public static final int DEFAULT_SIMULATION_PACE_MS = 2000;
+    public static final int DEFAULT_SIMULATION_DEPTH = 20;
+
+    private final OpponentModel opponentModel;
+
+    public RolloutSimulator() {
+        this(OpponentModel.ALTERNATING);
+    }
+
+    public RolloutSimulator(OpponentModel opponentModel) {
+        this.opponentModel = opponentModel;
+    }
+
+    /**
+     * Simulates what would happen if the scheduled commands in the command queues would all be executed
+     * game and commandQueues are modified
+     */
+    public void simulate(Empire game, CommandQueue[] commandQueues, int playerToTurn, long nextDecisionTime) {
+        simulate(game, commandQueues, playerToTurn, nextDecisionTime, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Like simulate(), random choices (e.g. which enemy to attack) are drawn from random
+     */
+    public void simulate(Empire game, CommandQueue[] commandQueues, int playerToTurn, long nextDecisionTime, Random random) {
+        simulate(game, commandQueues, playerToTurn, nextDecisionTime, random, null);
+    }
+
+    /**
+     * Like simulate(), possibleActions are the possible actions of playerToTurn in game (e.g. of the node the rollout
+     * starts from), they are used for the first step and may be null
+     */
+    public void simulate(Empire game, CommandQueue[] commandQueues, int playerToTurn, long nextDecisionTime, Random random, PossibleActions possibleActions) {
+        simulate(game, commandQueues, playerToTurn, nextDecisionTime, random, possibleActions, DEFAULT_SIMULATION_DEPTH + 1);
+    }
+
+    /**
+     * Like simulate(), but runs at most maxSteps steps (e.g. up to the cutoff of a value function)
+     * Returns the number of steps which were run
+     */
+    public int simulate(Empire game, CommandQueue[] commandQueues, int playerToTurn, long nextDecisionTime, Random random, PossibleActions possibleActions, int maxSteps) {
+        return simulate(game, commandQueues, playerToTurn, nextDecisionTime, random, possibleActions, maxSteps, null);
+    }
+
+    /**
+     * Like simulate(), the tracker (may be null) visits game after every step, so the features of the end state can be
+     * read from it
+     */
+    public int simulate(Empire game, CommandQueue[] commandQueues, int playerToTurn, long nextDecisionTime, Random random, PossibleActions possibleActions, int maxSteps, FeatureTracker tracker) {
+        var steps = 0;
+        try {
+            while (!game.isGameOver() && steps < maxSteps && System.currentTimeMillis() < nextDecisionTime
+                    // Check if command queues are both empty
+                    && IntStream.range(0, commandQueues.length).filter(i -> !commandQueues[i].isEmpty()).count() > 0
+            ) {
+                scheduleAndAdvance(commandQueues, game, playerToTurn, random, possibleActions);
+                steps++;
+                if (tracker != null) tracker.visit(game);
+
+                // The game advanced, the possible actions are computed again for the next state
+                possibleActions = null;
+
+                playerToTurn = opponentModel.nextPlayer(playerToTurn, game.getNumberOfPlayers());
+            }
+        } catch (Exception e) {
+            // If we have partial information (Fog of War) the result of some actions might be ambiguous leading in an ActionException
+            // Stop the simulation there
+            // The game may have advanced partially
+            if (tracker != null) tracker.visit(game);
+        }
+        return steps;
+    }
+
+    /**
+     * Tries to schedule the next action in queue for each unit and city and advances game
+     */
+    public List<EmpireEvent> scheduleAndAdvance(CommandQueue[] commandQueues, Empire game, int playerToTurn) throws ActionException {
+        return scheduleAndAdvance(commandQueues, game, playerToTurn, ThreadLocalRandom.current());
+    }
+
+    public List<EmpireEvent> scheduleAndAdvance(CommandQueue[] commandQueues, Empire game, int playerToTurn, Random random) throws ActionException {
+        return scheduleAndAdvance(commandQueues, game, playerToTurn, random, null);
+    }
+
+    /**
+     * possibleActions are the possible actions of playerToTurn in game, if null they are computed when the first idle unit needs them
+     */
+    public List<EmpireEvent> scheduleAndAdvance(CommandQueue[] commandQueues, Empire game, int playerToTurn, Random random, PossibleActions possibleActions) throws ActionException {
+        var scheduledEvents = new ArrayList<EmpireEvent>();
+
+        if(commandQueues[playerToTurn].doNothing) {commandQueues[playerToTurn].doNothing = false;}
+        else{
+            // Try to schedule the next action in queue for each unit and city
+            var commandQueue = commandQueues[playerToTurn];
+            scheduleCommands(game, playerToTurn, commandQueue, commandQueue.getQueuedUnits(), random, possibleActions, scheduledEvents);
+        }
+
+        // Opponents act within the step, their events are not actions of playerToTurn
+        if(opponentModel == OpponentModel.FIXED_POLICY) {
+            for (int opponent = 0; opponent < commandQueues.length; opponent++) {
+                if(opponent != playerToTurn) scheduleOpponent(game, opponent, commandQueues[opponent], random);
+            }
+        }
+
+        // Advance the game
+        game.advance(DEFAULT_SIMULATION_PACE_MS);
+
+        return !scheduledEvents.isEmpty() ? scheduledEvents : null;
+    }
+
+    /**
+     * Policy of the opponents with OpponentModel.FIXED_POLICY, built from lookups on the board instead of the possible
+     * actions of the game: an idle unit attacks an adjacent enemy unit, otherwise it continues its queued commands or,
+     * if it has none, steps toward the nearest city it does not hold or the nearest enemy unit
+     * Queues are looked up by the id of the unit, units without a queue are not interned into the UnitIndex
+     */
+    private void scheduleOpponent(Empire game, int opponent, CommandQueue commandQueue, Random random) {
+        commandQueue.doNothing = false;
+        var scheduledEvents = new ArrayList<EmpireEvent>();
+
+        List<Position> targets = null;
+        for (var unit : game.getUnitsByPlayer(opponent)) {
+            if (!unit.isIdle()) continue;
+
+            var enemy = adjacentEnemy(game, opponent, unit.getPosition(), random);
+            if (enemy != null) {
+                scheduleOrder(game, opponent, new CombatStartOrder(unit.getId(), enemy));
+                continue;
+            }
+
+            var queue = commandQueue.getUnitCommandQueue(unit.getId());
+            if (queue != null && !queue.isEmpty()) {
+                schedule(game, opponent, commandQueue, queue, scheduledEvents);
+                continue;
+            }
+
+            // Targets are only collected once per step, and only if a unit has nothing to do
+            if (targets == null) targets = targetsOf(game, opponent);
+            var step = stepToward(unit, nearest(unit.getPosition(), targets));
+            if (step != null) scheduleOrder(game, opponent, new MovementStartOrder(unit.getId(), step));
+        }
+
+        for (var command : commandQueue.getCityCommandQueue().entrySet()) {
+            schedule(game, opponent, commandQueue, command.getValue(), scheduledEvents);
+        }
+    }
+
+    /**
+     * Returns the position of a random enemy unit of player on one of the 8 tiles around position, null if there is none
+     */
+    private static Position adjacentEnemy(Empire game, int player, Position position, Random random) {
+        var board = game.getBoard();
+        var tiles = board.getEmpireTiles();
+        Position enemy = null;
+        int candidates = 0;
+        for (int y = position.getY() - 1; y <= position.getY() + 1; y++) {
+            for (int x = position.getX() - 1; x <= position.getX() + 1; x++) {
+                if ((x == position.getX() && y == position.getY()) || !board.isInside(x, y)) continue;
+                var tile = tiles[y][x];
+                if (tile == null || tile.getPlayerId() < 0 || tile.getPlayerId() == player || tile.getOccupants().isEmpty()) continue;
+
+                // Reservoir sampling, every adjacent enemy is attacked with the same probability
+                if (random.nextInt(++candidates) == 0) enemy = tile.getPosition();
+            }
+        }
+        return enemy;
+    }
+
+    /**
+     * Returns the positions of the visible cities player does not hold and of the units of all other players
+     */
+    private static List<Position> targetsOf(Empire game, int player) {
+        var targets = new ArrayList<Position>();
+        for (var city : game.getCitiesByPosition().values()) if (city.getPlayerId() != player) targets.add(city.getPosition());
+        for (int pid = 0; pid < game.getNumberOfPlayers(); pid++) {
+            if (pid == player) continue;
+            for (var unit : game.getUnitsByPlayer(pid)) targets.add(unit.getPosition());
+        }
+        return targets;
+    }
+
+    private static Position nearest(Position position, List<Position> targets) {
+        Position nearest = null;
+        int nearestDistance = Integer.MAX_VALUE;
+        for (var target : targets) {
+            // Units move in 8 directions, so the number of steps is the Chebyshev distance
+            int distance = Math.max(Math.abs(target.getX() - position.getX()), Math.abs(target.getY() - position.getY()));
+            if (distance > 0 && distance < nearestDistance) {
+                nearest = target;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the tile next to unit on the straight line toward target, null if there is no target
+     */
+    private static Position stepToward(EmpireUnit unit, Position target) {
+        if (target == null) return null;
+        var position = unit.getPosition();
+        return new Position(position.getX() + Integer.signum(target.getX() - position.getX()),
+                position.getY() + Integer.signum(target.getY() - position.getY()));
+    }
+
+    /**
+     * Schedules order of player if the game accepts it, orders of the opponent policy are not queued
+     */
+    private static void scheduleOrder(Empire game, int player, EmpireEvent order) {
+        if (game.isValidAction(order, player)) game.scheduleActionEvent(new GameActionEvent<>(player, order, game.getGameClock().getGameTimeMs() + 1));
+    }
+
+    /**
+     * Schedules the next command of units (indices of the UnitIndex of commandQueue) and of all cities of player
+     * Idle units which can attack an enemy unit attack first
+     */
+    private void scheduleCommands(Empire game, int player, CommandQueue commandQueue, BitSet units, Random random, PossibleActions possibleActions, ArrayList<EmpireEvent> scheduledEvents) {
+        if(!units.isEmpty()){
+            // Units of the player by their index, so queued commands do not look up their unit by UUID
+            var unitsByIndex = commandQueue.getUnits().byIndex(game.getUnitsByPlayer(player));
+
+            for (int index = units.nextSetBit(0); index >= 0; index = units.nextSetBit(index + 1)) {
+                var unit = index < unitsByIndex.length ? unitsByIndex[index] : null;
+
+                // Only schedule next command if unit is alive and not busy
+                if(unit == null || !unit.isIdle()) continue;
+
+                // Check if unit can attack enemy unit
+                if(possibleActions == null) possibleActions = PossibleActions.of(game, player);
+                var possibleCombatActionsByUnit = possibleActions.getCombatOrders(unit.getId());
+
+                // If possible, add this action to queue, but at the front of its queue
+                if(!possibleCombatActionsByUnit.isEmpty()) commandQueue.addCommand(Util.selectRandom(possibleCombatActionsByUnit, random), true);
+
+                var queue = commandQueue.getUnitCommandQueue(index);
+                if(queue != null) schedule(game, player, commandQueue, queue, scheduledEvents);
+            }
+        }
+        for (var command : commandQueue.getCityCommandQueue().entrySet()) {
+            schedule(game, player, commandQueue, command.getValue(), scheduledEvents);
+        }
+    }
+
+    public OpponentModel getOpponentModel() {
+        return opponentModel;
+    }
+
+    /**
+     * Returns true if command could be scheduled, otherwise false
+     * The EmpireEvent of the next action in queue is only created here, when it is scheduled
+     */
+    private boolean schedule(Empire game, int playerToTurn, CommandQueue commandQueue, LongQueue queue, ArrayList<EmpireEvent> scheduledEvents) {
+        // Just continue if command queue is empty for unit
+        if(queue.isEmpty()) return true;
+
+        var encodedAction = queue.poll();
+
+        // In case of a wait event just return
+        if(EncodedAction.kind(encodedAction) == EncodedAction.WAIT) return true;
+
+        var action = commandQueue.decode(encodedAction);
+
+        if (action != null)
+            if (!game.isValidAction(action, playerToTurn)){
+                if(action instanceof MovementStartOrder mso){
+                    var dest = mso.getDestination();
+                    var isHeldByPlayerId = game.getBoard().getEmpireTiles()[dest.getY()][dest.getX()].getPlayerId();
+
+                    // If movement was not possible, because of ally unit on destination, add order back to queue and try in next iteration
+                    if(isHeldByPlayerId == playerToTurn) queue.addFirst(encodedAction);
+                }
+
+                // If action is not null and not valid, do nothing
+                return false;
+            } else {
+                // If action is not null and valid, do schedule event
+                game.scheduleActionEvent(new GameActionEvent<>(playerToTurn, action, game.getGameClock().getGameTimeMs() + 1));
+
+                scheduledEvents.add(action);
+            }
+
+        return true;
+    }
+}
@@ -0,0 +1,96 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * State of the agent which is shared by all nodes of the MCTS tree of one decision
+ */
+public class SearchContext {
+
+
+    // Indices (in the UnitIndex of the command queues) of units which already have a valid order in the UnitOrderBook,
+    // no new macro actions are generated for them
+    private final BitSet unitsWithOrders;
+
+    // Static terrain of the map, null if not available
+    private final TerrainIndex terrain;
+
+    // Used by macro action generators to find paths
+    private final Pathfinder pathfinder;
+
+    // Threat and control of the root state of the decision, null if not available
+    // The map is not updated along the tree: macro actions of deeper nodes are scored on the threat and control of the
+    // root, which the few steps of the tree change little. The features of the nodes are carried by FeatureTrackers.
+    private final InfluenceMap influenceMap;
+
+    // Random stream of the search, null if the search is not seeded
+    private final Random random;
+
+    // Evaluation of the last rollout of the tree, reused since the iterations of one tree never run concurrently
+    private double[] evaluationBuffer;
+
+    public SearchContext(BitSet unitsWithOrders, TerrainIndex terrain, Pathfinder pathfinder, InfluenceMap influenceMap, Random random) {
+        this.unitsWithOrders = unitsWithOrders;
+        this.terrain = terrain;
+        this.pathfinder = pathfinder;
+        this.influenceMap = influenceMap;
+        this.random = random;
+    }
+
+    /**
+     * Context without orders, terrain and influence map, each tree needs its own one for its evaluation buffer
+     */
+    public static SearchContext empty() {
+        return new SearchContext(new BitSet(), null, BFS.pathfinder(null), null, null);
+    }
+
+    /**
+     * Returns true if the search draws its random choices from a seeded stream, which is only reproducible if the
+     * search runs on one thread
+     */
+    public boolean isSeeded() {
+        return random != null;
+    }
+
+    /**
+     * Returns a random stream derived from seed, which is the same for the same seed and search
+     */
+    public static Random seededRandom(long seed, int search) {
+        return new Random(seed * 0x9E3779B97F4A7C15L + search);
+    }
+
+    public BitSet getUnitsWithOrders() {
+        return unitsWithOrders;
+    }
+
+    public TerrainIndex getTerrain() {
+        return terrain;
+    }
+
+    public Pathfinder getPathfinder() {
+        return pathfinder;
+    }
+
+    public InfluenceMap getInfluenceMap() {
+        return influenceMap;
+    }
+
+    /**
+     * Array the evaluations of the rollouts of the tree are written to, the evaluation of a rollout is only valid until
+     * the next one
+     */
+    public double[] getEvaluationBuffer(int numberOfPlayers) {
+        if (evaluationBuffer == null || evaluationBuffer.length != numberOfPlayers) evaluationBuffer = new double[numberOfPlayers];
+        return evaluationBuffer;
+    }
+
+    /**
+     * Random stream for all random choices of the search, every search of a seeded agent has its own stream
+     * Slices of one search run one after another, so the stream is used by one thread at a time
+     */
+    public Random getRandom() {
+        return random != null ? random : ThreadLocalRandom.current();
+    }
+}
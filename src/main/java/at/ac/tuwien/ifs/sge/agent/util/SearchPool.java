@@ -0,0 +1,197 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool which runs the searches of all matches hosted in one JVM
+ *
+ * A search is split into short slices of MCTS iterations. All slices wait in one FIFO queue, after each slice the
+ * search is queued again behind the slices of the other matches, so the matches take turns round-robin and every idle
+ * thread takes the next slice of any match. Slices of one search run one after another, so the search itself does not
+ * need to be thread-safe.
+ */
+public class SearchPool {
+
+    // Time after which a search yields to the searches of other matches
+    private static final long SLICE_NANOS = 5_000_000;
+
+    private final ThreadPoolExecutor pool;
+
+    private final AtomicInteger slices = new AtomicInteger();
+    private final AtomicInteger searches = new AtomicInteger();
+
+    public SearchPool(int parallelism) {
+        var threadNumber = new AtomicInteger();
+        // A fork-join pool would push the next slice onto the deque of the thread which ran the previous one, so one
+        // match could keep a thread to itself while the slices of the others wait in the submission queue
+        this.pool = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            var thread = new Thread(runnable, "imperion-search-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs iteration until deadlineMs (System.currentTimeMillis()) has passed or budget is exhausted and blocks until then
+     * Returns the number of iterations, exceptions of iteration are rethrown
+     */
+    public int search(Runnable iteration, long deadlineMs, CpuBudget budget) throws InterruptedException, ExecutionException {
+        budget.reset();
+        return search(iteration, deadlineMs, Integer.MAX_VALUE, budget);
+    }
+
+    /**
+     * Runs exactly iterations iterations regardless of time and blocks until then, e.g. for reproducible benchmarks
+     * Returns the number of iterations, exceptions of iteration are rethrown
+     */
+    public int search(Runnable iteration, int iterations) throws InterruptedException, ExecutionException {
+        return search(iteration, Long.MAX_VALUE, iterations, null);
+    }
+
+    /**
+     * Runs the independent searches of iterations concurrently until deadlineMs has passed or the shared budget is
+     * exhausted and blocks until then, e.g. for the determinized searches of one decision
+     * Returns the number of iterations of each search, exceptions of iterations are rethrown
+     */
+    public int[] search(List<Runnable> iterations, long deadlineMs, CpuBudget budget) throws InterruptedException, ExecutionException {
+        budget.reset();
+        return search(iterations, deadlineMs, Integer.MAX_VALUE, budget);
+    }
+
+    /**
+     * Runs exactly iterationsPerSearch iterations of each of the independent searches concurrently and blocks until then
+     */
+    public int[] search(List<Runnable> iterations, int iterationsPerSearch) throws InterruptedException, ExecutionException {
+        return search(iterations, Long.MAX_VALUE, iterationsPerSearch, null);
+    }
+
+    private int search(Runnable iteration, long deadlineMs, int maxIterations, CpuBudget budget) throws InterruptedException, ExecutionException {
+        return search(List.of(iteration), deadlineMs, maxIterations, budget)[0];
+    }
+
+    private int[] search(List<Runnable> iterations, long deadlineMs, int maxIterations, CpuBudget budget) throws InterruptedException, ExecutionException {
+        searches.addAndGet(iterations.size());
+
+        // Each search is its own chain of slices, so the searches run in parallel but each one sequentially
+        var results = new ArrayList<CompletableFuture<Integer>>(iterations.size());
+        for (var iteration : iterations) {
+            var result = new CompletableFuture<Integer>();
+            results.add(result);
+            pool.execute(new Slice(iteration, deadlineMs, maxIterations, budget, result, 0));
+        }
+
+        var counts = new int[results.size()];
+        for (int i = 0; i < counts.length; i++) counts[i] = results.get(i).get();
+        return counts;
+    }
+
+    /**
+     * Runs tasks on the pool and returns their results in the order of tasks, e.g. the expansions of one node
+     *
+     * The calling thread runs every task no other thread has started yet, so a slice which calls this never waits for
+     * a task which is still queued behind the slices of other matches. CPU time of tasks run by other threads is charged
+     * to budget (may be null), the time of the calling thread is charged by its own slice.
+     * Exceptions of tasks are rethrown as CompletionException.
+     */
+    public <T> List<T> invokeAll(List<Callable<T>> tasks, CpuBudget budget) {
+        var caller = Thread.currentThread();
+        var futures = new ArrayList<FutureTask<T>>(tasks.size());
+        for (var task : tasks) {
+            futures.add(new FutureTask<>(() -> {
+                if (budget == null || Thread.currentThread() == caller) return task.call();
+                long start = budget.now();
+                try {
+                    return task.call();
+                } finally {
+                    budget.charge(budget.now() - start);
+                }
+            }));
+        }
+
+        for (int i = 1; i < futures.size(); i++) pool.execute(futures.get(i));
+        // A task which was already started by another thread is not run again
+        for (var future : futures) future.run();
+
+        var results = new ArrayList<T>(futures.size());
+        try {
+            for (var future : futures) results.add(future.get());
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for the tasks of the pool");
+        }
+        return results;
+    }
+
+    private class Slice implements Runnable {
+        private final Runnable iteration;
+        private final long deadlineMs;
+        private final int maxIterations;
+        // null if the search is not limited by CPU time
+        private final CpuBudget budget;
+        private final CompletableFuture<Integer> result;
+        private final int iterations;
+
+        Slice(Runnable iteration, long deadlineMs, int maxIterations, CpuBudget budget, CompletableFuture<Integer> result, int iterations) {
+            this.iteration = iteration;
+            this.deadlineMs = deadlineMs;
+            this.maxIterations = maxIterations;
+            this.budget = budget;
+            this.result = result;
+            this.iterations = iterations;
+        }
+
+        @Override
+        public void run() {
+            slices.incrementAndGet();
+            long sliceStart = System.nanoTime();
+            long cpuStart = budget != null ? budget.now() : 0;
+            int count = iterations;
+
+            try {
+                while (count < maxIterations && System.currentTimeMillis() < deadlineMs && System.nanoTime() - sliceStart < SLICE_NANOS) {
+                    iteration.run();
+                    count++;
+
+                    if (budget == null) continue;
+                    long now = budget.now();
+                    budget.charge(now - cpuStart);
+                    cpuStart = now;
+                    if (budget.isExhausted()) break;
+                }
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+                return;
+            }
+
+            if (count >= maxIterations || System.currentTimeMillis() >= deadlineMs || (budget != null && budget.isExhausted())) {
+                result.complete(count);
+                return;
+            }
+
+            try {
+                pool.execute(new Slice(iteration, deadlineMs, maxIterations, budget, result, count));
+            } catch (RejectedExecutionException e) {
+                // The pool was shut down, the search would otherwise wait for the result forever
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "SearchPool{" +
+                "parallelism=" + pool.getCorePoolSize() +
+                ", searches=" + searches.get() +
+                ", slices=" + slices.get() +
+                '}';
+    }
+}
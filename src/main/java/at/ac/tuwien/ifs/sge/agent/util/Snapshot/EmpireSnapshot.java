@@ -0,0 +1,484 @@
+package at.ac.tuwien.ifs.sge.agent.util.Snapshot;
+
+import at.ac.tuwien.ifs.sge.agent.util.CommandQueue;
+import at.ac.tuwien.ifs.sge.agent.util.MacroAction.WaitEvent;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.CombatStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.MovementStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.ProductionStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.core.EmpireConfiguration;
+import at.ac.tuwien.ifs.sge.game.empire.map.EmpireMap;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.map.EmpireCity;
+import at.ac.tuwien.ifs.sge.game.empire.model.map.EmpireTile;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnitType;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Compact binary snapshot of the parts of an Empire the agent uses:
+ * board tiles and discovery, unit types, units, cities, command queues and clock
+ *
+ * toEmpire() loads a snapshot back into a game, so recorded games (fixtures) and the states sent to rollout workers
+ * use this format as well.
+ *
+ * Layout (big endian):
+ *   header:     int magic, byte version, long gameTimeMs, int decision, byte playerId, byte numberOfPlayers, short width, short height
+ *   tiles:      width * height * (byte mapIdentifier (0 if not visible), byte playerId + 1, byte maxOccupants)
+ *   discovery:  for each player a bitset of width * height bits
+ *   unit types: short count, for each type: byte unitTypeId, UTF name, int maxHp, float minDamage, float maxDamage,
+ *               float hitsPerSecond, float hitProbability, byte fov, float productionTime, float tilesPerSecond
+ *   units:      int count, for each unit: long uuidMsb, long uuidLsb, byte playerId, byte unitTypeId, byte state, short x, short y, float hp, float maxHp
+ *   cities:     int count, for each city: short x, short y, byte playerId + 1, byte state, byte occupants
+ *   queues:     for each player: boolean doNothing, int unitQueueCount, unit queues, int cityQueueCount, city queues
+ *               unit queue: long uuidMsb, long uuidLsb, short length, events
+ *               city queue: short x, short y, short length, events
+ *   event:      byte kind, long uuidMsb, long uuidLsb, short x, short y, byte unitTypeId
+ */
+public class EmpireSnapshot {
+
+    public static final int MAGIC = 0x494d5053; // "IMPS"
+    public static final byte VERSION = 2;
+
+    public static final byte EVENT_UNKNOWN = 0;
+    public static final byte EVENT_MOVEMENT_START = 1;
+    public static final byte EVENT_PRODUCTION_START = 2;
+    public static final byte EVENT_COMBAT_START = 3;
+    public static final byte EVENT_WAIT = 4;
+
+    public record UnitTypeData(int unitTypeId, String name, int maxHp, float minDamage, float maxDamage, float hitsPerSecond,
+                               float hitProbability, int fov, float productionTime, float tilesPerSecond) {}
+
+    public record UnitData(UUID id, int playerId, int unitTypeId, int state, int x, int y, float hp, float maxHp) {}
+
+    public record CityData(int x, int y, int playerId, int state, int occupants) {}
+
+    public record EventData(byte kind, UUID unitId, int x, int y, int unitTypeId) {}
+
+    public record QueueData(boolean doNothing, Map<UUID, List<EventData>> unitQueues, Map<Position, List<EventData>> cityQueues) {}
+
+    private final long gameTimeMs;
+    private final int decision;
+    private final int playerId;
+    private final int numberOfPlayers;
+    private final int width;
+    private final int height;
+
+    // Map identifier of each tile in row-major order, 0 if tile is not visible
+    private final byte[] tiles;
+
+    // Owner of each tile in row-major order, -1 if tile is not owned
+    private final byte[] tileOwners;
+
+    // Max occupants of each tile in row-major order
+    private final byte[] maxOccupants;
+
+    private final BitSet[] discovered;
+    private final List<UnitTypeData> unitTypes;
+    private final List<UnitData> units;
+    private final List<CityData> cities;
+    private final QueueData[] commandQueues;
+
+    private EmpireSnapshot(long gameTimeMs, int decision, int playerId, int numberOfPlayers, int width, int height,
+                           byte[] tiles, byte[] tileOwners, byte[] maxOccupants, BitSet[] discovered, List<UnitTypeData> unitTypes,
+                           List<UnitData> units, List<CityData> cities, QueueData[] commandQueues) {
+        this.gameTimeMs = gameTimeMs;
+        this.decision = decision;
+        this.playerId = playerId;
+        this.numberOfPlayers = numberOfPlayers;
+        this.width = width;
+        this.height = height;
+        this.tiles = tiles;
+        this.tileOwners = tileOwners;
+        this.maxOccupants = maxOccupants;
+        this.discovered = discovered;
+        this.unitTypes = unitTypes;
+        this.units = units;
+        this.cities = cities;
+        this.commandQueues = commandQueues;
+    }
+
+    /**
+     * Writes the snapshot of game and command queues to out
+     */
+    public static void write(DataOutputStream out, Empire game, CommandQueue[] commandQueues, int decision, int playerId) throws IOException {
+        var board = game.getBoard();
+        int width = board.getMapSize().getWidth();
+        int height = board.getMapSize().getHeight();
+        int numberOfPlayers = game.getNumberOfPlayers();
+
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(game.getGameClock().getGameTimeMs());
+        out.writeInt(decision);
+        out.writeByte(playerId);
+        out.writeByte(numberOfPlayers);
+        out.writeShort(width);
+        out.writeShort(height);
+
+        var empireTiles = board.getEmpireTiles();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                var tile = empireTiles[y][x];
+                out.writeByte(tile == null ? 0 : tile.getMapIdentifier());
+                out.writeByte(tile == null ? 0 : tile.getPlayerId() + 1);
+                out.writeByte(tile == null ? 0 : tile.getMaxOccupants());
+            }
+        }
+
+        var discovered = new BitSet[numberOfPlayers];
+        for (int pid = 0; pid < numberOfPlayers; pid++) discovered[pid] = new BitSet(width * height);
+        for (var entry : board.getDiscoveredByPosition().entrySet()) {
+            var position = entry.getKey();
+            for (int pid = 0; pid < numberOfPlayers; pid++) {
+                if (entry.getValue()[pid]) discovered[pid].set(position.getY() * width + position.getX());
+            }
+        }
+        var bitsetLength = (width * height + 7) / 8;
+        for (var bitset : discovered) out.write(Arrays.copyOf(bitset.toByteArray(), bitsetLength));
+
+        var unitTypes = game.getGameConfiguration().getUnitTypes();
+        out.writeShort(unitTypes.size());
+        for (var unitType : unitTypes) {
+            out.writeByte(unitType.getUnitTypeId());
+            out.writeUTF(unitType.getUnitTypeName());
+            out.writeInt(unitType.getMaxHp());
+            out.writeFloat((float) unitType.getMinDamage());
+            out.writeFloat((float) unitType.getMaxDamage());
+            out.writeFloat((float) unitType.getHitsPerSecond());
+            out.writeFloat((float) unitType.getHitProbability());
+            out.writeByte(unitType.getFov());
+            out.writeFloat((float) unitType.getProductionTime());
+            out.writeFloat((float) unitType.getTilesPerSecond());
+        }
+
+        int unitCount = 0;
+        for (int pid = 0; pid < numberOfPlayers; pid++) unitCount += game.getUnitsByPlayer(pid).size();
+        out.writeInt(unitCount);
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            for (var unit : game.getUnitsByPlayer(pid)) {
+                writeUUID(out, unit.getId());
+                out.writeByte(pid);
+                out.writeByte(unit.getUnitTypeId());
+                out.writeByte(unit.getState().ordinal());
+                out.writeShort(unit.getPosition().getX());
+                out.writeShort(unit.getPosition().getY());
+                out.writeFloat((float) unit.getHp());
+                out.writeFloat((float) unit.getMaxHp());
+            }
+        }
+
+        var cities = game.getCitiesByPosition().values();
+        out.writeInt(cities.size());
+        for (var city : cities) {
+            out.writeShort(city.getPosition().getX());
+            out.writeShort(city.getPosition().getY());
+            out.writeByte(city.getPlayerId() + 1);
+            out.writeByte(city.getState().ordinal());
+            out.writeByte(city.getOccupants().size());
+        }
+
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            var commandQueue = commandQueues != null && pid < commandQueues.length ? commandQueues[pid] : new CommandQueue();
+            out.writeBoolean(commandQueue.doNothing);
+
+            var queuedUnits = commandQueue.getQueuedUnits();
+            out.writeInt(queuedUnits.cardinality());
+            for (int unit = queuedUnits.nextSetBit(0); unit >= 0; unit = queuedUnits.nextSetBit(unit + 1)) {
+                writeUUID(out, commandQueue.getUnits().getUnitId(unit));
+                writeEvents(out, commandQueue.decodeAll(commandQueue.getUnitCommandQueue(unit)));
+            }
+
+            out.writeInt(commandQueue.getCityCommandQueue().size());
+            for (var queue : commandQueue.getCityCommandQueue().entrySet()) {
+                out.writeShort(queue.getKey().getX());
+                out.writeShort(queue.getKey().getY());
+                writeEvents(out, commandQueue.decodeAll(queue.getValue()));
+            }
+        }
+    }
+
+    private static void writeEvents(DataOutputStream out, Collection<EmpireEvent> events) throws IOException {
+        out.writeShort(events.size());
+        for (var event : events) {
+            if (event instanceof MovementStartOrder order) writeEvent(out, EVENT_MOVEMENT_START, order.getUnitId(), order.getDestination(), 0);
+            else if (event instanceof ProductionStartOrder order) writeEvent(out, EVENT_PRODUCTION_START, null, order.getCityPosition(), order.getUnitTypeId());
+            else if (event instanceof CombatStartOrder order) writeEvent(out, EVENT_COMBAT_START, order.getAttackerId(), order.getTargetPosition(), 0);
+            else if (event instanceof WaitEvent waitEvent) writeEvent(out, EVENT_WAIT, null, waitEvent.getEmpireCityPosition(), 0);
+            else writeEvent(out, EVENT_UNKNOWN, null, null, 0);
+        }
+    }
+
+    private static void writeEvent(DataOutputStream out, byte kind, UUID unitId, Position position, int unitTypeId) throws IOException {
+        out.writeByte(kind);
+        writeUUID(out, unitId);
+        out.writeShort(position == null ? -1 : position.getX());
+        out.writeShort(position == null ? -1 : position.getY());
+        out.writeByte(unitTypeId);
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid == null ? 0 : uuid.getMostSignificantBits());
+        out.writeLong(uuid == null ? 0 : uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Reads a snapshot written by write()
+     */
+    public static EmpireSnapshot read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not an empire snapshot");
+        var version = in.readByte();
+        if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+
+        long gameTimeMs = in.readLong();
+        int decision = in.readInt();
+        int playerId = in.readByte();
+        int numberOfPlayers = in.readByte();
+        int width = in.readShort();
+        int height = in.readShort();
+        // Snapshots are also read from other processes (rollout workers), sizes are checked before anything is allocated
+        if (numberOfPlayers <= 0 || width <= 0 || height <= 0) throw new IOException("Invalid snapshot of " + numberOfPlayers + " players on " + width + "x" + height + " tiles");
+
+        var tiles = new byte[width * height];
+        var tileOwners = new byte[width * height];
+        var maxOccupants = new byte[width * height];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = in.readByte();
+            tileOwners[i] = (byte) (in.readByte() - 1);
+            maxOccupants[i] = in.readByte();
+        }
+
+        var discovered = new BitSet[numberOfPlayers];
+        var bitsetBytes = new byte[(width * height + 7) / 8];
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            in.readFully(bitsetBytes);
+            discovered[pid] = BitSet.valueOf(bitsetBytes);
+        }
+
+        int unitTypeCount = readCount(in.readShort());
+        var unitTypes = new ArrayList<UnitTypeData>(unitTypeCount);
+        for (int i = 0; i < unitTypeCount; i++) {
+            unitTypes.add(new UnitTypeData(in.readByte(), in.readUTF(), in.readInt(), in.readFloat(), in.readFloat(), in.readFloat(),
+                    in.readFloat(), in.readByte(), in.readFloat(), in.readFloat()));
+        }
+
+        int unitCount = readCount(in.readInt());
+        var units = new ArrayList<UnitData>(Math.min(unitCount, tiles.length));
+        for (int i = 0; i < unitCount; i++) {
+            units.add(new UnitData(readUUID(in), in.readByte(), in.readByte(), in.readByte(), in.readShort(), in.readShort(), in.readFloat(), in.readFloat()));
+        }
+
+        int cityCount = readCount(in.readInt());
+        var cities = new ArrayList<CityData>(Math.min(cityCount, tiles.length));
+        for (int i = 0; i < cityCount; i++) {
+            cities.add(new CityData(in.readShort(), in.readShort(), in.readByte() - 1, in.readByte(), in.readByte()));
+        }
+
+        var commandQueues = new QueueData[numberOfPlayers];
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            var doNothing = in.readBoolean();
+
+            int unitQueueCount = in.readInt();
+            var unitQueues = new HashMap<UUID, List<EventData>>();
+            for (int i = 0; i < unitQueueCount; i++) unitQueues.put(readUUID(in), readEvents(in));
+
+            int cityQueueCount = in.readInt();
+            var cityQueues = new HashMap<Position, List<EventData>>();
+            for (int i = 0; i < cityQueueCount; i++) cityQueues.put(new Position(in.readShort(), in.readShort()), readEvents(in));
+
+            commandQueues[pid] = new QueueData(doNothing, unitQueues, cityQueues);
+        }
+
+        return new EmpireSnapshot(gameTimeMs, decision, playerId, numberOfPlayers, width, height, tiles, tileOwners, maxOccupants, discovered, unitTypes, units, cities, commandQueues);
+    }
+
+    private static int readCount(int count) throws IOException {
+        if (count < 0) throw new IOException("Invalid count " + count + " in snapshot");
+        return count;
+    }
+
+    private static List<EventData> readEvents(DataInputStream in) throws IOException {
+        int length = readCount(in.readShort());
+        var events = new ArrayList<EventData>(length);
+        for (int i = 0; i < length; i++) {
+            events.add(new EventData(in.readByte(), readUUID(in), in.readShort(), in.readShort(), in.readByte()));
+        }
+        return events;
+    }
+
+    private static UUID readUUID(DataInputStream in) throws IOException {
+        long msb = in.readLong();
+        long lsb = in.readLong();
+        return msb == 0 && lsb == 0 ? null : new UUID(msb, lsb);
+    }
+
+    /**
+     * Loads the snapshot back into a game with the recorded board, discovery, unit types, units and cities
+     *
+     * The game is what the player of the snapshot saw: tiles which were not visible are null. Orders which were in
+     * progress are not part of the snapshot, so all units start idle and cities do not produce, the command queues
+     * of the snapshot are restored by restoreCommandQueues().
+     */
+    public Empire toEmpire() {
+        var types = new HashMap<Integer, EmpireUnitType>();
+        for (var type : unitTypes) {
+            types.put(type.unitTypeId(), new EmpireUnitType(type.unitTypeId(), type.name(), type.maxHp(), type.minDamage(), type.maxDamage(),
+                    type.hitsPerSecond(), type.hitProbability(), type.fov(), type.productionTime(), type.tilesPerSecond()));
+        }
+
+        var cityPositions = new HashSet<Position>();
+        for (var city : cities) cityPositions.add(new Position(city.x(), city.y()));
+
+        var empireTiles = new EmpireTile[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                var cell = y * width + x;
+                if (tiles[cell] == 0) continue;
+
+                var position = new Position(x, y);
+                var tile = cityPositions.contains(position)
+                        ? new EmpireCity(position, maxOccupants[cell])
+                        : new EmpireTile(position, (char) tiles[cell], maxOccupants[cell]);
+                tile.setPlayerId(tileOwners[cell]);
+                empireTiles[y][x] = tile;
+            }
+        }
+
+        var board = new EmpireMap(empireTiles, numberOfPlayers);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                var discoveredBy = new boolean[numberOfPlayers];
+                boolean any = false;
+                for (int pid = 0; pid < numberOfPlayers; pid++) any |= discoveredBy[pid] = discovered[pid].get(y * width + x);
+                if (any) board.getDiscoveredByPosition().put(new Position(x, y), discoveredBy);
+            }
+        }
+
+        var game = new Empire(new EmpireConfiguration(new ArrayList<>(types.values())), board, numberOfPlayers);
+        for (var unit : units) {
+            var type = types.get(unit.unitTypeId());
+            if (type == null) continue;
+            var empireUnit = new EmpireUnit(type, unit.id(), unit.playerId(), new Position(unit.x(), unit.y()));
+            empireUnit.setHp(unit.hp());
+            game.addUnit(empireUnit);
+        }
+        return game;
+    }
+
+    /**
+     * Reads the snapshot of a file written by write(), e.g. a fixture or the state of a rollout
+     */
+    public static EmpireSnapshot read(Path path) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Restores the command queues of this snapshot for a game which contains the recorded units
+     * Events of units which are not part of the game are dropped
+     */
+    public CommandQueue[] restoreCommandQueues(Empire game) {
+        var restored = new CommandQueue[numberOfPlayers];
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            restored[pid] = new CommandQueue();
+            restored[pid].doNothing = commandQueues[pid].doNothing();
+
+            for (var queue : commandQueues[pid].unitQueues().values())
+                for (var event : queue) addEvent(restored[pid], event, game);
+
+            for (var queue : commandQueues[pid].cityQueues().values())
+                for (var event : queue) addEvent(restored[pid], event, game);
+        }
+        return restored;
+    }
+
+    private static void addEvent(CommandQueue commandQueue, EventData event, Empire game) {
+        var position = new Position(event.x(), event.y());
+        var unit = event.unitId() != null ? game.getUnit(event.unitId()) : null;
+
+        switch (event.kind()) {
+            case EVENT_MOVEMENT_START -> { if (unit != null) commandQueue.addCommand(new MovementStartOrder(unit, position), false); }
+            case EVENT_COMBAT_START -> { if (unit != null) commandQueue.addCommand(new CombatStartOrder(unit, position), false); }
+            case EVENT_PRODUCTION_START -> commandQueue.addCommand(new ProductionStartOrder(position, event.unitTypeId()), false);
+            case EVENT_WAIT -> commandQueue.addCommand(new WaitEvent(position), false);
+            default -> { }
+        }
+    }
+
+    public long getGameTimeMs() {
+        return gameTimeMs;
+    }
+
+    public int getDecision() {
+        return decision;
+    }
+
+    public int getPlayerId() {
+        return playerId;
+    }
+
+    public int getNumberOfPlayers() {
+        return numberOfPlayers;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns map identifier of tile, 0 if the tile was not visible
+     */
+    public char getTile(int x, int y) {
+        return (char) tiles[y * width + x];
+    }
+
+    public int getTileOwner(int x, int y) {
+        return tileOwners[y * width + x];
+    }
+
+    public boolean isDiscovered(int x, int y, int playerId) {
+        return discovered[playerId].get(y * width + x);
+    }
+
+    public int getDiscoveredCount(int playerId) {
+        return discovered[playerId].cardinality();
+    }
+
+    public List<UnitTypeData> getUnitTypes() {
+        return unitTypes;
+    }
+
+    public List<UnitData> getUnits() {
+        return units;
+    }
+
+    public List<CityData> getCities() {
+        return cities;
+    }
+
+    public QueueData getCommandQueue(int playerId) {
+        return commandQueues[playerId];
+    }
+
+    @Override
+    public String toString() {
+        return "EmpireSnapshot{" +
+                "decision=" + decision +
+                ", gameTimeMs=" + gameTimeMs +
+                ", playerId=" + playerId +
+                ", map=" + width + "x" + height +
+                ", units=" + units.size() +
+                ", cities=" + cities.size() +
+                '}';
+    }
+}
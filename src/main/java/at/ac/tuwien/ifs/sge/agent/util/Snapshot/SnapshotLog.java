@@ -0,0 +1,146 @@
+package at.ac.tuwien.ifs.sge.agent.util.Snapshot;
+
+import at.ac.tuwien.ifs.sge.agent.util.CommandQueue;
+import at.ac.tuwien.ifs.sge.core.engine.logging.Logger;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only, memory-mapped log of EmpireSnapshots
+ *
+ * Each record is framed as int length followed by the snapshot bytes, a length of 0 marks the end of the log.
+ * Encoding and writing is done by a background thread, so the decision thread only hands over the root game state,
+ * which is never modified by the search. If the writer falls behind, snapshots are dropped instead of blocking.
+ */
+public class SnapshotLog implements Closeable {
+
+    // The log is mapped in regions of this size, a new region is mapped when the current one is full
+    private static final long REGION_SIZE = 64L * 1024 * 1024;
+    private static final int MAX_PENDING_SNAPSHOTS = 8;
+
+    private final FileChannel channel;
+    private MappedByteBuffer region;
+    private long regionStart = 0;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+    private final DataOutputStream out = new DataOutputStream(buffer);
+
+    private final ExecutorService writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(MAX_PENDING_SNAPSHOTS),
+            runnable -> {
+                var thread = new Thread(runnable, "imperion-snapshot-log");
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    private volatile int written = 0;
+
+    private final Logger log;
+
+    public SnapshotLog(Path path, Logger log) throws IOException {
+        this.log = log;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, REGION_SIZE);
+    }
+
+    /**
+     * Hands over the root state of a decision, game and commandQueues must not be modified afterwards
+     */
+    public void append(Empire game, CommandQueue[] commandQueues, int decision, int playerId) {
+        writer.execute(() -> {
+            try {
+                buffer.reset();
+                EmpireSnapshot.write(out, game, commandQueues, decision, playerId);
+                out.flush();
+                writeRecord(buffer.toByteArray());
+                written++;
+            } catch (Exception e) {
+                log.debug("Could not write snapshot: " + e);
+            }
+        });
+    }
+
+    private void writeRecord(byte[] record) throws IOException {
+        // Keep space for the end marker
+        if (region.remaining() < record.length + 2 * Integer.BYTES) {
+            regionStart += region.position();
+            region.force();
+            region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(REGION_SIZE, record.length + 2L * Integer.BYTES));
+        }
+
+        region.putInt(record.length);
+        region.put(record);
+
+        // End marker, overwritten by the next record
+        region.putInt(region.position(), 0);
+    }
+
+    public int getWritten() {
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Truncate the unused part of the last region
+        long end = regionStart + region.position();
+        region.force();
+        channel.truncate(end + Integer.BYTES);
+        channel.close();
+    }
+
+    /**
+     * Reads all snapshots of a log file, e.g. to load them as fixtures for benchmarks or replays
+     */
+    public static List<EmpireSnapshot> readAll(Path path) throws IOException {
+        var snapshots = new ArrayList<EmpireSnapshot>();
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long position = 0;
+            var lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+
+            while (position + Integer.BYTES <= channel.size()) {
+                lengthBuffer.clear();
+                channel.read(lengthBuffer, position);
+                int length = lengthBuffer.getInt(0);
+                if (length <= 0) break;
+
+                var record = channel.map(FileChannel.MapMode.READ_ONLY, position + Integer.BYTES, length);
+                var bytes = new byte[length];
+                record.get(bytes);
+                snapshots.add(EmpireSnapshot.read(new DataInputStream(new ByteArrayInputStream(bytes))));
+
+                position += Integer.BYTES + length;
+            }
+        }
+
+        return snapshots;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotLog{" +
+                "written=" + written +
+                ", bytes=" + (regionStart + region.position()) +
+                '}';
+    }
+}
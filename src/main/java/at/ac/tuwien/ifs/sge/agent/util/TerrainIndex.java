@@ -0,0 +1,233 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.map.EmpireTile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compact grid of the static terrain of the map (mountains and tiles nobody can enter never change)
+ * together with a labelling of its connected components
+ *
+ * Undiscovered tiles are considered passable like in BFS, so two positions in different components can never be
+ * connected by a path and the search can be skipped. The grid is updated as the fog lifts, the components are only
+ * labelled again if a newly discovered tile is blocked.
+ */
+public class TerrainIndex {
+
+    public static final byte UNKNOWN = 0;
+    public static final byte PASSABLE = 1;
+    public static final byte BLOCKED = 2;
+
+    private static final int[][] DIRECTIONS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}, {1, 1}, {-1, 1}, {-1, -1}, {1, -1}};
+
+    private final int width;
+    private final int height;
+
+    // Static terrain of each tile in row-major order
+    private final byte[] terrain;
+
+    // Component of each tile in row-major order, -1 for blocked tiles
+    private final int[] component;
+
+    // Indices of tiles which are not discovered yet, only those have to be checked on update
+    private final int[] unknownCells;
+    private int unknownCount;
+
+    // Tiles which were discovered to be blocked in the last update
+    private final List<Integer> newlyBlockedCells = new ArrayList<>();
+
+    private boolean componentsOutdated = true;
+    private int componentCount = 0;
+    private int labellings = 0;
+
+    public TerrainIndex(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.terrain = new byte[width * height];
+        this.component = new int[width * height];
+        this.unknownCells = new int[width * height];
+        this.unknownCount = width * height;
+        for (int i = 0; i < unknownCount; i++) unknownCells[i] = i;
+    }
+
+    private TerrainIndex(TerrainIndex index) {
+        this.width = index.width;
+        this.height = index.height;
+        this.terrain = index.terrain.clone();
+        this.component = new int[width * height];
+        this.unknownCells = new int[0];
+        this.unknownCount = 0;
+    }
+
+    public static TerrainIndex of(Empire game) {
+        var mapSize = game.getBoard().getMapSize();
+        var index = new TerrainIndex(mapSize.getWidth(), mapSize.getHeight());
+        index.update(game);
+        return index;
+    }
+
+    /**
+     * Adds the static terrain of newly discovered tiles of game
+     */
+    public void update(Empire game) {
+        var tiles = game.getBoard().getEmpireTiles();
+        newlyBlockedCells.clear();
+
+        for (int i = 0; i < unknownCount; i++) {
+            int cell = unknownCells[i];
+            var tile = tiles[cell / width][cell % width];
+            if (tile == null) continue;
+
+            terrain[cell] = classify(tile);
+            if (terrain[cell] == BLOCKED) {
+                newlyBlockedCells.add(cell);
+                componentsOutdated = true;
+            }
+
+            // Remove from unknown cells by swapping with the last one
+            unknownCells[i--] = unknownCells[--unknownCount];
+        }
+
+        if (componentsOutdated) label();
+    }
+
+    public static byte classify(EmpireTile tile) {
+        return tile.getMapIdentifier() == 'm' || tile.getMaxOccupants() == 0 ? BLOCKED : PASSABLE;
+    }
+
+    /**
+     * Labels connected components (8-directional) of all tiles which are not blocked with a flood fill
+     */
+    private void label() {
+        Arrays.fill(component, -1);
+        var queue = new int[width * height];
+        componentCount = 0;
+
+        for (int start = 0; start < terrain.length; start++) {
+            if (terrain[start] == BLOCKED || component[start] != -1) continue;
+
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            component[start] = componentCount;
+
+            while (head < tail) {
+                int cell = queue[head++];
+                int x = cell % width, y = cell / width;
+
+                for (var direction : DIRECTIONS) {
+                    int nextX = x + direction[0], nextY = y + direction[1];
+                    if (nextX < 0 || nextY < 0 || nextX >= width || nextY >= height) continue;
+
+                    int next = nextY * width + nextX;
+                    if (terrain[next] == BLOCKED || component[next] != -1) continue;
+
+                    component[next] = componentCount;
+                    queue[tail++] = next;
+                }
+            }
+            componentCount++;
+        }
+
+        componentsOutdated = false;
+        labellings++;
+    }
+
+    /**
+     * Returns a copy in which every undiscovered tile is sampled as blocked or passable
+     *
+     * A tile is blocked with the share of blocked tiles among its discovered neighbours, or among all discovered tiles
+     * if it has none, so mountain ranges and lakes tend to continue into the fog. Each copy is one plausible map for a
+     * determinized search, it is not updated anymore.
+     */
+    public TerrainIndex determinize(Random random) {
+        var determinized = new TerrainIndex(this);
+
+        int discovered = 0, blocked = 0;
+        for (byte tile : terrain) {
+            if (tile == UNKNOWN) continue;
+            discovered++;
+            if (tile == BLOCKED) blocked++;
+        }
+        double prior = discovered == 0 ? 0 : (double) blocked / discovered;
+
+        for (int i = 0; i < unknownCount; i++) {
+            int cell = unknownCells[i];
+            int x = cell % width, y = cell / width;
+
+            int neighbours = 0, blockedNeighbours = 0;
+            for (var direction : DIRECTIONS) {
+                int nextX = x + direction[0], nextY = y + direction[1];
+                if (nextX < 0 || nextY < 0 || nextX >= width || nextY >= height) continue;
+
+                var neighbour = terrain[nextY * width + nextX];
+                if (neighbour == UNKNOWN) continue;
+                neighbours++;
+                if (neighbour == BLOCKED) blockedNeighbours++;
+            }
+
+            double probability = neighbours == 0 ? prior : (double) blockedNeighbours / neighbours;
+            determinized.terrain[cell] = random.nextDouble() < probability ? BLOCKED : PASSABLE;
+        }
+
+        determinized.label();
+        return determinized;
+    }
+
+    public byte getTerrain(int x, int y) {
+        return terrain[y * width + x];
+    }
+
+    /**
+     * Returns the indices (y * width + x) of the tiles which were discovered to be blocked in the last update
+     */
+    public List<Integer> getNewlyBlockedCells() {
+        return newlyBlockedCells;
+    }
+
+    public boolean isBlocked(int x, int y) {
+        return terrain[y * width + x] == BLOCKED;
+    }
+
+    /**
+     * Returns false if there can not be any path from source to destination, in O(1)
+     */
+    public boolean isReachable(Position source, Position destination) {
+        if (source == null || destination == null) return false;
+        if (!isInside(source) || !isInside(destination)) return false;
+
+        int sourceComponent = component[source.getY() * width + source.getX()];
+        int destinationComponent = component[destination.getY() * width + destination.getX()];
+
+        // Units stand on passable tiles, but be lenient if the source itself is blocked
+        if (sourceComponent == -1) return destinationComponent != -1;
+
+        return sourceComponent == destinationComponent;
+    }
+
+    private boolean isInside(Position position) {
+        return position.getX() >= 0 && position.getY() >= 0 && position.getX() < width && position.getY() < height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public String toString() {
+        return "TerrainIndex{" +
+                "size=" + width + "x" + height +
+                ", unknownTiles=" + unknownCount +
+                ", components=" + componentCount +
+                ", labellings=" + labellings +
+                '}';
+    }
+}
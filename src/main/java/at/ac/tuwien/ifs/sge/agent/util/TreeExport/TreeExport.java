@@ -0,0 +1,156 @@
+package at.ac.tuwien.ifs.sge.agent.util.TreeExport;
+
+import at.ac.tuwien.ifs.sge.agent.ImperionGameNode;
+import at.ac.tuwien.ifs.sge.core.engine.logging.Logger;
+import at.ac.tuwien.ifs.sge.core.util.tree.Tree;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the search trees of all decisions to a JSON-lines file, one record per node:
+ * {"decision":1,"id":0,"parent":-1,"depth":0,"player":0,"action":null,"macro":null,"visits":812,"evaluation":[401.2,0.0]}
+ *
+ * Nodes are written in pre-order, ids are unique within a decision and parent is the id of the parent node (-1 for
+ * the root). The player of the root is the exporting agent. The tree is walked and written by a background thread,
+ * the decision thread only hands over the root, since the tree is not modified after the decision. If the writer
+ * falls behind, trees are dropped instead of blocking. Exports are read by TreeExportTool.
+ */
+public class TreeExport implements Closeable {
+
+    private static final int MAX_PENDING_TREES = 4;
+
+    private final BufferedWriter out;
+
+    private final ExecutorService writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(MAX_PENDING_TREES),
+            runnable -> {
+                var thread = new Thread(runnable, "imperion-tree-export");
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    private volatile int written = 0;
+    private volatile long nodes = 0;
+
+    private final Logger log;
+
+    private record Entry(Tree<ImperionGameNode> tree, int parent, int depth) {}
+
+    public TreeExport(Path path, Logger log) throws IOException {
+        this.log = log;
+        this.out = Files.newBufferedWriter(path);
+    }
+
+    /**
+     * Hands over the tree of a decision, it must not be modified afterwards
+     */
+    public void append(Tree<ImperionGameNode> tree, int decision) {
+        writer.execute(() -> {
+            try {
+                write(tree, decision);
+                out.flush();
+                written++;
+            } catch (Exception e) {
+                log.debug("Could not export tree: " + e);
+            }
+        });
+    }
+
+    private void write(Tree<ImperionGameNode> root, int decision) throws IOException {
+        var line = new StringBuilder(256);
+        var stack = new ArrayDeque<Entry>();
+        stack.push(new Entry(root, -1, 0));
+
+        int id = 0;
+        long count = 0;
+        while (!stack.isEmpty()) {
+            var entry = stack.pop();
+            var node = entry.tree().getNode();
+
+            line.setLength(0);
+            line.append("{\"decision\":").append(decision)
+                    .append(",\"id\":").append(id)
+                    .append(",\"parent\":").append(entry.parent())
+                    .append(",\"depth\":").append(entry.depth())
+                    .append(",\"player\":").append(node.getNextPlayerId())
+                    .append(",\"action\":");
+            appendString(line, node.getMacroAction() == null ? null : String.valueOf(node.getMacroAction().getType()));
+            line.append(",\"macro\":");
+            appendString(line, node.getMacroAction() == null ? null : node.getMacroAction().toString());
+            line.append(",\"visits\":").append(node.getVisits())
+                    .append(",\"evaluation\":[");
+            for (int pid = 0; pid < node.getGameState().getNumberOfPlayers(); pid++) {
+                if (pid > 0) line.append(',');
+                line.append(node.getEvaluationForPlayer(pid));
+            }
+            line.append("]}\n");
+            out.append(line);
+            count++;
+
+            // Pushed in reverse, so children are written in their order
+            var children = entry.tree().getChildren();
+            if (children != null)
+                for (int i = children.size() - 1; i >= 0; i--) stack.push(new Entry(children.get(i), id, entry.depth() + 1));
+            id++;
+        }
+
+        nodes += count;
+    }
+
+    private static void appendString(StringBuilder line, String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> line.append("\\\"");
+                case '\\' -> line.append("\\\\");
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                case '\t' -> line.append("\\t");
+                default -> {
+                    if (c < 0x20) line.append(String.format("\\u%04x", (int) c));
+                    else line.append(c);
+                }
+            }
+        }
+        line.append('"');
+    }
+
+    public int getWritten() {
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+    }
+
+    @Override
+    public String toString() {
+        return "TreeExport{" +
+                "written=" + written +
+                ", nodes=" + nodes +
+                '}';
+    }
+}
@@ -0,0 +1,268 @@
+package at.ac.tuwien.ifs.sge.agent.util.TreeExport;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Offline summary and diff of files written by TreeExport
+ *
+ * summarize prints size, depth and visits of the tree of each decision and the most visited actions at the root.
+ * diff compares the trees of the same decisions of two exports (e.g. before and after a change of the search)
+ * and reports where the decided action changed.
+ *
+ * Usage: TreeExportTool summarize export
+ *        TreeExportTool diff export other
+ */
+public class TreeExportTool {
+
+    private static final int TOP_ACTIONS = 5;
+
+    public record Node(int decision, int id, int parent, int depth, int player, String action, String macro, int visits, double[] evaluation) {}
+
+    /**
+     * Tree of one decision, nodes are in pre-order
+     */
+    public record DecisionTree(int decision, List<Node> nodes) {
+
+        public Node root() {
+            return nodes.get(0);
+        }
+
+        public List<Node> rootChildren() {
+            return nodes.stream().filter(node -> node.parent() == 0).toList();
+        }
+
+        public int maxDepth() {
+            return nodes.stream().mapToInt(Node::depth).max().orElse(0);
+        }
+
+        public int[] nodesPerDepth() {
+            var counts = new int[maxDepth() + 1];
+            for (var node : nodes) counts[node.depth()]++;
+            return counts;
+        }
+
+        /**
+         * The action the agent decided on, the most visited child of the root
+         */
+        public Node best() {
+            return rootChildren().stream().max(Comparator.comparingInt(Node::visits)).orElse(null);
+        }
+
+        public double meanEvaluation(Node node) {
+            return node.visits() == 0 ? 0 : node.evaluation()[root().player()] / node.visits();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("summarize")) {
+            summarize(read(Path.of(args[1])));
+        } else if (args.length == 3 && args[0].equals("diff")) {
+            diff(read(Path.of(args[1])), read(Path.of(args[2])));
+        } else {
+            System.err.println("Usage: TreeExportTool summarize export");
+            System.err.println("       TreeExportTool diff export other");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the trees of an export by decision
+     */
+    public static SortedMap<Integer, DecisionTree> read(Path path) throws IOException {
+        var trees = new TreeMap<Integer, DecisionTree>();
+        try (var lines = Files.lines(path)) {
+            lines.filter(line -> !line.isBlank()).map(TreeExportTool::parse).forEach(node ->
+                    trees.computeIfAbsent(node.decision(), decision -> new DecisionTree(decision, new ArrayList<>())).nodes().add(node));
+        }
+        return trees;
+    }
+
+    private static void summarize(SortedMap<Integer, DecisionTree> trees) {
+        long totalNodes = 0;
+        long totalDepth = 0;
+
+        for (var tree : trees.values()) {
+            var root = tree.root();
+            totalNodes += tree.nodes().size();
+            totalDepth += tree.maxDepth();
+
+            System.out.println("Decision " + tree.decision() + ": nodes=" + tree.nodes().size() + ", depth=" + tree.maxDepth() + ", visits=" + root.visits() + ", nodesPerDepth=" + Arrays.toString(tree.nodesPerDepth()));
+            tree.rootChildren().stream()
+                    .sorted(Comparator.comparingInt(Node::visits).reversed())
+                    .limit(TOP_ACTIONS)
+                    .forEach(child -> System.out.println("  " + child.action() + " visits=" + child.visits() + " (" + percent(child.visits(), root.visits()) + "), evaluation=" + round(tree.meanEvaluation(child)) + ", " + child.macro()));
+        }
+
+        if (trees.isEmpty()) return;
+        System.out.println("Decisions: " + trees.size() + ", mean nodes: " + round((double) totalNodes / trees.size()) + ", mean depth: " + round((double) totalDepth / trees.size()));
+    }
+
+    private static void diff(SortedMap<Integer, DecisionTree> trees, SortedMap<Integer, DecisionTree> others) {
+        int compared = 0;
+        int changedDecisions = 0;
+        long nodes = 0;
+        long otherNodes = 0;
+
+        for (var tree : trees.values()) {
+            var other = others.get(tree.decision());
+            if (other == null) continue;
+            compared++;
+            nodes += tree.nodes().size();
+            otherNodes += other.nodes().size();
+
+            var best = tree.best();
+            var otherBest = other.best();
+            var bestKey = best == null ? null : best.macro();
+            var otherBestKey = otherBest == null ? null : otherBest.macro();
+            boolean changed = !Objects.equals(bestKey, otherBestKey);
+            if (changed) changedDecisions++;
+
+            System.out.println("Decision " + tree.decision() + ": nodes " + tree.nodes().size() + " -> " + other.nodes().size()
+                    + ", depth " + tree.maxDepth() + " -> " + other.maxDepth()
+                    + ", visits " + tree.root().visits() + " -> " + other.root().visits()
+                    + (changed ? ", decided " + describe(best) + " -> " + describe(otherBest) : ""));
+
+            if (changed) printVisitShares(tree, other);
+        }
+
+        var onlyInOne = new TreeSet<>(trees.keySet());
+        onlyInOne.removeAll(others.keySet());
+        var onlyInOther = new TreeSet<>(others.keySet());
+        onlyInOther.removeAll(trees.keySet());
+        if (!onlyInOne.isEmpty()) System.out.println("Only in first export: " + onlyInOne);
+        if (!onlyInOther.isEmpty()) System.out.println("Only in second export: " + onlyInOther);
+
+        if (compared == 0) return;
+        System.out.println("Compared decisions: " + compared + ", changed decisions: " + changedDecisions + ", mean nodes " + round((double) nodes / compared) + " -> " + round((double) otherNodes / compared));
+    }
+
+    /**
+     * Prints the share of the visits of each root action in both trees
+     */
+    private static void printVisitShares(DecisionTree tree, DecisionTree other) {
+        var shares = new LinkedHashMap<String, double[]>();
+        for (var child : tree.rootChildren()) shares.computeIfAbsent(child.macro(), macro -> new double[2])[0] += (double) child.visits() / Math.max(1, tree.root().visits());
+        for (var child : other.rootChildren()) shares.computeIfAbsent(child.macro(), macro -> new double[2])[1] += (double) child.visits() / Math.max(1, other.root().visits());
+
+        shares.entrySet().stream()
+                .sorted(Comparator.comparingDouble((Map.Entry<String, double[]> entry) -> Math.abs(entry.getValue()[1] - entry.getValue()[0])).reversed())
+                .limit(TOP_ACTIONS)
+                .forEach(entry -> System.out.println("  " + entry.getKey() + ": " + round(entry.getValue()[0] * 100) + "% -> " + round(entry.getValue()[1] * 100) + "%"));
+    }
+
+    private static String describe(Node node) {
+        return node == null ? "nothing" : node.action() + " (" + node.macro() + ")";
+    }
+
+    private static String percent(int part, int total) {
+        return (total == 0 ? 0 : Math.round(100.0 * part / total)) + "%";
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    /**
+     * Parses one record of TreeExport, which is a flat JSON object of numbers, strings, null and arrays of numbers
+     */
+    static Node parse(String line) {
+        var values = new HashMap<String, Object>();
+        var position = new int[]{line.indexOf('{') + 1};
+
+        while (true) {
+            skipWhitespace(line, position);
+            if (line.charAt(position[0]) == '}') break;
+            var key = parseString(line, position);
+            skipWhitespace(line, position);
+            expect(line, position, ':');
+            skipWhitespace(line, position);
+            values.put(key, parseValue(line, position));
+            skipWhitespace(line, position);
+            if (line.charAt(position[0]) == ',') position[0]++;
+        }
+
+        var evaluation = (double[]) values.getOrDefault("evaluation", new double[0]);
+        return new Node(
+                number(values, "decision"),
+                number(values, "id"),
+                number(values, "parent"),
+                number(values, "depth"),
+                number(values, "player"),
+                (String) values.get("action"),
+                (String) values.get("macro"),
+                number(values, "visits"),
+                evaluation);
+    }
+
+    private static int number(Map<String, Object> values, String key) {
+        var value = values.get(key);
+        if (!(value instanceof Double number)) throw new IllegalArgumentException("Missing " + key + " in tree export record");
+        return number.intValue();
+    }
+
+    private static Object parseValue(String line, int[] position) {
+        char c = line.charAt(position[0]);
+        if (c == '"') return parseString(line, position);
+        if (line.startsWith("null", position[0])) {
+            position[0] += 4;
+            return null;
+        }
+        if (c == '[') {
+            position[0]++;
+            var numbers = new ArrayList<Double>();
+            while (true) {
+                skipWhitespace(line, position);
+                if (line.charAt(position[0]) == ']') break;
+                numbers.add(parseNumber(line, position));
+                skipWhitespace(line, position);
+                if (line.charAt(position[0]) == ',') position[0]++;
+            }
+            position[0]++;
+            return numbers.stream().mapToDouble(Double::doubleValue).toArray();
+        }
+        return parseNumber(line, position);
+    }
+
+    private static double parseNumber(String line, int[] position) {
+        int start = position[0];
+        while (position[0] < line.length() && "+-0123456789.eEINafinity".indexOf(line.charAt(position[0])) >= 0) position[0]++;
+        return Double.parseDouble(line.substring(start, position[0]));
+    }
+
+    private static String parseString(String line, int[] position) {
+        expect(line, position, '"');
+        var value = new StringBuilder();
+        while (true) {
+            char c = line.charAt(position[0]++);
+            if (c == '"') return value.toString();
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+
+            char escaped = line.charAt(position[0]++);
+            switch (escaped) {
+                case 'n' -> value.append('\n');
+                case 'r' -> value.append('\r');
+                case 't' -> value.append('\t');
+                case 'u' -> {
+                    value.append((char) Integer.parseInt(line.substring(position[0], position[0] + 4), 16));
+                    position[0] += 4;
+                }
+                default -> value.append(escaped);
+            }
+        }
+    }
+
+    private static void expect(String line, int[] position, char expected) {
+        if (line.charAt(position[0]) != expected) throw new IllegalArgumentException("Expected '" + expected + "' at " + position[0] + " in: " + line);
+        position[0]++;
+    }
+
+    private static void skipWhitespace(String line, int[] position) {
+        while (position[0] < line.length() && Character.isWhitespace(line.charAt(position[0]))) position[0]++;
+    }
+}
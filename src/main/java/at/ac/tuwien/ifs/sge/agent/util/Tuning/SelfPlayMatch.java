@@ -0,0 +1,214 @@
+package at.ac.tuwien.ifs.sge.agent.util.Tuning;
+
+import at.ac.tuwien.ifs.sge.agent.Imperion;
+import at.ac.tuwien.ifs.sge.agent.ImperionGameNode;
+import at.ac.tuwien.ifs.sge.agent.util.CommandQueue;
+import at.ac.tuwien.ifs.sge.agent.util.CpuBudget;
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicFeatures;
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicWeights;
+import at.ac.tuwien.ifs.sge.agent.util.InfluenceMap;
+import at.ac.tuwien.ifs.sge.agent.util.MCTS;
+import at.ac.tuwien.ifs.sge.agent.util.Pathfinder;
+import at.ac.tuwien.ifs.sge.agent.util.SearchContext;
+import at.ac.tuwien.ifs.sge.agent.util.SearchPool;
+import at.ac.tuwien.ifs.sge.agent.util.TerrainIndex;
+import at.ac.tuwien.ifs.sge.agent.util.UnitIndex;
+import at.ac.tuwien.ifs.sge.agent.util.UnitRole.UnitOrderBook;
+import at.ac.tuwien.ifs.sge.core.engine.communication.events.GameActionEvent;
+import at.ac.tuwien.ifs.sge.core.engine.logging.Logger;
+import at.ac.tuwien.ifs.sge.core.util.tree.DoubleLinkedTree;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Headless match between agents with different heuristic weights, played on a recorded game (fixture)
+ *
+ * No engine is involved: every decision, each player runs a fixed number of MCTS iterations on a copy of the
+ * match state, the actions of the most visited child of all players are scheduled at once and the match is
+ * advanced by the decision pace. A fixed number of iterations instead of a time limit makes the strength of the
+ * players independent of the load of the machine, so many matches can be played in parallel.
+ *
+ * Like the agent, each player keeps the terrain, influence map and unit orders of its decisions, so the searches
+ * run with the same SearchContext as in a match on the server.
+ */
+public class SelfPlayMatch {
+
+    public static final int DECISION_PACE_MS = 300;
+
+    // Failed decisions are logged, the trace and debug output of the searches is not
+    private static final Logger log = new Logger(1, "[self-play ", "",
+            "trace]: ", System.out, "", "debug]: ", System.out, "", "info]: ", System.out, "",
+            "warn]: ", System.err, "", "error]: ", System.err, "");
+
+    private final Empire fixture;
+    private final int iterationsPerDecision;
+    private final int maxDecisions;
+
+    // Only used by parallel root expansions, the iterations of a match run on the thread playing it
+    private final SearchPool searchPool;
+
+    /**
+     * State one player keeps between its decisions, like the agent does
+     */
+    private static class Player {
+        private final int playerId;
+        private final MCTS treeSearch;
+        private final UnitOrderBook orderBook;
+        private CommandQueue[] commandQueues;
+        private TerrainIndex terrain;
+        private Pathfinder pathfinder;
+        private InfluenceMap influenceMap;
+
+        private Player(int playerId, MCTS treeSearch, CommandQueue[] commandQueues) {
+            this.playerId = playerId;
+            this.treeSearch = treeSearch;
+            this.orderBook = new UnitOrderBook(playerId, log);
+            this.commandQueues = commandQueues;
+        }
+    }
+
+    public SelfPlayMatch(Empire fixture, int iterationsPerDecision, int maxDecisions, SearchPool searchPool) {
+        this.fixture = fixture;
+        this.iterationsPerDecision = iterationsPerDecision;
+        this.maxDecisions = maxDecisions;
+        this.searchPool = searchPool;
+    }
+
+    /**
+     * Receives the state of a match after each decision of a player, e.g. to record training samples or book moves
+     * game is the root state of the decision and decision the decided child of the root, both belong to the match,
+     * they have to be copied if they are kept
+     */
+    public interface DecisionListener {
+        void decided(Empire game, int playerId, ImperionGameNode decision);
+    }
+
+    public int getNumberOfPlayers() {
+        return fixture.getNumberOfPlayers();
+    }
+
+    /**
+     * Plays the match with the weights of each player and returns the score of each player
+     * The winner scores 1 and the others 0, players with the same result share the score
+     */
+    public double[] play(HeuristicWeights[] weightsByPlayer) {
+        return play(weightsByPlayer, null);
+    }
+
+    /**
+     * Like play(), listener (may be null) receives the state and the decision of each player after its decision
+     */
+    public double[] play(HeuristicWeights[] weightsByPlayer, DecisionListener listener) {
+        var game = (Empire) fixture.copy();
+        var numberOfPlayers = game.getNumberOfPlayers();
+
+        var units = new UnitIndex();
+        var players = new Player[numberOfPlayers];
+        for (int pid = 0; pid < numberOfPlayers; pid++) {
+            // Nodes of the same value are not ordered any further, the match state is the same for all of them
+            var treeSearch = new MCTS(pid, log, weightsByPlayer[pid], null, (g1, g2) -> 0, searchPool, new CpuBudget(DECISION_PACE_MS));
+            var commandQueues = new CommandQueue[numberOfPlayers];
+            for (int i = 0; i < numberOfPlayers; i++) commandQueues[i] = new CommandQueue(units);
+            players[pid] = new Player(pid, treeSearch, commandQueues);
+        }
+
+        for (int decision = 0; decision < maxDecisions && !game.isGameOver(); decision++) {
+            // All players decide on the same state, like they would on the server
+            var actions = new ArrayList<List<EmpireEvent>>(Collections.nCopies(numberOfPlayers, null));
+            for (int pid = 0; pid < numberOfPlayers; pid++) {
+                try {
+                    var bestNode = decide(players[pid], game, units);
+                    if (bestNode == null) continue;
+                    actions.set(pid, bestNode.getActionsTaken());
+                    if (listener != null) listener.decided(game, pid, bestNode);
+                } catch (Exception e) {
+                    // Like the agent, a failed decision sends nothing
+                    log.warn("Decision " + decision + " of player " + pid + " failed: " + e);
+                    log.printStackTrace(e);
+                }
+            }
+
+            try {
+                var gameTime = game.getGameClock().getGameTimeMs();
+                for (int pid = 0; pid < numberOfPlayers; pid++) {
+                    if (actions.get(pid) == null) continue;
+                    for (var action : actions.get(pid))
+                        if (game.isValidAction(action, pid))
+                            game.scheduleActionEvent(new GameActionEvent<>(pid, action, gameTime + 1));
+                }
+                game.advance(DECISION_PACE_MS);
+            } catch (Exception e) {
+                // The match can not continue, score the state it reached
+                log.warn("Match stopped after decision " + decision + ": " + e);
+                break;
+            }
+        }
+
+        return score(game);
+    }
+
+    /**
+     * Searches the decision of player on a copy of game, like Imperion does on the state of the server
+     * The command queues and the order of the decided child are kept for the next decisions of player
+     */
+    private ImperionGameNode decide(Player player, Empire game, UnitIndex units) {
+        var root = (Empire) game.copy();
+        var treeSearch = player.treeSearch;
+
+        if (player.influenceMap == null) player.influenceMap = InfluenceMap.of(root); else player.influenceMap.update(root);
+        treeSearch.getHeuristics().resetHeuristics(player.influenceMap.toFeatures());
+
+        if (player.terrain == null) player.terrain = TerrainIndex.of(root); else player.terrain.update(root);
+        if (player.pathfinder == null) player.pathfinder = Imperion.createPathfinder(player.terrain); else player.pathfinder.update();
+
+        player.orderBook.update(root, player.commandQueues[player.playerId], player.pathfinder);
+        var context = new SearchContext(units.indicesOfIds(player.orderBook.getUnitsWithOrders()), player.terrain, player.pathfinder, player.influenceMap, null);
+
+        var gameStateTree = new DoubleLinkedTree<>(new ImperionGameNode(root, player.playerId, null, player.commandQueues, null, context));
+        for (int i = 0; i < iterationsPerDecision; i++) {
+            var bestLeaf = treeSearch.selection(gameStateTree);
+            var expandedLeaf = treeSearch.expansion(bestLeaf);
+            treeSearch.backPropagation(expandedLeaf, treeSearch.simulation(expandedLeaf, Long.MAX_VALUE));
+        }
+
+        if (gameStateTree.getChildren().isEmpty()) return null;
+        var bestNode = Collections.max(gameStateTree.getChildren(), treeSearch.getTreeMoveComparator()).getNode();
+
+        player.commandQueues = bestNode.copyCommandQueues();
+        var plannedOrder = gameStateTree.getNode().getPlannedOrder(bestNode.getMacroAction());
+        if (plannedOrder != null) player.orderBook.assign(plannedOrder);
+        return bestNode;
+    }
+
+    /**
+     * Scores by the utility of a finished game, otherwise by a fixed evaluation which does not depend on any heuristic
+     * weights: the occupied cities of a player, ties are broken by the share of the health of all units it has left
+     */
+    private static double[] score(Empire game) {
+        var numberOfPlayers = game.getNumberOfPlayers();
+        var values = new double[numberOfPlayers];
+        if (game.isGameOver()) {
+            values = game.getGameUtilityValue();
+        } else {
+            var features = HeuristicFeatures.of(game);
+            double totalHealth = 0;
+            for (int pid = 0; pid < numberOfPlayers; pid++) totalHealth += features.getTotalHealth(pid);
+            for (int pid = 0; pid < numberOfPlayers; pid++)
+                values[pid] = features.getCityCount(pid) + features.getTotalHealth(pid) / (1 + totalHealth);
+        }
+
+        double best = Double.NEGATIVE_INFINITY;
+        for (var value : values) best = Math.max(best, value);
+
+        int winners = 0;
+        for (var value : values) if (value == best) winners++;
+
+        var scores = new double[numberOfPlayers];
+        for (int pid = 0; pid < numberOfPlayers; pid++) if (values[pid] == best) scores[pid] = 1.0 / winners;
+        return scores;
+    }
+}
@@ -0,0 +1,291 @@
+package at.ac.tuwien.ifs.sge.agent.util.Tuning;
+
+import at.ac.tuwien.ifs.sge.agent.util.CommandQueue;
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicFeatures;
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicWeights;
+import at.ac.tuwien.ifs.sge.agent.util.Heuristics;
+import at.ac.tuwien.ifs.sge.agent.util.OpponentModel;
+import at.ac.tuwien.ifs.sge.agent.util.RolloutSimulator;
+import at.ac.tuwien.ifs.sge.agent.util.SearchPool;
+import at.ac.tuwien.ifs.sge.agent.util.ValueFunction;
+import at.ac.tuwien.ifs.sge.agent.util.WarmUp;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Offline training of the ValueFunction in two stages
+ *
+ * record plays self-play matches on a recorded game (fixture). After every decision of a player a full rollout of the
+ * command queues the player planned is run, like MCTS.simulation() would run it. Every state of the rollout is written
+ * to the samples file as one row per player: the features of the state and, as target, the heuristic value of the
+ * player at the end of the rollout. Rollouts which end the game are skipped, MCTS does not evaluate them heuristically.
+ *
+ * fit reads the samples file and fits the weights by ridge regression (least squares with a small penalty on all
+ * weights but the bias), every HOLDOUT-th row is held out to report the error of the fitted value function next to
+ * the error of the plain heuristic value of the cut off state. The value function file is what the agent loads
+ * (system property imperion.valueFunction). Both stages have to use the same heuristic weights (imperion.weights),
+ * record writes them to the samples file and fit copies them to the value function.
+ *
+ * Usage: ValueFunctionTrainer record fixture samples [matches]
+ *        ValueFunctionTrainer fit samples valueFunction
+ */
+public class ValueFunctionTrainer {
+
+    private static final int DEFAULT_MATCHES = 2 * Runtime.getRuntime().availableProcessors();
+    private static final int ITERATIONS_PER_DECISION = Integer.getInteger("imperion.tuner.iterationsPerDecision", 200);
+    private static final int MAX_DECISIONS = Integer.getInteger("imperion.tuner.maxDecisions", 100);
+    private static final long SEED = Long.getLong("imperion.tuner.seed", 42);
+
+    // Penalty of the ridge regression relative to the number of samples
+    private static final double RIDGE = Double.parseDouble(System.getProperty("imperion.trainer.ridge", "1e-4"));
+    private static final int HOLDOUT = 10;
+
+    private static final String WEIGHTS_HEADER = "# heuristicWeights=";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 3 && args[0].equals("record")) {
+            var fixture = WarmUp.loadFixture(Path.of(args[1]));
+            var matches = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_MATCHES;
+            record(fixture, Path.of(args[2]), matches, HeuristicWeights.loadConfigured());
+        } else if (args.length >= 3 && args[0].equals("fit")) {
+            var valueFunction = fit(Path.of(args[1]));
+            valueFunction.save(Path.of(args[2]), "Fitted by ValueFunctionTrainer on " + args[1]);
+            System.out.println(valueFunction);
+        } else {
+            System.err.println("Usage: ValueFunctionTrainer record fixture samples [matches]");
+            System.err.println("       ValueFunctionTrainer fit samples valueFunction");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Plays matches in parallel on all cores and writes the samples of their rollouts to samples
+     */
+    public static void record(Empire fixture, Path samples, int matches, HeuristicWeights weights) throws IOException, InterruptedException, ExecutionException {
+        var match = new SelfPlayMatch(fixture, ITERATIONS_PER_DECISION, MAX_DECISIONS, new SearchPool(1));
+        var executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            var thread = new Thread(runnable, "imperion-trainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (var out = Files.newBufferedWriter(samples)) {
+            out.write(WEIGHTS_HEADER + joined(weights.toArray()));
+            out.newLine();
+            out.write(String.join(",", ValueFunction.featureNames()) + ",target");
+            out.newLine();
+
+            var results = new ArrayList<Future<Integer>>();
+            for (int m = 0; m < matches; m++) {
+                var random = new Random(SEED + m);
+                results.add(executor.submit(() -> {
+                    var simulator = new RolloutSimulator(OpponentModel.configured());
+                    var weightsByPlayer = new HeuristicWeights[match.getNumberOfPlayers()];
+                    Arrays.fill(weightsByPlayer, weights);
+
+                    int[] rows = {0};
+                    match.play(weightsByPlayer, (game, playerId, decision) ->
+                            rows[0] += recordRollout(simulator, game, playerId, decision.getCommandQueues(), weights, random, out));
+                    return rows[0];
+                }));
+            }
+
+            long rows = 0;
+            for (int m = 0; m < results.size(); m++) {
+                rows += results.get(m).get();
+                System.out.println("Recorded match " + (m + 1) + "/" + matches + ", " + rows + " samples");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs a full rollout from game with the command queues playerId planned and writes a sample per state and player
+     * Returns the number of written samples
+     */
+    private static int recordRollout(RolloutSimulator simulator, Empire game, int playerId, CommandQueue[] commandQueues, HeuristicWeights weights, Random random, BufferedWriter out) {
+        var rollout = (Empire) game.copy();
+        var queues = new CommandQueue[commandQueues.length];
+        for (int i = 0; i < queues.length; i++) queues[i] = new CommandQueue(commandQueues[i]);
+
+        // The rollout is run step by step, like RolloutSimulator.simulate() runs it, to read the features of every state
+        var states = new ArrayList<HeuristicFeatures>();
+        states.add(HeuristicFeatures.of(rollout));
+        var playerToTurn = playerId;
+        while (states.size() <= RolloutSimulator.DEFAULT_SIMULATION_DEPTH + 1) {
+            if (simulator.simulate(rollout, queues, playerToTurn, Long.MAX_VALUE, random, null, 1) == 0) break;
+            playerToTurn = simulator.getOpponentModel().nextPlayer(playerToTurn, rollout.getNumberOfPlayers());
+            states.add(HeuristicFeatures.of(rollout));
+        }
+        if (rollout.isGameOver()) return 0;
+
+        var end = states.get(states.size() - 1);
+        var features = new double[ValueFunction.NUMBER_OF_FEATURES];
+        var rows = new StringBuilder();
+        int count = 0;
+        for (int steps = 0; steps < states.size(); steps++) {
+            for (int pid = 0; pid < end.getNumberOfPlayers(); pid++) {
+                ValueFunction.features(states.get(steps), pid, steps, features);
+                rows.append(joined(features)).append(',').append(Heuristics.determineHeuristicValue(end, pid, weights)).append(System.lineSeparator());
+                count++;
+            }
+        }
+
+        // Rows of one rollout are written at once, matches record in parallel
+        synchronized (out) {
+            try {
+                out.write(rows.toString());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fits the value function to the samples written by record()
+     */
+    public static ValueFunction fit(Path samples) throws IOException {
+        int n = ValueFunction.NUMBER_OF_FEATURES;
+        var normal = new double[n][n];
+        var moments = new double[n];
+        var holdout = new ArrayList<double[]>();
+        HeuristicWeights weights = null;
+        long training = 0;
+
+        try (var lines = Files.lines(samples)) {
+            var iterator = lines.iterator();
+            long row = 0;
+            while (iterator.hasNext()) {
+                var line = iterator.next();
+                if (line.startsWith(WEIGHTS_HEADER)) {
+                    weights = HeuristicWeights.fromArray(parse(line.substring(WEIGHTS_HEADER.length())));
+                    continue;
+                }
+                if (line.isBlank() || !Character.isDigit(line.charAt(0)) && line.charAt(0) != '-') continue;
+
+                var sample = parse(line);
+                if (row++ % HOLDOUT == 0) {
+                    holdout.add(sample);
+                    continue;
+                }
+
+                // Accumulates X^T X and X^T y, so the samples do not have to fit into memory
+                for (int i = 0; i < n; i++) {
+                    moments[i] += sample[i] * sample[n];
+                    for (int j = 0; j < n; j++) normal[i][j] += sample[i] * sample[j];
+                }
+                training++;
+            }
+        }
+
+        if (weights == null) throw new IOException("Samples file " + samples + " has no heuristic weights");
+        if (training == 0) throw new IOException("Samples file " + samples + " has no samples");
+
+        // The bias is not penalized
+        for (int i = 1; i < n; i++) normal[i][i] += RIDGE * training;
+        var valueFunction = new ValueFunction(solve(normal, moments), weights);
+
+        report(valueFunction, weights, holdout, training);
+        return valueFunction;
+    }
+
+    /**
+     * Prints the root mean squared error on the held out samples of the value function and of the plain heuristic
+     * value of the cut off state, which is what a cut off rollout would be evaluated with without a value function
+     */
+    private static void report(ValueFunction valueFunction, HeuristicWeights weights, ArrayList<double[]> holdout, long training) {
+        int n = ValueFunction.NUMBER_OF_FEATURES;
+
+        // The heuristic value is linear in the features occupation, units, discovery and fight
+        var heuristic = new double[n];
+        heuristic[1] = weights.occupation();
+        heuristic[2] = weights.units();
+        heuristic[3] = weights.discovery();
+        heuristic[4] = weights.fight();
+
+        var fitted = valueFunction.getWeights();
+        double valueError = 0, heuristicError = 0;
+        for (var sample : holdout) {
+            valueError += Math.pow(dot(fitted, sample) - sample[n], 2);
+            heuristicError += Math.pow(dot(heuristic, sample) - sample[n], 2);
+        }
+
+        int count = Math.max(1, holdout.size());
+        System.out.println("Fitted on " + training + " samples, held out " + holdout.size()
+                + ", rmse " + Math.sqrt(valueError / count)
+                + ", rmse of the heuristic value " + Math.sqrt(heuristicError / count));
+    }
+
+    /**
+     * Solves a x = b by Gaussian elimination with partial pivoting, a and b are modified
+     */
+    static double[] solve(double[][] a, double[] b) {
+        int n = b.length;
+        for (int column = 0; column < n; column++) {
+            int pivot = column;
+            for (int row = column + 1; row < n; row++)
+                if (Math.abs(a[row][column]) > Math.abs(a[pivot][column])) pivot = row;
+
+            var swap = a[column];
+            a[column] = a[pivot];
+            a[pivot] = swap;
+            var swapB = b[column];
+            b[column] = b[pivot];
+            b[pivot] = swapB;
+
+            // A feature which never varies gets weight 0
+            if (Math.abs(a[column][column]) < 1e-12) continue;
+
+            for (int row = column + 1; row < n; row++) {
+                double factor = a[row][column] / a[column][column];
+                if (factor == 0) continue;
+                for (int k = column; k < n; k++) a[row][k] -= factor * a[column][k];
+                b[row] -= factor * b[column];
+            }
+        }
+
+        var x = new double[n];
+        for (int row = n - 1; row >= 0; row--) {
+            if (Math.abs(a[row][row]) < 1e-12) continue;
+            double sum = b[row];
+            for (int k = row + 1; k < n; k++) sum -= a[row][k] * x[k];
+            x[row] = sum / a[row][row];
+        }
+        return x;
+    }
+
+    private static double dot(double[] weights, double[] sample) {
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) sum += weights[i] * sample[i];
+        return sum;
+    }
+
+    private static double[] parse(String line) {
+        var values = line.split(",");
+        var parsed = new double[values.length];
+        for (int i = 0; i < values.length; i++) parsed[i] = Double.parseDouble(values[i].trim());
+        return parsed;
+    }
+
+    private static String joined(double[] values) {
+        var builder = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(values[i]);
+        }
+        return builder.toString();
+    }
+}
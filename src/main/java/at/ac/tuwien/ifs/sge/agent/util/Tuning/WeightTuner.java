@@ -0,0 +1,239 @@
+package at.ac.tuwien.ifs.sge.agent.util.Tuning;
+
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicWeights;
+import at.ac.tuwien.ifs.sge.agent.util.SearchPool;
+import at.ac.tuwien.ifs.sge.agent.util.WarmUp;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tunes the HeuristicWeights by self-play with SPSA (simultaneous perturbation stochastic approximation)
+ *
+ * Each iteration perturbs all weights at once in a random direction, plays matches of the weights perturbed in
+ * that direction against the weights perturbed in the opposite direction and moves the weights towards the side
+ * which won more matches. Weights are tuned in log space, so all of them move relative to their size.
+ * The matches of an iteration are played in parallel on all cores.
+ *
+ * After every iteration the state of the tuner is written to the checkpoint file, from which an interrupted tuning
+ * is resumed. Every EVALUATION_INTERVAL iterations the current weights play against the default weights, the
+ * weights with the best score so far are written to the weights file, which the agent loads at startup
+ * (system property imperion.weights).
+ *
+ * Usage: WeightTuner fixture checkpoint weights [iterations]
+ */
+public class WeightTuner {
+
+    // SPSA gain sequences a_k = A / (k + 1 + STABILITY)^ALPHA and c_k = C / (k + 1)^GAMMA
+    private static final double A = 0.2;
+    private static final double C = 0.2;
+    private static final double STABILITY = 5;
+    private static final double ALPHA = 0.602;
+    private static final double GAMMA = 0.101;
+
+    // Largest change of a log weight in one iteration, so a lucky iteration can not throw the weights off
+    private static final double MAX_STEP = 0.25;
+
+    private static final int DEFAULT_ITERATIONS = 200;
+    private static final int EVALUATION_INTERVAL = 10;
+
+    private static final int MATCHES_PER_ITERATION = Integer.getInteger("imperion.tuner.matches", 2 * Runtime.getRuntime().availableProcessors());
+    private static final int ITERATIONS_PER_DECISION = Integer.getInteger("imperion.tuner.iterationsPerDecision", 200);
+    private static final int MAX_DECISIONS = Integer.getInteger("imperion.tuner.maxDecisions", 100);
+    private static final long SEED = Long.getLong("imperion.tuner.seed", 42);
+
+    private final SelfPlayMatch match;
+    private final ExecutorService matches;
+    private final SearchPool searchPool = new SearchPool(1);
+
+    private final Path checkpointPath;
+    private final Path weightsPath;
+
+    // State which is checkpointed
+    private int iteration = 0;
+    private double[] theta = log(HeuristicWeights.DEFAULT.toArray());
+    private HeuristicWeights best = HeuristicWeights.DEFAULT;
+    private double bestScore = 0.5;
+
+    public WeightTuner(Empire fixture, Path checkpointPath, Path weightsPath, int threads) {
+        this.match = new SelfPlayMatch(fixture, ITERATIONS_PER_DECISION, MAX_DECISIONS, searchPool);
+        this.matches = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "imperion-tuner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.checkpointPath = checkpointPath;
+        this.weightsPath = weightsPath;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: WeightTuner fixture checkpoint weights [iterations]");
+            System.exit(1);
+        }
+
+        var fixture = WarmUp.loadFixture(Path.of(args[0]));
+        var iterations = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_ITERATIONS;
+
+        var tuner = new WeightTuner(fixture, Path.of(args[1]), Path.of(args[2]), Runtime.getRuntime().availableProcessors());
+        tuner.loadCheckpoint();
+        tuner.run(iterations);
+        tuner.shutdown();
+    }
+
+    public void run(int iterations) throws IOException, InterruptedException, ExecutionException {
+        while (iteration < iterations) {
+            step();
+            iteration++;
+
+            if (iteration % EVALUATION_INTERVAL == 0 || iteration == iterations) evaluate();
+            saveCheckpoint();
+            System.out.println(this);
+        }
+    }
+
+    /**
+     * One SPSA iteration
+     */
+    private void step() throws InterruptedException, ExecutionException {
+        // Each iteration has its own random stream, so a resumed tuning perturbs like an uninterrupted one
+        var random = new Random(SEED + iteration);
+
+        double a = A / Math.pow(iteration + 1 + STABILITY, ALPHA);
+        double c = C / Math.pow(iteration + 1, GAMMA);
+
+        var delta = new double[theta.length];
+        var plus = new double[theta.length];
+        var minus = new double[theta.length];
+        for (int i = 0; i < theta.length; i++) {
+            delta[i] = random.nextBoolean() ? 1 : -1;
+            plus[i] = theta[i] + c * delta[i];
+            minus[i] = theta[i] - c * delta[i];
+        }
+
+        // Score of plus against minus from 0 to 1
+        double score = playMatches(HeuristicWeights.fromArray(exp(plus)), HeuristicWeights.fromArray(exp(minus)));
+
+        // score(plus) - score(minus) = 2 * score - 1
+        for (int i = 0; i < theta.length; i++) {
+            double gradient = (2 * score - 1) / (2 * c * delta[i]);
+            theta[i] += Math.max(-MAX_STEP, Math.min(MAX_STEP, a * gradient));
+        }
+    }
+
+    /**
+     * Plays the current weights against the default weights and keeps them if they scored best so far
+     */
+    private void evaluate() throws IOException, InterruptedException, ExecutionException {
+        var current = HeuristicWeights.fromArray(exp(theta));
+        double score = playMatches(current, HeuristicWeights.DEFAULT);
+        System.out.println("Evaluation of " + current + " against default weights: " + score);
+
+        if (score > bestScore || !Files.exists(weightsPath)) {
+            if (score > bestScore) {
+                best = current;
+                bestScore = score;
+            }
+            best.save(weightsPath, "Tuned by WeightTuner in " + iteration + " iterations, score against default weights " + bestScore);
+        }
+    }
+
+    /**
+     * Plays MATCHES_PER_ITERATION matches in parallel, the players alternate between first and second
+     * Returns the average score of first
+     */
+    private double playMatches(HeuristicWeights first, HeuristicWeights second) throws InterruptedException, ExecutionException {
+        var results = new ArrayList<Future<Double>>();
+        for (int m = 0; m < MATCHES_PER_ITERATION; m++) {
+            int side = m % 2;
+            results.add(matches.submit(() -> {
+                var numberOfPlayers = match.getNumberOfPlayers();
+                var weightsByPlayer = new HeuristicWeights[numberOfPlayers];
+                for (int pid = 0; pid < numberOfPlayers; pid++) weightsByPlayer[pid] = (pid + side) % 2 == 0 ? first : second;
+
+                var scores = match.play(weightsByPlayer);
+
+                double score = 0;
+                double total = 0;
+                for (int pid = 0; pid < numberOfPlayers; pid++) {
+                    if ((pid + side) % 2 == 0) score += scores[pid];
+                    total += scores[pid];
+                }
+                return total == 0 ? 0.5 : score / total;
+            }));
+        }
+
+        double sum = 0;
+        for (var result : results) sum += result.get();
+        return sum / results.size();
+    }
+
+    /**
+     * Resumes from the checkpoint file, if it exists
+     */
+    public void loadCheckpoint() throws IOException {
+        if (!Files.exists(checkpointPath)) return;
+
+        var properties = new Properties();
+        try (var in = Files.newBufferedReader(checkpointPath)) {
+            properties.load(in);
+        }
+        iteration = Integer.parseInt(properties.getProperty("iteration"));
+        theta = log(HeuristicWeights.fromProperties(properties, "theta.").toArray());
+        best = HeuristicWeights.fromProperties(properties, "best.");
+        bestScore = Double.parseDouble(properties.getProperty("bestScore"));
+        System.out.println("Resumed " + this);
+    }
+
+    private void saveCheckpoint() throws IOException {
+        var properties = new Properties();
+        properties.setProperty("iteration", Integer.toString(iteration));
+        HeuristicWeights.fromArray(exp(theta)).toProperties(properties, "theta.");
+        best.toProperties(properties, "best.");
+        properties.setProperty("bestScore", Double.toString(bestScore));
+
+        // Written to a temporary file first, so an interrupted write does not destroy the checkpoint
+        var temporary = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+        try (var out = Files.newBufferedWriter(temporary)) {
+            properties.store(out, "WeightTuner checkpoint");
+        }
+        Files.move(temporary, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void shutdown() {
+        matches.shutdownNow();
+        searchPool.shutdown();
+    }
+
+    private static double[] log(double[] values) {
+        var result = new double[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = Math.log(Math.max(values[i], 1e-6));
+        return result;
+    }
+
+    private static double[] exp(double[] values) {
+        var result = new double[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = Math.exp(values[i]);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "WeightTuner{" +
+                "iteration=" + iteration +
+                ", weights=" + HeuristicWeights.fromArray(exp(theta)) +
+                ", best=" + best +
+                ", bestScore=" + bestScore +
+                '}';
+    }
+}
@@ -0,0 +1,110 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interning table which assigns each unit of a match a dense int index in the order the units are first seen
+ *
+ * Indices are never reused, so an index stays valid for the whole match. Lookups and interning of known units are
+ * lock-free, only interning a new unit is synchronized, so one table can be shared by all searches and rollouts of a
+ * match without the threads queueing on it for every queued action.
+ * Per-unit state can then be kept in arrays and sets of units in BitSets indexed by the unit index.
+ */
+public class UnitIndex implements Serializable {
+
+    private final Map<UUID, Integer> indices = new ConcurrentHashMap<>();
+    private volatile UUID[] ids = new UUID[64];
+    private volatile int size = 0;
+
+    /**
+     * Returns the index of unitId, assigns the next free index if the unit was not seen before
+     */
+    public int intern(UUID unitId) {
+        var known = indices.get(unitId);
+        if (known != null) return known;
+
+        synchronized (this) {
+            var interned = indices.get(unitId);
+            if (interned != null) return interned;
+
+            // The id is published before the index, so a thread which finds the index also finds the id
+            if (size == ids.length) ids = Arrays.copyOf(ids, ids.length * 2);
+            ids[size] = unitId;
+            var index = size++;
+            indices.put(unitId, index);
+            return index;
+        }
+    }
+
+    /**
+     * Returns the index of unitId or -1 if the unit was never interned
+     */
+    public int indexOf(UUID unitId) {
+        return indices.getOrDefault(unitId, -1);
+    }
+
+    /**
+     * Returns the units by their index, units which are not in units are null
+     */
+    public EmpireUnit[] byIndex(Collection<EmpireUnit> units) {
+        var byIndex = new EmpireUnit[0];
+        for (var unit : units) {
+            var index = intern(unit.getId());
+            if (index >= byIndex.length) byIndex = Arrays.copyOf(byIndex, Math.max(index + 1, size));
+            byIndex[index] = unit;
+        }
+        return byIndex;
+    }
+
+    /**
+     * Returns the indices of units
+     */
+    public BitSet indicesOf(Collection<EmpireUnit> units) {
+        var indices = new BitSet(size);
+        for (var unit : units) indices.set(intern(unit.getId()));
+        return indices;
+    }
+
+    /**
+     * Returns the indices of the units which were interned before, without interning the others
+     */
+    public BitSet knownIndicesOf(Collection<EmpireUnit> units) {
+        var indices = new BitSet(size);
+        for (var unit : units) {
+            var index = indexOf(unit.getId());
+            if (index >= 0) indices.set(index);
+        }
+        return indices;
+    }
+
+    /**
+     * Returns the indices of the units with unitIds
+     */
+    public BitSet indicesOfIds(Collection<UUID> unitIds) {
+        var indices = new BitSet(size);
+        for (var unitId : unitIds) indices.set(intern(unitId));
+        return indices;
+    }
+
+    public UUID getUnitId(int index) {
+        // size is read first, so the array contains all units up to size
+        var size = this.size;
+        var ids = this.ids;
+        return index >= 0 && index < size ? ids[index] : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "UnitIndex{" +
+                "size=" + size +
+                '}';
+    }
+}
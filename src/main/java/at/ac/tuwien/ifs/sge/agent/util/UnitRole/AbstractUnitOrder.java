@@ -1,2 +0,0 @@
-package at.ac.tuwien.ifs.sge.agent.util.UnitRole;public class AbstractUnitOrder {
-}
@@ -1,2 +1,39 @@
-package at.ac.tuwien.ifs.sge.agent.util.UnitRole;public class ConquerUnitOrder {
+package at.ac.tuwien.ifs.sge.agent.util.UnitRole;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Unit moves next to an enemy city to attack it
+ */
+public class ConquerUnitOrder extends UnitOrder {
+
+    private final Position cityPosition;
+
+    public ConquerUnitOrder(UUID unitId, Position cityPosition, Position destination, Position origin, List<Position> path) {
+        super(unitId, destination, OrderType.CONQUER, origin, path);
+        this.cityPosition = cityPosition;
+    }
+
+    @Override
+    public boolean isFulfilled(Empire game, EmpireUnit unit, int playerId) {
+        return unit.getPosition().equals(getDestination());
+    }
+
+    /**
+     * The order is obsolete if the city is not held by an enemy anymore
+     */
+    @Override
+    public boolean isObsolete(Empire game, int playerId) {
+        var city = game.getCitiesByPosition().get(cityPosition);
+        return city == null || !city.isOccupied() || city.getPlayerId() == playerId;
+    }
+
+    public Position getCityPosition() {
+        return cityPosition;
+    }
 }
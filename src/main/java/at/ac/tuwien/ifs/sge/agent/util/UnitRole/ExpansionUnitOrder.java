@@ -1,2 +1,32 @@
-package at.ac.tuwien.ifs.sge.agent.util.UnitRole;public class ExpansionUnitOrder {
+package at.ac.tuwien.ifs.sge.agent.util.UnitRole;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Unit moves onto an unoccupied city to occupy it
+ */
+public class ExpansionUnitOrder extends UnitOrder {
+
+    public ExpansionUnitOrder(UUID unitId, Position cityPosition, Position origin, List<Position> path) {
+        super(unitId, cityPosition, OrderType.EXPANSION, origin, path);
+    }
+
+    @Override
+    public boolean isFulfilled(Empire game, EmpireUnit unit, int playerId) {
+        return unit.getPosition().equals(getDestination());
+    }
+
+    /**
+     * The order is obsolete if the city was occupied in the meantime
+     */
+    @Override
+    public boolean isObsolete(Empire game, int playerId) {
+        var city = game.getCitiesByPosition().get(getDestination());
+        return city != null && city.isOccupied();
+    }
 }
@@ -1,2 +1,32 @@
-package at.ac.tuwien.ifs.sge.agent.util.UnitRole;public class MoveUnitOrder {
+package at.ac.tuwien.ifs.sge.agent.util.UnitRole;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Unit moves towards an undiscovered position to explore the map
+ */
+public class MoveUnitOrder extends UnitOrder {
+
+    public MoveUnitOrder(UUID unitId, Position destination, Position origin, List<Position> path) {
+        super(unitId, destination, OrderType.MOVE, origin, path);
+    }
+
+    @Override
+    public boolean isFulfilled(Empire game, EmpireUnit unit, int playerId) {
+        return unit.getPosition().equals(getDestination()) || isObsolete(game, playerId);
+    }
+
+    /**
+     * The order is obsolete as soon as the destination is discovered
+     */
+    @Override
+    public boolean isObsolete(Empire game, int playerId) {
+        var discovered = game.getBoard().getDiscoveredByPosition().get(getDestination());
+        return discovered != null && discovered[playerId];
+    }
 }
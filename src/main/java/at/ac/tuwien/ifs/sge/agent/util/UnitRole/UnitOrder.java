@@ -1,17 +1,123 @@
 package at.ac.tuwien.ifs.sge.agent.util.UnitRole;
 
+import at.ac.tuwien.ifs.sge.agent.util.BFS;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
 import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * Each unit is assigned a order which the unit tries to fulfill
+ * The order keeps the remaining path to its destination, so the path does not have to be searched again every decision
  */
-public class UnitOrder {
-    private Position destination;
+public abstract class UnitOrder {
+
+    // Steps a unit can walk between two updates of its order, one decision apart
+    public static final int MAX_STEPS_BETWEEN_UPDATES = 3;
+
+    private final UUID unitId;
+
+    private final Position destination;
 
-    private OrderType orderType;
+    private final OrderType orderType;
 
-    public UnitOrder(Position destination, OrderType orderType) {
+    // Position of the unit where the remaining path starts
+    private Position origin;
+
+    // Remaining positions to the destination, including undiscovered tiles
+    private final ArrayDeque<Position> path;
+
+    public UnitOrder(UUID unitId, Position destination, OrderType orderType, Position origin, List<Position> path) {
+        this.unitId = unitId;
         this.destination = destination;
         this.orderType = orderType;
+        this.origin = origin;
+        this.path = new ArrayDeque<>(path);
+    }
+
+    /**
+     * Returns true if the unit accomplished its order
+     */
+    public abstract boolean isFulfilled(Empire game, EmpireUnit unit, int playerId);
+
+    /**
+     * Returns true if the goal of the order does no longer make sense (e.g. city was occupied by someone else)
+     */
+    public abstract boolean isObsolete(Empire game, int playerId);
+
+    /**
+     * Removes the part of the path the unit already walked
+     * Returns false if the unit is not on one of the next MAX_STEPS_BETWEEN_UPDATES steps of its path, e.g. it was
+     * pushed aside, jumped ahead or walked back, then the path has to be searched again
+     */
+    public boolean advanceTo(Position position) {
+        if (position.equals(origin)) return true;
+
+        int steps = 0;
+        var iterator = path.iterator();
+        while (iterator.hasNext() && steps < MAX_STEPS_BETWEEN_UPDATES) {
+            steps++;
+            if (!iterator.next().equals(position)) continue;
+
+            for (int i = 0; i < steps; i++) path.pollFirst();
+            origin = position;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns false if the path is blocked or a revealed tile made it invalid
+     * Only the next step is checked for occupancy, since units on tiles further away may have moved on until then
+     */
+    public boolean isPathValid(Empire game, int playerId) {
+        var tiles = game.getBoard().getEmpireTiles();
+        boolean nextStep = true;
+
+        for (var position : path) {
+            var tile = tiles[position.getY()][position.getX()];
+            if (tile != null) {
+                if (tile.getMapIdentifier() == 'm' || tile.getMaxOccupants() == 0) return false;
+                if (tile.getPlayerId() != playerId && tile.getPlayerId() != -1) return false;
+                if (nextStep && !BFS.isPassable(tile, playerId)) return false;
+            }
+            nextStep = false;
+        }
+
+        return true;
+    }
+
+    public void setPath(Position origin, List<Position> path) {
+        this.origin = origin;
+        this.path.clear();
+        this.path.addAll(path);
+    }
+
+    public ArrayDeque<Position> getPath() {
+        return path;
+    }
+
+    public UUID getUnitId() {
+        return unitId;
+    }
+
+    public Position getDestination() {
+        return destination;
+    }
+
+    public OrderType getOrderType() {
+        return orderType;
+    }
+
+    @Override
+    public String toString() {
+        return orderType + "{" +
+                "unitId=" + unitId +
+                ", destination=" + destination +
+                ", remainingPath=" + path.size() +
+                '}';
     }
 }
@@ -1,122 +1,110 @@
-package at.ac.tuwien.ifs.sge.agent.util;
-
-import at.ac.tuwien.ifs.sge.agent.Imperion;
-import at.ac.tuwien.ifs.sge.agent.util.MacroAction.*;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.CombatStartOrder;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.MovementStartOrder;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.ProductionStartOrder;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.MovementStopOrder;
-import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.ProductionStopOrder;
-import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+package at.ac.tuwien.ifs.sge.agent.util.UnitRole;
+
+import at.ac.tuwien.ifs.sge.agent.util.CommandQueue;
+import at.ac.tuwien.ifs.sge.agent.util.Pathfinder;
+import at.ac.tuwien.ifs.sge.core.engine.logging.Logger;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
 import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
-public class CommandQueue {
-    private Map<UUID, ArrayDeque<EmpireEvent>> unitCommandQueue;
-    private Map<Position, ArrayDeque<EmpireEvent>> cityCommandQueue;
+/**
+ * Keeps the assigned order of each unit of the agent across decisions
+ *
+ * At the start of each decision the orders are checked against the current game. Fulfilled or obsolete orders are
+ * removed and paths are only searched again if they are blocked or a revealed tile made them invalid.
+ * Idle units with an order get the next visible steps of their path added to their command queue.
+ */
+public class UnitOrderBook {
 
-    // This lets the MCTS do nothing
-    public boolean doNothing = false;
+    private final int playerId;
 
-    public CommandQueue(Map<UUID, ArrayDeque<EmpireEvent>> unitCommandQueue, Map<Position, ArrayDeque<EmpireEvent>> cityCommandQueue) {
-        this.unitCommandQueue = unitCommandQueue;
-        this.cityCommandQueue = cityCommandQueue;
-    }
+    private final Logger log;
 
-    public CommandQueue(CommandQueue commandQueue){
-        this.unitCommandQueue = new HashMap<>();
-        for (var command: commandQueue.unitCommandQueue.entrySet()){
-            this.unitCommandQueue.put(command.getKey(), new ArrayDeque<>(command.getValue()));
-        }
+    private final Map<UUID, UnitOrder> orders = new HashMap<>();
 
-        this.cityCommandQueue = new HashMap<>();
-        for (var command: commandQueue.cityCommandQueue.entrySet()){
-            this.cityCommandQueue.put(command.getKey(), new ArrayDeque<>(command.getValue()));
-        }
+    private int recomputedPaths = 0;
+    private int removedOrders = 0;
+
+    public UnitOrderBook(int playerId, Logger log) {
+        this.playerId = playerId;
+        this.log = log;
     }
 
-    public CommandQueue() {
-        unitCommandQueue = new HashMap<>();
-        cityCommandQueue = new HashMap<>();
+    public void assign(UnitOrder order) {
+        log.debug("Assign order " + order);
+        orders.put(order.getUnitId(), order);
     }
 
-    public boolean isEmpty(){
-        return (cityCommandQueue.values().stream().mapToInt(Collection::size).sum() + unitCommandQueue.values().stream().mapToInt(Collection::size).sum()) == 0;
+    public boolean hasOrder(UUID unitId) {
+        return orders.containsKey(unitId);
     }
 
-    private void addCityCommand(Position pos, EmpireEvent event){
-        var val = cityCommandQueue.getOrDefault(pos, new ArrayDeque<>());
-        val.add(event);
-        cityCommandQueue.put(pos, val);
+    public Set<UUID> getUnitsWithOrders() {
+        return Set.copyOf(orders.keySet());
     }
 
     /**
-     * Adds command to queue, if inFront is true, then command will be added in front of other commands in queue
+     * Updates all orders to the current game and schedules the next steps of idle units into commandQueue
      */
-    private void addUnitCommand(UUID uuid, EmpireEvent event, boolean inFront){
-        var val = unitCommandQueue.getOrDefault(uuid, new ArrayDeque<>());
-        if(inFront) val.addFirst(event); else val.add(event);
-        unitCommandQueue.put(uuid, val);
-    }
-
-
-    public void addCommand(EmpireEvent event, boolean inFront){
-        if(event instanceof ProductionStartOrder productionAction) addCityCommand(productionAction.getCityPosition(), productionAction);
-        else if(event instanceof ProductionStopOrder productionStopOrder) addCityCommand(productionStopOrder.getCityPosition(), productionStopOrder);
-        else if(event instanceof MovementStartOrder movementStartOrder) addUnitCommand(movementStartOrder.getUnitId(), movementStartOrder, inFront);
-        else if(event instanceof MovementStopOrder movementStopOrder) addUnitCommand(movementStopOrder.getUnitId(), movementStopOrder, inFront);
-        else if(event instanceof WaitEvent waitEvent) addCityCommand(waitEvent.getEmpireCityPosition(), waitEvent);
-        else if(event instanceof CombatStartOrder combatStartOrder) addUnitCommand(combatStartOrder.getAttackerId(), combatStartOrder, inFront);
-        else Imperion.logger.debug("Unknown event: " + event);
+    public void update(Empire game, CommandQueue commandQueue, Pathfinder pathfinder) {
+        var unitsById = new HashMap<UUID, EmpireUnit>();
+        for (var unit : game.getUnitsByPlayer(playerId)) unitsById.put(unit.getId(), unit);
+
+        var iterator = orders.values().iterator();
+        while (iterator.hasNext()) {
+            var order = iterator.next();
+            var unit = unitsById.get(order.getUnitId());
+
+            // Unit died, accomplished its order or the goal of the order is gone
+            if (unit == null || order.isFulfilled(game, unit, playerId) || order.isObsolete(game, playerId)) {
+                log.debug("Remove order " + order);
+                iterator.remove();
+                removedOrders++;
+                continue;
+            }
+
+            // Only search a new path, if the unit left its path, the path became invalid
+            // or the unit walked all of its path (e.g. only the beginning of a hierarchical path was refined)
+            if (!order.advanceTo(unit.getPosition()) || !order.isPathValid(game, playerId) || order.getPath().isEmpty()) {
+                var path = pathfinder.findPath(unit.getPosition(), order.getDestination(), game, playerId);
+                recomputedPaths++;
+
+                if (path == null) {
+                    log.debug("Remove order without path " + order);
+                    iterator.remove();
+                    removedOrders++;
+                    continue;
+                }
+                order.setPath(unit.getPosition(), path);
+            }
+
+            if (unit.isIdle() && !hasCommands(commandQueue, unit.getId())) scheduleNextSteps(game, unit, order, commandQueue);
+        }
     }
 
-    /**
-     * Adds macroAction to command queue
-     */
-    public void addCommand(MacroAction macroAction, boolean inFront){
-        if(macroAction instanceof DoNothingMacroAction){ doNothing = true; return;};
-        if(!(macroAction instanceof ScheduleNothingMacroAction)) for (var event : macroAction.getAtomicActions()) addCommand(event, inFront);
+    private static boolean hasCommands(CommandQueue commandQueue, UUID unitId) {
+        var queue = commandQueue.getUnitCommandQueue(unitId);
+        return queue != null && !queue.isEmpty();
     }
 
     /**
-     * Remove dead units from command queue
-     * Dead units could still have commands in queue, that's why we have to remove them
+     * Adds the steps of the path to the command queue until the first undiscovered tile
      */
-    public void removeDeadUnits(List<EmpireUnit> unitsByPlayer) {
-        var aliveUnitIds = unitsByPlayer.stream().map(EmpireUnit::getId).collect(Collectors.toSet());
-        var deadUnitsIds = unitCommandQueue.keySet().stream()
-                .filter(id -> !aliveUnitIds.contains(id))
-                .collect(Collectors.toSet());
-
-        for(var deadUnitId : deadUnitsIds) unitCommandQueue.remove(deadUnitId);
-    }
-
-    public Map<UUID, ArrayDeque<EmpireEvent>> getUnitCommandQueue() {
-        return unitCommandQueue;
-    }
-
-    public Map<Position, ArrayDeque<EmpireEvent>> getCityCommandQueue() {
-        return cityCommandQueue;
+    private static void scheduleNextSteps(Empire game, EmpireUnit unit, UnitOrder order, CommandQueue commandQueue) {
+        var tiles = game.getBoard().getEmpireTiles();
+        for (var position : order.getPath()) {
+            if (tiles[position.getY()][position.getX()] == null) break;
+            commandQueue.addMovementCommand(unit.getId(), position);
+        }
     }
 
     @Override
     public String toString() {
-        return "CommandQueue{" +
-                "   unitCommandQueue=" + unitCommandQueue +
-                "   cityCommandQueue=" + cityCommandQueue +
+        return "UnitOrderBook{" +
+                "orders=" + orders.values() +
+                ", recomputedPaths=" + recomputedPaths +
+                ", removedOrders=" + removedOrders +
                 '}';
     }
-
-    private String prettyPrint(Map<?, ArrayDeque<EmpireEvent>> map){
-        StringBuilder s = new StringBuilder();
-        for (Map.Entry<?, ?> entry : map.entrySet()) {
-            s.append(entry.getKey()).append(" : ").append(entry.getValue()).append("\n");
-        }
-
-        return s.toString();
-    }
-
 }
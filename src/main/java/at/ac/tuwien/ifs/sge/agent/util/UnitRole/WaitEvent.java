@@ -4,8 +4,10 @@ import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
 import at.ac.tuwien.ifs.sge.game.empire.map.Position;
 import at.ac.tuwien.ifs.sge.game.empire.model.map.EmpireCity;
 
+import java.io.Serializable;
+
 // Does nothing, but wait if scheduled
-public class WaitEvent implements EmpireEvent {
+public class WaitEvent implements EmpireEvent, Serializable {
 
     private final Position empireCityPosition;
 
@@ -0,0 +1,159 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Linear model which predicts the raw heuristic value of a player at the end of a full rollout
+ * (RolloutSimulator.DEFAULT_SIMULATION_DEPTH steps) from the HeuristicFeatures of a state reached after some steps of it
+ *
+ * With a value function MCTS.simulation() cuts rollouts off after a few steps and quiet states (no combat possible)
+ * are evaluated without a rollout. The weights are fitted offline by the ValueFunctionTrainer on states recorded in
+ * self-play and written to a properties file, its path is set by the system property imperion.valueFunction.
+ * The file also holds the HeuristicWeights of the targets, a value function only fits agents with the same weights.
+ *
+ * evaluate() reads the features directly and allocates nothing, so it can run on the decision thread.
+ */
+public final class ValueFunction {
+
+    public static final String PATH_PROPERTY = "imperion.valueFunction";
+
+    private static final String[] KEYS = {"bias", "occupation", "units", "discovery", "fight", "damageTaken", "enemyUnits", "enemyOccupation", "remaining", "production"};
+
+    public static final int NUMBER_OF_FEATURES = KEYS.length;
+
+    private static final String HEURISTIC_WEIGHTS_PREFIX = "heuristic.";
+
+    private final double[] weights;
+
+    // Weights of the heuristic values the model was fitted to
+    private final HeuristicWeights heuristicWeights;
+
+    public ValueFunction(double[] weights, HeuristicWeights heuristicWeights) {
+        if (weights.length != NUMBER_OF_FEATURES)
+            throw new IllegalArgumentException("Expected " + NUMBER_OF_FEATURES + " weights, got " + weights.length);
+        this.weights = weights.clone();
+        this.heuristicWeights = heuristicWeights;
+    }
+
+    /**
+     * Predicts the raw heuristic value of playerId at the end of a rollout which already ran steps steps
+     */
+    public double evaluate(HeuristicFeatures features, int playerId, int steps) {
+        double value = 0;
+        for (int i = 0; i < NUMBER_OF_FEATURES; i++) value += weights[i] * feature(features, playerId, steps, i);
+        return value;
+    }
+
+    /**
+     * Writes the predicted raw heuristic value of each player into values, which has one entry per player
+     */
+    public double[] evaluate(HeuristicFeatures features, int steps, double[] values) {
+        for (int pid = 0; pid < values.length; pid++) values[pid] = evaluate(features, pid, steps);
+        return values;
+    }
+
+    /**
+     * Writes the feature vector of playerId into out, used to record training samples
+     */
+    public static void features(HeuristicFeatures features, int playerId, int steps, double[] out) {
+        for (int i = 0; i < NUMBER_OF_FEATURES; i++) out[i] = feature(features, playerId, steps, i);
+    }
+
+    /**
+     * Returns true if at most one player has visible units, so a rollout can not contain combat and only
+     * continues movements and productions, which the value function predicts well enough
+     */
+    public static boolean isQuiet(HeuristicFeatures features) {
+        int playersWithUnits = 0;
+        for (int pid = 0; pid < features.getNumberOfPlayers(); pid++)
+            if (features.getUnitCount(pid) > 0) playersWithUnits++;
+        return playersWithUnits <= 1;
+    }
+
+    private static double feature(HeuristicFeatures features, int playerId, int steps, int index) {
+        // Share of the rollout which is left, later steps change the state less
+        double remaining = 1 - Math.min(steps, RolloutSimulator.DEFAULT_SIMULATION_DEPTH + 1) / (RolloutSimulator.DEFAULT_SIMULATION_DEPTH + 1.0);
+
+        return switch (index) {
+            case 0 -> 1;
+            case 1 -> Heuristics.cityOccupationRatio(features, playerId);
+            case 2 -> features.getUnitCount(playerId);
+            case 3 -> Heuristics.mapDiscoveryRatio(features, playerId);
+            case 4 -> Heuristics.fightHeuristic(features, playerId);
+            case 5 -> features.getTotalHealth(playerId) == 0 ? 0 : features.getDamageTaken(playerId) / features.getTotalHealth(playerId);
+            case 6 -> {
+                int enemyUnits = 0;
+                for (int pid = 0; pid < features.getNumberOfPlayers(); pid++) if (pid != playerId) enemyUnits += features.getUnitCount(pid);
+                yield enemyUnits;
+            }
+            case 7 -> {
+                int enemyCities = 0;
+                for (int pid = 0; pid < features.getNumberOfPlayers(); pid++) if (pid != playerId) enemyCities += features.getCityCount(pid);
+                yield features.getVisibleCityCount() == 0 ? 0 : (double) enemyCities / features.getVisibleCityCount();
+            }
+            case 8 -> remaining;
+            // Units the cities of the player can still produce in the rest of the rollout
+            case 9 -> features.getCityCount(playerId) * remaining;
+            default -> throw new IndexOutOfBoundsException(index);
+        };
+    }
+
+    public HeuristicWeights getHeuristicWeights() {
+        return heuristicWeights;
+    }
+
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    /**
+     * Loads the value function file set by the system property imperion.valueFunction, or returns null if it is not set
+     */
+    public static ValueFunction loadConfigured() throws IOException {
+        var path = System.getProperty(PATH_PROPERTY);
+        return path == null ? null : load(Path.of(path));
+    }
+
+    /**
+     * Loads a value function written by save(), missing weights are 0
+     */
+    public static ValueFunction load(Path path) throws IOException {
+        var properties = new Properties();
+        try (var in = Files.newBufferedReader(path)) {
+            properties.load(in);
+        }
+
+        var weights = new double[NUMBER_OF_FEATURES];
+        for (int i = 0; i < KEYS.length; i++) {
+            var value = properties.getProperty(KEYS[i]);
+            if (value != null) weights[i] = Double.parseDouble(value.trim());
+        }
+        return new ValueFunction(weights, HeuristicWeights.fromProperties(properties, HEURISTIC_WEIGHTS_PREFIX));
+    }
+
+    public void save(Path path, String comment) throws IOException {
+        var properties = new Properties();
+        for (int i = 0; i < KEYS.length; i++) properties.setProperty(KEYS[i], Double.toString(weights[i]));
+        heuristicWeights.toProperties(properties, HEURISTIC_WEIGHTS_PREFIX);
+        try (var out = Files.newBufferedWriter(path)) {
+            properties.store(out, comment);
+        }
+    }
+
+    public static String[] featureNames() {
+        return KEYS.clone();
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder("ValueFunction{");
+        for (int i = 0; i < KEYS.length; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(KEYS[i]).append('=').append(weights[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,144 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.agent.Imperion;
+import at.ac.tuwien.ifs.sge.agent.ImperionGameNode;
+import at.ac.tuwien.ifs.sge.agent.util.Snapshot.EmpireSnapshot;
+import at.ac.tuwien.ifs.sge.core.util.tree.DoubleLinkedTree;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs synthetic MCTS iterations on a recorded game (fixture) between the start of the agent and startPlaying(),
+ * so MCTS, BFS and Heuristics are already compiled by the JIT when the first decisions of the match are made
+ *
+ * The warm-up is split into rounds of the length of a decision, the iterations of each round are recorded
+ * to compare the cold first round with the warm later rounds on the same fixture
+ *
+ * Fixtures are EmpireSnapshot files, recorded with imperion.recordFixture at the first decision of a match
+ */
+public class WarmUp implements Runnable {
+
+    private final Imperion agent;
+    private final Empire fixture;
+    private final long roundMs;
+
+    private final Thread thread;
+    private volatile boolean stopped = false;
+
+    private final List<Integer> iterationsPerRound = new ArrayList<>();
+    private long warmUpTimeMs = 0;
+
+    public WarmUp(Imperion agent, Empire fixture, long roundMs) {
+        this.agent = agent;
+        this.fixture = fixture;
+        this.roundMs = roundMs;
+        this.thread = new Thread(this, "imperion-warmup");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the warm-up after the current iteration and waits for it to finish
+     */
+    public void stop() {
+        stopped = true;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        var start = System.currentTimeMillis();
+        var treeSearch = new MCTS(agent);
+
+        while (!stopped) {
+            // Each round is a fresh decision on the fixture
+            var game = (Empire) fixture.copy();
+            treeSearch.getHeuristics().resetHeuristics(game);
+
+            var commandQueues = new CommandQueue[game.getNumberOfPlayers()];
+            for (int i = 0; i < commandQueues.length; i++) commandQueues[i] = new CommandQueue();
+
+            int iterations = 0;
+            try {
+                var gameStateTree = new DoubleLinkedTree<>(new ImperionGameNode(game, agent.getPlayerId(), null, commandQueues, null));
+                long timeForCalculations = System.currentTimeMillis() + roundMs;
+
+                while (!stopped && System.currentTimeMillis() < timeForCalculations) {
+                    var bestLeaf = treeSearch.selection(gameStateTree);
+                    var expandedLeaf = treeSearch.expansion(bestLeaf);
+                    var evaluation = treeSearch.simulation(expandedLeaf, timeForCalculations);
+                    treeSearch.backPropagation(expandedLeaf, evaluation);
+                    iterations++;
+                }
+            } catch (Exception e) {
+                agent.getLogger().debug("Warm-up round failed: " + e);
+            }
+
+            // Only full rounds are comparable to decisions
+            if (!stopped) iterationsPerRound.add(iterations);
+        }
+
+        warmUpTimeMs = System.currentTimeMillis() - start;
+    }
+
+    public int getRounds() {
+        return iterationsPerRound.size();
+    }
+
+    public int getColdIterations() {
+        return iterationsPerRound.isEmpty() ? 0 : iterationsPerRound.get(0);
+    }
+
+    /**
+     * Mean iterations of the rounds after the cold first one
+     */
+    public double getWarmIterations() {
+        if (iterationsPerRound.size() < 2) return getColdIterations();
+        return iterationsPerRound.subList(1, iterationsPerRound.size()).stream().mapToInt(Integer::intValue).average().orElse(0);
+    }
+
+    /**
+     * Iterations per round the warm-up gained over the cold first round, both measured on the fixture
+     */
+    public double getGain() {
+        return getWarmIterations() - getColdIterations();
+    }
+
+    /**
+     * Loads a game which was recorded by saveFixture()
+     */
+    public static Empire loadFixture(Path path) throws IOException {
+        return EmpireSnapshot.read(path).toEmpire();
+    }
+
+    /**
+     * Records game as fixture for later warm-ups, in the view of playerId
+     */
+    public static void saveFixture(Empire game, int playerId, Path path) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            EmpireSnapshot.write(out, game, null, 0, playerId);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WarmUp{" +
+                "rounds=" + getRounds() +
+                ", timeMs=" + warmUpTimeMs +
+                ", coldIterations=" + getColdIterations() +
+                ", warmIterations=" + getWarmIterations() +
+                '}';
+    }
+}
@@ -0,0 +1,103 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.agent.ImperionGameNode;
+import at.ac.tuwien.ifs.sge.core.engine.logging.Logger;
+import at.ac.tuwien.ifs.sge.core.util.tree.DoubleLinkedTree;
+import at.ac.tuwien.ifs.sge.core.util.tree.Tree;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecisionWatchdogTest {
+
+    private static final Logger log = new Logger(1, "[test ", "",
+            "trace]: ", System.out, "", "debug]: ", System.out, "", "info]: ", System.out, "",
+            "warn]: ", System.err, "", "error]: ", System.err, "");
+
+    private final List<ImperionGameNode> sent = new CopyOnWriteArrayList<>();
+    private final DecisionWatchdog watchdog = new DecisionWatchdog(sent::add, log);
+
+    @AfterEach
+    void shutdown() {
+        watchdog.shutdown();
+    }
+
+    @Test
+    void exceptionBetweenClaimAndSendSendsTheClaimedNode() {
+        var root = root();
+        var best = child(root);
+        var claimed = child(root);
+        watchdog.arm(60_000);
+        watchdog.offer(best);
+
+        assertTrue(watchdog.claim(claimed.getNode()));
+        // e.g. the tree export or the order book throws before the actions are sent
+        var fallbackNode = watchdog.sendFallback();
+
+        assertSame(claimed.getNode(), fallbackNode);
+        assertEquals(List.of(claimed.getNode()), sent);
+    }
+
+    @Test
+    void failedSendIsSentByTheFallback() {
+        var claimed = child(root());
+        watchdog.arm(60_000);
+        assertTrue(watchdog.claim(claimed.getNode()));
+
+        assertThrows(IllegalStateException.class, () -> watchdog.send(() -> {
+            throw new IllegalStateException("connection lost");
+        }));
+        assertNull(watchdog.getDecidedNode());
+
+        assertSame(claimed.getNode(), watchdog.sendFallback());
+        assertEquals(List.of(claimed.getNode()), sent);
+    }
+
+    @Test
+    void deadlineAfterClaimSendsTheClaimedNode() throws InterruptedException {
+        var claimed = child(root());
+        watchdog.arm(50);
+        assertTrue(watchdog.claim(claimed.getNode()));
+
+        for (int i = 0; i < 100 && sent.isEmpty(); i++) Thread.sleep(10);
+
+        assertEquals(List.of(claimed.getNode()), sent);
+        assertFalse(watchdog.send(() -> fail("Decision was sent twice")));
+    }
+
+    @Test
+    void sentDecisionIsNotSentAgain() throws InterruptedException {
+        var claimed = child(root());
+        watchdog.arm(50);
+        assertTrue(watchdog.claim(claimed.getNode()));
+        assertTrue(watchdog.send(() -> {}));
+
+        Thread.sleep(150);
+
+        assertTrue(sent.isEmpty());
+        assertSame(claimed.getNode(), watchdog.sendFallback());
+        assertTrue(sent.isEmpty());
+    }
+
+    private static Tree<ImperionGameNode> root() {
+        return new DoubleLinkedTree<>(node());
+    }
+
+    private static Tree<ImperionGameNode> child(Tree<ImperionGameNode> root) {
+        var child = new DoubleLinkedTree<>(node());
+        root.add(child);
+        return child;
+    }
+
+    private static ImperionGameNode node() {
+        var game = TestGames.twoPlayerGame();
+        var units = new UnitIndex();
+        var commandQueues = new CommandQueue[game.getNumberOfPlayers()];
+        for (int i = 0; i < commandQueues.length; i++) commandQueues[i] = new CommandQueue(units);
+        return new ImperionGameNode(game, 0, null, commandQueues, null);
+    }
+}
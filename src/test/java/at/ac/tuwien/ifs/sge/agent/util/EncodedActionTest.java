@@ -0,0 +1,104 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.agent.util.MacroAction.WaitEvent;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.CombatStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.MovementStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.ProductionStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.CombatStopOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.MovementStopOrder;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.stop.ProductionStopOrder;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EncodedActionTest {
+
+    private final UnitIndex units = new UnitIndex();
+    private final UUID unitId = UUID.randomUUID();
+
+    @Test
+    void fieldsRoundTripAtTheirLimits() {
+        long action = EncodedAction.encode(EncodedAction.COMBAT_STOP, (1 << 28) - 1, 0xFFFF, 0xFFFF);
+
+        assertEquals(EncodedAction.COMBAT_STOP, EncodedAction.kind(action));
+        assertEquals((1 << 28) - 1, EncodedAction.unit(action));
+        assertEquals(0xFFFF, EncodedAction.x(action));
+        assertEquals(0xFFFF, EncodedAction.y(action));
+    }
+
+    @Test
+    void movementStartRoundTrips() {
+        long action = EncodedAction.encode(new MovementStartOrder(unitId, new Position(3, 4)), units);
+        var decoded = (MovementStartOrder) EncodedAction.decode(action, units);
+
+        assertEquals(EncodedAction.MOVEMENT_START, EncodedAction.kind(action));
+        assertTrue(EncodedAction.isUnitAction(action));
+        assertEquals(unitId, decoded.getUnitId());
+        assertEquals(new Position(3, 4), decoded.getDestination());
+    }
+
+    @Test
+    void combatStartRoundTrips() {
+        long action = EncodedAction.encode(new CombatStartOrder(unitId, new Position(5, 6)), units);
+        var decoded = (CombatStartOrder) EncodedAction.decode(action, units);
+
+        assertEquals(EncodedAction.COMBAT_START, EncodedAction.kind(action));
+        assertTrue(EncodedAction.isUnitAction(action));
+        assertEquals(unitId, decoded.getAttackerId());
+        assertEquals(new Position(5, 6), decoded.getTargetPosition());
+    }
+
+    @Test
+    void productionStartRoundTrips() {
+        long action = EncodedAction.encode(new ProductionStartOrder(new Position(1, 1), 3), units);
+        var decoded = (ProductionStartOrder) EncodedAction.decode(action, units);
+
+        assertEquals(EncodedAction.PRODUCTION_START, EncodedAction.kind(action));
+        assertFalse(EncodedAction.isUnitAction(action));
+        assertEquals(3, decoded.getUnitTypeId());
+        assertEquals(new Position(1, 1), decoded.getCityPosition());
+    }
+
+    @Test
+    void waitRoundTrips() {
+        long action = EncodedAction.encode(new WaitEvent(new Position(7, 2)), units);
+        var decoded = (WaitEvent) EncodedAction.decode(action, units);
+
+        assertEquals(EncodedAction.WAIT, EncodedAction.kind(action));
+        assertFalse(EncodedAction.isUnitAction(action));
+        assertEquals(new Position(7, 2), decoded.getEmpireCityPosition());
+    }
+
+    @Test
+    void stopOrdersRoundTrip() {
+        long movementStop = EncodedAction.encode(new MovementStopOrder(unitId), units);
+        long productionStop = EncodedAction.encode(new ProductionStopOrder(new Position(2, 2)), units);
+        long combatStop = EncodedAction.encode(new CombatStopOrder(unitId), units);
+
+        assertEquals(unitId, ((MovementStopOrder) EncodedAction.decode(movementStop, units)).getUnitId());
+        assertEquals(new Position(2, 2), ((ProductionStopOrder) EncodedAction.decode(productionStop, units)).getCityPosition());
+        assertEquals(unitId, ((CombatStopOrder) EncodedAction.decode(combatStop, units)).getUnitId());
+        assertTrue(EncodedAction.isUnitAction(movementStop));
+        assertFalse(EncodedAction.isUnitAction(productionStop));
+        assertTrue(EncodedAction.isUnitAction(combatStop));
+    }
+
+    @Test
+    void unitsAreInternedOnce() {
+        long first = EncodedAction.encode(new MovementStartOrder(unitId, new Position(0, 0)), units);
+        long second = EncodedAction.encode(new CombatStopOrder(unitId), units);
+        long other = EncodedAction.encode(new MovementStopOrder(UUID.randomUUID()), units);
+
+        assertEquals(EncodedAction.unit(first), EncodedAction.unit(second));
+        assertNotEquals(EncodedAction.unit(first), EncodedAction.unit(other));
+    }
+
+    @Test
+    void noneDecodesToNull() {
+        assertNull(EncodedAction.decode(EncodedAction.NONE, units));
+        assertEquals("none", EncodedAction.toString(EncodedAction.NONE));
+    }
+}
@@ -0,0 +1,48 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluationCacheTest {
+
+    @Test
+    void equalFeaturesHitTheCache() {
+        var cache = new EvaluationCache(64);
+        var features = HeuristicFeatures.of(TestGames.twoPlayerGame());
+
+        var values = cache.getHeuristicValues(features);
+        assertSame(values, cache.getHeuristicValues(HeuristicFeatures.of(TestGames.twoPlayerGame())));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate());
+        assertArrayEquals(Heuristics.determineHeuristicValues(features, HeuristicWeights.DEFAULT), values);
+    }
+
+    @Test
+    void cacheIsBounded() {
+        var cache = new EvaluationCache(32);
+        for (int i = 0; i < 1000; i++) cache.getHeuristicValues(features(i));
+
+        assertTrue(cache.size() <= 32);
+        assertEquals(1000, cache.getMisses());
+    }
+
+    @Test
+    void resetStatisticsKeepsTheEntries() {
+        var cache = new EvaluationCache(64);
+        cache.getHeuristicValues(features(1));
+        cache.resetStatistics();
+
+        assertEquals(0, cache.getHitRate());
+        cache.getHeuristicValues(features(1));
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    private static HeuristicFeatures features(int discovered) {
+        return new HeuristicFeatures(new int[]{2, 2}, new int[]{1, 1}, new int[]{discovered, 10},
+                new double[]{0, 0}, new double[]{20, 20}, 2, 96);
+    }
+}
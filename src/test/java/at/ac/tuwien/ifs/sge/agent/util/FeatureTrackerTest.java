@@ -0,0 +1,47 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeatureTrackerTest {
+
+    @Test
+    void trackedFeaturesMatchARescanAfterACapture() {
+        var start = TestGames.twoPlayerGame();
+        var tracker = new FeatureTracker(start, HeuristicFeatures.of(start));
+
+        // Player 0 takes the city of player 1 and one of its units is wounded on the way
+        var game = (Empire) start.copy();
+        game.getCitiesByPosition().get(new Position(TestGames.WIDTH - 2, TestGames.HEIGHT - 2)).setPlayerId(0);
+        game.getUnitsByPlayer(0).get(0).setHp(4);
+        tracker.visit(game);
+
+        var tracked = tracker.toFeatures(game);
+        assertEquals(HeuristicFeatures.of(game), tracked);
+        assertEquals(2, tracked.getCityCount(0));
+        assertEquals(0, tracked.getCityCount(1));
+    }
+
+    @Test
+    void trackedFeaturesMatchARescanAfterARollout() {
+        var start = TestGames.twoPlayerGame();
+        var tracker = new FeatureTracker(start, HeuristicFeatures.of(start));
+
+        var game = (Empire) start.copy();
+        var commandQueues = new CommandQueue[game.getNumberOfPlayers()];
+        var units = new UnitIndex();
+        for (int pid = 0; pid < commandQueues.length; pid++) commandQueues[pid] = new CommandQueue(units);
+        var unit = game.getUnitsByPlayer(0).get(0);
+        for (int x = unit.getPosition().getX() + 1; x < TestGames.WIDTH - 3; x++) commandQueues[0].addMovementCommand(unit.getId(), new Position(x, unit.getPosition().getY()));
+
+        var steps = new RolloutSimulator().simulate(game, commandQueues, 0, Long.MAX_VALUE, new Random(1), null, 8, tracker);
+
+        assertTrue(steps > 0);
+        assertEquals(HeuristicFeatures.of(game), tracker.toFeatures(game));
+    }
+}
@@ -0,0 +1,51 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.core.EmpireConfiguration;
+import at.ac.tuwien.ifs.sge.game.empire.map.EmpireMap;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.map.EmpireTile;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HierarchicalPathfinderTest {
+
+    private static final int SIZE = 20;
+
+    @Test
+    void diagonalCrossingOfAClusterCornerFallsBackToBfs() {
+        var game = cornerGame();
+        var pathfinder = new HierarchicalPathfinder(TerrainIndex.of(game));
+
+        var destination = new Position(17, 17);
+        var path = pathfinder.findPath(new Position(2, 2), destination, game, 0);
+
+        assertNotNull(path);
+        assertEquals(destination, path.get(path.size() - 1));
+        assertTrue(path.contains(new Position(9, 9)));
+        assertTrue(path.contains(new Position(10, 10)));
+    }
+
+    /**
+     * Grass map split into four clusters by mountains, the north-west and the south-east cluster are only connected by
+     * the diagonal step from (9, 9) to (10, 10)
+     */
+    private static Empire cornerGame() {
+        var tiles = new EmpireTile[SIZE][SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                boolean wall = (x == 10 && y < 10) || (x == 9 && y >= 10) || (y == 10 && x < 10) || (y == 9 && x >= 10);
+                tiles[y][x] = new EmpireTile(new Position(x, y), wall ? 'm' : 'g', wall ? 0 : 1);
+            }
+        }
+
+        var board = new EmpireMap(tiles, 1);
+        for (int y = 0; y < SIZE; y++)
+            for (int x = 0; x < SIZE; x++) board.getDiscoveredByPosition().put(new Position(x, y), new boolean[]{true});
+
+        return new Empire(new EmpireConfiguration(List.of(TestGames.INFANTRY)), board, 1);
+    }
+}
@@ -0,0 +1,49 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.agent.util.UnitRole.MoveUnitOrder;
+import at.ac.tuwien.ifs.sge.agent.util.UnitRole.OrderType;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MacroActionKeyTest {
+
+    @Test
+    void keysWithEqualFieldsAreEqual() {
+        var key = new MacroActionKey(OrderType.MOVE, EncodedAction.MOVEMENT_START, 3, 4, 1, null);
+        var same = new MacroActionKey(OrderType.MOVE, EncodedAction.MOVEMENT_START, 3, 4, 1, null);
+
+        assertEquals(key, same);
+        assertEquals(key.hashCode(), same.hashCode());
+        assertNotEquals(key, new MacroActionKey(OrderType.MOVE, EncodedAction.MOVEMENT_START, 3, 5, 1, null));
+        assertNotEquals(key, new MacroActionKey(OrderType.MOVE, EncodedAction.MOVEMENT_START, 3, 4, 2, null));
+        assertNotEquals(key, new MacroActionKey(OrderType.EXPANSION, EncodedAction.MOVEMENT_START, 3, 4, 1, null));
+    }
+
+    @Test
+    void ordersOfUnitsOfTheSameTypeToTheSameDestinationAreEqual() {
+        var game = TestGames.twoPlayerGame();
+        var units = new UnitIndex();
+        var first = game.getUnitsByPlayer(0).get(0);
+        var second = game.getUnitsByPlayer(0).get(1);
+        var destination = new Position(5, 3);
+
+        var firstKey = MacroActionKey.of(null, game, new MoveUnitOrder(first.getId(), destination, first.getPosition(), List.of()), units);
+        var secondKey = MacroActionKey.of(null, game, new MoveUnitOrder(second.getId(), destination, second.getPosition(), List.of()), units);
+        var elsewhere = MacroActionKey.of(null, game, new MoveUnitOrder(second.getId(), new Position(6, 3), second.getPosition(), List.of()), units);
+
+        assertEquals(firstKey, secondKey);
+        assertEquals(TestGames.INFANTRY.getUnitTypeId(), firstKey.unitClass());
+        assertNotEquals(firstKey, elsewhere);
+    }
+
+    @Test
+    void keyWithoutActionAndOrderIsEmpty() {
+        var key = MacroActionKey.of(null, TestGames.twoPlayerGame(), null, new UnitIndex());
+
+        assertEquals(new MacroActionKey(null, EncodedAction.NONE, MacroActionKey.NONE, MacroActionKey.NONE, MacroActionKey.NONE, null), key);
+    }
+}
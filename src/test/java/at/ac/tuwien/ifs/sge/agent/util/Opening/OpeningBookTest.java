@@ -0,0 +1,80 @@
+package at.ac.tuwien.ifs.sge.agent.util.Opening;
+
+import at.ac.tuwien.ifs.sge.agent.util.TestGames;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpeningBookTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void findsEveryWrittenEntry() throws IOException {
+        var entries = List.of(
+                new OpeningBook.Entry(2, 7, 100, 1, 50),
+                new OpeningBook.Entry(-5, 3, 101, 2, 40),
+                new OpeningBook.Entry(2, -1, 102, -1, 30),
+                new OpeningBook.Entry(Long.MAX_VALUE, Long.MIN_VALUE, 103, 0, 20));
+        var path = directory.resolve("book");
+        OpeningBook.write(path, entries);
+
+        try (var book = OpeningBook.open(path)) {
+            assertEquals(entries.size(), book.size());
+            for (var entry : entries) {
+                int index = book.find(entry.mapKey(), entry.stateKey());
+                assertTrue(index >= 0, "Entry " + entry + " not found");
+                assertEquals(entry.visits(), book.getVisits(index));
+            }
+            assertEquals(-1, book.find(2, 8));
+            assertEquals(-1, book.find(3, 7));
+        }
+    }
+
+    @Test
+    void keepsTheMostVisitedEntryOfAState() throws IOException {
+        var path = directory.resolve("book");
+        OpeningBook.write(path, List.of(new OpeningBook.Entry(1, 1, 100, 1, 10), new OpeningBook.Entry(1, 1, 200, 2, 90), new OpeningBook.Entry(1, 1, 300, 3, 20)));
+
+        try (var book = OpeningBook.open(path)) {
+            assertEquals(1, book.size());
+            assertEquals(90, book.getVisits(book.find(1, 1)));
+        }
+    }
+
+    @Test
+    void emptyBookFindsNothing() throws IOException {
+        var path = directory.resolve("book");
+        OpeningBook.write(path, List.of());
+
+        try (var book = OpeningBook.open(path)) {
+            assertEquals(0, book.size());
+            assertEquals(-1, book.find(0, 0));
+        }
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        var path = directory.resolve("book");
+        Files.write(path, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+
+        assertThrows(IOException.class, () -> OpeningBook.open(path));
+    }
+
+    @Test
+    void stateKeyDependsOnThePlayerButNotOnTheCopy() {
+        var game = TestGames.twoPlayerGame();
+
+        assertEquals(OpeningBook.stateKey(game, 0), OpeningBook.stateKey((Empire) game.copy(), 0));
+        assertNotEquals(OpeningBook.stateKey(game, 0), OpeningBook.stateKey(game, 1));
+        assertEquals(OpeningBook.mapKey(game, 0), OpeningBook.mapKey(game, 1));
+    }
+}
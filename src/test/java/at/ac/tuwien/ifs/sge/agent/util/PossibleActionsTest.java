@@ -0,0 +1,89 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.agent.ImperionGameNode;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.EmpireEvent;
+import at.ac.tuwien.ifs.sge.game.empire.communication.event.order.start.CombatStartOrder;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PossibleActionsTest {
+
+    @Test
+    void adjacentEnemyIsAttackedExactlyOnceWithTheMemoOfTheNode() throws Exception {
+        var game = gameWithAdjacentEnemy();
+        var node = node(game);
+        var attacker = attacker(game);
+
+        assertEquals(1, node.getPossibleActions().getCombatOrders(attacker.getId()).size());
+        assertEquals(1, combatOrdersOf(attacker, schedule(game, node.getPossibleActions())));
+    }
+
+    @Test
+    void adjacentEnemyIsAttackedExactlyOnceWithoutAMemo() throws Exception {
+        var game = gameWithAdjacentEnemy();
+        var attacker = attacker(game);
+
+        assertEquals(1, combatOrdersOf(attacker, schedule(game, null)));
+    }
+
+    @Test
+    void combatOrdersAreNotAlsoSingletonMacroActions() {
+        var game = gameWithAdjacentEnemy();
+        var node = node(game);
+
+        assertTrue(node.getPossibleActions().getOtherActions().stream().noneMatch(action -> action instanceof CombatStartOrder));
+        for (var macroAction : node.getPossiblePrunedActions(0)) {
+            var atomicActions = macroAction.getAtomicActions();
+            if (atomicActions != null) assertTrue(atomicActions.stream().noneMatch(action -> action instanceof CombatStartOrder));
+        }
+    }
+
+    /**
+     * Schedules the queued movement of the attacker on a copy of game with possibleActions (null to compute them)
+     */
+    private static List<EmpireEvent> schedule(Empire game, PossibleActions possibleActions) throws Exception {
+        var copy = (Empire) game.copy();
+        var commandQueues = commandQueues(copy);
+        var attacker = attacker(copy);
+        commandQueues[0].addMovementCommand(attacker.getId(), new Position(0, 2));
+
+        var scheduled = new RolloutSimulator().scheduleAndAdvance(commandQueues, copy, 0, new Random(1), possibleActions);
+        return scheduled != null ? scheduled : List.of();
+    }
+
+    private static long combatOrdersOf(EmpireUnit attacker, List<EmpireEvent> events) {
+        return events.stream().filter(event -> event instanceof CombatStartOrder combat && combat.getAttackerId().equals(attacker.getId())).count();
+    }
+
+    /**
+     * The two player game with an infantry unit of player 1 south of the unit of player 0 at (1, 2)
+     */
+    private static Empire gameWithAdjacentEnemy() {
+        var game = TestGames.twoPlayerGame();
+        game.addUnit(new EmpireUnit(TestGames.INFANTRY, UUID.randomUUID(), 1, new Position(1, 3)));
+        return game;
+    }
+
+    private static EmpireUnit attacker(Empire game) {
+        return game.getUnitsByPlayer(0).stream().filter(unit -> unit.getPosition().equals(new Position(1, 2))).findFirst().orElseThrow();
+    }
+
+    private static ImperionGameNode node(Empire game) {
+        return new ImperionGameNode(game, 0, null, commandQueues(game), null);
+    }
+
+    private static CommandQueue[] commandQueues(Empire game) {
+        var units = new UnitIndex();
+        var commandQueues = new CommandQueue[game.getNumberOfPlayers()];
+        for (int i = 0; i < commandQueues.length; i++) commandQueues[i] = new CommandQueue(units);
+        return commandQueues;
+    }
+}
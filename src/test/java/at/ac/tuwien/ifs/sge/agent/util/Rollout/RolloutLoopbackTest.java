@@ -0,0 +1,181 @@
+package at.ac.tuwien.ifs.sge.agent.util.Rollout;
+
+import at.ac.tuwien.ifs.sge.agent.Imperion;
+import at.ac.tuwien.ifs.sge.agent.ImperionGameNode;
+import at.ac.tuwien.ifs.sge.agent.util.CommandQueue;
+import at.ac.tuwien.ifs.sge.agent.util.CpuBudget;
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicFeatures;
+import at.ac.tuwien.ifs.sge.agent.util.HeuristicWeights;
+import at.ac.tuwien.ifs.sge.agent.util.Heuristics;
+import at.ac.tuwien.ifs.sge.agent.util.InfluenceMap;
+import at.ac.tuwien.ifs.sge.agent.util.MCTS;
+import at.ac.tuwien.ifs.sge.agent.util.RolloutSimulator;
+import at.ac.tuwien.ifs.sge.agent.util.SearchContext;
+import at.ac.tuwien.ifs.sge.agent.util.SearchPool;
+import at.ac.tuwien.ifs.sge.agent.util.TerrainIndex;
+import at.ac.tuwien.ifs.sge.agent.util.TestGames;
+import at.ac.tuwien.ifs.sge.agent.util.UnitIndex;
+import at.ac.tuwien.ifs.sge.core.engine.logging.Logger;
+import at.ac.tuwien.ifs.sge.core.util.tree.DoubleLinkedTree;
+import at.ac.tuwien.ifs.sge.core.util.tree.Tree;
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the rollouts of the children of a root locally and through rollout workers in this process and checks that
+ * the workers return the same heuristic values
+ *
+ * The children carry the command queues their macro actions planned, the units of the test game are too far apart
+ * to fight, so the rollouts draw no random choices and are deterministic.
+ */
+class RolloutLoopbackTest {
+
+    private static final long ROLLOUT_TIMEOUT_MS = 30_000;
+
+    private static final Logger log = new Logger(1, "[test ", "",
+            "trace]: ", System.out, "", "debug]: ", System.out, "", "info]: ", System.out, "",
+            "warn]: ", System.err, "", "error]: ", System.err, "");
+
+    @TempDir
+    Path socketDirectory;
+
+    private final List<RolloutWorker> workers = new ArrayList<>();
+    private SearchPool searchPool;
+
+    @BeforeEach
+    void createSearchPool() {
+        searchPool = new SearchPool(1);
+    }
+
+    @AfterEach
+    void closeWorkers() {
+        for (var worker : workers) worker.close();
+        searchPool.shutdown();
+    }
+
+    @Test
+    void workersOverUnixSocketsReturnTheLocalValues() throws Exception {
+        assertWorkersReturnTheLocalValues(List.of(
+                UnixDomainSocketAddress.of(socketDirectory.resolve("worker-0.sock")),
+                UnixDomainSocketAddress.of(socketDirectory.resolve("worker-1.sock"))), RolloutSimulator.DEFAULT_SIMULATION_DEPTH + 1);
+    }
+
+    @Test
+    void workersOverTcpReturnTheLocalValues() throws Exception {
+        assertWorkersReturnTheLocalValues(List.of(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)), RolloutSimulator.DEFAULT_SIMULATION_DEPTH + 1);
+    }
+
+    @Test
+    void workersCutRolloutsOffAfterTheStepsOfTheRequest() throws Exception {
+        assertWorkersReturnTheLocalValues(List.of(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)), 1);
+    }
+
+    @Test
+    void snapshotOfALeafKeepsUnitsAndCommandQueues() throws IOException {
+        var leaves = plannedLeaves();
+        for (var leaf : leaves) {
+            var node = leaf.getNode();
+            var state = RolloutProtocol.readState(RolloutProtocol.writeState(node.getGameState(), node.copyCommandQueues(), node.getNextPlayerId()));
+
+            for (int pid = 0; pid < node.getGameState().getNumberOfPlayers(); pid++) {
+                assertEquals(node.getGameState().getUnitsByPlayer(pid).size(), state.game().getUnitsByPlayer(pid).size());
+                for (var unit : node.getGameState().getUnitsByPlayer(pid))
+                    assertEquals(unit.getPosition(), state.game().getUnit(unit.getId()).getPosition());
+                assertEquals(node.getCommandQueues()[pid].isEmpty(), state.commandQueues()[pid].isEmpty());
+            }
+        }
+    }
+
+    private void assertWorkersReturnTheLocalValues(List<SocketAddress> addresses, int maxSteps) throws Exception {
+        var workerAddresses = new ArrayList<String>();
+        for (var address : addresses) {
+            var worker = new RolloutWorker(address, 1, HeuristicWeights.DEFAULT, null);
+            worker.start();
+            workers.add(worker);
+            workerAddresses.add(RolloutProtocol.formatAddress(worker.getAddress()));
+        }
+
+        var leaves = plannedLeaves();
+        assertTrue(leaves.stream().anyMatch(leaf -> !leaf.getNode().getCommandQueues()[0].isEmpty()), "No child of the root planned commands");
+
+        // The workers roll out the leaf as it is read from its snapshot, so the local rollouts do as well
+        var simulator = new RolloutSimulator();
+        var expected = new double[leaves.size()][];
+        for (int i = 0; i < leaves.size(); i++) {
+            var node = leaves.get(i).getNode();
+            var state = RolloutProtocol.readState(RolloutProtocol.writeState(node.getGameState(), node.copyCommandQueues(), node.getNextPlayerId()));
+            var game = state.game();
+            simulator.simulate(game, state.commandQueues(), node.getNextPlayerId(), Long.MAX_VALUE, new Random(), null, maxSteps);
+            expected[i] = game.isGameOver() ? new double[game.getNumberOfPlayers()] : Heuristics.determineHeuristicValues(HeuristicFeatures.of(game), HeuristicWeights.DEFAULT);
+        }
+
+        var received = new double[leaves.size()][];
+        try (var coordinator = new RolloutCoordinator<Integer>(workerAddresses, 2)) {
+            long deadline = System.currentTimeMillis() + ROLLOUT_TIMEOUT_MS;
+            int collected = 0;
+            for (int i = 0; i < leaves.size(); i++) {
+                var node = leaves.get(i).getNode();
+                assertTrue(coordinator.submit(i, node.getGameState(), node.copyCommandQueues(), node.getNextPlayerId(), maxSteps, deadline), "Rollout " + i + " could not be submitted");
+                for (var result : coordinator.collect(deadline)) {
+                    assertFalse(result.failed(), "Rollout " + result.key() + " failed");
+                    received[result.key()] = result.heuristicValues();
+                    collected++;
+                }
+            }
+            while (collected < leaves.size() && System.currentTimeMillis() < deadline) {
+                var results = coordinator.collect(deadline);
+                if (results.isEmpty()) Thread.sleep(1);
+                for (var result : results) {
+                    assertFalse(result.failed(), "Rollout " + result.key() + " failed");
+                    received[result.key()] = result.heuristicValues();
+                    collected++;
+                }
+            }
+        }
+
+        for (int i = 0; i < leaves.size(); i++) {
+            assertNotNull(received[i], "Rollout " + i + " returned no result");
+            assertArrayEquals(expected[i], received[i], "Rollout " + i);
+        }
+    }
+
+    /**
+     * Children of the expanded root of player 0, like the leaves the agent sends to the workers in its first iterations
+     */
+    private List<Tree<ImperionGameNode>> plannedLeaves() {
+        Empire game = TestGames.twoPlayerGame();
+        var units = new UnitIndex();
+        var commandQueues = new CommandQueue[game.getNumberOfPlayers()];
+        for (int i = 0; i < commandQueues.length; i++) commandQueues[i] = new CommandQueue(units);
+
+        var terrain = TerrainIndex.of(game);
+        var influenceMap = InfluenceMap.of(game);
+        var context = new SearchContext(new BitSet(), terrain, Imperion.createPathfinder(terrain), influenceMap, null);
+
+        var treeSearch = new MCTS(0, log, HeuristicWeights.DEFAULT, null, (g1, g2) -> 0, searchPool, new CpuBudget(1000));
+        treeSearch.getHeuristics().resetHeuristics(influenceMap.toFeatures());
+
+        var root = new DoubleLinkedTree<>(new ImperionGameNode(game, 0, null, commandQueues, null, context));
+        treeSearch.expansion(root, false);
+        assertFalse(root.getChildren().isEmpty());
+        return new ArrayList<>(root.getChildren());
+    }
+}
@@ -0,0 +1,55 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.game.empire.core.Empire;
+import at.ac.tuwien.ifs.sge.game.empire.core.EmpireConfiguration;
+import at.ac.tuwien.ifs.sge.game.empire.map.EmpireMap;
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import at.ac.tuwien.ifs.sge.game.empire.model.map.EmpireCity;
+import at.ac.tuwien.ifs.sge.game.empire.model.map.EmpireTile;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnit;
+import at.ac.tuwien.ifs.sge.game.empire.model.units.EmpireUnitType;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Small games for tests, built the way EmpireSnapshot.toEmpire() builds a game
+ */
+public final class TestGames {
+
+    public static final int WIDTH = 12;
+    public static final int HEIGHT = 8;
+
+    public static final EmpireUnitType INFANTRY = new EmpireUnitType(1, "Infantry", 10, 1, 3, 1, 0.75, 2, 10, 1);
+    public static final EmpireUnitType CAVALRY = new EmpireUnitType(2, "Cavalry", 5, 1, 2, 1, 0.75, 3, 8, 2);
+
+    private TestGames() {}
+
+    /**
+     * Grass map with a city in the west for player 0 and one in the east for player 1, both players see the whole map
+     * Each player has two infantry units next to its city, the units of the players are too far apart to fight
+     */
+    public static Empire twoPlayerGame() {
+        var tiles = new EmpireTile[HEIGHT][WIDTH];
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++) tiles[y][x] = new EmpireTile(new Position(x, y), 'g', 1);
+
+        var westCity = new EmpireCity(new Position(1, 1), 2);
+        westCity.setPlayerId(0);
+        tiles[1][1] = westCity;
+        var eastCity = new EmpireCity(new Position(WIDTH - 2, HEIGHT - 2), 2);
+        eastCity.setPlayerId(1);
+        tiles[HEIGHT - 2][WIDTH - 2] = eastCity;
+
+        var board = new EmpireMap(tiles, 2);
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++) board.getDiscoveredByPosition().put(new Position(x, y), new boolean[]{true, true});
+
+        var game = new Empire(new EmpireConfiguration(List.of(INFANTRY, CAVALRY)), board, 2);
+        game.addUnit(new EmpireUnit(INFANTRY, UUID.randomUUID(), 0, new Position(1, 2)));
+        game.addUnit(new EmpireUnit(INFANTRY, UUID.randomUUID(), 0, new Position(2, 1)));
+        game.addUnit(new EmpireUnit(INFANTRY, UUID.randomUUID(), 1, new Position(WIDTH - 2, HEIGHT - 3)));
+        game.addUnit(new EmpireUnit(INFANTRY, UUID.randomUUID(), 1, new Position(WIDTH - 3, HEIGHT - 2)));
+        return game;
+    }
+}
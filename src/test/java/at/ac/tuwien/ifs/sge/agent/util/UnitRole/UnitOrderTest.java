@@ -0,0 +1,49 @@
+package at.ac.tuwien.ifs.sge.agent.util.UnitRole;
+
+import at.ac.tuwien.ifs.sge.game.empire.map.Position;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnitOrderTest {
+
+    @Test
+    void nextStepsAdvanceThePath() {
+        var order = straightOrder(8);
+
+        assertTrue(order.advanceTo(new Position(0, 0)));
+        assertEquals(8, order.getPath().size());
+        assertTrue(order.advanceTo(new Position(1, 0)));
+        assertTrue(order.advanceTo(new Position(4, 0)));
+        assertEquals(new Position(5, 0), order.getPath().peekFirst());
+    }
+
+    @Test
+    void jumpAheadIsADeviation() {
+        var order = straightOrder(8);
+
+        assertFalse(order.advanceTo(new Position(UnitOrder.MAX_STEPS_BETWEEN_UPDATES + 1, 0)));
+        assertEquals(8, order.getPath().size());
+    }
+
+    @Test
+    void walkingBackIsADeviation() {
+        var order = straightOrder(8);
+        assertTrue(order.advanceTo(new Position(2, 0)));
+
+        assertFalse(order.advanceTo(new Position(1, 0)));
+        assertFalse(order.advanceTo(new Position(2, 1)));
+        assertEquals(new Position(3, 0), order.getPath().peekFirst());
+    }
+
+    // Path from (0, 0) along the first row, without the origin
+    private static UnitOrder straightOrder(int length) {
+        var path = new ArrayList<Position>();
+        for (int x = 1; x <= length; x++) path.add(new Position(x, 0));
+        return new MoveUnitOrder(UUID.randomUUID(), new Position(length, 0), new Position(0, 0), List.copyOf(path));
+    }
+}
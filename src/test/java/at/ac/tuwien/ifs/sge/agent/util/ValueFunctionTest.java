@@ -0,0 +1,109 @@
+package at.ac.tuwien.ifs.sge.agent.util;
+
+import at.ac.tuwien.ifs.sge.agent.util.Tuning.ValueFunctionTrainer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueFunctionTest {
+
+    private static final double[] WEIGHTS = {5, 120, 8, 250, 90, -30, -4, -60, 15, 2};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void fitRecoversTheWeightsOfNoiseFreeSamples() throws IOException {
+        var samples = directory.resolve("samples.csv");
+        writeSamples(samples, 2000, new Random(1));
+
+        var fitted = ValueFunctionTrainer.fit(samples).getWeights();
+
+        for (int i = 0; i < WEIGHTS.length; i++) assertEquals(WEIGHTS[i], fitted[i], 1e-2, "weight " + ValueFunction.featureNames()[i]);
+    }
+
+    @Test
+    void fitCopiesTheHeuristicWeights() throws IOException {
+        var samples = directory.resolve("samples.csv");
+        writeSamples(samples, 100, new Random(2));
+
+        assertEquals(HeuristicWeights.DEFAULT, ValueFunctionTrainer.fit(samples).getHeuristicWeights());
+    }
+
+    @Test
+    void fitRejectsSamplesWithoutWeights() throws IOException {
+        var samples = directory.resolve("samples.csv");
+        Files.writeString(samples, String.join(",", ValueFunction.featureNames()) + ",target\n");
+
+        assertThrows(IOException.class, () -> ValueFunctionTrainer.fit(samples));
+    }
+
+    @Test
+    void loadReturnsTheSavedValueFunction() throws IOException {
+        var weights = new HeuristicWeights(1, 2, 3, 4);
+        var path = directory.resolve("valueFunction.properties");
+        new ValueFunction(WEIGHTS, weights).save(path, "test");
+
+        var loaded = ValueFunction.load(path);
+
+        assertArrayEquals(WEIGHTS, loaded.getWeights());
+        assertEquals(weights, loaded.getHeuristicWeights());
+
+        var features = new HeuristicFeatures(new int[]{3, 1}, new int[]{1, 0}, new int[]{20, 5}, new double[]{2, 0}, new double[]{25, 10}, 2, 96);
+        var original = new ValueFunction(WEIGHTS, weights);
+        for (int pid = 0; pid < 2; pid++) assertEquals(original.evaluate(features, pid, 3), loaded.evaluate(features, pid, 3));
+    }
+
+    @Test
+    void loadTreatsMissingWeightsAsZero() throws IOException {
+        var path = directory.resolve("valueFunction.properties");
+        Files.writeString(path, "bias=1.5\nunits=2\n");
+
+        var weights = ValueFunction.load(path).getWeights();
+
+        assertEquals(1.5, weights[0]);
+        assertEquals(2, weights[2]);
+        assertEquals(0, weights[1]);
+    }
+
+    @Test
+    void rejectsWrongNumberOfWeights() {
+        assertThrows(IllegalArgumentException.class, () -> new ValueFunction(new double[3], HeuristicWeights.DEFAULT));
+    }
+
+    /**
+     * Writes samples in the format of ValueFunctionTrainer.record(), the target is the value of WEIGHTS
+     */
+    private static void writeSamples(Path path, int count, Random random) throws IOException {
+        var lines = new ArrayList<String>();
+        lines.add("# heuristicWeights=" + joined(HeuristicWeights.DEFAULT.toArray()));
+        lines.add(String.join(",", ValueFunction.featureNames()) + ",target");
+
+        var sample = new double[WEIGHTS.length + 1];
+        for (int row = 0; row < count; row++) {
+            sample[0] = 1;
+            for (int i = 1; i < WEIGHTS.length; i++) sample[i] = random.nextDouble() * 10;
+            double target = 0;
+            for (int i = 0; i < WEIGHTS.length; i++) target += WEIGHTS[i] * sample[i];
+            sample[WEIGHTS.length] = target;
+            lines.add(joined(sample));
+        }
+        Files.write(path, lines);
+    }
+
+    private static String joined(double[] values) {
+        var builder = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(values[i]);
+        }
+        return builder.toString();
+    }
+}